@@ -65,6 +65,37 @@ function jump(link) {
 // enable comment frame
 setInterval(parseHash, 1000);
 
+// events.js: счетчик уведомлений обновляется через long-poll /notify
+
+function showEvents(count) {
+  var link = $('#events_link');
+
+  link.attr('data-count', count);
+  link.text(count > 0 ? 'Уведомления (' + count + ')' : 'Уведомления');
+}
+
+function pollEvents() {
+  var link = $('#events_link');
+
+  $.ajax({
+    url: '/notify',
+    data: { token: link.attr('data-token'), count: link.attr('data-count') },
+    dataType: 'json',
+    cache: false,
+    timeout: 90000,
+    success: function(data) {
+      showEvents(data.unread);
+      setTimeout(pollEvents, 1000);
+    },
+    error: function(xhr) {
+      // 403 - токен истек, ждать бесполезно до перезагрузки страницы
+      if (xhr.status != 403) {
+        setTimeout(pollEvents, 60000);
+      }
+    }
+  });
+}
+
 $(document).ready(function() {
   var options = {
     success: function(xml) {
@@ -84,6 +115,17 @@ $(document).ready(function() {
 
   $('#regform').ajaxForm(options);
 
+  if ($('#events_link').length) {
+    $('#events_link').removeAttr('onclick').bind('click', function(e) {
+      if ($(this).attr('data-count') > 0) {
+        $('#events_form').submit();
+        return false;
+      }
+    });
+
+    setTimeout(pollEvents, 1000);
+  }
+
   if (navigator.userAgent.indexOf('Opera Mini') == -1) {
     $('#loginbutton').bind('click', function(e) {
       $("#regmenu").fadeOut("fast", function() {
@@ -1,317 +1,106 @@
-/*
- * Copyright 1998-2010 Linux.org.ru
- *    Licensed under the Apache License, Version 2.0 (the "License");
- *    you may not use this file except in compliance with the License.
- *    You may obtain a copy of the License at
- *
- *        http://www.apache.org/licenses/LICENSE-2.0
- *
- *    Unless required by applicable law or agreed to in writing, software
- *    distributed under the License is distributed on an "AS IS" BASIS,
- *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *    See the License for the specific language governing permissions and
- *    limitations under the License.
- */
-
-package org.javabb.bbcode;
-
-/*
- * Copyright 2004 JavaFree.org
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-import java.io.Serializable;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import ru.org.linux.util.HTMLFormatter;
-
-/**
- * $Id: BBCodeProcessor.java,v 1.1 2005/02/07 03:16:07 ronaldtm Exp $
- *
- * @author Ronald Tetsuo Miura
- */
-public class BBCodeProcessor implements Serializable {
-  private static final String CR_LF = "(?:\r\n|\r|\n)?";
-
-  private static final RegexTag[] REGEX_TAGS = {
-    new SimpleRegexTag("", "(\r\n\r\n|\n\r\n\r|\n\n|\r\r)", "<p>"),
-//        new SimpleRegexTag("color",
-//            "\\[color=['\"]?(.*?[^'\"])['\"]?\\](.*?)\\[/color\\]",
-//            "<span style='color:$1px'>$2</span>"),
-//        new SimpleRegexTag("size",
-//            "\\[size=['\"]?([0-9]|[1-2][0-9])['\"]?\\](.*?)\\[/size\\]",
-//            "<span style='font-size:$1px'>$2</span>"),
-    new SimpleRegexTag("b", "\\[b\\](.*?)\\[/b\\]", "<b>$1</b>"),
-    new SimpleRegexTag("em", "\\[em\\](.*?)\\[/em\\]", "<em>$1</em>"),
-    new SimpleRegexTag("s", "\\[s\\](.*?)\\[/s\\]", "<del>$1</del>"),
-    new SimpleRegexTag("strong", "\\[strong\\](.*?)\\[/strong\\]", "<strong>$1</strong>"),
-    new SimpleRegexTag("u", "\\[u\\](.*?)\\[/u\\]", "<u>$1</u>"),
-    new SimpleRegexTag("i", "\\[i\\](.*?)\\[/i\\]", "<i>$1</i>"),
-//        new SimpleRegexTag("img", "\\[img\\](.*?)\\[/img\\]", "<img src='$1' border='0' alt=''>"),
-    new URLTag("url", "\\[url\\](.*?)\\[/url\\]", "<a href=\"$1\">$1</a>"),
-    new UserTag("user", "\\[user\\](.*?)\\[/user\\]"),
-    new URLTag("url",
-      "\\[url=['\"]?(.*?[^'\"])['\"]?\\](.*?)\\[/url\\]",
-      "<a href=\"$1\">$2</a>"),
-    new SimpleRegexTag("br", "\\[br\\]", "<br>"),    
-    new SimpleRegexTag("code-br", "\\[code-br\\]", "\n"),    
-//      new SimpleRegexTag("email", "\\[email\\](.*?)\\[/email\\]", "<a href='mailto:$1'>$1</a>", true)
-  };
-
-  private static final RegexTag ENABLED_CUT = new SimpleRegexTag("cut", "\\[cut\\](.*?)\\[/cut\\]", "<div class=quote><h3>Подробности</h3>$1</div>");
-  private static final RegexTag DISABLED_CUT = new SimpleRegexTag("cut", "\\[cut\\](.*?)\\[/cut\\]", "");
-
-  private boolean includeCut = false;
-
-
-  /**
-   * @param texto
-   * @return TODO unuseful parameters.
-   */
-  public String preparePostText(Connection db, String texto) throws SQLException {
-    texto = HTMLFormatter.htmlSpecialChars(texto);
-
-    return process(db, texto).toString();
-  }
-
-  /**
-   * @param string
-   * @return HTML-formated message
-   */
-  private CharSequence process(Connection db, String string) throws SQLException {
-    StringBuffer buffer = new StringBuffer("<p>" + string);
-    new CodeTag().processContent(buffer);
-
-    RegexTag cutTag = includeCut ? ENABLED_CUT : DISABLED_CUT;
-    CharSequence data = buffer;
-
-//    data = processSimpleTag(db, cutTag, data);
-
-    data = processNestedTags(data,
-      "quote",
-      "<div class=\"quote\"><h3>{BBCODE_PARAM}</h3><p>",
-      "</div><p>",
-      "<div class=\"quote\"><h3>Цитата</h3><p>",
-      "</div><p>",
-      "[*]",
-      false,
-      true,
-      true);
-
-    data = processNestedTags(data,
-      "list",
-      "<ol type=\"{BBCODE_PARAM}\">",
-      "</ol><p>",
-      "<ul>",
-      "</ul><p>",
-      "<li>",
-      true,
-      true,
-      true);
-
-    for (RegexTag tag : REGEX_TAGS) {
-      data = processSimpleTag(db, tag, data);
-    }
-
-    return data;
-  }
-
-  private CharSequence processSimpleTag(Connection db, RegexTag tag, CharSequence data) throws SQLException {
-    StringBuffer sb2 = new StringBuffer((int) (data.length() * 1.5));
-
-    tag.substitute(db, data, sb2, tag, tag.getReplacement());
-    return sb2;
-  }
-
-  /**
-   * @param input
-   * @param tagName
-   * @param openSubstWithParam
-   * @param closeSubstWithParam
-   * @param openSubstWithoutParam
-   * @param closeSubstWithoutParam
-   * @param internalSubst
-   * @param processInternalTags
-   * @param acceptParam
-   * @param requiresQuotedParam
-   */
-  private static CharSequence processNestedTags(
-    CharSequence input,
-    String tagName,
-    String openSubstWithParam,
-    String closeSubstWithParam,
-    String openSubstWithoutParam,
-    String closeSubstWithoutParam,
-    String internalSubst,
-    boolean processInternalTags,
-    boolean acceptParam,
-    boolean requiresQuotedParam) {
-    Stack<BBChunk> openStack = new Stack<BBChunk>();
-    Set<BBChunk> subsOpen = new HashSet<BBChunk>();
-    Set<BBChunk> subsClose = new HashSet<BBChunk>();
-    Set<BBChunk> subsInternal = new HashSet<BBChunk>();
-
-    String openTag = CR_LF + "\\["
-      + tagName
-      + (acceptParam ? (requiresQuotedParam ? "(?:=\\&quot;(.*?)\\&quot;)?" : "(?:=?:(\\&quot;)?(.*?)?:(\\&quot;)?)?") : "")
-      + "\\]"
-      + CR_LF;
-    String closeTag = CR_LF + "\\[/" + tagName + "\\]" + CR_LF;
-
-    String patternString = '(' + openTag + ")|(" + closeTag + ')';
-
-    if (processInternalTags) {
-      String internTag = CR_LF + "\\[\\*\\]" + CR_LF;
-      patternString += "|(" + internTag + ')';
-    }
-
-    Pattern tagsPattern = Pattern.compile(patternString);
-    Matcher matcher = tagsPattern.matcher(input);
-
-    int paramGroup;
-    int closeTagGroup;
-    int internalTagGroup;
-
-    if (acceptParam) {
-      paramGroup = 2;
-      closeTagGroup = 3;
-      internalTagGroup = 4;
-    } else {
-      paramGroup = -1; // INFO
-      closeTagGroup = 2;
-      internalTagGroup = 3;
-    }
-
-    int openTagGroup = 1;
-    String str = input.toString();
-
-    while (matcher.find()) {
-      int length = matcher.end() - matcher.start();
-      BBChunk matchedSeq = new BBChunk(matcher.start(), length);
-
-      // test opening tags
-      if (matcher.group(openTagGroup) != null) {
-        if (acceptParam && (matcher.group(paramGroup) != null)) {
-          matchedSeq.param = matcher.group(paramGroup);
-        }
-
-        openStack.push(matchedSeq);
-
-        // test closing tags
-      } else if ((matcher.group(closeTagGroup) != null) && !openStack.isEmpty()) {
-        BBChunk openSeq = openStack.pop();
-
-        if (acceptParam) {
-          matchedSeq.param = openSeq.param;
-        }
-
-        subsOpen.add(openSeq);
-        subsClose.add(matchedSeq);
-
-        // test internal tags
-      } else if (processInternalTags && (matcher.group(internalTagGroup) != null)
-        && (!openStack.isEmpty())) {
-        subsInternal.add(matchedSeq);
-      }
-    }
-
-    List<BBChunk> subst = new LinkedList<BBChunk>();
-    subst.addAll(subsOpen);
-    subst.addAll(subsClose);
-    subst.addAll(subsInternal);
-
-    Collections.sort(subst, new Comparator<BBChunk>() {
-      @Override
-      public int compare(BBChunk o1, BBChunk o2) {
-        return (o1.start - o2.start);
-      }
-    });
-
-    StringBuffer output = new StringBuffer();
-
-    int start = 0;
-    boolean textAllowed = true;
-    boolean inside = false;
-
-    for (BBChunk seq : subst) {
-      if (textAllowed) {
-        String text = str.substring(start, seq.start);
-
-        if (inside) {
-          text = text.replaceAll("\\[/?cut\\]", "");
-        }
-        
-        output.append(text);
-      }
-
-      if (subsClose.contains(seq)) {
-        textAllowed = true;
-        inside = false;
-
-        if (seq.param != null) {
-          output.append(closeSubstWithParam);
-        } else {
-          output.append(closeSubstWithoutParam);
-        }
-      } else if (subsInternal.contains(seq)) {
-        textAllowed = true;
-        output.append(internalSubst);
-      } else if (subsOpen.contains(seq)) {
-        textAllowed = !processInternalTags;
-        inside = true;
-
-        Matcher m = Pattern.compile(openTag).matcher(str.substring(seq.start,
-          seq.start + seq.length));
-
-        if (m.matches()) {
-          if (acceptParam && (seq.param != null)) {
-            String escaped = Matcher.quoteReplacement(CodeTag.escapeHtmlBBcode(seq.param));
-            output.append(openSubstWithParam.replaceAll("\\{BBCODE_PARAM\\}", escaped));
-          } else {
-            output.append(openSubstWithoutParam);
-          }
-        }
-      }
-
-      start = seq.start + seq.length;
-    }
-
-    output.append(str.substring(start));
-
-    return output;
-  }
-
-  public void setIncludeCut(boolean includeCut) {
-    this.includeCut = includeCut;
-  }
-
-  private static class BBChunk {
-    private final int start;
-    private final int length;
-    private String param = null;
-
-    public BBChunk(int start, int length) {
-      this.start = start;
-      this.length = length;
-    }
-
-    public int length() {
-      return length;
-    }
-  }
-}
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.javabb.bbcode;
+
+/*
+ * Copyright 2004 JavaFree.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+import ru.org.linux.site.User;
+import ru.org.linux.util.HTMLFormatter;
+
+/**
+ * $Id: BBCodeProcessor.java,v 1.1 2005/02/07 03:16:07 ronaldtm Exp $
+ *
+ * @author Ronald Tetsuo Miura
+ */
+public class BBCodeProcessor implements Serializable {
+  private boolean includeCut = false;
+
+  /**
+   * @param texto
+   * @return TODO unuseful parameters.
+   */
+  public String preparePostText(Connection db, String texto) throws SQLException {
+    return preparePostTexts(db, Collections.singletonList(texto)).get(0);
+  }
+
+  /**
+   * Обработать несколько текстов (например, комментарии одной страницы);
+   * пользователи из тегов [user] всех текстов загружаются одним запросом
+   *
+   * @return HTML в том же порядке, что и texts
+   */
+  public List<String> preparePostTexts(Connection db, List<String> texts) throws SQLException {
+    List<BBCodeRenderer> renderers = new ArrayList<BBCodeRenderer>(texts.size());
+    Set<String> nicks = new HashSet<String>();
+
+    for (String text : texts) {
+      BBCodeRenderer renderer = new BBCodeRenderer(HTMLFormatter.htmlSpecialChars(text));
+
+      nicks.addAll(renderer.getUserNicks());
+      renderers.add(renderer);
+    }
+
+    Map<String, User> users = User.getUsers(db, nicks);
+
+    List<String> result = new ArrayList<String>(renderers.size());
+
+    for (BBCodeRenderer renderer : renderers) {
+      result.add(renderer.render(users));
+    }
+
+    return result;
+  }
+
+  /**
+   * Ники из тегов [user] текста, которые нужно передать в {@link #preparePostText(String, Map)}
+   */
+  public static Set<String> getUserNicks(String texto) {
+    return new BBCodeRenderer(HTMLFormatter.htmlSpecialChars(texto)).getUserNicks();
+  }
+
+  /**
+   * Обработать текст без обращения к базе
+   *
+   * @param users пользователи по нику; отсутствующие в users ники выводятся
+   * как несуществующие пользователи
+   */
+  public String preparePostText(String texto, Map<String, User> users) {
+    return new BBCodeRenderer(HTMLFormatter.htmlSpecialChars(texto)).render(users);
+  }
+
+  public void setIncludeCut(boolean includeCut) {
+    this.includeCut = includeCut;
+  }
+}
@@ -0,0 +1,916 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.javabb.bbcode;
+
+import java.util.*;
+
+import com.google.common.collect.ImmutableMap;
+
+import ru.org.linux.site.User;
+import ru.org.linux.util.StringUtil;
+import ru.org.linux.util.URLUtil;
+
+/**
+ * Однопроходный разбор LORCODE.
+ *
+ * Текст один раз разбивается на теги, затем пары тегов разрешаются в том же порядке,
+ * в котором их обрабатывал каскад регулярных выражений (code, quote, list, b, em, s,
+ * strong, u, i, url, user, url=), и HTML собирается в один StringBuilder.
+ * Время работы линейно от длины текста.
+ *
+ * Разбор выполняется в конструкторе, вывод - в {@link #render(Map)}; между ними можно
+ * получить ники из тегов [user] ({@link #getUserNicks()}) и загрузить пользователей
+ * для нескольких текстов сразу, так что сам вывод к базе не обращается.
+ *
+ * Экземпляр используется для разбора одного текста; разделяемые таблицы неизменяемы,
+ * так что {@link BBCodeProcessor} можно вызывать из нескольких потоков.
+ */
+final class BBCodeRenderer {
+  private static final int CODE = 0;
+  private static final int QUOTE_OPEN = 1;
+  private static final int QUOTE_CLOSE = 2;
+  private static final int LIST_OPEN = 3;
+  private static final int LIST_CLOSE = 4;
+  private static final int LIST_ITEM = 5;
+  private static final int URL_OPEN = 6;
+  private static final int URL_PARAM_OPEN = 7;
+  private static final int URL_CLOSE = 8;
+  private static final int USER_OPEN = 9;
+  private static final int USER_CLOSE = 10;
+  private static final int BR = 11;
+  private static final int CODE_BR = 12;
+  private static final int CUT = 13;
+  // INLINE + 2*i - открывающий тег INLINE_TAGS[i], INLINE + 2*i + 1 - закрывающий
+  private static final int INLINE = 14;
+
+  private static final String[] INLINE_TAGS = { "b", "em", "s", "strong", "u", "i" };
+  private static final String[] INLINE_HTML = { "b", "em", "del", "strong", "u", "i" };
+
+  private static final ImmutableMap<String, Integer> OPEN_TAGS;
+  private static final ImmutableMap<String, Integer> CLOSE_TAGS;
+
+  static {
+    ImmutableMap.Builder<String, Integer> open = ImmutableMap.builder();
+    ImmutableMap.Builder<String, Integer> close = ImmutableMap.builder();
+
+    open.put("quote", QUOTE_OPEN);
+    close.put("quote", QUOTE_CLOSE);
+    open.put("list", LIST_OPEN);
+    close.put("list", LIST_CLOSE);
+    open.put("*", LIST_ITEM);
+    open.put("url", URL_OPEN);
+    close.put("url", URL_CLOSE);
+    open.put("user", USER_OPEN);
+    close.put("user", USER_CLOSE);
+    open.put("br", BR);
+    open.put("code-br", CODE_BR);
+    open.put("cut", CUT);
+    close.put("cut", CUT);
+
+    for (int i=0; i<INLINE_TAGS.length; i++) {
+      open.put(INLINE_TAGS[i], INLINE + 2*i);
+      close.put(INLINE_TAGS[i], INLINE + 2*i + 1);
+    }
+
+    OPEN_TAGS = open.build();
+    CLOSE_TAGS = close.build();
+  }
+
+  private static final int MAX_TAG_NAME = 7;
+
+  private static final String QUOT = "&quot;";
+  private static final String QUOT_BRACKET = "&quot;]";
+  private static final String CODE_CLOSE = "[/code]";
+
+  private static final String USER_VIEW_START = "<span style=\"white-space: nowrap\"><img src=\"/img/tuxlor.png\">";
+  private static final String USER_VIEW_END = "</span>";
+
+  private static final int INACTIVE = 0;
+  private static final int ACTIVE = 1;
+  private static final int REMOVED = 2;
+
+  private final String text;
+  private final List<Token> tokens = new ArrayList<Token>();
+  private final StringBuilder out;
+
+  private int nextQuotBracket = -1;
+  private int nextBracket = -1;
+  private int nextLineTerminator = -1;
+
+  // начало незавершенной последовательности переводов строк в out
+  private int newlineStart = -1;
+
+  /**
+   * @param text текст, уже обработанный HTMLFormatter.htmlSpecialChars
+   */
+  BBCodeRenderer(String text) {
+    this.text = text;
+    out = new StringBuilder(text.length() + text.length() / 4 + 16);
+
+    lex();
+    resolve();
+  }
+
+  /**
+   * @return ники из тегов [user], для которых при выводе нужен пользователь
+   */
+  Set<String> getUserNicks() {
+    Set<String> nicks = new HashSet<String>();
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      if (t.type==USER_OPEN && t.state==ACTIVE) {
+        String nick = getPlainContent(k);
+
+        if (nick!=null && StringUtil.checkLoginName(nick)) {
+          nicks.add(nick);
+        }
+      }
+    }
+
+    return nicks;
+  }
+
+  /**
+   * @param users пользователи по нику; ник из {@link #getUserNicks()}, которого нет
+   * в users, выводится как несуществующий пользователь
+   */
+  String render(Map<String, User> users) {
+    out.append("<p>");
+
+    int pos = 0;
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      if (t.state==INACTIVE || t.start<pos) {
+        continue;
+      }
+
+      if (t.state==REMOVED) {
+        appendText(pos, t.start);
+        pos = t.end;
+        continue;
+      }
+
+      appendText(pos, t.start - t.lead);
+      flushNewlines();
+
+      pos = renderToken(users, k);
+    }
+
+    appendText(pos, text.length());
+    flushNewlines();
+
+    return out.toString();
+  }
+
+  /* Разбор */
+
+  private void lex() {
+    int length = text.length();
+    boolean codeAllowed = true;
+
+    for (int i = text.indexOf('['); i>=0 && i<length; i = text.indexOf('[', i+1)) {
+      if (codeAllowed && text.startsWith("[code", i)) {
+        int openEnd = matchCodeOpen(i + "[code".length());
+
+        if (openEnd>=0) {
+          int close = text.indexOf(CODE_CLOSE, openEnd);
+
+          if (close<0) {
+            // нет закрывающего тега - остальные [code] тоже не закрыты
+            codeAllowed = false;
+          } else {
+            String lang = openEnd > i + "[code]".length() ? text.substring(i + "[code=".length(), openEnd - 1) : null;
+
+            Token t = new Token(CODE, i, close + CODE_CLOSE.length(), CodeTag.getBrush(lang));
+            t.contentStart = openEnd;
+            tokens.add(t);
+
+            i = t.end - 1;
+            continue;
+          }
+        }
+      }
+
+      lexTag(i);
+    }
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      t.lastContained = t.param!=null && t.type!=CODE ? findLastStartBefore(k, t.end) : k;
+    }
+  }
+
+  /**
+   * @return позиция после ']' в "[code]" или "[code=lang]", либо -1
+   */
+  private int matchCodeOpen(int pos) {
+    if (pos>=text.length()) {
+      return -1;
+    }
+
+    if (text.charAt(pos)==']') {
+      return pos + 1;
+    }
+
+    if (text.charAt(pos)!='=') {
+      return -1;
+    }
+
+    int i = pos + 1;
+
+    while (i<text.length() && isWordChar(text.charAt(i))) {
+      i++;
+    }
+
+    if (i==pos+1 || i>=text.length() || text.charAt(i)!=']') {
+      return -1;
+    }
+
+    return i + 1;
+  }
+
+  private static boolean isWordChar(char c) {
+    return (c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='_';
+  }
+
+  private void lexTag(int start) {
+    int nameStart = start + 1;
+    boolean close = false;
+
+    if (nameStart<text.length() && text.charAt(nameStart)=='/') {
+      close = true;
+      nameStart++;
+    }
+
+    int i = nameStart;
+
+    while (i<text.length() && i-nameStart<=MAX_TAG_NAME && text.charAt(i)!=']' && text.charAt(i)!='=') {
+      i++;
+    }
+
+    if (i>=text.length() || i-nameStart>MAX_TAG_NAME) {
+      return;
+    }
+
+    String name = text.substring(nameStart, i);
+
+    if (text.charAt(i)==']') {
+      Integer type = close ? CLOSE_TAGS.get(name) : OPEN_TAGS.get(name);
+
+      if (type!=null) {
+        tokens.add(new Token(type, start, i + 1, null));
+      }
+
+      return;
+    }
+
+    if (close) {
+      return;
+    }
+
+    if ("quote".equals(name) || "list".equals(name)) {
+      if (!text.startsWith(QUOT, i + 1)) {
+        return;
+      }
+
+      int paramStart = i + 1 + QUOT.length();
+      int paramEnd = findQuotBracket(paramStart);
+
+      // параметр - одна строка
+      if (paramEnd>=0 && findLineTerminator(paramStart)>=paramEnd) {
+        int type = "quote".equals(name) ? QUOTE_OPEN : LIST_OPEN;
+
+        tokens.add(new Token(type, start, paramEnd + QUOT_BRACKET.length(), text.substring(paramStart, paramEnd)));
+      }
+    } else if ("url".equals(name)) {
+      int paramEnd = findBracket(i + 1);
+
+      if (paramEnd<0) {
+        return;
+      }
+
+      int paramStart = i + 1;
+
+      if (paramStart<paramEnd && isQuote(text.charAt(paramStart))) {
+        paramStart++;
+      }
+
+      int urlEnd = paramEnd;
+
+      if (paramStart<urlEnd && isQuote(text.charAt(urlEnd - 1))) {
+        urlEnd--;
+      }
+
+      if (paramStart<urlEnd && !isQuote(text.charAt(urlEnd - 1))) {
+        tokens.add(new Token(URL_PARAM_OPEN, start, paramEnd + 1, text.substring(paramStart, urlEnd)));
+      }
+    }
+  }
+
+  private static boolean isQuote(char c) {
+    return c=='\'' || c=='"';
+  }
+
+  /* поиск вперед; позиции поиска только растут, поэтому результат кешируется */
+
+  private int findQuotBracket(int from) {
+    if (nextQuotBracket!=Integer.MAX_VALUE && nextQuotBracket<from) {
+      nextQuotBracket = text.indexOf(QUOT_BRACKET, from);
+
+      if (nextQuotBracket<0) {
+        nextQuotBracket = Integer.MAX_VALUE;
+      }
+    }
+
+    return nextQuotBracket==Integer.MAX_VALUE ? -1 : nextQuotBracket;
+  }
+
+  private int findBracket(int from) {
+    if (nextBracket!=Integer.MAX_VALUE && nextBracket<from) {
+      nextBracket = text.indexOf(']', from);
+
+      if (nextBracket<0) {
+        nextBracket = Integer.MAX_VALUE;
+      }
+    }
+
+    return nextBracket==Integer.MAX_VALUE ? -1 : nextBracket;
+  }
+
+  private int findLineTerminator(int from) {
+    if (nextLineTerminator<from) {
+      nextLineTerminator = text.length();
+
+      for (int i=from; i<text.length(); i++) {
+        char c = text.charAt(i);
+
+        if (c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029') {
+          nextLineTerminator = i;
+          break;
+        }
+      }
+    }
+
+    return nextLineTerminator;
+  }
+
+  private int findLastStartBefore(int k, int end) {
+    int lo = k;
+    int hi = tokens.size() - 1;
+
+    while (lo<hi) {
+      int mid = (lo + hi + 1) >>> 1;
+
+      if (tokens.get(mid).start<end) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    return lo;
+  }
+
+  /* Разрешение пар тегов */
+
+  private void resolve() {
+    for (Token t : tokens) {
+      if (t.type==CODE) {
+        t.state = ACTIVE;
+      }
+    }
+
+    resolveNested(QUOTE_OPEN, QUOTE_CLOSE, -1);
+    resolveNested(LIST_OPEN, LIST_CLOSE, LIST_ITEM);
+
+    for (int i=0; i<INLINE_TAGS.length; i++) {
+      resolveInline(INLINE + 2*i, INLINE + 2*i + 1);
+    }
+
+    resolveInline(URL_OPEN, URL_CLOSE);
+    resolveInline(USER_OPEN, USER_CLOSE);
+    resolveInline(URL_PARAM_OPEN, URL_CLOSE);
+
+    for (Token t : tokens) {
+      if ((t.type==BR || t.type==CODE_BR) && t.state==INACTIVE) {
+        t.state = ACTIVE;
+      }
+    }
+  }
+
+  private int[] countActive() {
+    int[] active = new int[tokens.size() + 1];
+
+    for (int k=0; k<tokens.size(); k++) {
+      active[k+1] = active[k] + (tokens.get(k).state==ACTIVE ? 1 : 0);
+    }
+
+    return active;
+  }
+
+  private static boolean containsActive(int[] active, int k, Token t) {
+    return active[t.lastContained + 1] - active[k + 1] > 0;
+  }
+
+  private void removeContained(int k) {
+    Token t = tokens.get(k);
+
+    for (int j=k+1; j<=t.lastContained; j++) {
+      tokens.get(j).state = REMOVED;
+    }
+  }
+
+  private void pair(int open, int close) {
+    Token o = tokens.get(open);
+    Token c = tokens.get(close);
+
+    o.state = ACTIVE;
+    c.state = ACTIVE;
+    o.partner = close;
+    c.partner = open;
+  }
+
+  /**
+   * quote и list: вложенные теги со стеком; тег вместе с параметром поглощает
+   * по одному переводу строки до и после себя
+   */
+  private void resolveNested(int openType, int closeType, int itemType) {
+    int[] active = countActive();
+    Deque<Integer> stack = new ArrayDeque<Integer>();
+    List<Token> candidates = new ArrayList<Token>();
+
+    int hideEnd = 0;
+    int maxEnd = 0;
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      boolean candidate = (t.type==openType || t.type==closeType || t.type==itemType)
+        && t.state==INACTIVE
+        && t.start>=hideEnd
+        && !(t.param!=null && containsActive(active, k, t));
+
+      if (candidate) {
+        candidates.add(t);
+
+        if (t.param!=null) {
+          // теги внутри параметра для этого прохода не видны
+          hideEnd = t.end;
+        }
+
+        absorbNewlines(k, maxEnd);
+
+        if (t.type==openType) {
+          stack.push(k);
+        } else if (!stack.isEmpty()) {
+          if (t.type==closeType) {
+            pair(stack.pop(), k);
+          } else {
+            t.state = ACTIVE;
+          }
+        }
+      }
+
+      maxEnd = Math.max(maxEnd, t.end + t.trail);
+    }
+
+    for (Token t : candidates) {
+      if (t.state!=ACTIVE) {
+        t.lead = 0;
+        t.trail = 0;
+      }
+    }
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      if (t.type==openType && t.state==ACTIVE && t.param!=null) {
+        removeContained(k);
+      }
+    }
+
+    boolean inside = false;
+    boolean textAllowed = true;
+    Token previous = null;
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      if (t.state==REMOVED) {
+        continue;
+      }
+
+      boolean own = t.type==openType || t.type==closeType || t.type==itemType;
+
+      if (own && t.state==ACTIVE) {
+        if (!textAllowed && previous!=null) {
+          // текст между [list] и первым [*] выбрасывается
+          previous.dropTo = k;
+        }
+
+        if (t.type==openType) {
+          inside = true;
+          textAllowed = itemType<0;
+        } else if (t.type==closeType) {
+          inside = false;
+          textAllowed = true;
+        } else {
+          textAllowed = true;
+        }
+
+        previous = t;
+      } else if (!textAllowed) {
+        t.state = REMOVED;
+      } else if (inside && t.type==CUT) {
+        t.state = REMOVED;
+      }
+    }
+  }
+
+  private void absorbNewlines(int k, int maxEnd) {
+    Token t = tokens.get(k);
+
+    if (t.start-2>=maxEnd && text.startsWith("\r\n", t.start-2)) {
+      t.lead = 2;
+    } else if (t.start-1>=maxEnd && isNewline(text.charAt(t.start-1))) {
+      t.lead = 1;
+    }
+
+    int next = t.lastContained + 1;
+    int limit = next<tokens.size() ? tokens.get(next).start - tokens.get(next).lead : text.length();
+
+    if (t.end+2<=limit && text.startsWith("\r\n", t.end)) {
+      t.trail = 2;
+    } else if (t.end+1<=limit && isNewline(text.charAt(t.end))) {
+      t.trail = 1;
+    }
+  }
+
+  private static boolean isNewline(char c) {
+    return c=='\n' || c=='\r';
+  }
+
+  /**
+   * Невложенные теги: открывающий тег закрывается первым следующим закрывающим,
+   * такие же открывающие теги внутри пары остаются текстом
+   */
+  private void resolveInline(int openType, int closeType) {
+    int[] active = openType==URL_PARAM_OPEN ? countActive() : null;
+
+    List<Integer> closes = new ArrayList<Integer>();
+
+    for (int k=0; k<tokens.size(); k++) {
+      Token t = tokens.get(k);
+
+      if (t.type==closeType && t.state==INACTIVE) {
+        closes.add(k);
+      }
+    }
+
+    int next = 0;
+    int spanClose = -1;
+
+    for (int k=0; k<tokens.size(); k++) {
+      if (spanClose>=0) {
+        if (k==spanClose) {
+          spanClose = -1;
+        }
+
+        continue;
+      }
+
+      Token t = tokens.get(k);
+
+      if (t.type!=openType || t.state!=INACTIVE) {
+        continue;
+      }
+
+      if (t.param!=null && containsActive(active, k, t)) {
+        continue;
+      }
+
+      while (next<closes.size() && tokens.get(closes.get(next)).start<t.end) {
+        next++;
+      }
+
+      if (next==closes.size()) {
+        break;
+      }
+
+      spanClose = closes.get(next++);
+      pair(k, spanClose);
+
+      if (t.param!=null) {
+        removeContained(k);
+      }
+    }
+  }
+
+  /* Вывод */
+
+  private int renderToken(Map<String, User> users, int k) {
+    Token t = tokens.get(k);
+
+    switch (t.type) {
+      case CODE:
+        out.append("<div class=code><pre class=\"").append(t.param).append("\"><code>");
+        appendCode(t.contentStart, t.end - CODE_CLOSE.length());
+        out.append("</code></pre></div><p>");
+        break;
+      case QUOTE_OPEN:
+        if (t.param!=null) {
+          out.append("<div class=\"quote\"><h3>").append(CodeTag.escapeHtmlBBcode(t.param)).append("</h3><p>");
+        } else {
+          out.append("<div class=\"quote\"><h3>Цитата</h3><p>");
+        }
+        break;
+      case QUOTE_CLOSE:
+        out.append("</div><p>");
+        break;
+      case LIST_OPEN:
+        if (t.param!=null) {
+          out.append("<ol type=\"").append(CodeTag.escapeHtmlBBcode(t.param)).append("\">");
+        } else {
+          out.append("<ul>");
+        }
+        break;
+      case LIST_CLOSE:
+        out.append(tokens.get(t.partner).param!=null ? "</ol><p>" : "</ul><p>");
+        break;
+      case LIST_ITEM:
+        out.append("<li>");
+        break;
+      case URL_OPEN:
+        return renderUrl(k);
+      case URL_PARAM_OPEN:
+        return renderUrlParam(k);
+      case USER_OPEN:
+        return renderUser(users, k);
+      case URL_CLOSE:
+      case USER_CLOSE:
+        out.append(t.closeHtml);
+        break;
+      case BR:
+        out.append("<br>");
+        break;
+      case CODE_BR:
+        out.append('\n');
+        break;
+      default:
+        int inline = (t.type - INLINE) / 2;
+
+        if ((t.type - INLINE) % 2 == 0) {
+          out.append('<').append(INLINE_HTML[inline]).append('>');
+        } else {
+          out.append("</").append(INLINE_HTML[inline]).append('>');
+        }
+    }
+
+    if (t.dropTo>=0) {
+      Token next = tokens.get(t.dropTo);
+
+      return next.start - next.lead;
+    }
+
+    return t.end + t.trail;
+  }
+
+  private int renderUrl(int k) {
+    Token t = tokens.get(k);
+    Token close = tokens.get(t.partner);
+
+    String url = getPlainContent(k);
+
+    if (url!=null && URLUtil.isUrl(url)) {
+      out.append("<a href=\"").append(url).append("\">").append(url).append("</a>");
+      return close.end;
+    }
+
+    out.append("<s>");
+    close.closeHtml = "</s>";
+
+    return t.end;
+  }
+
+  private int renderUrlParam(int k) {
+    Token t = tokens.get(k);
+    Token close = tokens.get(t.partner);
+
+    if (URLUtil.isUrl(t.param)) {
+      out.append("<a href=\"").append(t.param).append("\">");
+      close.closeHtml = "</a>";
+
+      return t.end;
+    }
+
+    // при неверном адресе текст ссылки не выводится
+    out.append("<s>").append(t.param).append("</s>");
+
+    return close.end;
+  }
+
+  private int renderUser(Map<String, User> users, int k) {
+    Token t = tokens.get(k);
+    Token close = tokens.get(t.partner);
+
+    String nick = getPlainContent(k);
+
+    if (nick!=null && StringUtil.checkLoginName(nick)) {
+      User user = users.get(nick);
+
+      if (user!=null) {
+        out.append(USER_VIEW_START);
+
+        if (user.isBlocked()) {
+          out.append("<s>");
+        }
+
+        out.append("<a style=\"text-decoration: none\" href='/people/").append(nick).append("/profile'>").append(nick).append("</a>");
+
+        if (user.isBlocked()) {
+          out.append("</s>");
+        }
+
+        out.append(USER_VIEW_END);
+      } else {
+        out.append("<s>").append(nick).append("</s>");
+      }
+
+      return close.end;
+    }
+
+    out.append("<s>");
+    close.closeHtml = "</s>";
+
+    return t.end;
+  }
+
+  /**
+   * @return текст между тегом и парным ему, если внутри нет других тегов; иначе null
+   */
+  private String getPlainContent(int k) {
+    Token t = tokens.get(k);
+
+    for (int j=k+1; j<t.partner; j++) {
+      if (tokens.get(j).state!=INACTIVE) {
+        return null;
+      }
+    }
+
+    int end = tokens.get(t.partner).start;
+
+    for (int i=t.end; i<end; i++) {
+      if (isNewline(text.charAt(i))) {
+        StringBuilder content = new StringBuilder(end - t.end);
+        appendParagraphs(content, text.substring(t.end, end));
+        return content.toString();
+      }
+    }
+
+    return text.substring(t.end, end);
+  }
+
+  private void appendText(int from, int to) {
+    int i = from;
+
+    while (i<to) {
+      char c = text.charAt(i);
+
+      if (isNewline(c)) {
+        if (newlineStart<0) {
+          newlineStart = out.length();
+        }
+
+        out.append(c);
+        i++;
+      } else {
+        flushNewlines();
+
+        int j = i + 1;
+
+        while (j<to && !isNewline(text.charAt(j))) {
+          j++;
+        }
+
+        out.append(text, i, j);
+        i = j;
+      }
+    }
+  }
+
+  /**
+   * Заменить пустые строки в последней последовательности переводов строк на &lt;p&gt;
+   */
+  private void flushNewlines() {
+    if (newlineStart<0) {
+      return;
+    }
+
+    if (out.length()-newlineStart>=2) {
+      String newlines = out.substring(newlineStart);
+      out.setLength(newlineStart);
+      appendParagraphs(out, newlines);
+    }
+
+    newlineStart = -1;
+  }
+
+  private static void appendParagraphs(StringBuilder sb, String s) {
+    int i = 0;
+
+    while (i<s.length()) {
+      if (s.startsWith("\r\n\r\n", i) || s.startsWith("\n\r\n\r", i)) {
+        sb.append("<p>");
+        i += 4;
+      } else if (s.startsWith("\n\n", i) || s.startsWith("\r\r", i)) {
+        sb.append("<p>");
+        i += 2;
+      } else {
+        sb.append(s.charAt(i));
+        i++;
+      }
+    }
+  }
+
+  private void appendCode(int from, int to) {
+    for (int i=from; i<to; i++) {
+      char c = text.charAt(i);
+
+      switch (c) {
+        case '[':
+          out.append("&#91;");
+          break;
+        case ']':
+          out.append("&#93;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '(':
+          out.append("&#40;");
+          break;
+        case ')':
+          out.append("&#41;");
+          break;
+        case '{':
+          out.append("&#123;");
+          break;
+        case '}':
+          out.append("&#125;");
+          break;
+        case '\t':
+          out.append("&nbsp; &nbsp;");
+          break;
+        case '\r':
+          break;
+        default:
+          out.append(c);
+      }
+    }
+  }
+
+  private static class Token {
+    private final int type;
+    private final int start;
+    private final int end;
+    // параметр тега; для [code] - класс подсветки
+    private final String param;
+
+    private int contentStart;
+    private int lastContained;
+    private int state = INACTIVE;
+    private int partner = -1;
+    private int lead = 0;
+    private int trail = 0;
+    private int dropTo = -1;
+    private String closeHtml;
+
+    private Token(int type, int start, int end, String param) {
+      this.type = type;
+      this.start = start;
+      this.end = end;
+      this.param = param;
+    }
+  }
+}
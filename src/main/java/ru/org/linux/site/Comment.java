@@ -17,8 +17,11 @@ package ru.org.linux.site;
 
 import java.io.Serializable;
 import java.sql.*;
+import java.util.*;
 import java.util.Date;
-import java.util.Map;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
 
 public class Comment implements Serializable {
   private final int msgid;
@@ -33,7 +36,13 @@ public class Comment implements Serializable {
   private final String postIP;
   public static final int TITLE_LENGTH = 250;
 
+  private static final int MAX_IDS_PER_QUERY = 1000;
+
   public Comment(Connection db, ResultSet rs) throws SQLException {
+    this(rs, rs.getBoolean("deleted")?DeleteInfo.getDeleteInfo(db, rs.getInt("msgid")):null);
+  }
+
+  private Comment(ResultSet rs, DeleteInfo deleteInfo) throws SQLException {
     msgid=rs.getInt("msgid");
     title=rs.getString("title");
     topic=rs.getInt("topic");
@@ -44,11 +53,21 @@ public class Comment implements Serializable {
     userAgent=rs.getString("useragent");
     postIP=rs.getString("postip");
 
-    if (deleted) {
-      deleteInfo = DeleteInfo.getDeleteInfo(db, msgid);
-    } else {
-      deleteInfo = null;
-    }
+    this.deleteInfo = deleteInfo;
+  }
+
+  Comment(int msgid, String title, int userid, int replyto, int topic, boolean deleted, Timestamp postdate,
+          DeleteInfo deleteInfo, String userAgent, String postIP) {
+    this.msgid = msgid;
+    this.title = title;
+    this.userid = userid;
+    this.replyto = replyto;
+    this.topic = topic;
+    this.deleted = deleted;
+    this.postdate = postdate;
+    this.deleteInfo = deleteInfo;
+    this.userAgent = userAgent;
+    this.postIP = postIP;
   }
 
   public Comment(Connection db, int msgid) throws SQLException, MessageNotFoundException {
@@ -98,6 +117,50 @@ public class Comment implements Serializable {
     this.postIP=postIP;
   }
 
+  /**
+   * Загрузить комментарии по списку id. Комментарии и информация об удалении
+   * читаются одним запросом на каждые MAX_IDS_PER_QUERY id
+   *
+   * @param db подключение к БД
+   * @param msgids id комментариев
+   * @return msgid -> комментарий; несуществующие id в результат не попадают
+   * @throws SQLException on database failure
+   */
+  public static Map<Integer, Comment> getComments(Connection db, Collection<Integer> msgids) throws SQLException {
+    Map<Integer, Comment> comments = new HashMap<Integer, Comment>(msgids.size());
+
+    if (msgids.isEmpty()) {
+      return comments;
+    }
+
+    Map<Integer, DeleteInfo> deleteInfos = DeleteInfo.getDeleteInfo(db, msgids);
+
+    Statement st = db.createStatement();
+
+    try {
+      for (List<Integer> part : Iterables.partition(new LinkedHashSet<Integer>(msgids), MAX_IDS_PER_QUERY)) {
+        ResultSet rs = st.executeQuery("SELECT " +
+            "postdate, topic, userid, comments.id as msgid, comments.title, " +
+            "deleted, replyto, user_agents.name AS useragent, comments.postip " +
+            "FROM comments " +
+            "LEFT JOIN user_agents ON (user_agents.id=comments.ua_id) " +
+            "WHERE comments.id IN (" + Joiner.on(',').join(part) + ')');
+
+        while (rs.next()) {
+          int id = rs.getInt("msgid");
+
+          comments.put(id, new Comment(rs, deleteInfos.get(id)));
+        }
+
+        rs.close();
+      }
+    } finally {
+      st.close();
+    }
+
+    return comments;
+  }
+
   public int getMessageId() {
     return msgid;
   }
@@ -16,9 +16,8 @@
 package ru.org.linux.site;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Set;
 
 public class CommentFilter {
   public static final int COMMENTS_INITIAL_BUFSIZE = 50;
@@ -33,30 +32,43 @@ public class CommentFilter {
     this.comments = comments;
   }
 
-  private static List<Comment> getCommentList(List<Comment> comments, boolean reverse, int offset, int limit, Set<Integer> hideSet) {
-    List<Comment> out = new ArrayList<Comment>();
-
-    for (ListIterator<Comment> i = comments.listIterator(reverse?comments.size():0); reverse?i.hasPrevious():i.hasNext();) {
-      int index = reverse?(comments.size()-i.previousIndex()):i.nextIndex();
+  /**
+   * Страница комментариев: offset и limit считаются по всем комментариям темы,
+   * скрытые фильтром комментарии из страницы выбрасываются. Перебираются только
+   * комментарии страницы.
+   *
+   * @param limit 0 - до конца темы
+   * @param hideSet результат {@link CommentList#makeHideSet(CommentList, int, java.util.Map)}, может быть null
+   */
+  public List<Comment> getComments(boolean reverse, int offset, int limit, BitSet hideSet) {
+    List<Comment> list = comments.getList();
+    int size = list.size();
+
+    // в обратном порядке комментарий с позицией i имеет номер size-i (номера с 1)
+    int from;
+    int to;
+
+    if (reverse) {
+      from = limit!=0 ? Math.max(0, size-offset-limit+1) : 0;
+      to = Math.min(size, size-offset+1);
+    } else {
+      from = offset;
+      to = limit!=0 ? Math.min(size, offset+limit) : size;
+    }
 
-      Comment comment = reverse?i.previous():i.next();
+    List<Comment> out = new ArrayList<Comment>(Math.max(0, to-from));
 
-      if (index<offset || (limit!=0 && index>=offset+limit)) {
-        continue;
-      }
+    for (int k=from; k<to; k++) {
+      int index = reverse ? (to - 1 - (k - from)) : k;
 
-      if (hideSet==null || !hideSet.contains(comment.getMessageId())) {
-        out.add(comment);
+      if (!comments.isHidden(hideSet, index)) {
+        out.add(list.get(index));
       }
     }
 
     return out;
   }
 
-  public List<Comment> getComments(boolean reverse, int offset, int limit, Set<Integer> hideSet) {
-    return getCommentList(comments.getList(), reverse, offset, limit,  hideSet);
-  }
-
   public List<Comment> getCommentsSubtree(int parentId) throws MessageNotFoundException {
     CommentNode parentNode = comments.getNode(parentId);
 
@@ -67,8 +79,7 @@ public class CommentFilter {
     List<Comment> parentList = new ArrayList<Comment>();
     parentNode.buildList(parentList);
 
-    /* display comments */
-    return getCommentList(parentList, false, 0, 0, null);
+    return parentList;
   }
 
   public static int parseFilterChain(String filter) {
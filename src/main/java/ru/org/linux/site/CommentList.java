@@ -15,11 +15,8 @@
 
 package ru.org.linux.site;
 
-import java.io.Serializable;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.io.*;
+import java.sql.*;
 import java.util.*;
 
 import org.apache.commons.logging.Log;
@@ -28,20 +25,63 @@ import org.apache.commons.logging.LogFactory;
 import ru.org.linux.spring.commons.CacheProvider;
 import ru.org.linux.util.UtilException;
 
+/**
+ * Комментарии темы в порядке msgid и дерево ответов.
+ *
+ * Дерево хранится в массивах int по позициям комментариев: родитель, первый ответ,
+ * следующий ответ того же родителя, а также обход дерева в глубину, в котором каждое
+ * поддерево - непрерывный отрезок. Позиция по msgid находится двоичным поиском
+ * (комментарии упорядочены по msgid). В memcached список пишется в собственном
+ * компактном формате, дерево после чтения строится заново.
+ *
+ * Для фильтрации список хранит комментарии анонимных авторов (с низким score)
+ * в виде битового множества и номера комментариев каждого автора. Признак анонимности
+ * вычисляется при загрузке списка из БД, то есть обновляется вместе с lastmod темы.
+ */
 public class CommentList implements Serializable {
   private static final Log logger = LogFactory.getLog(CommentList.class);
 
-  private final List<Comment> comments = new ArrayList<Comment>(CommentFilter.COMMENTS_INITIAL_BUFSIZE);
-  private final CommentNode root = new CommentNode();
-  private final Map<Integer, CommentNode> treeHash = new HashMap<Integer, CommentNode>(CommentFilter.COMMENTS_INITIAL_BUFSIZE);
+  private static final long serialVersionUID = 5405164287232823406L;
+
+  private static final int FORMAT_VERSION = 2;
+
+  private static final int FLAG_DELETED = 1;
+  private static final int FLAG_DELETE_INFO = 2;
+  private static final int FLAG_ANONYMOUS = 4;
+
+  private transient List<Comment> comments;
+  private transient long lastmod;
 
-  private final long lastmod;
+  // msgid по возрастанию и позиции соответствующих комментариев (null, если совпадают)
+  private transient int[] ids;
+  private transient int[] idPositions;
+
+  // -1 - нет
+  private transient int[] parents;
+  private transient int[] firstChild;
+  private transient int[] nextSibling;
+  private transient int firstRoot;
+
+  // обход в глубину: order[k] - позиция комментария, orderPos - обратный индекс,
+  // subtreeEnd[i] - конец (не включая) отрезка поддерева i в order
+  private transient int[] order;
+  private transient int[] orderPos;
+  private transient int[] subtreeEnd;
+
+  // комментарии анонимных авторов (по позициям) и скрываемые из-за них поддеревья (по обходу)
+  private transient BitSet anonymous;
+  private transient BitSet anonymousHidden;
+
+  // userid -> позиции комментариев автора по возрастанию
+  private transient Map<Integer, int[]> authorPostings;
 
   private CommentList(Connection db, int topicId, long lastmod, boolean deleted) throws SQLException {
     this.lastmod = lastmod;
 
     String delq = deleted ? "" : " AND NOT deleted ";
 
+    List<Comment> list = new ArrayList<Comment>(CommentFilter.COMMENTS_INITIAL_BUFSIZE);
+
     Statement st = db.createStatement();
     ResultSet rs = st.executeQuery(
         "SELECT " +
@@ -53,47 +93,312 @@ public class CommentList implements Serializable {
             "ORDER BY msgid ASC"
     );
 
+    List<Integer> deletedIds = new ArrayList<Integer>();
+
     while (rs.next()) {
-      comments.add(new Comment(db, rs));
+      Comment comment = new Comment(
+          rs.getInt("msgid"), rs.getString("title"), rs.getInt("userid"), rs.getInt("replyto"), rs.getInt("topic"),
+          rs.getBoolean("deleted"), rs.getTimestamp("postdate"), null, rs.getString("useragent"), rs.getString("postip")
+      );
+
+      if (comment.isDeleted()) {
+        deletedIds.add(comment.getId());
+      }
+
+      list.add(comment);
     }
 
     rs.close();
+    st.close();
+
+    // информация об удалении читается одним запросом на все удаленные комментарии
+    if (!deletedIds.isEmpty()) {
+      Map<Integer, DeleteInfo> deleteInfos = DeleteInfo.getDeleteInfo(db, deletedIds);
+
+      for (ListIterator<Comment> it = list.listIterator(); it.hasNext(); ) {
+        Comment comment = it.next();
+
+        if (comment.isDeleted()) {
+          it.set(new Comment(
+              comment.getId(), comment.getTitle(), comment.getUserid(), comment.getReplyTo(), comment.getTopic(),
+              true, new Timestamp(comment.getPostdate().getTime()), deleteInfos.get(comment.getId()),
+              comment.getUserAgent(), comment.getPostIP()
+          ));
+        }
+      }
+    }
+
+    logger.debug("Read list size = " +list.size());
+
+    Set<Integer> userids = new HashSet<Integer>();
 
-    logger.debug("Read list size = " +comments.size());
+    for (Comment comment : list) {
+      userids.add(comment.getUserid());
+    }
+
+    Set<Integer> anonymousAuthors = new HashSet<Integer>();
+
+    for (User user : User.getUsersCached(db, userids).values()) {
+      if (user.isAnonymousScore()) {
+        anonymousAuthors.add(user.getId());
+      }
+    }
+
+    buildTree(list, getAnonymous(list, anonymousAuthors));
+  }
+
+  /**
+   * @param comments комментарии одной темы в порядке отображения (по msgid)
+   */
+  CommentList(List<Comment> comments, long lastmod) {
+    this(comments, lastmod, Collections.<Integer>emptySet());
+  }
 
-    buildTree();
+  /**
+   * @param anonymousAuthors авторы, чьи комментарии скрываются фильтром анонимных
+   */
+  CommentList(List<Comment> comments, long lastmod, Set<Integer> anonymousAuthors) {
+    this.lastmod = lastmod;
+
+    buildTree(comments, getAnonymous(comments, anonymousAuthors));
+  }
+
+  private static BitSet getAnonymous(List<Comment> comments, Set<Integer> anonymousAuthors) {
+    BitSet anonymous = new BitSet(comments.size());
+
+    for (int i=0; i<comments.size(); i++) {
+      if (anonymousAuthors.contains(comments.get(i).getUserid())) {
+        anonymous.set(i);
+      }
+    }
+
+    return anonymous;
   }
 
   public List<Comment> getList() {
-    return Collections.unmodifiableList(comments);
+    return comments;
   }
 
-  private void buildTree() {
-    /* build tree */
-    for (Comment comment : comments) {
-      CommentNode node = new CommentNode(comment);
+  private void buildTree(List<Comment> list, BitSet anonymous) {
+    comments = Collections.unmodifiableList(new ArrayList<Comment>(list));
+    this.anonymous = anonymous;
+
+    int size = comments.size();
+
+    buildIndex();
+
+    parents = new int[size];
+    firstChild = new int[size];
+    nextSibling = new int[size];
+    int[] lastChild = new int[size];
+
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+
+    firstRoot = -1;
+    int lastRoot = -1;
 
-      treeHash.put(comment.getMessageId(), node);
+    for (int i=0; i<size; i++) {
+      int replyto = comments.get(i).getReplyTo();
+      int parent = replyto!=0 ? indexOf(replyto) : -1;
 
-      if (comment.getReplyTo()==0) {
-        root.addChild(node);
+      // ответ на комментарий, которого нет в списке (или который идет позже), - в корень
+      if (parent>=i) {
+        parent = -1;
+      }
+
+      parents[i] = parent;
+
+      if (parent==-1) {
+        if (lastRoot==-1) {
+          firstRoot = i;
+        } else {
+          nextSibling[lastRoot] = i;
+        }
+
+        lastRoot = i;
       } else {
-        CommentNode parentNode = treeHash.get(comment.getReplyTo());
-        if (parentNode!=null) {
-          parentNode.addChild(node);
+        if (firstChild[parent]==-1) {
+          firstChild[parent] = i;
         } else {
-          root.addChild(node);
+          nextSibling[lastChild[parent]] = i;
         }
+
+        lastChild[parent] = i;
+      }
+    }
+
+    buildOrder();
+    buildPostings();
+
+    anonymousHidden = new BitSet(size);
+
+    for (int k=0; k<size; k++) {
+      int node = order[k];
+
+      if (anonymous.get(node)) {
+        anonymousHidden.set(k, subtreeEnd[node]);
+        k = subtreeEnd[node] - 1;
+      }
+    }
+  }
+
+  private void buildPostings() {
+    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+    for (Comment comment : comments) {
+      Integer count = counts.get(comment.getUserid());
+
+      counts.put(comment.getUserid(), count!=null ? count+1 : 1);
+    }
+
+    authorPostings = new HashMap<Integer, int[]>(counts.size()*2);
+
+    for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+      authorPostings.put(entry.getKey(), new int[entry.getValue()]);
+    }
+
+    // заполняем с конца, уменьшая счетчики, - позиции идут по возрастанию
+    for (int i=comments.size()-1; i>=0; i--) {
+      int userid = comments.get(i).getUserid();
+      int n = counts.get(userid) - 1;
+
+      authorPostings.get(userid)[n] = i;
+      counts.put(userid, n);
+    }
+  }
+
+  private void buildIndex() {
+    int size = comments.size();
+
+    ids = new int[size];
+
+    boolean sorted = true;
+
+    for (int i=0; i<size; i++) {
+      ids[i] = comments.get(i).getMessageId();
+
+      if (i>0 && ids[i]<=ids[i-1]) {
+        sorted = false;
       }
     }
+
+    if (sorted) {
+      idPositions = null;
+      return;
+    }
+
+    Integer[] positions = new Integer[size];
+
+    for (int i=0; i<size; i++) {
+      positions[i] = i;
+    }
+
+    final int[] unsorted = ids.clone();
+
+    Arrays.sort(positions, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int x = unsorted[a];
+        int y = unsorted[b];
+
+        return x<y ? -1 : (x==y ? 0 : 1);
+      }
+    });
+
+    idPositions = new int[size];
+
+    for (int i=0; i<size; i++) {
+      idPositions[i] = positions[i];
+      ids[i] = unsorted[positions[i]];
+    }
+  }
+
+  private void buildOrder() {
+    int size = comments.size();
+
+    order = new int[size];
+    orderPos = new int[size];
+    subtreeEnd = new int[size];
+
+    int k = 0;
+    int node = firstRoot;
+
+    while (node!=-1) {
+      order[k] = node;
+      orderPos[node] = k;
+      k++;
+
+      if (firstChild[node]!=-1) {
+        node = firstChild[node];
+        continue;
+      }
+
+      // поднимаемся до ближайшего предка, у которого есть следующий ответ
+      while (node!=-1) {
+        subtreeEnd[node] = k;
+
+        if (nextSibling[node]!=-1) {
+          node = nextSibling[node];
+          break;
+        }
+
+        node = parents[node];
+      }
+    }
+  }
+
+  /**
+   * @return позиция комментария в списке или -1
+   */
+  int indexOf(int msgid) {
+    int i = Arrays.binarySearch(ids, msgid);
+
+    if (i<0) {
+      return -1;
+    }
+
+    return idPositions!=null ? idPositions[i] : i;
   }
 
   public CommentNode getRoot() {
-    return root;
+    return new CommentNode(this, -1);
   }
 
   public CommentNode getNode(int msgid) {
-    return treeHash.get(msgid);
+    int index = indexOf(msgid);
+
+    return index!=-1 ? new CommentNode(this, index) : null;
+  }
+
+  Comment get(int index) {
+    return comments.get(index);
+  }
+
+  int getFirstChild(int index) {
+    return index==-1 ? firstRoot : firstChild[index];
+  }
+
+  int getNextSibling(int index) {
+    return nextSibling[index];
+  }
+
+  int getOrder(int k) {
+    return order[k];
+  }
+
+  /**
+   * @return начало отрезка поддерева в обходе; для корня - 0
+   */
+  int getSubtreeStart(int index) {
+    return index==-1 ? 0 : orderPos[index];
+  }
+
+  /**
+   * @return конец отрезка поддерева в обходе (не включая)
+   */
+  int getSubtreeEnd(int index) {
+    return index==-1 ? comments.size() : subtreeEnd[index];
   }
 
   public long getLastModified() {
@@ -101,7 +406,7 @@ public class CommentList implements Serializable {
   }
 
   public int getCommentPage(Comment comment, int messages, boolean reverse) {
-    int index = comments.indexOf(comment);
+    int index = indexOf(comment.getMessageId());
 
     if (reverse) {
       return (comments.size()-index)/messages;
@@ -117,6 +422,139 @@ public class CommentList implements Serializable {
     return getCommentPage(comment, messages, reverse);
   }
 
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(lastmod);
+    out.writeInt(comments.size());
+
+    // названия браузеров повторяются, пишем их номерами
+    Map<String, Integer> userAgents = new HashMap<String, Integer>();
+
+    for (int i=0; i<comments.size(); i++) {
+      Comment comment = comments.get(i);
+
+      out.writeInt(comment.getMessageId());
+      out.writeInt(comment.getReplyTo());
+      out.writeInt(comment.getUserid());
+      out.writeInt(comment.getTopic());
+      out.writeLong(comment.getPostdate().getTime());
+
+      DeleteInfo deleteInfo = comment.getDeleteInfo();
+
+      int flags = 0;
+
+      if (comment.isDeleted()) {
+        flags |= FLAG_DELETED;
+      }
+
+      if (deleteInfo!=null) {
+        flags |= FLAG_DELETE_INFO;
+      }
+
+      if (anonymous.get(i)) {
+        flags |= FLAG_ANONYMOUS;
+      }
+
+      out.writeByte(flags);
+
+      writeString(out, comment.getTitle());
+      writeString(out, comment.getPostIP());
+
+      String userAgent = comment.getUserAgent();
+
+      if (userAgent==null) {
+        out.writeInt(-1);
+      } else {
+        Integer known = userAgents.get(userAgent);
+
+        if (known!=null) {
+          out.writeInt(known);
+        } else {
+          out.writeInt(userAgents.size());
+          out.writeUTF(userAgent);
+          userAgents.put(userAgent, userAgents.size());
+        }
+      }
+
+      if (deleteInfo!=null) {
+        writeString(out, deleteInfo.getNick());
+        out.writeInt(deleteInfo.getUserid());
+        writeString(out, deleteInfo.getReason());
+        out.writeLong(deleteInfo.getDelDate()!=null ? deleteInfo.getDelDate().getTime() : Long.MIN_VALUE);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    int version = in.readInt();
+
+    if (version!=FORMAT_VERSION) {
+      throw new InvalidObjectException("Unsupported comment list format: "+version);
+    }
+
+    lastmod = in.readLong();
+
+    int size = in.readInt();
+
+    List<Comment> list = new ArrayList<Comment>(size);
+    List<String> userAgents = new ArrayList<String>();
+    BitSet anonymousComments = new BitSet(size);
+
+    for (int i=0; i<size; i++) {
+      int msgid = in.readInt();
+      int replyto = in.readInt();
+      int userid = in.readInt();
+      int topic = in.readInt();
+      Timestamp postdate = new Timestamp(in.readLong());
+      int flags = in.readUnsignedByte();
+
+      if ((flags & FLAG_ANONYMOUS)!=0) {
+        anonymousComments.set(i);
+      }
+
+      String title = readString(in);
+      String postIP = readString(in);
+
+      String userAgent = null;
+      int userAgentId = in.readInt();
+
+      if (userAgentId>=0) {
+        if (userAgentId==userAgents.size()) {
+          userAgents.add(in.readUTF());
+        }
+
+        userAgent = userAgents.get(userAgentId);
+      }
+
+      DeleteInfo deleteInfo = null;
+
+      if ((flags & FLAG_DELETE_INFO)!=0) {
+        String nick = readString(in);
+        int delby = in.readInt();
+        String reason = readString(in);
+        long delDate = in.readLong();
+
+        deleteInfo = new DeleteInfo(nick, delby, reason, delDate!=Long.MIN_VALUE ? new Timestamp(delDate) : null);
+      }
+
+      list.add(new Comment(msgid, title, userid, replyto, topic, (flags & FLAG_DELETED)!=0, postdate, deleteInfo, userAgent, postIP));
+    }
+
+    buildTree(list, anonymousComments);
+  }
+
+  private static void writeString(ObjectOutputStream out, String value) throws IOException {
+    out.writeBoolean(value!=null);
+
+    if (value!=null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(ObjectInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
   public static CommentList getCommentList(Connection db, Message topic, boolean showDeleted) throws SQLException {
     CacheProvider mcc = MemCachedSettings.getCache();
 
@@ -132,25 +570,56 @@ public class CommentList implements Serializable {
     return res;
   }
 
-  public static Set<Integer> makeHideSet(Connection db, CommentList comments, int filterChain, Map<Integer, String> ignoreList) throws SQLException, UserNotFoundException {
+  /**
+   * Комментарии, скрываемые фильтром: поддеревья ответов на комментарии анонимных
+   * и игнорируемых авторов. Стоимость зависит от числа комментариев игнорируемых
+   * авторов, а не от размера темы.
+   *
+   * @return битовое множество для {@link #isHidden(BitSet, int)} или null, если фильтр выключен
+   */
+  public static BitSet makeHideSet(CommentList comments, int filterChain, Map<Integer, String> ignoreList) {
     if (filterChain == CommentFilter.FILTER_NONE) {
       return null;
     }
 
-    Set<Integer> hideSet = new HashSet<Integer>();
+    BitSet hideSet;
 
     /* hide anonymous */
     if ((filterChain & CommentFilter.FILTER_ANONYMOUS) > 0) {
-      comments.root.hideAnonymous(db, hideSet);
+      hideSet = (BitSet) comments.anonymousHidden.clone();
+    } else {
+      hideSet = new BitSet(comments.comments.size());
     }
 
     /* hide ignored */
     if ((filterChain & CommentFilter.FILTER_IGNORED) > 0) {
       if (ignoreList != null && !ignoreList.isEmpty()) {
-        comments.root.hideIgnored(hideSet, ignoreList);
+        for (Integer userid : ignoreList.keySet()) {
+          int[] postings = comments.authorPostings.get(userid);
+
+          if (postings==null) {
+            continue;
+          }
+
+          for (int index : postings) {
+            int start = comments.orderPos[index];
+
+            if (!hideSet.get(start)) {
+              hideSet.set(start, comments.subtreeEnd[index]);
+            }
+          }
+        }
       }
     }
     
     return hideSet;
   }
+
+  /**
+   * @param hideSet результат {@link #makeHideSet(CommentList, int, Map)}, может быть null
+   * @param index позиция комментария в списке
+   */
+  boolean isHidden(BitSet hideSet, int index) {
+    return hideSet!=null && hideSet.get(orderPos[index]);
+  }
 }
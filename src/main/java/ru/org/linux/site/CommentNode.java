@@ -15,85 +15,44 @@
 
 package ru.org.linux.site;
 
-import java.io.Serializable;
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.util.*;
 
-public class CommentNode implements Serializable {
-  private final LinkedList<CommentNode> childs = new LinkedList<CommentNode>();
-  private Comment comment = null;
+/**
+ * Узел дерева комментариев - ссылка на позицию в {@link CommentList};
+ * корень (index -1) комментария не содержит.
+ */
+public class CommentNode {
+  private final CommentList list;
+  private final int index;
 
-  public CommentNode() {
+  CommentNode(CommentList list, int index) {
+    this.list = list;
+    this.index = index;
   }
 
-  public CommentNode(Comment comment) {
-    this.comment = comment;
-  }
+  public List<CommentNode> getChilds() {
+    List<CommentNode> childs = new ArrayList<CommentNode>();
 
-  public void addChild(CommentNode child) {
-    childs.add(child);
-  }
+    for (int child = list.getFirstChild(index); child!=-1; child = list.getNextSibling(child)) {
+      childs.add(new CommentNode(list, child));
+    }
 
-  public List getChilds() {
     return Collections.unmodifiableList(childs);
   }
 
   public int getMessageId() {
-    return comment==null?0:comment.getMessageId();
+    return index==-1?0:list.get(index).getMessageId();
   }
 
-  public void hideAnonymous(Connection db, Set<Integer> hideSet) throws SQLException, UserNotFoundException {
-    if (comment!=null) {
-      User commentAuthor = User.getUserCached(db, comment.getUserid());
-
-      if (commentAuthor.isAnonymousScore()) {
-        hideNode(hideSet);
-      }
-    }
-
-    if (comment==null || !hideSet.contains(comment.getMessageId())) {
-      for (CommentNode child : childs) {
-        child.hideAnonymous(db, hideSet);
-      }
-    }
-  }
-
-  public void hideIgnored(Set<Integer> hideSet, Map<Integer, String> ignoreList) {
-    if (comment != null) {
-      if (comment.isIgnored(ignoreList)) {
-        hideNode(hideSet);
-      }
-    }
-
-    if (comment==null || !hideSet.contains(comment.getMessageId())) {
-      for (CommentNode child : childs) {
-        child.hideIgnored(hideSet, ignoreList);
-      }
-    }
-  }
-
-  public void buildList(List<Comment> list) {
-    if (comment!=null) {
-      list.add(comment);
-    }
-
-    for (CommentNode child : childs) {
-      child.buildList(list);
-    }
-  }
-
-  public void hideNode(Set<Integer> hideSet) {
-    if (comment!=null) {
-      hideSet.add(comment.getMessageId());
-    }
+  public void buildList(List<Comment> out) {
+    int end = list.getSubtreeEnd(index);
 
-    for (CommentNode child : childs) {
-      child.hideNode(hideSet);
+    for (int k = list.getSubtreeStart(index); k<end; k++) {
+      out.add(list.get(list.getOrder(k)));
     }
   }
 
   public Comment getComment() {
-    return comment;
+    return index==-1?null:list.get(index);
   }
-}
\ No newline at end of file
+}
@@ -17,6 +17,10 @@ package ru.org.linux.site;
 
 import java.io.Serializable;
 import java.sql.*;
+import java.util.*;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
 
 public class DeleteInfo implements Serializable {
   private final String nick;
@@ -24,7 +28,9 @@ public class DeleteInfo implements Serializable {
   private final String reason;
   private final Timestamp delDate;
 
-  private DeleteInfo(String nick, int userid, String reason, Timestamp delDate) {
+  private static final int MAX_IDS_PER_QUERY = 1000;
+
+  DeleteInfo(String nick, int userid, String reason, Timestamp delDate) {
     this.nick = nick;
     this.reason = reason;
     this.userid = userid;
@@ -52,6 +58,32 @@ public class DeleteInfo implements Serializable {
     }
   }
 
+  public static Map<Integer, DeleteInfo> getDeleteInfo(Connection db, Collection<Integer> msgids) throws SQLException {
+    Map<Integer, DeleteInfo> infos = new HashMap<Integer, DeleteInfo>();
+
+    if (msgids.isEmpty()) {
+      return infos;
+    }
+
+    Statement st = db.createStatement();
+
+    try {
+      for (List<Integer> part : Iterables.partition(new LinkedHashSet<Integer>(msgids), MAX_IDS_PER_QUERY)) {
+        ResultSet rs = st.executeQuery("SELECT msgid, nick,reason,users.id as userid, deldate FROM del_info,users WHERE msgid IN (" + Joiner.on(',').join(part) + ") AND users.id=del_info.delby");
+
+        while (rs.next()) {
+          infos.put(rs.getInt("msgid"), new DeleteInfo(rs.getString("nick"), rs.getInt("userid"), rs.getString("reason"), rs.getTimestamp("deldate")));
+        }
+
+        rs.close();
+      }
+    } finally {
+      st.close();
+    }
+
+    return infos;
+  }
+
   public String getNick() {
     return nick;
   }
@@ -15,32 +15,71 @@
 
 package ru.org.linux.site;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import net.spy.memcached.MemcachedClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Не больше одного сообщения с IP за THRESHHOLD мс (THRESHHOLD_TRUSTED для
+ * пользователей с высоким score).
+ *
+ * Проверка не блокирует: время последнего сообщения хранится в {@link Backend}.
+ * По умолчанию это {@link LocalBackend} в памяти узла; {@link #setShared(boolean)}
+ * включает {@link MemCachedBackend}, чтобы ограничение действовало на всех узлах.
+ */
 public class DupeProtector {
+  private static final Log logger = LogFactory.getLog(DupeProtector.class);
+
   private static final int THRESHHOLD = 30000;
   private static final int THRESHHOLD_TRUSTED = 3000;
-  
+
+  private static final int MAX_ENTRIES = 100000;
+  private static final int REPORT_INTERVAL = 60*60*1000;
+
   private static final DupeProtector instance = new DupeProtector();
 
-  private final Map<String,Date> hash = new HashMap<String,Date>();
+  public interface Backend {
+    /**
+     * Если с ip не было сообщений за последние window мс, запомнить время now
+     *
+     * @return true, если сообщение разрешено
+     */
+    boolean tryAcquire(String ip, long now, int window);
+  }
+
+  private final LocalBackend localBackend = new LocalBackend(THRESHHOLD, MAX_ENTRIES);
+  private volatile Backend backend = localBackend;
+
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong rejectedTrusted = new AtomicLong();
 
   private DupeProtector() {
   }
 
-  public synchronized boolean check(String ip,boolean trusted) {
-    cleanup(trusted);
+  public boolean check(String ip,boolean trusted) {
+    int window = trusted ? THRESHHOLD_TRUSTED : THRESHHOLD;
 
-    if (hash.containsKey(ip)) {
-      return false;
+    if (backend.tryAcquire(ip, System.currentTimeMillis(), window)) {
+      accepted.incrementAndGet();
+      return true;
     }
 
-    hash.put(ip, new Date());
+    if (trusted) {
+      rejectedTrusted.incrementAndGet();
+    } else {
+      rejected.incrementAndGet();
+    }
 
-    return true;
+    return false;
   }
 
   public void checkDuplication(String ip) throws DuplicationException {
@@ -55,23 +94,206 @@ public class DupeProtector {
     }
   }
 
-  private synchronized void cleanup(boolean trusted) {
-    Date current = new Date();
+  /**
+   * @param shared хранить время сообщений в memcached, общем для всех узлов
+   */
+  public void setShared(boolean shared) {
+    if (shared) {
+      backend = new MemCachedBackend(MemCachedSettings.getMemCachedClient(), localBackend);
+    } else {
+      backend = localBackend;
+    }
+  }
+
+  @Scheduled(fixedDelay=REPORT_INTERVAL)
+  public void logStats() {
+    logger.info(
+      "DupeProtector: accepted=" + accepted.get() +
+        " rejected=" + rejected.get() +
+        " rejectedTrusted=" + rejectedTrusted.get() +
+        " localEntries=" + localBackend.size() +
+        " evicted=" + localBackend.getEvicted()
+    );
+  }
 
-    for (Iterator<Map.Entry<String,Date>> i = hash.entrySet().iterator(); i.hasNext(); ) {
-      Map.Entry<String,Date> entry = i.next();
-      Date date = entry.getValue();
+  public static DupeProtector getInstance() {
+    return instance;
+  }
 
-      if (trusted && (current.getTime()-date.getTime())>THRESHHOLD_TRUSTED) {
-        i.remove();
+  /**
+   * Время последнего сообщения по IP в памяти.
+   *
+   * Каждая запись попадает и в кольцо корзин по BUCKET мс; корзина очищается, когда
+   * кольцо делает полный оборот (он дольше самого длинного окна), поэтому очистка
+   * не просматривает все IP при каждом сообщении. При переполнении раньше времени
+   * очищаются самые старые корзины.
+   */
+  static class LocalBackend implements Backend {
+    private static final int BUCKET = 1000;
+
+    private final ConcurrentMap<String, Long> last = new ConcurrentHashMap<String, Long>();
+    private final AtomicReferenceArray<Bucket> ring;
+    private final int maxEntries;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong evicted = new AtomicLong();
+
+    LocalBackend(int maxWindow, int maxEntries) {
+      ring = new AtomicReferenceArray<Bucket>(maxWindow / BUCKET + 2);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public boolean tryAcquire(String ip, long now, int window) {
+      while (true) {
+        Long time = last.get(ip);
+
+        if (time==null) {
+          if (size.get() >= maxEntries) {
+            evictOldest();
+          }
+
+          if (last.putIfAbsent(ip, now)==null) {
+            size.incrementAndGet();
+            record(ip, now);
+            return true;
+          }
+        } else if (now - time <= window) {
+          return false;
+        } else if (last.replace(ip, time, now)) {
+          record(ip, now);
+          return true;
+        }
       }
-      else if ((current.getTime()-date.getTime())>THRESHHOLD) {
-        i.remove();
+    }
+
+    int size() {
+      return size.get();
+    }
+
+    long getEvicted() {
+      return evicted.get();
+    }
+
+    private void record(String ip, long now) {
+      long slot = now / BUCKET;
+      int index = (int) (slot % ring.length());
+
+      while (true) {
+        Bucket bucket = ring.get(index);
+
+        if (bucket==null || bucket.slot < slot) {
+          Bucket created = new Bucket(slot);
+
+          if (ring.compareAndSet(index, bucket, created)) {
+            if (bucket!=null) {
+              expire(bucket);
+            }
+
+            bucket = created;
+          } else {
+            continue;
+          }
+        }
+
+        bucket.ips.add(ip);
+
+        // корзину могли заменить и очистить до добавления: тогда записать еще раз
+        if (ring.get(index)==bucket) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Удалить записи корзины, которые не обновлялись после нее
+     */
+    private void expire(Bucket bucket) {
+      String ip;
+
+      while ((ip = bucket.ips.poll())!=null) {
+        Long time = last.get(ip);
+
+        if (time!=null && time / BUCKET <= bucket.slot && last.remove(ip, time)) {
+          size.decrementAndGet();
+        }
+      }
+    }
+
+    private void evictOldest() {
+      while (size.get() >= maxEntries) {
+        int oldest = -1;
+        Bucket oldestBucket = null;
+
+        for (int i=0; i<ring.length(); i++) {
+          Bucket bucket = ring.get(i);
+
+          if (bucket!=null && (oldestBucket==null || bucket.slot < oldestBucket.slot)) {
+            oldest = i;
+            oldestBucket = bucket;
+          }
+        }
+
+        if (oldestBucket==null) {
+          return;
+        }
+
+        if (ring.compareAndSet(oldest, oldestBucket, null)) {
+          int before = size.get();
+          expire(oldestBucket);
+          evicted.addAndGet(before - size.get());
+        }
+      }
+    }
+
+    private static class Bucket {
+      private final long slot;
+      private final ConcurrentLinkedQueue<String> ips = new ConcurrentLinkedQueue<String>();
+
+      private Bucket(long slot) {
+        this.slot = slot;
       }
     }
   }
 
-  public static DupeProtector getInstance() {
-    return instance;
+  /**
+   * Общие для всех узлов метки в memcached: на каждое окно своя метка с временем жизни,
+   * равным окну, и проверка - атомарный add. Разрешенное сообщение ставит метки обоих окон.
+   * Если memcached недоступен, используется локальная проверка.
+   */
+  static class MemCachedBackend implements Backend {
+    private final MemcachedClient client;
+    private final Backend fallback;
+
+    MemCachedBackend(MemcachedClient client, Backend fallback) {
+      this.client = client;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public boolean tryAcquire(String ip, long now, int window) {
+      try {
+        if (client.getAvailableServers().isEmpty()) {
+          return fallback.tryAcquire(ip, now, window);
+        }
+
+        if (!client.add(getKey(ip, window), window / 1000, now).get()) {
+          return false;
+        }
+
+        int other = window==THRESHHOLD ? THRESHHOLD_TRUSTED : THRESHHOLD;
+
+        client.set(getKey(ip, other), other / 1000, now);
+
+        return true;
+      } catch (Exception ex) {
+        logger.info("Memcached dupe check failed", ex);
+        return fallback.tryAcquire(ip, now, window);
+      }
+    }
+
+    private static String getKey(String ip, int window) {
+      return MemCachedSettings.getId("dupe/" + window + '/' + ip);
+    }
   }
-}
\ No newline at end of file
+}
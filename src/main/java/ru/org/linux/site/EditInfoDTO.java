@@ -15,11 +15,14 @@
 
 package ru.org.linux.site;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 
-public class EditInfoDTO {
+public class EditInfoDTO implements Serializable {
+  private static final long serialVersionUID = -3320021415045963048L;
+
   private int id;
   private int msgid;
   private int editor;
@@ -15,107 +15,39 @@
 
 package ru.org.linux.site;
 
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-
-public class Group {
-  private boolean moderate;
-  private boolean imagepost;
-  private boolean votepoll;
-  private boolean havelink;
-  private int section;
-  private String linktext;
-  private String sectionName;
-  private String title;
-  private String urlName;
-  private String image;
-  private int restrictTopics;
-  private int restrictComments;
-  private int id;
-
-  private int stat1;
-  private int stat2;
-  private int stat3;
-
-  private String info;
-  private String longInfo;
-
-  private boolean resolvable;
-
-  public Group(Connection db, int id) throws SQLException, BadGroupException {
-    this.id = id;
-
-    ResultSet rs = null;
-    Statement st = null;
-    try {
-      st = db.createStatement();
-
-      rs = st.executeQuery("SELECT sections.moderate, sections.preformat, imagepost, vote, section, havelink, linktext, sections.name as sname, title, urlname, image, restrict_topics, restrict_comments,stat1,stat2,stat3,groups.id, groups.info, groups.longinfo, groups.resolvable FROM groups, sections WHERE groups.id=" + id + " AND groups.section=sections.id");
-
-      if (!rs.next()) {
-        throw new BadGroupException("Группа " + id + " не существует");
-      }
-
-      init(rs);
-    } finally {
-      if (st != null) {
-        st.close();
-      }
-      if (rs != null) {
-        rs.close();
-      }
-    }
-  }
-
-  public Group(Connection db, int section, String urlname) throws SQLException, BadGroupException {
-    ResultSet rs = null;
-    PreparedStatement pst = null;
-    try {
-      pst = db.prepareStatement("SELECT sections.moderate, sections.preformat, imagepost, vote, section, havelink, linktext, sections.name as sname, title, urlname, image, restrict_topics, restrict_comments,stat1,stat2,stat3,groups.id, groups.info, groups.longinfo, groups.resolvable FROM groups, sections WHERE groups.urlname=? AND groups.section=sections.id AND groups.section=?");
-
-      pst.setString(1, urlname);
-      pst.setInt(2, section);
-      
-      rs = pst.executeQuery();
-
-      if (!rs.next()) {
-        throw new BadGroupException("Группа " + id + " не существует");
-      }
-
-      init(rs);
-    } finally {
-      if (pst != null) {
-        pst.close();
-      }
-
-      if (rs != null) {
-        rs.close();
-      }
-    }
-  }
-
-  private Group(ResultSet rs) throws SQLException {
-    init(rs);
-  }
-
-  public static List<Group> getGroups(Connection db, Section section) throws SQLException {
-    Statement st = db.createStatement();
-
-    ResultSet rs = st.executeQuery("SELECT sections.moderate, sections.preformat, imagepost, vote, section, havelink, linktext, sections.name as sname, title, urlname, image, restrict_topics, restrict_comments, stat1,stat2,stat3,groups.id,groups.info,groups.longinfo,groups.resolvable FROM groups, sections WHERE sections.id=" + section.getId() + " AND groups.section=sections.id ORDER BY id");
-
-    List<Group> list = new ArrayList<Group>();
-
-    while(rs.next()) {
-      Group group = new Group(rs);
-
-      list.add(group);
-    }
-
-    return list;
-  }
-
-  private void init(ResultSet rs) throws SQLException {
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class Group implements Serializable {
+  private static final long serialVersionUID = -3197161180563055414L;
+
+  private final boolean moderate;
+  private final boolean imagepost;
+  private final boolean votepoll;
+  private final boolean havelink;
+  private final int section;
+  private final String linktext;
+  private final String sectionName;
+  private final String title;
+  private final String urlName;
+  private final String image;
+  private final int restrictTopics;
+  private final int restrictComments;
+  private final int id;
+
+  private final String info;
+  private final String longInfo;
+
+  private final boolean resolvable;
+
+  /**
+   * Группы загружаются один раз в {@link ru.org.linux.spring.GroupStore};
+   * счетчики сообщений (stat1...) хранятся там же отдельно
+   */
+  public Group(ResultSet rs) throws SQLException {
     id = rs.getInt("id");
     moderate = rs.getBoolean("moderate");
     imagepost = rs.getBoolean("imagepost");
@@ -130,16 +62,38 @@ public class Group {
     restrictTopics = rs.getInt("restrict_topics");
     restrictComments = rs.getInt("restrict_comments");
 
-    stat1 = rs.getInt("stat1");
-    stat2 = rs.getInt("stat2");
-    stat3 = rs.getInt("stat3");
-
-
     info = rs.getString("info");
     longInfo = rs.getString("longinfo");
     resolvable = rs.getBoolean("resolvable");
   }
 
+  private Group(Group group, String title, String info, String longInfo) {
+    id = group.id;
+    moderate = group.moderate;
+    imagepost = group.imagepost;
+    votepoll = group.votepoll;
+    section = group.section;
+    havelink = group.havelink;
+    linktext = group.linktext;
+    sectionName = group.sectionName;
+    urlName = group.urlName;
+    image = group.image;
+    restrictTopics = group.restrictTopics;
+    restrictComments = group.restrictComments;
+    resolvable = group.resolvable;
+
+    this.title = title;
+    this.info = info;
+    this.longInfo = longInfo;
+  }
+
+  /**
+   * @return копия группы с другим описанием (для предпросмотра изменений)
+   */
+  public Group withInfo(String title, String info, String longInfo) {
+    return new Group(this, title, info, longInfo);
+  }
+
   public boolean isImagePostAllowed() {
     return imagepost;
   }
@@ -228,18 +182,6 @@ public class Group {
     return id;
   }
 
-  public int getStat1() {
-    return stat1;
-  }
-
-  public int getStat2() {
-    return stat2;
-  }
-
-  public int getStat3() {
-    return stat3;
-  }
-
   public String getInfo() {
     return info;
   }
@@ -277,14 +219,6 @@ public class Group {
     return longInfo;
   }
 
-  public void setInfo(String info) {
-    this.info = info;
-  }
-
-  public void setLongInfo(String longInfo) {
-    this.longInfo = longInfo;
-  }
-
   public boolean isResolvable() {
     return resolvable;
   }
@@ -304,9 +238,5 @@ public class Group {
   public String getArchiveLink(int year, int month) {
     return getUrl() +year+ '/' +month+ '/';
   }
-
-  public void setTitle(String title) {
-    this.title = title;
-  }
 }
 
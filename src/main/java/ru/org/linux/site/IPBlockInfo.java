@@ -15,44 +15,47 @@
 
 package ru.org.linux.site;
 
-import java.net.UnknownHostException;
 import java.sql.*;
 import java.util.Date;
 
-import org.xbill.DNS.TextParseException;
-
-import ru.org.linux.util.DNSBLClient;
-
+/**
+ * Строка b_ips: блокировка адреса или сети (host/masklen).
+ * Проверка при постинге - {@link ru.org.linux.spring.IPBlockStore}.
+ */
 public class IPBlockInfo {
+  public static final String COLUMNS = "host(ip) as host, masklen(ip) as masklen, reason, ban_date, date, mod_id";
+
+  private final String host;
+  private final int masklen;
   private final String reason;
   private final Timestamp banDate;
   private final Timestamp originalDate;
-  private final User moderator;
+  private final int moderatorId;
 
-  private IPBlockInfo(Connection db, ResultSet rs) throws SQLException {
+  public IPBlockInfo(ResultSet rs) throws SQLException {
+    host = rs.getString("host");
+    masklen = rs.getInt("masklen");
     reason = rs.getString("reason");
     banDate = rs.getTimestamp("ban_date");
     originalDate = rs.getTimestamp("date");
-    int moderatorId = rs.getInt("mod_id");
-    try {
-      moderator = User.getUser(db, moderatorId);
-    } catch (UserNotFoundException e) {
-      throw new RuntimeException(e);
-    }
+    moderatorId = rs.getInt("mod_id");
   }
 
+  /**
+   * @return блокировка ровно этого адреса или сети (без учета других сетей)
+   */
   public static IPBlockInfo getBlockInfo(Connection db, String addr) throws SQLException {
     PreparedStatement st = null;
 
     try {
-      st= db.prepareStatement("SELECT reason, ban_date, date, mod_id FROM b_ips WHERE ip = ?::inet");
+      st= db.prepareStatement("SELECT " + COLUMNS + " FROM b_ips WHERE ip = ?::inet");
 
       st.setString(1, addr);
-  
+
       ResultSet rs = st.executeQuery();
 
       if (rs.next()) {
-        return new IPBlockInfo(db, rs);
+        return new IPBlockInfo(rs);
       } else {
 	return null;
       }
@@ -73,6 +76,25 @@ public class IPBlockInfo {
     }
   }
 
+  public String getHost() {
+    return host;
+  }
+
+  public int getMasklen() {
+    return masklen;
+  }
+
+  /**
+   * @return адрес или сеть в виде host/masklen
+   */
+  public String getNetwork() {
+    if (masklen == (host.indexOf(':')>=0 ? 128 : 32)) {
+      return host;
+    } else {
+      return host + '/' + masklen;
+    }
+  }
+
   public Timestamp getOriginalDate() {
     return originalDate;
   }
@@ -85,26 +107,7 @@ public class IPBlockInfo {
     return reason;
   }
 
-  public User getModerator() {
-    return moderator;
-  }
-
-  public static boolean getTor(String addr) throws TextParseException, UnknownHostException {
-    DNSBLClient dnsbl = new DNSBLClient("tor.ahbl.org");
-    return (dnsbl.checkIP(addr));
-  }
-
-  public static void checkBlockIP(Connection db, String addr) throws AccessViolationException, SQLException, UnknownHostException, TextParseException {
-    if (getTor(addr)) {
-      throw new AccessViolationException("Постинг заблокирован: tor.ahbl.org");      
-    }
-
-    IPBlockInfo block = getBlockInfo(db, addr);
-
-    if (block == null) {
-      return;
-    }
-
-    block.checkBlock();
+  public int getModeratorId() {
+    return moderatorId;
   }
 }
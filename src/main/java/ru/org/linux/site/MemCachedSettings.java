@@ -17,11 +17,15 @@ package ru.org.linux.site;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.FailureMode;
 import net.spy.memcached.MemcachedClient;
 
 import ru.org.linux.spring.commons.CacheProvider;
 import ru.org.linux.spring.commons.MemCachedProvider;
+import ru.org.linux.spring.commons.NearCacheProvider;
 
 public class MemCachedSettings {
   private static final MemCachedSettings me;static {
@@ -33,22 +37,34 @@ public class MemCachedSettings {
   }
 
   private final MemcachedClient mc;
-  private final MemCachedProvider provider = new MemCachedProvider();
+  private final MemCachedProvider memCachedProvider = new MemCachedProvider();
+  private final NearCacheProvider provider = new NearCacheProvider(memCachedProvider);
 
   private static String mainUrl = "uninitialized/";
 
   private MemCachedSettings() throws IOException {
-    mc = new MemcachedClient(new InetSocketAddress("127.0.0.1", 11211));
+    // операции с недоступным сервером отменяются сразу, а не ждут таймаута в очереди
+    mc = new MemcachedClient(
+      new ConnectionFactoryBuilder().setFailureMode(FailureMode.Cancel).build(),
+      Collections.singletonList(new InetSocketAddress("127.0.0.1", 11211))
+    );
   }
 
   public static MemcachedClient getMemCachedClient() {
     return me.mc;
   }
 
+  /**
+   * @return кеш с локальным уровнем перед memcached
+   */
   public static CacheProvider getCache() {
     return me.provider;
   }
 
+  public static MemCachedProvider getMemCachedProvider() {
+    return me.memCachedProvider;
+  }
+
   public static String getId(String suffix) {
     return mainUrl+ '/' +suffix;
   }
@@ -31,7 +31,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.javabb.bbcode.BBCodeProcessor;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
@@ -193,16 +192,14 @@ public class Message implements Serializable {
     }
   }
 
-  public Message(Connection db, AddMessageForm form, User user)
+  public Message(Connection db, Group group, AddMessageForm form, User user)
     throws SQLException, UtilException, ScriptErrorException, UserErrorException {
     // Init fields
 
     userAgent = 0;
     postIP = form.getPostIP();
 
-    guid = form.getGuid();
-
-    Group group = new Group(db, guid);
+    guid = group.getId();
 
     groupCommentsRestriction = group.getCommentsRestriction();
 
@@ -253,12 +250,11 @@ public class Message implements Serializable {
     }
   }
 
-  public Message(Connection db, Message original, ServletRequest request) throws BadGroupException, SQLException, UtilException, UserErrorException {
+  public Message(Connection db, Group group, Message original, ServletRequest request) throws BadGroupException, SQLException, UtilException, UserErrorException {
     userAgent = original.userAgent;
     postIP = original.postIP;
     guid = original.guid;
 
-    Group group = new Group(db, guid);
     groupCommentsRestriction = group.getCommentsRestriction();
 
     if (request.getParameter("linktext") != null) {
@@ -624,11 +620,9 @@ public class Message implements Serializable {
     return linktext;
   }
 
-  public int addTopicFromPreview(Connection db, Template tmpl, HttpServletRequest request, String previewImagePath, User user)
+  public int addTopicFromPreview(Connection db, Group group, Template tmpl, HttpServletRequest request, String previewImagePath, User user)
     throws SQLException, UtilException, IOException, BadImageException, InterruptedException, ScriptErrorException {
 
-    Group group = new Group(db, guid);
-
     int msgid = allocateMsgid(db);
 
     if (group.isImagePostAllowed()) {
@@ -790,13 +784,7 @@ public class Message implements Serializable {
   }
 
   public String getProcessedMessage(Connection db, boolean includeCut) throws SQLException {
-    if (lorcode) {
-      BBCodeProcessor proc = new BBCodeProcessor();
-      proc.setIncludeCut(includeCut);
-      return proc.preparePostText(db, message);
-    } else {
-      return "<p>" + message;
-    }
+    return ProcessedMessageCache.getTopicHtml(db, this, includeCut);
   }
 
   public Timestamp getPostdate() {
@@ -856,7 +844,11 @@ public class Message implements Serializable {
     return Section.getSectionLink(sectionid) + groupUrl + '/' + msgid + "/page" + page;
   }
 
-  public void commit(Connection db, User commiter, int bonus) throws SQLException, UserErrorException {
+  /**
+   * @return автор с новым score или null, если score не менялся; в кеш его кладет
+   * вызывающий после commit
+   */
+  public User commit(Connection db, User commiter, int bonus) throws SQLException, UserErrorException {
     if (bonus < 0 || bonus > 20) {
       throw new UserErrorException("Неверное значение bonus");
     }
@@ -876,8 +868,10 @@ public class Message implements Serializable {
       }
 
       if (author.getScore() < 300) {
-        author.changeScore(db, bonus);
+        return author.changeScore(db, bonus);
       }
+
+      return null;
     } finally {
       if (pst != null) {
         pst.close();
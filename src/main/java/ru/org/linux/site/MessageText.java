@@ -0,0 +1,79 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+
+public class MessageText {
+  private static final int MAX_IDS_PER_QUERY = 1000;
+
+  private final String text;
+  private final boolean lorcode;
+
+  public MessageText(String text, boolean lorcode) {
+    this.text = text;
+    this.lorcode = lorcode;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public boolean isLorcode() {
+    return lorcode;
+  }
+
+  /**
+   * Загрузить тексты сообщений из msgbase одним запросом (на каждые MAX_IDS_PER_QUERY id)
+   *
+   * @param db подключение к БД
+   * @param msgids id сообщений или комментариев
+   * @return msgid -> текст; отсутствующие в msgbase id в результат не попадают
+   * @throws SQLException on database failure
+   */
+  public static Map<Integer, MessageText> getMessageText(Connection db, Collection<Integer> msgids) throws SQLException {
+    Map<Integer, MessageText> texts = new HashMap<Integer, MessageText>(msgids.size());
+
+    if (msgids.isEmpty()) {
+      return texts;
+    }
+
+    Statement st = db.createStatement();
+
+    try {
+      for (List<Integer> part : Iterables.partition(new LinkedHashSet<Integer>(msgids), MAX_IDS_PER_QUERY)) {
+        ResultSet rs = st.executeQuery("SELECT id, message, bbcode FROM msgbase WHERE id IN (" + Joiner.on(',').join(part) + ')');
+
+        while (rs.next()) {
+          texts.put(rs.getInt("id"), new MessageText(rs.getString("message"), rs.getBoolean("bbcode")));
+        }
+
+        rs.close();
+      }
+    } finally {
+      st.close();
+    }
+
+    return texts;
+  }
+}
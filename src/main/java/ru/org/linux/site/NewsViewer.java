@@ -26,17 +26,29 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import ru.org.linux.spring.commons.CacheProvider;
+import ru.org.linux.spring.commons.CoalescingCache;
+import ru.org.linux.spring.GroupStore;
 import ru.org.linux.spring.SectionStore;
 import ru.org.linux.util.BadImageException;
 import ru.org.linux.util.ImageInfo;
 
 public class NewsViewer {
   private static final Log logger = LogFactory.getLog("ru.org.linux");
+  private static final String GENERATION_KEY = "view-news-generation";
+
+  /**
+   * Последнее известное узлу поколение; используется, когда memcached недоступен
+   * или потерял ключ
+   */
+  private static final AtomicLong localGeneration = new AtomicLong(System.currentTimeMillis());
+  private static final int PREPARED_CACHE_AGE = 60*1000;
+
   private boolean userFavs = false;
 
   public void setUserFavs(boolean userFavs) {
@@ -63,9 +75,11 @@ public class NewsViewer {
   private CommitMode commitMode = CommitMode.COMMITED_AND_POSTMODERATED;
 
   private final SectionStore sectionStore;
+  private final GroupStore groupStore;
 
-  public NewsViewer(SectionStore sectionStore) {
+  public NewsViewer(SectionStore sectionStore, GroupStore groupStore) {
     this.sectionStore = sectionStore;
+    this.groupStore = groupStore;
   }
 
   public static String showMediumImage(String htmlPath, Message topic, boolean showMedium) {
@@ -97,7 +111,7 @@ public class NewsViewer {
     return out.toString();
   }
 
-  public List<Message> getMessagesCached(Connection db) throws SQLException {
+  public List<Message> getMessagesCached(final Connection db) throws SQLException {
     if (getCacheAge()==0) {
       return getMessages(db);
     }
@@ -106,22 +120,88 @@ public class NewsViewer {
 
     String cacheId = getVariantID();
 
-    List<Message> res = (List<Message>) mcc.getFromCache(cacheId);
-
-    if (res == null) {
-      res = getMessages(db);
-      mcc.storeToCache(cacheId, res, getCacheAge());
+    try {
+      return CoalescingCache.get(mcc, cacheId, getCacheAge(), new CoalescingCache.Loader<List<Message>>() {
+        @Override
+        public List<Message> load() throws SQLException {
+          return getMessages(db);
+        }
+      });
+    } catch (SQLException ex) {
+      throw ex;
+    } catch (RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
     }
-
-    return res;
   }
 
   public List<PreparedMessage> getPreparedMessages(Connection db) throws SQLException {
     return getPreparedMessages(db, false);
   }
 
-  public List<PreparedMessage> getPreparedMessagesCached(Connection db) throws SQLException {
-    return getPreparedMessages(db, true);
+  /**
+   * Подготовленный список топиков из кеша: вместе с группами, тегами, пользователями,
+   * опросами и обработанным текстом. В ключ входит поколение списков, поэтому после
+   * {@link #invalidatePreparedCache()} все списки загружаются заново.
+   */
+  public List<PreparedMessage> getPreparedMessagesCached(final Connection db) throws SQLException {
+    String cacheId = "prepared-" + getVariantID() + "&gen=" + getGeneration();
+
+    try {
+      return CoalescingCache.get(MemCachedSettings.getCache(), cacheId, getPreparedCacheAge(), new CoalescingCache.Loader<List<PreparedMessage>>() {
+        @Override
+        public List<PreparedMessage> load() throws SQLException {
+          return getPreparedMessages(db, false);
+        }
+      });
+    } catch (SQLException ex) {
+      throw ex;
+    } catch (RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Сбрасывает подготовленные списки на всех узлах; вызывается после подтверждения,
+   * редактирования, удаления и переноса топика
+   */
+  public static void invalidatePreparedCache() {
+    long current;
+    long generation;
+
+    do {
+      current = localGeneration.get();
+      generation = Math.max(System.currentTimeMillis(), current+1);
+    } while (!localGeneration.compareAndSet(current, generation));
+
+    MemCachedSettings.getMemCachedProvider().storeToCache(GENERATION_KEY, generation);
+  }
+
+  /**
+   * Поколение читается напрямую из memcached, чтобы сброс на одном узле сразу
+   * был виден на остальных. Без memcached используется локальное поколение,
+   * иначе каждый запрос получал бы новый ключ и списки не кешировались бы вовсе.
+   */
+  private static long getGeneration() {
+    CacheProvider mcc = MemCachedSettings.getMemCachedProvider();
+
+    Long generation = (Long) mcc.getFromCache(GENERATION_KEY);
+
+    if (generation==null) {
+      long local = localGeneration.get();
+      mcc.storeToCache(GENERATION_KEY, local);
+
+      return local;
+    }
+
+    for (long local = localGeneration.get(); generation > local && !localGeneration.compareAndSet(local, generation); ) {
+      local = localGeneration.get();
+    }
+
+    return generation;
   }
 
   private List<PreparedMessage> getPreparedMessages(Connection db, boolean cached) throws SQLException {
@@ -129,7 +209,7 @@ public class NewsViewer {
     List<PreparedMessage> pm = new ArrayList<PreparedMessage>(messages.size());
 
     for (Message message : messages) {
-      pm.add(new PreparedMessage(db , message, false));
+      pm.add(new PreparedMessage(db, groupStore, message, false));
     }
 
     return pm;
@@ -313,8 +393,18 @@ public class NewsViewer {
     return 30*1000;
   }
 
-  public static NewsViewer getMainpage(SectionStore sectionStore) {
-    NewsViewer nv = new NewsViewer(sectionStore);
+  /**
+   * Подготовленные списки сбрасываются при изменении топиков, поэтому их можно кешировать
+   * и для подтвержденных новостей; срок ограничивает отставание счетчиков комментариев
+   */
+  private int getPreparedCacheAge() {
+    int age = getCacheAge();
+
+    return age!=0 ? age : PREPARED_CACHE_AGE;
+  }
+
+  public static NewsViewer getMainpage(SectionStore sectionStore, GroupStore groupStore) {
+    NewsViewer nv = new NewsViewer(sectionStore, groupStore);
     nv.addSection(1);
     nv.limit = "LIMIT 20";
     nv.datelimit = "commitdate>(CURRENT_TIMESTAMP-'1 month'::interval)";
@@ -15,12 +15,15 @@
 
 package ru.org.linux.site;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-public class PollVariant {
+public class PollVariant implements Serializable {
+  private static final long serialVersionUID = 3277251784747167166L;
+
   private final int id;
   private String label;
   private final int votes;
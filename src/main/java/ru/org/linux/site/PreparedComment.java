@@ -15,9 +15,9 @@
 
 package ru.org.linux.site;
 
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
 
 import org.javabb.bbcode.BBCodeProcessor;
 
@@ -27,23 +27,17 @@ public class PreparedComment {
   private final String processedMessage;
   private final User replyAuthor;
 
-  private PreparedComment(Connection db, PreparedStatement pst, CommentList comments, Comment comment) throws UserNotFoundException, SQLException {
+  private PreparedComment(Map<Integer, User> users, Map<Integer, String> processedMessages, CommentList comments, Comment comment) throws UserNotFoundException {
     this.comment = comment;
 
-    author = User.getUserCached(db, comment.getUserid());
-
-    processedMessage = getProcessedMessage(db, pst, comment);
+    author = User.getUser(users, comment.getUserid());
 
-    if (comment.getReplyTo()!=0 && comments!=null) {
-      CommentNode replyNode = comments.getNode(comment.getReplyTo());
+    processedMessage = processedMessages.get(comment.getId());
 
-      if (replyNode!=null) {
-        Comment reply = replyNode.getComment();
+    Comment reply = getReply(comments, comment);
 
-        replyAuthor = User.getUserCached(db, reply.getUserid());
-      } else {
-        replyAuthor = null;
-      }
+    if (reply!=null) {
+      replyAuthor = User.getUser(users, reply.getUserid());
     } else {
       replyAuthor = null;
     }
@@ -59,27 +53,6 @@ public class PreparedComment {
     replyAuthor = null;
   }
 
-  private static PreparedStatement prepare(Connection db) throws SQLException {
-    return db.prepareStatement("SELECT message, bbcode FROM msgbase WHERE id=?");
-  }
-
-  private static String getProcessedMessage(Connection db, PreparedStatement pst, Comment comment) throws SQLException {
-    pst.setInt(1, comment.getId());
-    ResultSet rs = pst.executeQuery();
-    rs.next();
-    String text = rs.getString(1);
-    boolean bbcode = rs.getBoolean(2);
-
-    rs.close();
-
-    if (bbcode) {
-      BBCodeProcessor proc = new BBCodeProcessor();
-      return proc.preparePostText(db, text);
-    } else {
-      return "<p>"+text;
-    }
-  }
-
   private static String getProcessedMessage(Connection db, String message) throws SQLException {
     BBCodeProcessor proc = new BBCodeProcessor();
     return proc.preparePostText(db, message);
@@ -101,28 +74,48 @@ public class PreparedComment {
     return replyAuthor;
   }
 
-  public static PreparedComment prepare(Connection db, CommentList comments, Comment comment) throws UserNotFoundException, SQLException {
-    PreparedStatement pst = prepare(db);
-
-    try {
-      return new PreparedComment(db, pst, comments, comment);
-    } finally {
-      pst.close();
+  private static Comment getReply(CommentList comments, Comment comment) {
+    if (comment.getReplyTo()==0 || comments==null) {
+      return null;
     }
+
+    CommentNode replyNode = comments.getNode(comment.getReplyTo());
+
+    return replyNode!=null ? replyNode.getComment() : null;
+  }
+
+  public static PreparedComment prepare(Connection db, CommentList comments, Comment comment) throws UserNotFoundException, SQLException {
+    return prepare(db, comments, Collections.singletonList(comment)).get(0);
   }
 
+  /**
+   * Подготовить комментарии страницы: тексты и пользователи (авторы и авторы
+   * комментариев, на которые отвечают) загружаются одним запросом каждые,
+   * с учетом кешей
+   */
   public static List<PreparedComment> prepare(Connection db, CommentList comments, List<Comment> list) throws UserNotFoundException, SQLException {
     List<PreparedComment> commentsPrepared = new ArrayList<PreparedComment>(list.size());
-    PreparedStatement pst = prepare(db);
+    List<Integer> ids = new ArrayList<Integer>(list.size());
+    Set<Integer> userids = new HashSet<Integer>();
 
-    try {
-      for (Comment comment : list) {
-        commentsPrepared.add(new PreparedComment(db, pst, comments, comment));
+    for (Comment comment : list) {
+      ids.add(comment.getId());
+      userids.add(comment.getUserid());
+
+      Comment reply = getReply(comments, comment);
+
+      if (reply!=null) {
+        userids.add(reply.getUserid());
       }
+    }
 
-      return commentsPrepared;
-    } finally {
-      pst.close();
+    Map<Integer, String> processedMessages = ProcessedMessageCache.getCommentsHtml(db, ids);
+    Map<Integer, User> users = User.getUsersCached(db, userids);
+
+    for (Comment comment : list) {
+      commentsPrepared.add(new PreparedComment(users, processedMessages, comments, comment));
     }
+
+    return commentsPrepared;
   }
 }
@@ -15,15 +15,20 @@
 
 package ru.org.linux.site;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.List;
+import java.util.*;
+
+import ru.org.linux.spring.GroupStore;
 
 import com.google.common.collect.ImmutableList;
 
-public final class PreparedMessage {
+public final class PreparedMessage implements Serializable {
+  private static final long serialVersionUID = -2325514730789578025L;
+
   private final Message message;
   private final User author;
   private final DeleteInfo deleteInfo;
@@ -42,33 +47,24 @@ public final class PreparedMessage {
 
   private static final int EDIT_PERIOD = 2 * 60 * 60 * 1000; // milliseconds
 
-  public PreparedMessage(Connection db, Message message, boolean includeCut) throws SQLException {
-    this(db, message, Tags.getMessageTags(db, message.getId()), includeCut);
+  public PreparedMessage(Connection db, GroupStore groupStore, Message message, boolean includeCut) throws SQLException {
+    this(db, groupStore, message, Tags.getMessageTags(db, message.getId()), includeCut);
   }
 
-  public PreparedMessage(Connection db, Message message, List<String> tags) throws SQLException {
-    this(db, message, tags, true);
+  public PreparedMessage(Connection db, GroupStore groupStore, Message message, List<String> tags) throws SQLException {
+    this(db, groupStore, message, tags, true);
   }
 
-  public PreparedMessage(Connection db, Message message, List<String> tags, boolean includeCut) throws SQLException {
+  public PreparedMessage(Connection db, GroupStore groupStore, Message message, List<String> tags, boolean includeCut) throws SQLException {
     try {
       this.message = message;
 
-      group = new Group(db, message.getGroupId());
-
-      author = User.getUserCached(db, message.getUid());
+      group = groupStore.getGroup(message.getGroupId());
 
       if (message.isDeleted()) {
         deleteInfo = DeleteInfo.getDeleteInfo(db, message.getId());
-
-        if (deleteInfo!=null) {
-          deleteUser = User.getUserCached(db, deleteInfo.getUserid());
-        } else {
-          deleteUser = null;
-        }
       } else {
         deleteInfo = null;
-        deleteUser = null;
       }
 
       if (message.isVotePoll()) {
@@ -77,23 +73,39 @@ public final class PreparedMessage {
         poll = null;
       }
 
-      if (message.getCommitby()!=0) {
-        commiter = User.getUserCached(db, message.getCommitby());
-      } else {
-        commiter = null;
-      }
-
       List<EditInfoDTO> editInfo = message.loadEditInfo(db);
       if (!editInfo.isEmpty()) {
         lastEditInfo = editInfo.get(0);
-        lastEditor = User.getUserCached(db, lastEditInfo.getEditor());
         editCount = editInfo.size();
       } else {
         lastEditInfo = null;
-        lastEditor = null;
         editCount = 0;
       }
 
+      // все пользователи топика загружаются одним запросом
+      Set<Integer> userids = new HashSet<Integer>();
+
+      userids.add(message.getUid());
+
+      if (deleteInfo!=null) {
+        userids.add(deleteInfo.getUserid());
+      }
+
+      if (message.getCommitby()!=0) {
+        userids.add(message.getCommitby());
+      }
+
+      if (lastEditInfo!=null) {
+        userids.add(lastEditInfo.getEditor());
+      }
+
+      Map<Integer, User> users = User.getUsersCached(db, userids);
+
+      author = User.getUser(users, message.getUid());
+      deleteUser = deleteInfo!=null ? User.getUser(users, deleteInfo.getUserid()) : null;
+      commiter = message.getCommitby()!=0 ? User.getUser(users, message.getCommitby()) : null;
+      lastEditor = lastEditInfo!=null ? User.getUser(users, lastEditInfo.getEditor()) : null;
+
       processedMessage = message.getProcessedMessage(db, includeCut);
 
       userAgent = loadUserAgent(db, message.getUserAgent());
@@ -15,6 +15,7 @@
 
 package ru.org.linux.site;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -22,7 +23,9 @@ import ru.org.linux.util.HTMLFormatter;
 
 import com.google.common.collect.ImmutableList;
 
-public class PreparedPoll {
+public class PreparedPoll implements Serializable {
+  private static final long serialVersionUID = -1735555056767307229L;
+
   private final Poll poll;
   private final int maximumValue;
   private final ImmutableList<PollVariant> variants;
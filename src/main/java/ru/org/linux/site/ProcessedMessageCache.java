@@ -0,0 +1,250 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import org.javabb.bbcode.BBCodeProcessor;
+
+import ru.org.linux.spring.commons.CacheProvider;
+
+/**
+ * Кеш HTML, полученного из текста сообщений и комментариев.
+ *
+ * Два уровня: локальный ehcache "ProcessedMessages" и memcached. Запись
+ * хранит версию исходного текста: для тем это хеш текста (правка темы
+ * не всегда меняет lastmod), комментарии не редактируются, их версия всегда 0.
+ * Варианты с cut и без хранятся отдельно. Контроллеры правки и удаления
+ * сбрасывают записи через {@link #invalidate(int)}.
+ *
+ * Вид тегов [user] зависит от того, существует ли пользователь и заблокирован ли он.
+ * Поэтому записи текстов с [user] хранят еще и общую метку пользователей из memcached,
+ * которую {@link #usersChanged()} меняет при блокировке, разблокировке, регистрации
+ * и удалении пользователей; записи со старой меткой строятся заново. Метка читается
+ * из memcached только при проверке таких записей, не чаще раза на запрос.
+ */
+public final class ProcessedMessageCache {
+  private static final int MEMCACHED_EXPIRE = 24*60*60*1000;
+
+  private static final int COMMENT_VERSION = 0;
+
+  private static final String USERS_STAMP_ID = "processedMessage?users";
+
+  /**
+   * Метка записей, вид которых не зависит от пользователей
+   */
+  static final long NO_USERS = -1;
+
+  private ProcessedMessageCache() {
+  }
+
+  private static Cache getLocalCache() {
+    return CacheManager.create().getCache("ProcessedMessages");
+  }
+
+  private static String getCacheId(int msgid, boolean includeCut) {
+    return "processedMessage?msgid="+msgid+"&cut="+includeCut;
+  }
+
+  /**
+   * Сменить метку пользователей: HTML всех текстов с тегами [user] будет построен заново
+   */
+  public static void usersChanged() {
+    MemCachedSettings.getMemCachedProvider().storeToCache(USERS_STAMP_ID, System.currentTimeMillis());
+  }
+
+  private static boolean hasUsers(String text) {
+    // с запасом: лишнее совпадение только сокращает время жизни записи
+    return text.toLowerCase().contains("[user]");
+  }
+
+  private static long getUsersStamp(String text, UsersStamp usersStamp) {
+    return hasUsers(text) ? usersStamp.get() : NO_USERS;
+  }
+
+  private static boolean isValid(ProcessedMessage processed, int version, UsersStamp usersStamp) {
+    return processed.version==version && (processed.usersStamp==NO_USERS || processed.usersStamp==usersStamp.get());
+  }
+
+  static String get(int msgid, boolean includeCut, int version, UsersStamp usersStamp) {
+    String cacheId = getCacheId(msgid, includeCut);
+    Cache cache = getLocalCache();
+
+    Element element = cache.get(cacheId);
+
+    if (element!=null) {
+      ProcessedMessage processed = (ProcessedMessage) element.getObjectValue();
+
+      if (isValid(processed, version, usersStamp)) {
+        return processed.html;
+      }
+    }
+
+    ProcessedMessage processed = (ProcessedMessage) MemCachedSettings.getMemCachedProvider().getFromCache(cacheId);
+
+    if (processed!=null && isValid(processed, version, usersStamp)) {
+      cache.put(new Element(cacheId, processed));
+      return processed.html;
+    }
+
+    return null;
+  }
+
+  static void put(int msgid, boolean includeCut, int version, long usersStamp, String html) {
+    String cacheId = getCacheId(msgid, includeCut);
+    ProcessedMessage processed = new ProcessedMessage(version, usersStamp, html);
+
+    getLocalCache().put(new Element(cacheId, processed));
+    MemCachedSettings.getMemCachedProvider().storeToCache(cacheId, processed, MEMCACHED_EXPIRE);
+  }
+
+  public static String getTopicHtml(Connection db, Message message, boolean includeCut) throws SQLException {
+    if (!message.isLorcode()) {
+      return "<p>" + message.getMessage();
+    }
+
+    int version = message.getMessage().hashCode();
+    UsersStamp usersStamp = new UsersStamp();
+
+    String html = get(message.getId(), includeCut, version, usersStamp);
+
+    if (html==null) {
+      BBCodeProcessor proc = new BBCodeProcessor();
+      proc.setIncludeCut(includeCut);
+      html = proc.preparePostText(db, message.getMessage());
+
+      put(message.getId(), includeCut, version, getUsersStamp(message.getMessage(), usersStamp), html);
+    }
+
+    return html;
+  }
+
+  /**
+   * HTML комментариев; тексты отсутствующих в кеше комментариев загружаются одним запросом
+   *
+   * @param db подключение к БД
+   * @param msgids id комментариев
+   * @return msgid -> HTML
+   * @throws SQLException on database failure
+   */
+  public static Map<Integer, String> getCommentsHtml(Connection db, Collection<Integer> msgids) throws SQLException {
+    Map<Integer, String> result = new HashMap<Integer, String>(msgids.size());
+    List<Integer> missing = new ArrayList<Integer>();
+    UsersStamp usersStamp = new UsersStamp();
+
+    for (int msgid : msgids) {
+      String html = get(msgid, false, COMMENT_VERSION, usersStamp);
+
+      if (html!=null) {
+        result.put(msgid, html);
+      } else {
+        missing.add(msgid);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      Map<Integer, MessageText> texts = MessageText.getMessageText(db, missing);
+
+      List<Integer> lorcodeIds = new ArrayList<Integer>(texts.size());
+      List<String> lorcodeTexts = new ArrayList<String>(texts.size());
+
+      for (Map.Entry<Integer, MessageText> entry : texts.entrySet()) {
+        MessageText text = entry.getValue();
+
+        if (text.isLorcode()) {
+          lorcodeIds.add(entry.getKey());
+          lorcodeTexts.add(text.getText());
+        } else {
+          String html = "<p>"+text.getText();
+
+          put(entry.getKey(), false, COMMENT_VERSION, NO_USERS, html);
+          result.put(entry.getKey(), html);
+        }
+      }
+
+      // пользователи из [user] всех комментариев загружаются одним запросом
+      List<String> htmls = new BBCodeProcessor().preparePostTexts(db, lorcodeTexts);
+
+      for (int i=0; i<lorcodeIds.size(); i++) {
+        put(lorcodeIds.get(i), false, COMMENT_VERSION, getUsersStamp(lorcodeTexts.get(i), usersStamp), htmls.get(i));
+        result.put(lorcodeIds.get(i), htmls.get(i));
+      }
+    }
+
+    return result;
+  }
+
+  public static void invalidate(int msgid) {
+    Cache cache = getLocalCache();
+    CacheProvider mcc = MemCachedSettings.getMemCachedProvider();
+
+    for (boolean includeCut : new boolean[] { false, true }) {
+      String cacheId = getCacheId(msgid, includeCut);
+
+      cache.remove(cacheId);
+      mcc.removeFromCache(cacheId);
+    }
+  }
+
+  public static void invalidate(Collection<Integer> msgids) {
+    for (int msgid : msgids) {
+      invalidate(msgid);
+    }
+  }
+
+  /**
+   * Метка пользователей, загружаемая из memcached при первом обращении
+   */
+  static class UsersStamp {
+    private long stamp;
+    private boolean loaded = false;
+
+    long get() {
+      if (!loaded) {
+        stamp = load();
+        loaded = true;
+      }
+
+      return stamp;
+    }
+
+    protected long load() {
+      Long stamp = (Long) MemCachedSettings.getMemCachedProvider().getFromCache(USERS_STAMP_ID);
+
+      return stamp!=null ? stamp : 0;
+    }
+  }
+
+  private static class ProcessedMessage implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final int version;
+    private final long usersStamp;
+    private final String html;
+
+    private ProcessedMessage(int version, long usersStamp, String html) {
+      this.version = version;
+      this.usersStamp = usersStamp;
+      this.html = html;
+    }
+  }
+}
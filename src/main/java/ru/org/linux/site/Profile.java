@@ -17,14 +17,17 @@ package ru.org.linux.site;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ru.org.linux.util.ProfileHashtable;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 public class Profile {
   private final ProfileProperties properties;
+  private final ImmutableMap<String, Object> settings;
 
   private final boolean isdefault;
 
@@ -33,24 +36,33 @@ public class Profile {
       throw new NullPointerException();
     }
 
-    ObjectInputStream dof = null;
     try {
-      dof = new ObjectInputStream(df);
-      Map<String, Object> userProfile = (Map<String, Object>) dof.readObject();
-      dof.close();
+      settings = immutableSettings(ProfileCodec.read(df));
+    } finally {
       df.close();
+    }
 
-      properties = new ProfileProperties(new ProfileHashtable(getDefaults(), userProfile));
+    properties = new ProfileProperties(new ProfileHashtable(getDefaults(), new HashMap<String, Object>(settings)));
 
-      isdefault = false;
-    } finally {
-      if (dof!=null) {
-        dof.close();
-      }
-    }
+    isdefault = false;
+  }
+
+  /**
+   * Профиль из ранее прочитанных настроек (см. {@link #getSettings()})
+   *
+   * @param settings настройки пользователя
+   */
+  public Profile(ImmutableMap<String, Object> settings) {
+    this.settings = settings;
+
+    properties = new ProfileProperties(new ProfileHashtable(getDefaults(), new HashMap<String, Object>(settings)));
+
+    isdefault = false;
   }
 
   public Profile() {
+    settings = ImmutableMap.of();
+
     properties = new ProfileProperties(new ProfileHashtable(getDefaults(), new HashMap<String, Object>()));
 
     isdefault = true;
@@ -64,6 +76,16 @@ public class Profile {
     return properties;
   }
 
+  /**
+   * Настройки в том виде, в каком они были прочитаны из файла; изменения
+   * через {@link #getProperties()} в них не попадают
+   *
+   * @return неизменяемые настройки пользователя
+   */
+  public ImmutableMap<String, Object> getSettings() {
+    return settings;
+  }
+
   public static ImmutableMap<String, Object> getDefaults() {
     return DefaultProfile.getDefaultProfile();
   }
@@ -73,15 +95,22 @@ public class Profile {
 
     profileHashtable.setObject(ProfileProperties.TIMESTAMP_PROPERTY, System.currentTimeMillis());
 
-    ObjectOutputStream dof = null;
-    try {
-      dof = new ObjectOutputStream(df);
-      dof.writeObject(profileHashtable.getSettings());
-      dof.close();
-    } finally {
-      if (dof!=null) {
-        dof.close();
+    ProfileCodec.write(profileHashtable.getSettings(), df);
+  }
+
+  private static ImmutableMap<String, Object> immutableSettings(Map<String, Object> settings) {
+    ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+
+    for (Map.Entry<String, Object> entry : settings.entrySet()) {
+      Object value = entry.getValue();
+
+      if (value instanceof List) {
+        builder.put(entry.getKey(), ImmutableList.copyOf((List<?>) value));
+      } else if (value!=null) {
+        builder.put(entry.getKey(), value);
       }
     }
+
+    return builder.build();
   }
 }
@@ -0,0 +1,359 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.org.linux.site.ProfileProperties.*;
+
+/**
+ * Компактный формат файла профиля.
+ *
+ * Версия 2: заголовок, битовая маска присутствующих настроек из {@link #SCHEMA},
+ * их значения в порядке схемы (без ключей и типов), затем прочие настройки
+ * в виде типизированных пар ключ/значение, как в версии 1.
+ * Файлы версии 1 и старого формата (сериализованный HashMap) читаются как раньше.
+ */
+public final class ProfileCodec {
+  private static final int MAGIC1 = 'L';
+  private static final int MAGIC2 = 'P';
+
+  private static final int VERSION_KEY_VALUE = 1;
+  private static final int VERSION_SCHEMA = 2;
+
+  public static final int VERSION = VERSION_SCHEMA;
+
+  private static final int TYPE_STRING = 1;
+  private static final int TYPE_BOOLEAN = 2;
+  private static final int TYPE_INT = 3;
+  private static final int TYPE_LONG = 4;
+  private static final int TYPE_LIST = 5;
+
+  /**
+   * Схема версии 2. Новые настройки дописываются только в конец (не более 32),
+   * удаление или смена типа требуют новой версии формата.
+   */
+  private static final String[] SCHEMA = {
+    STYLE_PROPERTY,
+    FORMAT_MODE_PROPERTY,
+    HOVER_PROPERTY,
+    MESSAGES_PROPERTY,
+    NEWFIRST_PROPERTY,
+    TOPICS_PROPERTY,
+    TAGS_PROPERTY,
+    HIDE_ADSENSE_PROPERTY,
+    PHOTOS_PROPERTY,
+    MAIN_GALLERY_PROPERTY,
+    AVATAR_PROPERTY,
+    MAIN_3COLUMNS_PROPERTY,
+    SHOW_ANONYMOUS_PROPERTY,
+    BOXES_MAIN2_PROPERTY,
+    BOXES_MAIN31_PROPERTY,
+    BOXES_MAIN32_PROPERTY,
+    TIMESTAMP_PROPERTY,
+    "DebugMode"
+  };
+
+  private static final int[] SCHEMA_TYPES = {
+    TYPE_STRING,
+    TYPE_STRING,
+    TYPE_BOOLEAN,
+    TYPE_INT,
+    TYPE_BOOLEAN,
+    TYPE_INT,
+    TYPE_INT,
+    TYPE_BOOLEAN,
+    TYPE_BOOLEAN,
+    TYPE_BOOLEAN,
+    TYPE_STRING,
+    TYPE_BOOLEAN,
+    TYPE_BOOLEAN,
+    TYPE_LIST,
+    TYPE_LIST,
+    TYPE_LIST,
+    TYPE_LONG,
+    TYPE_BOOLEAN
+  };
+
+  private static final Map<String, Integer> SCHEMA_INDEX = new HashMap<String, Integer>();
+
+  static {
+    for (int i=0; i<SCHEMA.length; i++) {
+      SCHEMA_INDEX.put(SCHEMA[i], i);
+    }
+  }
+
+  private ProfileCodec() {
+  }
+
+  public static void write(Map<String, Object> settings, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+    data.writeByte(MAGIC1);
+    data.writeByte(MAGIC2);
+    data.writeByte(VERSION_SCHEMA);
+
+    Object[] known = new Object[SCHEMA.length];
+    int mask = 0;
+    int extraCount = 0;
+
+    for (Map.Entry<String, Object> entry : settings.entrySet()) {
+      Object value = entry.getValue();
+
+      if (value==null) {
+        continue;
+      }
+
+      Integer index = SCHEMA_INDEX.get(entry.getKey());
+
+      // значение неожиданного типа пишем как прочую настройку, чтобы не потерять его
+      if (index!=null && getType(value)==SCHEMA_TYPES[index]) {
+        known[index] = value;
+        mask |= 1 << index;
+      } else {
+        extraCount++;
+      }
+    }
+
+    data.writeInt(mask);
+
+    for (int i=0; i<SCHEMA.length; i++) {
+      if (known[i]!=null) {
+        writeValue(data, SCHEMA_TYPES[i], known[i]);
+      }
+    }
+
+    data.writeShort(extraCount);
+
+    for (Map.Entry<String, Object> entry : settings.entrySet()) {
+      Object value = entry.getValue();
+
+      if (value==null) {
+        continue;
+      }
+
+      Integer index = SCHEMA_INDEX.get(entry.getKey());
+
+      if (index!=null && known[index]==value) {
+        continue;
+      }
+
+      int type = getType(value);
+
+      if (type==0) {
+        throw new IOException("Unsupported profile value: "+entry.getKey()+" ("+value.getClass().getName()+ ')');
+      }
+
+      data.writeUTF(entry.getKey());
+      data.writeByte(type);
+      writeValue(data, type, value);
+    }
+
+    data.flush();
+  }
+
+  /**
+   * Записать профиль в формате версии 1 (ключ/тип/значение для каждой настройки)
+   */
+  static void writeKeyValue(Map<String, Object> settings, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+    data.writeByte(MAGIC1);
+    data.writeByte(MAGIC2);
+    data.writeByte(VERSION_KEY_VALUE);
+
+    int count = 0;
+
+    for (Object value : settings.values()) {
+      if (value!=null) {
+        count++;
+      }
+    }
+
+    data.writeShort(count);
+
+    for (Map.Entry<String, Object> entry : settings.entrySet()) {
+      Object value = entry.getValue();
+
+      if (value==null) {
+        continue;
+      }
+
+      int type = getType(value);
+
+      if (type==0) {
+        throw new IOException("Unsupported profile value: "+entry.getKey()+" ("+value.getClass().getName()+ ')');
+      }
+
+      data.writeUTF(entry.getKey());
+      data.writeByte(type);
+      writeValue(data, type, value);
+    }
+
+    data.flush();
+  }
+
+  private static int getType(Object value) {
+    if (value instanceof String) {
+      return TYPE_STRING;
+    } else if (value instanceof Boolean) {
+      return TYPE_BOOLEAN;
+    } else if (value instanceof Integer) {
+      return TYPE_INT;
+    } else if (value instanceof Long) {
+      return TYPE_LONG;
+    } else if (value instanceof List) {
+      return TYPE_LIST;
+    } else {
+      return 0;
+    }
+  }
+
+  private static void writeValue(DataOutputStream data, int type, Object value) throws IOException {
+    switch (type) {
+      case TYPE_STRING:
+        data.writeUTF((String) value);
+        break;
+      case TYPE_BOOLEAN:
+        data.writeBoolean((Boolean) value);
+        break;
+      case TYPE_INT:
+        data.writeInt((Integer) value);
+        break;
+      case TYPE_LONG:
+        data.writeLong((Long) value);
+        break;
+      case TYPE_LIST:
+        @SuppressWarnings("unchecked")
+        List<String> list = (List<String>) value;
+
+        data.writeShort(list.size());
+
+        for (String item : list) {
+          data.writeUTF(item);
+        }
+        break;
+    }
+  }
+
+  private static Object readValue(DataInputStream data, int type) throws IOException {
+    switch (type) {
+      case TYPE_STRING:
+        return data.readUTF();
+      case TYPE_BOOLEAN:
+        return data.readBoolean();
+      case TYPE_INT:
+        return data.readInt();
+      case TYPE_LONG:
+        return data.readLong();
+      case TYPE_LIST:
+        int size = data.readUnsignedShort();
+        List<String> list = new ArrayList<String>(size);
+
+        for (int j=0; j<size; j++) {
+          list.add(data.readUTF());
+        }
+
+        return list;
+      default:
+        throw new IOException("Unsupported profile value type: "+type);
+    }
+  }
+
+  /**
+   * Версия формата файла профиля; 0 - сериализованный HashMap
+   */
+  public static int getVersion(InputStream in) throws IOException {
+    if (in.read()!=MAGIC1 || in.read()!=MAGIC2) {
+      return 0;
+    }
+
+    return in.read();
+  }
+
+  public static Map<String, Object> read(InputStream in) throws IOException, ClassNotFoundException {
+    if (!in.markSupported()) {
+      in = new BufferedInputStream(in);
+    }
+
+    in.mark(2);
+
+    if (in.read()!=MAGIC1 || in.read()!=MAGIC2) {
+      in.reset();
+
+      return readLegacy(in);
+    }
+
+    DataInputStream data = new DataInputStream(in);
+
+    int version = data.readUnsignedByte();
+
+    Map<String, Object> settings = new HashMap<String, Object>(SCHEMA.length*2);
+
+    switch (version) {
+      case VERSION_SCHEMA:
+        int mask = data.readInt();
+
+        if ((mask >>> SCHEMA.length)!=0) {
+          throw new IOException("Unknown profile settings mask: "+Integer.toHexString(mask));
+        }
+
+        for (int i=0; i<SCHEMA.length; i++) {
+          if ((mask & (1 << i))!=0) {
+            settings.put(SCHEMA[i], readValue(data, SCHEMA_TYPES[i]));
+          }
+        }
+
+        readKeyValue(data, settings);
+        break;
+      case VERSION_KEY_VALUE:
+        readKeyValue(data, settings);
+        break;
+      default:
+        throw new IOException("Unsupported profile version: "+version);
+    }
+
+    return settings;
+  }
+
+  private static void readKeyValue(DataInputStream data, Map<String, Object> settings) throws IOException {
+    int count = data.readUnsignedShort();
+
+    for (int i=0; i<count; i++) {
+      String key = data.readUTF();
+      int type = data.readUnsignedByte();
+
+      settings.put(key, readValue(data, type));
+    }
+  }
+
+  private static Map<String, Object> readLegacy(InputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream dof = new ObjectInputStream(in);
+
+    try {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> settings = (Map<String, Object>) dof.readObject();
+
+      return settings;
+    } finally {
+      dof.close();
+    }
+  }
+}
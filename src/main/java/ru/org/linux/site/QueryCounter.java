@@ -0,0 +1,126 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Счетчик SQL-запросов текущего потока.
+ *
+ * Подключение, обернутое в {@link #wrap(Connection)}, увеличивает счетчик потока
+ * при каждом вызове execute* у созданных через него Statement. Используется в тестах,
+ * чтобы проверять, сколько запросов делает страница; рабочие подключения
+ * не оборачиваются, чтобы не платить за прокси на каждом запросе.
+ */
+public final class QueryCounter {
+  private static final ThreadLocal<int[]> counter = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private QueryCounter() {
+  }
+
+  /**
+   * @return число запросов в текущем потоке после последнего {@link #reset()}
+   */
+  public static int getCount() {
+    return counter.get()[0];
+  }
+
+  public static void reset() {
+    counter.get()[0] = 0;
+  }
+
+  public static Connection wrap(Connection db) {
+    if (Proxy.isProxyClass(db.getClass()) && Proxy.getInvocationHandler(db) instanceof ConnectionHandler) {
+      return db;
+    }
+
+    return (Connection) Proxy.newProxyInstance(
+      QueryCounter.class.getClassLoader(),
+      new Class<?>[] { Connection.class },
+      new ConnectionHandler(db)
+    );
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private static class ConnectionHandler implements InvocationHandler {
+    private final Connection db;
+
+    private ConnectionHandler(Connection db) {
+      this.db = db;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Object result = QueryCounter.invoke(db, method, args);
+
+      if (result instanceof Statement) {
+        Class<?> type;
+
+        if (result instanceof CallableStatement) {
+          type = CallableStatement.class;
+        } else if (result instanceof PreparedStatement) {
+          type = PreparedStatement.class;
+        } else {
+          type = Statement.class;
+        }
+
+        return Proxy.newProxyInstance(
+          QueryCounter.class.getClassLoader(),
+          new Class<?>[] { type },
+          new StatementHandler(result)
+        );
+      }
+
+      return result;
+    }
+  }
+
+  private static class StatementHandler implements InvocationHandler {
+    private final Object statement;
+
+    private StatementHandler(Object statement) {
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getName().startsWith("execute")) {
+        counter.get()[0]++;
+      }
+
+      return QueryCounter.invoke(statement, method, args);
+    }
+  }
+}
@@ -16,11 +16,10 @@
 package ru.org.linux.site;
 
 import java.io.Serializable;
-import java.sql.*;
+import java.sql.Timestamp;
 import java.util.Date;
 
 import org.apache.solr.common.SolrDocument;
-import org.javabb.bbcode.BBCodeProcessor;
 
 public class SearchItem implements Serializable {
 //  "msgs.id, msgs.title, msgs.postdate, topic, msgs.userid, rank(idxFTI, q) as rank, message, bbcode"
@@ -31,49 +30,23 @@ public class SearchItem implements Serializable {
   private final int topic;
   private final User user;
   private final String message;
-  private final boolean bbcode;
 
   private static final long serialVersionUID = -8100510220616995405L;
 
-  public SearchItem(Connection db, SolrDocument doc) throws SQLException {
+  /**
+   * @param user автор документа
+   * @param message текст для показа: фрагменты из подсветки Solr или обработанное сообщение
+   */
+  public SearchItem(SolrDocument doc, User user, String message) {
     msgid = Integer.valueOf(doc.getFieldValue("id").toString());
     title = (String) doc.getFieldValue("title");
     topicTitle = (String) doc.getFieldValue("topic_title");
-    int userid = (Integer) doc.getFieldValue("user_id");
     Date postdate_dt = (Date) doc.getFieldValue("postdate");
     postdate = new Timestamp(postdate_dt.getTime());
     topic = (Integer) doc.getFieldValue("topic_id");
-    
-    PreparedStatement pst = null;
-    try {
-      String dbquery = "select message,bbcode from msgbase where id=?";
-      pst = db.prepareStatement(dbquery);
-      pst.setInt(1, msgid);
-      ResultSet rs = pst.executeQuery();
-      
-      if (!rs.next()) {
-        throw new RuntimeException("Can't find msgid "+msgid);
-      }
 
-      String rawMessage = rs.getString("message");
-      bbcode = rs.getBoolean("bbcode");
-      if (bbcode) {
-        BBCodeProcessor proc = new BBCodeProcessor();
-        message = proc.preparePostText(db, rawMessage);
-      } else {
-        message = rawMessage;
-      }
-      try{
-        user = User.getUserCached(db, userid);
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
-      }
-
-    }finally {
-      if (pst!=null) {
-        pst.close();
-      }
-    }
+    this.user = user;
+    this.message = message;
   }
 
   public int getMsgid() {
@@ -104,10 +77,6 @@ public class SearchItem implements Serializable {
     return message;
   }
 
-  public boolean isBbcode() {
-    return bbcode;
-  }
-
   public String getUrl() {
     if (topic==0 || topic==msgid) {
       return "view-message.jsp?msgid="+msgid;
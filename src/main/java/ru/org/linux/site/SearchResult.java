@@ -0,0 +1,200 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.javabb.bbcode.BBCodeProcessor;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Страница результатов поиска, собранная из ответа Solr.
+ *
+ * Авторы всех документов загружаются одним запросом. Текст берется из подсветки Solr
+ * (поле message хранится в индексе); из msgbase одним запросом читаются только
+ * документы без подсветки, например найденные по заголовку или проиндексированные
+ * до того, как message стал храниться.
+ */
+public class SearchResult {
+  private static final String SNIPPET_SEPARATOR = " ... ";
+
+  /**
+   * Теги, которые понимает BBCodeRenderer; однобуквенные открывающие теги обрабатываются
+   * отдельно, так как a[i] или [x] в тексте - обычно не разметка
+   */
+  private static final Pattern BBCODE_TAG = Pattern.compile("\\[(/?(quote|list|url|user|code|cut|em|strong)(=[^\\]]*)?|/[bisu]|\\*|br)\\]");
+
+  /**
+   * [b], [i], [s], [u] убираются, только если во фрагменте есть закрывающий тег
+   */
+  private static final Pattern INLINE_TAG = Pattern.compile("\\[([bisu])\\](.*?)\\[/\\1\\]", Pattern.DOTALL);
+
+  private final ImmutableList<SearchItem> items;
+  private final long numFound;
+  private final int searchTime;
+  private final long assemblyTime;
+
+  public SearchResult(Connection db, QueryResponse response) throws SQLException {
+    long start = System.currentTimeMillis();
+
+    SolrDocumentList list = response.getResults();
+
+    Set<Integer> userids = new HashSet<Integer>();
+    Map<Integer, String> snippets = new HashMap<Integer, String>();
+    List<Integer> missing = new ArrayList<Integer>();
+
+    Map<String, Map<String, List<String>>> highlighting = response.getHighlighting();
+
+    for (SolrDocument doc : list) {
+      userids.add((Integer) doc.getFieldValue("user_id"));
+
+      String id = doc.getFieldValue("id").toString();
+
+      String snippet = null;
+
+      if (highlighting!=null && highlighting.containsKey(id)) {
+        snippet = getSnippet(highlighting.get(id).get("message"));
+      }
+
+      if (snippet!=null) {
+        snippets.put(Integer.valueOf(id), snippet);
+      } else {
+        missing.add(Integer.valueOf(id));
+      }
+    }
+
+    Map<Integer, User> users = User.getUsersCached(db, userids);
+
+    if (!missing.isEmpty()) {
+      snippets.putAll(loadMessages(db, missing));
+    }
+
+    ImmutableList.Builder<SearchItem> builder = ImmutableList.builder();
+
+    for (SolrDocument doc : list) {
+      int userid = (Integer) doc.getFieldValue("user_id");
+      int msgid = Integer.parseInt(doc.getFieldValue("id").toString());
+
+      User user = users.get(userid);
+
+      if (user==null) {
+        throw new RuntimeException(new UserNotFoundException(userid));
+      }
+
+      String message = snippets.get(msgid);
+
+      if (message==null) {
+        throw new RuntimeException("Can't find msgid "+msgid);
+      }
+
+      builder.add(new SearchItem(doc, user, message));
+    }
+
+    items = builder.build();
+    numFound = list.getNumFound();
+    searchTime = response.getQTime();
+    assemblyTime = System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Фрагменты подсветки уже экранированы Solr (hl.encoder=html); теги BBCode
+   * в них остаются как текст и убираются
+   */
+  static String getSnippet(List<String> fragments) {
+    if (fragments==null || fragments.isEmpty()) {
+      return null;
+    }
+
+    String snippet = Joiner.on(SNIPPET_SEPARATOR).join(fragments);
+
+    // вложенные теги снимаются по одному уровню за проход
+    String stripped = INLINE_TAG.matcher(snippet).replaceAll("$2");
+
+    while (!stripped.equals(snippet)) {
+      snippet = stripped;
+      stripped = INLINE_TAG.matcher(snippet).replaceAll("$2");
+    }
+
+    return BBCODE_TAG.matcher(snippet).replaceAll("");
+  }
+
+  private static Map<Integer, String> loadMessages(Connection db, List<Integer> msgids) throws SQLException {
+    Map<Integer, String> messages = new HashMap<Integer, String>();
+
+    List<Integer> lorcodeIds = new ArrayList<Integer>();
+    List<String> lorcodeTexts = new ArrayList<String>();
+
+    Statement st = db.createStatement();
+
+    try {
+      ResultSet rs = st.executeQuery("SELECT id, message, bbcode FROM msgbase WHERE id IN (" + Joiner.on(',').join(msgids) + ')');
+
+      while (rs.next()) {
+        String rawMessage = rs.getString("message");
+
+        if (rs.getBoolean("bbcode")) {
+          lorcodeIds.add(rs.getInt("id"));
+          lorcodeTexts.add(rawMessage);
+        } else {
+          messages.put(rs.getInt("id"), rawMessage);
+        }
+      }
+    } finally {
+      st.close();
+    }
+
+    // пользователи из [user] всех текстов загружаются одним запросом
+    List<String> htmls = new BBCodeProcessor().preparePostTexts(db, lorcodeTexts);
+
+    for (int i=0; i<lorcodeIds.size(); i++) {
+      messages.put(lorcodeIds.get(i), htmls.get(i));
+    }
+
+    return messages;
+  }
+
+  public ImmutableList<SearchItem> getItems() {
+    return items;
+  }
+
+  public long getNumFound() {
+    return numFound;
+  }
+
+  /**
+   * @return время выполнения запроса в Solr (QTime), мс
+   */
+  public int getSearchTime() {
+    return searchTime;
+  }
+
+  /**
+   * @return время сборки страницы результатов, мс
+   */
+  public long getAssemblyTime() {
+    return assemblyTime;
+  }
+}
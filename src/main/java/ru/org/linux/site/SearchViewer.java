@@ -92,6 +92,7 @@ public class SearchViewer {
   }
 
   private static final int SEARCH_ROWS = 100;
+  private static final int SNIPPET_SIZE = 200;
 
   private int offset = 0;
 
@@ -110,6 +111,17 @@ public class SearchViewer {
 
     params.set("qt", "dismax");
 
+    // message хранится в индексе только для подсветки, целиком его не передаем
+    params.setFields("id", "title", "topic_title", "user_id", "topic_id", "postdate");
+
+    params.setHighlight(true);
+    params.addHighlightField("message");
+    params.setHighlightSnippets(2);
+    params.setHighlightFragsize(SNIPPET_SIZE);
+    params.setHighlightSimplePre("<em>");
+    params.setHighlightSimplePost("</em>");
+    params.set("hl.encoder", "html");
+
     if (query.getRange().getParam()!=null) {
       params.add("fq", query.getRange().getParam());
     }
@@ -232,19 +232,6 @@ public class Section implements Serializable {
     return getSectionLink(id)+"archive/";
   }
 
-  public Group getGroup(Connection db, String name) throws SQLException, BadGroupException {
-    PreparedStatement st = db.prepareStatement("SELECT id FROM groups WHERE section=? AND urlname=?");
-    st.setInt(1, id);
-    st.setString(2, name);
-
-    ResultSet rs = st.executeQuery();
-    if (!rs.next()) {
-      throw new BadGroupException("group not found");
-    }
-
-    return new Group(db, rs.getInt(1));
-  }
-
   public static int getSection(String name) throws SectionNotFoundException {
     Integer v = sections.get(name);
 
@@ -32,7 +32,12 @@ import ru.org.linux.site.config.PathConfig;import ru.org.linux.storage.StorageEx
 import ru.org.linux.storage.StorageNotFoundException;
 import ru.org.linux.util.LorHttpUtils;
 import ru.org.linux.util.StringUtil;
+import ru.org.linux.spring.NotificationServer;
 
+import com.google.common.collect.ImmutableMap;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.jdbc.support.JdbcUtils;
@@ -54,6 +59,13 @@ public final class Template {
     return config.getProperties().getProperty("Secret");
   }
 
+  /**
+   * @return токен текущего пользователя для {@link NotificationServer}
+   */
+  public String getNotifyToken() {
+    return NotificationServer.getToken(getSecret(), getCurrentUser().getId());
+  }
+
   public Template(HttpServletRequest request, Properties properties, HttpServletResponse response)
       throws ClassNotFoundException, IOException, SQLException, StorageException {
     request.setCharacterEncoding("utf-8"); // блядский tomcat
@@ -86,7 +98,7 @@ public final class Template {
         
         try {
           db = LorDataSource.getConnection();
-          User user = User.getUser(db, profileCookie);
+          User user = User.getUserCached(db, profileCookie);
 
           if (user.getMD5(getSecret()).equals(getCookie("password")) && !user.isBlocked()) {
             performLogin(response, db, user);
@@ -106,7 +118,6 @@ public final class Template {
         userProfile = readProfile();
       } catch (IOException e) {
         logger.info("Bad profile for user "+getNick(), e);
-      } catch (StorageNotFoundException e) {
       }
     }
 
@@ -134,11 +145,33 @@ public final class Template {
   }
 
   private Profile readProfile() throws ClassNotFoundException, IOException, StorageException {
+    String nick = getNick();
+
+    Cache cache = CacheManager.create().getCache("Profiles");
+
+    Element element = cache.get(nick);
+
+    if (element!=null) {
+      @SuppressWarnings("unchecked")
+      ImmutableMap<String, Object> settings = (ImmutableMap<String, Object>) element.getObjectValue();
+
+      // null - у пользователя нет файла профиля
+      return settings==null?new Profile():new Profile(settings);
+    }
+
     InputStream df = null;
     try {
-      df = config.getStorage().getReadStream("profile", getNick());
+      df = config.getStorage().getReadStream("profile", nick);
+
+      Profile profile = new Profile(df);
 
-      return new Profile(df);
+      cache.put(new Element(nick, profile.getSettings()));
+
+      return profile;
+    } catch (StorageNotFoundException ex) {
+      cache.put(new Element(nick, null));
+
+      return new Profile();
     } finally {
       if (df!=null) {
         df.close();
@@ -167,6 +200,8 @@ public final class Template {
       if (df!=null) {
         df.close();
       }
+
+      CacheManager.create().getCache("Profiles").remove(name);
     }
   }
 
@@ -18,8 +18,7 @@ package ru.org.linux.site;
 import java.io.Serializable;
 import java.net.URLEncoder;
 import java.sql.*;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
@@ -28,9 +27,8 @@ import javax.servlet.http.HttpSession;
 import ru.org.linux.spring.LoginController;
 import ru.org.linux.util.StringUtil;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
 import org.apache.commons.codec.binary.Base64;
 import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.util.password.BasicPasswordEncryptor;
@@ -65,6 +63,9 @@ public class User implements Serializable {
 
   private static final long serialVersionUID = 69986652856916540L;
 
+  private static final int MAX_NICKS_PER_QUERY = 1000;
+  private static final int MAX_IDS_PER_QUERY = 1000;
+
   private User(Connection con, String name) throws SQLException, UserNotFoundException {
     if (name == null) {
       throw new NullPointerException();
@@ -110,6 +111,49 @@ public class User implements Serializable {
     st.close();
   }
 
+  private User(ResultSet rs) throws SQLException {
+    id = rs.getInt("id");
+    nick = rs.getString("nick");
+    canmod = rs.getBoolean("canmod");
+    candel = rs.getBoolean("candel");
+    corrector = rs.getBoolean("corrector");
+    activated = rs.getBoolean("activated");
+    blocked = rs.getBoolean("blocked");
+    score = rs.getInt("score");
+    maxScore = rs.getInt("max_score");
+    fullName = rs.getString("name");
+    String pwd = rs.getString("passwd");
+    if (pwd == null) {
+      pwd = "";
+    }
+    anonymous = "".equals(pwd);
+    password = pwd;
+    photo = rs.getString("photo");
+    email = rs.getString("email");
+    unreadEvents = rs.getInt("unread_events");
+  }
+
+  /**
+   * Копия пользователя с измененными полями (для записи изменений в кеш)
+   */
+  private User(User user, boolean blocked, String password, int score, int maxScore) {
+    id = user.id;
+    nick = user.nick;
+    canmod = user.canmod;
+    candel = user.candel;
+    corrector = user.corrector;
+    activated = user.activated;
+    this.blocked = blocked;
+    this.score = score;
+    this.maxScore = maxScore;
+    fullName = user.fullName;
+    this.password = password;
+    anonymous = "".equals(password);
+    photo = user.photo;
+    email = user.email;
+    unreadEvents = user.unreadEvents;
+  }
+
   private User(Connection con, int id) throws SQLException, UserNotFoundException {
     this.id = id;
 
@@ -358,7 +402,13 @@ public class User implements Serializable {
     return photo;
   }
 
-  public void block(Connection db, User by, String reason) throws SQLException {
+  /**
+   * Заблокировать пользователя. Кеш не меняется: после commit вызывающий кладет
+   * результат в {@link UserCache#update(User)}
+   *
+   * @return заблокированный пользователь
+   */
+  public User block(Connection db, User by, String reason) throws SQLException {
     Statement st = null;
     PreparedStatement pst = null;
 
@@ -372,13 +422,16 @@ public class User implements Serializable {
       pst.setInt(3, by.getId());
       pst.executeUpdate();
 
-      updateCache(db);
+      return new User(this, true, password, score, maxScore);
     } finally {
       JdbcUtils.closeStatement(st);
       JdbcUtils.closeStatement(pst);
     }
   }
 
+  /**
+   * @return новый пароль; запись кеша вызывающий сбрасывает после commit
+   */
   public String resetPassword(Connection db) throws SQLException {
     String password = StringUtil.generatePassword();
 
@@ -387,7 +440,10 @@ public class User implements Serializable {
     return password;
   }
 
-  public void setPassword(Connection db, String password) throws SQLException {
+  /**
+   * @return пользователь с новым паролем; в кеш его кладет вызывающий после commit
+   */
+  public User setPassword(Connection db, String password) throws SQLException {
     PasswordEncryptor encryptor = new BasicPasswordEncryptor();
 
     String encryptedPassword = encryptor.encryptPassword(password);
@@ -400,7 +456,7 @@ public class User implements Serializable {
       st.setInt(2, id);
       st.executeUpdate();
 
-      updateCache(db);
+      return new User(this, blocked, encryptedPassword, score, maxScore);
     } finally {
       if (st!=null) {
         st.close();
@@ -468,18 +524,89 @@ public class User implements Serializable {
     return deleted;
   }
 
+  /**
+   * Пользователь по нику, всегда из БД (текущий пользователь: счетчик уведомлений
+   * меняется триггерами в обход кеша). Прочитанный пользователь записывается в кеш.
+   */
   public static User getUser(Connection con, String name) throws SQLException, UserNotFoundException {
-    Cache cache = CacheManager.create().getCache("Users");
-
     User user = new User(con, name);
 
-    String cacheId = "User?id="+ user.id;
+    UserCache.put(user, UserCache.getVersion(user.id));
 
-    cache.put(new Element(cacheId, user));
-    
     return user;
   }
 
+  /**
+   * Пользователь по нику из кеша, при промахе - из БД
+   */
+  public static User getUserCached(Connection con, String name) throws SQLException, UserNotFoundException {
+    User user = UserCache.get(name);
+
+    if (user==null) {
+      user = getUser(con, name);
+    }
+
+    return user;
+  }
+
+  /**
+   * Загрузить пользователей по нику одним запросом (на каждые MAX_NICKS_PER_QUERY ников)
+   *
+   * @param db подключение к БД
+   * @param nicks ники; некорректные ники пропускаются
+   * @return nick -> пользователь; несуществующие пользователи в результат не попадают
+   * @throws SQLException on database failure
+   */
+  public static Map<String, User> getUsers(Connection db, Collection<String> nicks) throws SQLException {
+    Map<String, User> users = new HashMap<String, User>(nicks.size());
+
+    List<String> valid = new ArrayList<String>(nicks.size());
+
+    for (String nick : new LinkedHashSet<String>(nicks)) {
+      if (StringUtil.checkLoginName(nick)) {
+        User user = UserCache.get(nick);
+
+        if (user!=null) {
+          users.put(nick, user);
+        } else {
+          valid.add(nick);
+        }
+      }
+    }
+
+    if (valid.isEmpty()) {
+      return users;
+    }
+
+    for (List<String> part : Iterables.partition(valid, MAX_NICKS_PER_QUERY)) {
+      PreparedStatement st = db.prepareStatement(
+        "SELECT id,nick,candel,canmod,corrector,passwd,blocked,score,max_score,activated,photo,email,name,unread_events FROM users " +
+        "WHERE nick IN (" + Joiner.on(',').join(Collections.nCopies(part.size(), "?")) + ')'
+      );
+
+      try {
+        for (int i=0; i<part.size(); i++) {
+          st.setString(i+1, part.get(i));
+        }
+
+        ResultSet rs = st.executeQuery();
+
+        while (rs.next()) {
+          User user = new User(rs);
+
+          users.put(user.nick, user);
+          UserCache.put(user, UserCache.getVersion(user.id));
+        }
+
+        rs.close();
+      } finally {
+        st.close();
+      }
+    }
+
+    return users;
+  }
+
   public static User getUser(Connection db, int id) throws SQLException, UserNotFoundException {
     return getUser(db, id, false);
   }
@@ -488,27 +615,92 @@ public class User implements Serializable {
     return getUser(db, id, true);
   }
 
-  private static User getUser(Connection db, int id, boolean useCache) throws SQLException, UserNotFoundException {
-    Cache cache = CacheManager.create().getCache("Users");
+  /**
+   * Пользователи по id: найденные в кеше Users берутся из него, остальные
+   * загружаются одним запросом (на каждые MAX_IDS_PER_QUERY id) и кладутся в кеш
+   *
+   * @param db подключение к БД
+   * @param ids id пользователей
+   * @return id -> пользователь; несуществующие пользователи в результат не попадают
+   * @throws SQLException on database failure
+   */
+  public static Map<Integer, User> getUsersCached(Connection db, Collection<Integer> ids) throws SQLException {
+    Map<Integer, User> users = new HashMap<Integer, User>(ids.size());
+    List<Integer> missing = new ArrayList<Integer>();
+    Map<Integer, Long> versions = new HashMap<Integer, Long>();
 
-    String cacheId = "User?id="+id;
+    for (int id : new LinkedHashSet<Integer>(ids)) {
+      versions.put(id, UserCache.getVersion(id));
 
-    User res = null;
+      User user = UserCache.get(id);
 
-    if (useCache) {
-      Element element = cache.get(cacheId);
-      
-      if (element!=null) {
-        res = (User) element.getObjectValue();
+      if (user!=null) {
+        users.put(id, user);
+      } else {
+        missing.add(id);
       }
     }
 
-    if (res==null) {
-      res = new User(db, id);
-      cache.put(new Element(cacheId, res));
+    if (missing.isEmpty()) {
+      return users;
     }
 
-    return res;
+    Statement st = db.createStatement();
+
+    try {
+      for (List<Integer> part : Iterables.partition(missing, MAX_IDS_PER_QUERY)) {
+        ResultSet rs = st.executeQuery(
+          "SELECT id,nick,candel,canmod,corrector,passwd,blocked,score,max_score,activated,photo,email,name,unread_events FROM users " +
+          "WHERE id IN (" + Joiner.on(',').join(part) + ')'
+        );
+
+        while (rs.next()) {
+          User user = new User(rs);
+
+          users.put(user.id, user);
+          UserCache.put(user, versions.get(user.id));
+        }
+
+        rs.close();
+      }
+    } finally {
+      st.close();
+    }
+
+    return users;
+  }
+
+  /**
+   * Пользователь из результата {@link #getUsersCached(Connection, Collection)}
+   *
+   * @throws UserNotFoundException если пользователя нет в users
+   */
+  public static User getUser(Map<Integer, User> users, int id) throws UserNotFoundException {
+    User user = users.get(id);
+
+    if (user==null) {
+      throw new UserNotFoundException(id);
+    }
+
+    return user;
+  }
+
+  private static User getUser(Connection db, int id, boolean useCache) throws SQLException, UserNotFoundException {
+    if (useCache) {
+      User user = UserCache.get(id);
+
+      if (user!=null) {
+        return user;
+      }
+    }
+
+    long version = UserCache.getVersion(id);
+
+    User user = new User(db, id);
+
+    UserCache.put(user, version);
+
+    return user;
   }
 
   public boolean isAnonymousScore() {
@@ -541,23 +733,28 @@ public class User implements Serializable {
     session.removeAttribute("ACEGI_SECURITY_CONTEXT"); // if any
   }
 
-  private void updateCache(Connection db) throws SQLException {
-    try {
-      getUser(db, id);
-    } catch (UserNotFoundException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  public void changeScore(Connection db, int delta) throws SQLException {
+  /**
+   * @return пользователь с новым score или null, если строки нет; в кеш его кладет
+   * вызывающий после commit
+   */
+  public User changeScore(Connection db, int delta) throws SQLException {
     PreparedStatement st = null;
     try {
-      st = db.prepareStatement("UPDATE users SET score=score+? WHERE id=?");
+      st = db.prepareStatement("UPDATE users SET score=score+? WHERE id=? RETURNING score, max_score");
       st.setInt(1, delta);
       st.setInt(2, id);
-      st.executeUpdate();
 
-      updateCache(db);
+      ResultSet rs = st.executeQuery();
+
+      User changed = null;
+
+      if (rs.next()) {
+        changed = new User(this, blocked, password, rs.getInt("score"), rs.getInt("max_score"));
+      }
+
+      rs.close();
+
+      return changed;
     } finally {
       if (st!=null) {
         st.close();
@@ -0,0 +1,187 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+/**
+ * Кеш пользователей (ehcache "Users"): записи по id и индекс ник -> id.
+ *
+ * У каждого пользователя есть версия (общая для id с одинаковым остатком от деления
+ * на STRIPES). Загрузчик запоминает версию до чтения из БД и кладет результат, только
+ * если версия не изменилась, так что загрузка, начатая до изменения, не вернет
+ * в кеш старые данные.
+ *
+ * Изменения пользователя на этом узле записываются в кеш сразу ({@link #update(User)}),
+ * остальным узлам через {@link Listener} уходит сообщение, по которому они
+ * удаляют запись ({@link #invalidateLocal(int)}).
+ */
+public final class UserCache {
+  private static final int STRIPES = 1024;
+
+  private static final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+  private static volatile Listener listener = null;
+
+  /**
+   * Рассылка изменений пользователей на другие узлы
+   */
+  public interface Listener {
+    /**
+     * @param id пользователь; 0 - все пользователи
+     */
+    void userChanged(int id);
+  }
+
+  private UserCache() {
+  }
+
+  public static void setListener(Listener listener) {
+    UserCache.listener = listener;
+  }
+
+  private static Cache getCache() {
+    return CacheManager.create().getCache("Users");
+  }
+
+  private static String getIdKey(int id) {
+    return "User?id="+id;
+  }
+
+  private static String getNickKey(String nick) {
+    return "User?nick="+nick;
+  }
+
+  static User get(int id) {
+    Element element = getCache().get(getIdKey(id));
+
+    return element!=null ? (User) element.getObjectValue() : null;
+  }
+
+  static User get(String nick) {
+    Cache cache = getCache();
+
+    Element idElement = cache.get(getNickKey(nick));
+
+    if (idElement==null) {
+      return null;
+    }
+
+    User user = get((Integer) idElement.getObjectValue());
+
+    // индекс мог пережить саму запись
+    return user!=null && user.getNick().equals(nick) ? user : null;
+  }
+
+  /**
+   * Версию нужно получить до чтения пользователя из БД
+   */
+  static long getVersion(int id) {
+    return versions.get(id & (STRIPES-1));
+  }
+
+  /**
+   * Положить в кеш пользователя, прочитанного из БД
+   *
+   * @param version версия, полученная через {@link #getVersion(int)} до чтения
+   */
+  static void put(User user, long version) {
+    int id = user.getId();
+
+    if (getVersion(id)!=version) {
+      return;
+    }
+
+    Cache cache = getCache();
+
+    cache.put(new Element(getIdKey(id), user));
+    cache.put(new Element(getNickKey(user.getNick()), id));
+
+    // пользователь изменился, пока мы его записывали
+    if (getVersion(id)!=version) {
+      cache.remove(getIdKey(id));
+    }
+  }
+
+  /**
+   * Записать измененного на этом узле пользователя и сообщить остальным узлам;
+   * вызывается после commit транзакции, изменившей пользователя
+   */
+  public static void update(User user) {
+    int id = user.getId();
+
+    versions.incrementAndGet(id & (STRIPES-1));
+
+    Cache cache = getCache();
+
+    cache.put(new Element(getIdKey(id), user));
+    cache.put(new Element(getNickKey(user.getNick()), id));
+
+    broadcast(id);
+  }
+
+  /**
+   * Сбросить пользователя на всех узлах; вызывается после изменения строки users
+   * в обход методов User
+   */
+  public static void invalidate(int id) {
+    invalidateLocal(id);
+
+    broadcast(id);
+  }
+
+  /**
+   * Сбросить всех пользователей на всех узлах (массовые изменения users)
+   */
+  public static void invalidateAll() {
+    invalidateLocal(0);
+
+    broadcast(0);
+  }
+
+  /**
+   * Сбросить пользователя только на этом узле; вызывается при получении сообщения
+   * от другого узла
+   *
+   * @param id пользователь; 0 - все пользователи
+   */
+  public static void invalidateLocal(int id) {
+    if (id==0) {
+      for (int i=0; i<STRIPES; i++) {
+        versions.incrementAndGet(i);
+      }
+
+      getCache().removeAll();
+    } else {
+      versions.incrementAndGet(id & (STRIPES-1));
+
+      // индекс ников не трогаем: ник не меняется, а запись по id проверяется при чтении
+      getCache().remove(getIdKey(id));
+    }
+  }
+
+  private static void broadcast(int id) {
+    Listener current = listener;
+
+    if (current!=null) {
+      current.userChanged(id);
+    }
+  }
+}
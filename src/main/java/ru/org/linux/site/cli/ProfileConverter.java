@@ -0,0 +1,121 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site.cli;
+
+import java.io.*;
+import java.util.Map;
+
+import ru.org.linux.site.ProfileCodec;
+
+/**
+ * Перевод файлов профилей в текущий формат {@link ProfileCodec}.
+ *
+ * Использование: ProfileConverter linux-storage/profile
+ *
+ * Каждый файл пишется во временный и переименовывается поверх старого;
+ * файлы в текущем формате пропускаются.
+ */
+public final class ProfileConverter {
+  private ProfileConverter() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length!=1) {
+      System.err.println("Usage: ProfileConverter <profile directory>");
+      System.exit(1);
+    }
+
+    File dir = new File(args[0]);
+    File[] files = dir.listFiles();
+
+    if (files==null) {
+      System.err.println("Can't read directory: "+dir);
+      System.exit(1);
+    }
+
+    int converted = 0;
+    int skipped = 0;
+    int failed = 0;
+    long bytesBefore = 0;
+    long bytesAfter = 0;
+
+    for (File file : files) {
+      if (!file.isFile() || file.getName().endsWith(".tmp")) {
+        continue;
+      }
+
+      try {
+        if (getVersion(file)==ProfileCodec.VERSION) {
+          skipped++;
+          continue;
+        }
+
+        bytesBefore += file.length();
+        bytesAfter += convert(file);
+        converted++;
+      } catch (Exception ex) {
+        System.err.println(file.getName()+": "+ex);
+        failed++;
+      }
+    }
+
+    System.out.println("converted: "+converted+", already converted: "+skipped+", failed: "+failed);
+
+    if (converted>0) {
+      System.out.println("bytes: "+bytesBefore+" -> "+bytesAfter+
+        " ("+bytesBefore/converted+" -> "+bytesAfter/converted+" per profile)");
+    }
+  }
+
+  private static int getVersion(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+
+    try {
+      return ProfileCodec.getVersion(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static long convert(File file) throws IOException, ClassNotFoundException {
+    Map<String, Object> settings;
+
+    InputStream in = new FileInputStream(file);
+
+    try {
+      settings = ProfileCodec.read(in);
+    } finally {
+      in.close();
+    }
+
+    File tmp = new File(file.getPath()+".tmp");
+
+    OutputStream out = new FileOutputStream(tmp);
+
+    try {
+      ProfileCodec.write(settings, out);
+    } finally {
+      out.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Can't rename "+tmp+" to "+file);
+    }
+
+    return file.length();
+  }
+}
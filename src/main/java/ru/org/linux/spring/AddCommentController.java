@@ -18,7 +18,9 @@ package ru.org.linux.spring;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +43,10 @@ import org.springframework.web.servlet.view.RedirectView;
 @Controller
 public class AddCommentController extends ApplicationObjectSupport {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
+  private ReplyNotifier replyNotifier;
+  private IPBlockStore ipBlockStore;
+  private DNSBLService dnsblService;
 
   @Autowired
   @Required
@@ -48,6 +54,30 @@ public class AddCommentController extends ApplicationObjectSupport {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setReplyNotifier(ReplyNotifier replyNotifier) {
+    this.replyNotifier = replyNotifier;
+  }
+
+  @Autowired
+  @Required
+  public void setIpBlockStore(IPBlockStore ipBlockStore) {
+    this.ipBlockStore = ipBlockStore;
+  }
+
+  @Autowired
+  @Required
+  public void setDnsblService(DNSBLService dnsblService) {
+    this.dnsblService = dnsblService;
+  }
+
   @RequestMapping(value = "/add_comment.jsp", method = RequestMethod.GET)
   public ModelAndView showForm(
     @RequestParam("topic") int topicId,
@@ -138,6 +168,8 @@ public class AddCommentController extends ApplicationObjectSupport {
     @RequestParam("topic") int topicId,
     HttpServletRequest request
   ) throws Exception {
+    DNSBLService.Check dnsbl = dnsblService.check(request.getRemoteAddr());
+
     boolean preview = previewStr != null;
     Map<String, Object> formParams = new HashMap<String, Object>();
 
@@ -183,7 +215,7 @@ public class AddCommentController extends ApplicationObjectSupport {
         throw new BadInputException("сбой добавления");
       }
 
-      IPBlockInfo.checkBlockIP(db, request.getRemoteAddr());
+      ipBlockStore.checkBlockIP(request.getRemoteAddr());
 
       User user;
 
@@ -232,8 +264,10 @@ public class AddCommentController extends ApplicationObjectSupport {
         }
       }
 
+      Comment reply = null;
+
       if (replyto != 0) {
-        Comment reply = new Comment(db, replyto);
+        reply = new Comment(db, replyto);
         if (reply.isDeleted()) {
           throw new AccessViolationException("Комментарий был удален");
         }
@@ -245,6 +279,8 @@ public class AddCommentController extends ApplicationObjectSupport {
 
       topic.checkCommentsAllowed(user);
 
+      dnsbl.checkBlock();
+
       if (!preview) {
         DupeProtector.getInstance().checkDuplication(request.getRemoteAddr(), user.getScore() > 100);
 
@@ -260,6 +296,18 @@ public class AddCommentController extends ApplicationObjectSupport {
         db.commit();
 
         searchQueueSender.updateComment(msgid);
+        trackerIndex.topicChanged(db, topicId);
+
+        Set<Integer> notified = new HashSet<Integer>();
+        notified.add(topic.getUid());
+
+        if (reply != null) {
+          notified.add(reply.getUserid());
+        }
+
+        notified.remove(user.getId());
+
+        replyNotifier.usersChanged(db, notified);
 
         String returnUrl = "jump-message.jsp?msgid=" + topicId + "&cid=" + msgid;
 
@@ -37,6 +37,10 @@ import org.springframework.web.servlet.view.RedirectView;
 @Controller
 public class AddMessageController extends ApplicationObjectSupport {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
+  private GroupStore groupStore;
+  private IPBlockStore ipBlockStore;
+  private DNSBLService dnsblService;
 
   @Autowired
   @Required
@@ -44,6 +48,30 @@ public class AddMessageController extends ApplicationObjectSupport {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
+  @Autowired
+  @Required
+  public void setIpBlockStore(IPBlockStore ipBlockStore) {
+    this.ipBlockStore = ipBlockStore;
+  }
+
+  @Autowired
+  @Required
+  public void setDnsblService(DNSBLService dnsblService) {
+    this.dnsblService = dnsblService;
+  }
+
   @RequestMapping(value = "/add.jsp", method = RequestMethod.GET)
   public ModelAndView add(HttpServletRequest request) throws Exception {
     Map<String, Object> params = new HashMap<String, Object>();
@@ -61,7 +89,7 @@ public class AddMessageController extends ApplicationObjectSupport {
 
       Integer groupId = form.getGuid();
 
-      Group group = new Group(db, groupId);
+      Group group = groupStore.getGroup(groupId);
 
       if (group.isModerated()) {
         params.put("topTags", Tags.getTopTags(db));
@@ -87,6 +115,8 @@ public class AddMessageController extends ApplicationObjectSupport {
 
   @RequestMapping(value="/add.jsp", method=RequestMethod.POST)
   public ModelAndView doAdd(HttpServletRequest request) throws Exception {
+    DNSBLService.Check dnsbl = dnsblService.check(request.getRemoteAddr());
+
     Map<String, Object> params = new HashMap<String, Object>();
 
     Template tmpl = Template.getTemplate(request);
@@ -103,7 +133,7 @@ public class AddMessageController extends ApplicationObjectSupport {
       db.setAutoCommit(false);
       tmpl.updateCurrentUser(db);
 
-      Group group = new Group(db, form.getGuid());
+      Group group = groupStore.getGroup(form.getGuid());
 
       if (group.isModerated()) {
         params.put("topTags", Tags.getTopTags(db));
@@ -121,8 +151,8 @@ public class AddMessageController extends ApplicationObjectSupport {
         form.processUpload(session, tmpl);
       }
 
-      Message previewMsg = new Message(db, form, user);
-      params.put("message", new PreparedMessage(db, previewMsg, true));
+      Message previewMsg = new Message(db, group, form, user);
+      params.put("message", new PreparedMessage(db, groupStore, previewMsg, true));
 
       if (!form.isPreview()) {
         // Flood protection
@@ -137,10 +167,11 @@ public class AddMessageController extends ApplicationObjectSupport {
           CaptchaUtils.checkCaptcha(request);
         }
         // Blocked IP
-        IPBlockInfo.checkBlockIP(db, request.getRemoteAddr());
+        ipBlockStore.checkBlockIP(request.getRemoteAddr());
+        dnsbl.checkBlock();
         DupeProtector.getInstance().checkDuplication(request.getRemoteAddr());
 
-        int msgid = previewMsg.addTopicFromPreview(db, tmpl, request, form.getPreviewImagePath(), user);
+        int msgid = previewMsg.addTopicFromPreview(db, group, tmpl, request, form.getPreviewImagePath(), user);
 
         if (form.getPollList() != null) {
           int pollId = Poll.createPoll(db, form.getPollList(), form.getMultiSelect());
@@ -158,6 +189,8 @@ public class AddMessageController extends ApplicationObjectSupport {
         db.commit();
 
         searchQueueSender.updateMessageOnly(msgid);
+        trackerIndex.topicChanged(db, msgid);
+        NewsViewer.invalidatePreparedCache();
 
 //        LorSearchSource.updateMessage(LorSearchSource.getConnection(), previewMsg, msgid);
 
@@ -94,6 +94,8 @@ public class AddPhotoController extends ApplicationObjectSupport {
       pst.setInt(2, user.getId());
       pst.executeUpdate();
 
+      UserCache.invalidate(user.getId());
+
       logger.info("Установлена фотография пользователем " + user.getNick());
 
       return new ModelAndView(new RedirectView("/people/" + URLEncoder.encode(user.getNick()) + "/profile?nocache=" + random.nextInt()));
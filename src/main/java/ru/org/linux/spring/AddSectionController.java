@@ -19,17 +19,26 @@ import java.sql.Connection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
-import ru.org.linux.site.Group;
 import ru.org.linux.site.LorDataSource;
 import ru.org.linux.site.Section;
 
 @Controller
 public class AddSectionController {
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping(value = "/add-section.jsp")
   public ModelAndView showForm(@RequestParam("section") int sectionId) throws Exception {
     Map<String, Object> params = new HashMap<String, Object>();
@@ -46,7 +55,7 @@ public class AddSectionController {
 
       params.put("info", section.getAddInfo(db));
 
-      params.put("groups", Group.getGroups(db, section));
+      params.put("groups", groupStore.getGroups(section));
 
       return new ModelAndView("add-section", params);
     } finally {
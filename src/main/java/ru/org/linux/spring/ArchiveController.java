@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -34,6 +36,14 @@ import ru.org.linux.site.Group;
 
 @Controller
 public class ArchiveController {
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   public ModelAndView archiveList(
     int sectionid
   ) throws Exception {
@@ -56,7 +66,7 @@ public class ArchiveController {
 
       Group group = null;
       if (groupName!=null) {
-        group = new Group(db, sectionid, groupName);
+        group = groupStore.getGroup(sectionid, groupName);
       }
 
       PreparedStatement pst;
@@ -26,6 +26,8 @@ import javax.servlet.http.HttpServletRequest;
 
 import ru.org.linux.site.*;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.ServletRequestUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -36,12 +38,21 @@ import org.springframework.web.servlet.view.RedirectView;
 
 @Controller
 public class BanIPController {
+  private IPBlockStore ipBlockStore;
+
+  @Autowired
+  @Required
+  public void setIpBlockStore(IPBlockStore ipBlockStore) {
+    this.ipBlockStore = ipBlockStore;
+  }
+
   @RequestMapping(value="/banip.jsp", method= RequestMethod.POST)
   public ModelAndView banIP(
     HttpServletRequest request,
     @RequestParam("ip") String ip,
     @RequestParam("reason") String reason,
-    @RequestParam("time") String time
+    @RequestParam("time") String time,
+    @RequestParam(value="mask", required=false) Integer mask
   ) throws Exception {
     Template tmpl = Template.getTemplate(request);
 
@@ -49,6 +60,8 @@ public class BanIPController {
       throw new IllegalAccessException("Not authorized");
     }
 
+    String network = getNetwork(ip, mask);
+
     Calendar calendar = Calendar.getInstance();
     calendar.setTime(new Date());
 
@@ -87,7 +100,7 @@ public class BanIPController {
 
       User user = User.getUser(db, tmpl.getNick());
 
-      IPBlockInfo blockInfo = IPBlockInfo.getBlockInfo(db, ip);
+      IPBlockInfo blockInfo = IPBlockInfo.getBlockInfo(db, network);
       user.checkCommit();
 
       PreparedStatement pst;
@@ -96,10 +109,10 @@ public class BanIPController {
         pst = db.prepareStatement("INSERT INTO b_ips (ip, mod_id, date, reason, ban_date) VALUES (?::inet, ?, CURRENT_TIMESTAMP, ?, ?)");
       } else {
         pst = db.prepareStatement("UPDATE b_ips SET ip=?::inet, mod_id=?,date=CURRENT_TIMESTAMP, reason=?, ban_date=? WHERE ip=?::inet");
-        pst.setString(5, ip);
+        pst.setString(5, network);
       }
 
-      pst.setString(1, ip);
+      pst.setString(1, network);
       pst.setInt(2, user.getId());
       pst.setString(3, reason);
       pst.setTimestamp(4, ts);
@@ -108,6 +121,8 @@ public class BanIPController {
 
       db.commit();
 
+      ipBlockStore.reload();
+
       return new ModelAndView(new RedirectView("sameip.jsp?ip=" + URLEncoder.encode(ip)));
     } finally {
       if (db != null) {
@@ -115,4 +130,21 @@ public class BanIPController {
       }
     }
   }
+
+  /**
+   * @return адрес или сеть адрес/mask, если указана маска
+   */
+  private static String getNetwork(String ip, Integer mask) throws UserErrorException {
+    if (mask == null) {
+      return ip;
+    }
+
+    int maxMask = ip.indexOf(':') >= 0 ? 128 : 32;
+
+    if (mask < 0 || mask > maxMask) {
+      throw new UserErrorException("Invalid mask");
+    }
+
+    return ip + '/' + mask;
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.network.NetworkConnector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Связь встроенного брокера ActiveMQ с брокерами других узлов.
+ *
+ * Сообщения topic'ов lor.* (сброс кеша пользователей, трекер, уведомления) должны
+ * доходить до всех узлов, а брокер каждого узла доступен только через vm://localhost.
+ * Если задан listen, брокер принимает подключения других узлов по этому адресу;
+ * если задан peers (адреса через запятую), к ним открываются мосты, по которым
+ * уходят сообщения topic'ов. Очереди по мостам не передаются: индексацию выполняет
+ * узел, на котором изменилось сообщение.
+ *
+ * Подключения можно добавить только до запуска брокера, поэтому брокер объявляется
+ * с start="false" и запускается из {@link #start()}. С пустыми listen и peers
+ * (одиночный узел) брокер просто запускается.
+ */
+public class BrokerNetwork {
+  private static final Log logger = LogFactory.getLog(BrokerNetwork.class);
+
+  private static final String TOPICS = "lor.>";
+
+  private BrokerService broker;
+  private String listen = "";
+  private String peers = "";
+
+  @Required
+  public void setBroker(BrokerService broker) {
+    this.broker = broker;
+  }
+
+  /**
+   * @param listen адрес для подключения других узлов, например tcp://0.0.0.0:61616
+   */
+  public void setListen(String listen) {
+    this.listen = listen.trim();
+  }
+
+  /**
+   * @param peers адреса брокеров других узлов через запятую, например tcp://node2:61616
+   */
+  public void setPeers(String peers) {
+    this.peers = peers.trim();
+  }
+
+  public void start() throws Exception {
+    if (listen.length()>0) {
+      broker.addConnector(listen);
+
+      logger.info("JMS broker listens on " + listen);
+    }
+
+    if (peers.length()>0) {
+      NetworkConnector connector = broker.addNetworkConnector("static:(" + peers + ')');
+
+      // полная связность: сообщение не пересылается дальше соседнего узла
+      connector.setNetworkTTL(1);
+
+      List<ActiveMQDestination> topics = new ArrayList<ActiveMQDestination>();
+      topics.add(new ActiveMQTopic(TOPICS));
+      connector.setDynamicallyIncludedDestinations(topics);
+
+      logger.info("JMS broker connects to " + peers);
+    }
+
+    broker.start();
+  }
+}
@@ -23,6 +23,8 @@ import ru.org.linux.site.LorDataSource;
 import ru.org.linux.site.Message;
 import ru.org.linux.site.PreparedMessage;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -30,6 +32,14 @@ import org.springframework.web.servlet.ModelAndView;
 
 @Controller
 public class CommentMessageController {
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping("/comment-message.jsp")
   public ModelAndView showController(
     @RequestParam("msgid") int msgid
@@ -55,7 +65,7 @@ public class CommentMessageController {
 
       params.put("message", message);
 
-      params.put("preparedMessage", new PreparedMessage(db, message, true));
+      params.put("preparedMessage", new PreparedMessage(db, groupStore, message, true));
 
       return new ModelAndView("comment-message", params);
     } finally {
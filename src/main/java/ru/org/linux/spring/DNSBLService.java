@@ -0,0 +1,281 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.xbill.DNS.ExtendedResolver;
+import org.xbill.DNS.Resolver;
+
+import ru.org.linux.site.AccessViolationException;
+import ru.org.linux.util.DNSBLClient;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Проверка адресов по спискам DNSBL без блокировки потоков Tomcat.
+ *
+ * {@link #check(String)} сразу запускает запросы во все зоны параллельно в своем пуле
+ * и возвращает {@link Check}; контроллер вызывает его в начале обработки, а результат
+ * забирает в конце ({@link Check#checkBlock()}). Ожидание ограничено budget мс от
+ * начала проверки: если DNS не успел ответить, адрес считается не заблокированным,
+ * а пришедший позже ответ попадет в кэш для следующих запросов. Ответы кэшируются
+ * на positiveTtl (адрес в списке) или negativeTtl (нет в списке) мс, ошибки DNS
+ * не кэшируются.
+ *
+ * Проверяются только адреса IPv4.
+ */
+public class DNSBLService {
+  private static final Log logger = LogFactory.getLog(DNSBLService.class);
+
+  private static final int CLEANUP_INTERVAL = 60*1000;
+  private static final int MAX_QUEUE = 1000;
+
+  private String[] zones;
+  private int budget = 1000;
+  private int lookupTimeout = 5000;
+  private int positiveTtl = 60*60*1000;
+  private int negativeTtl = 10*60*1000;
+  private int threads = 8;
+  private Resolver resolver;
+
+  private ThreadPoolExecutor executor;
+
+  private final ConcurrentMap<String, Query> cache = new ConcurrentHashMap<String, Query>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+
+  @Required
+  public void setZones(String[] zones) {
+    this.zones = zones;
+  }
+
+  /**
+   * @param budget сколько мс запрос пользователя может ждать ответа DNSBL
+   */
+  public void setBudget(int budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * @param lookupTimeout таймаут запроса к DNS в мс; может быть больше budget,
+   * чтобы медленный ответ все же попал в кэш
+   */
+  public void setLookupTimeout(int lookupTimeout) {
+    this.lookupTimeout = lookupTimeout;
+  }
+
+  public void setPositiveTtl(int positiveTtl) {
+    this.positiveTtl = positiveTtl;
+  }
+
+  public void setNegativeTtl(int negativeTtl) {
+    this.negativeTtl = negativeTtl;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @param resolver резолвер вместо системного (для тестов)
+   */
+  public void setResolver(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  public void start() throws UnknownHostException {
+    if (resolver==null) {
+      resolver = new ExtendedResolver();
+    }
+
+    resolver.setTimeout(lookupTimeout / 1000, lookupTimeout % 1000);
+
+    executor = new ThreadPoolExecutor(
+      threads, threads,
+      0, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<Runnable>(MAX_QUEUE),
+      new ThreadFactoryBuilder().setNameFormat("DNSBL-%d").setDaemon(true).build()
+    );
+  }
+
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Начать проверку адреса во всех зонах
+   */
+  public Check check(String addr) {
+    long now = System.currentTimeMillis();
+
+    List<Query> queries = new ArrayList<Query>(zones.length);
+
+    // IPv6 и некорректные адреса в зоны не отправляются
+    if (IPBlockStore.parse(addr) instanceof Inet4Address) {
+      for (String zone : zones) {
+        queries.add(lookup(addr, zone, now));
+      }
+    }
+
+    return new Check(queries, now + budget);
+  }
+
+  private Query lookup(String addr, String zone, long now) {
+    String key = zone + ' ' + addr;
+
+    while (true) {
+      Query query = cache.get(key);
+
+      if (query!=null && query.expires > now) {
+        hits.incrementAndGet();
+        return query;
+      }
+
+      Query created = new Query(addr, zone);
+
+      if (query==null ? cache.putIfAbsent(key, created)==null : cache.replace(key, query, created)) {
+        misses.incrementAndGet();
+
+        try {
+          executor.execute(created);
+        } catch (RejectedExecutionException ex) {
+          logger.warn("DNSBL queue is full, skipping " + key);
+          cache.remove(key, created);
+          created.cancel(false);
+        }
+
+        return created;
+      }
+    }
+  }
+
+  @Scheduled(fixedDelay=CLEANUP_INTERVAL)
+  public void cleanup() {
+    long now = System.currentTimeMillis();
+
+    for (Iterator<Query> it = cache.values().iterator(); it.hasNext(); ) {
+      if (it.next().expires <= now) {
+        it.remove();
+      }
+    }
+
+    logger.debug(
+      "DNSBL cache: entries=" + cache.size() +
+        " hits=" + hits.get() +
+        " misses=" + misses.get() +
+        " timeouts=" + timeouts.get()
+    );
+  }
+
+  int getCacheSize() {
+    return cache.size();
+  }
+
+  /**
+   * Запрос в одну зону; пока он выполняется, лежит в кэше с бесконечным временем
+   * жизни, чтобы одновременные проверки одного адреса не дублировали запросы
+   */
+  private class Query extends FutureTask<Boolean> {
+    private final String zone;
+    private volatile long expires = Long.MAX_VALUE;
+
+    private Query(final String addr, final String zone) {
+      super(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return new DNSBLClient(zone, resolver).checkIP(addr);
+        }
+      });
+
+      this.zone = zone;
+    }
+
+    @Override
+    protected void set(Boolean listed) {
+      expires = System.currentTimeMillis() + (listed ? positiveTtl : negativeTtl);
+      super.set(listed);
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      expires = 0;
+      super.setException(t);
+    }
+  }
+
+  /**
+   * Запущенная проверка адреса
+   */
+  public class Check {
+    private final List<Query> queries;
+    private final long deadline;
+
+    private Check(List<Query> queries, long deadline) {
+      this.queries = queries;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Дождаться ответов, но не дольше budget от начала проверки
+     *
+     * @return первая зона, в которой найден адрес, или null
+     */
+    public String getListedZone() {
+      for (Query query : queries) {
+        try {
+          long wait = Math.max(0, deadline - System.currentTimeMillis());
+
+          if (query.get(wait, TimeUnit.MILLISECONDS)) {
+            return query.zone;
+          }
+        } catch (TimeoutException ex) {
+          timeouts.incrementAndGet();
+          logger.debug("DNSBL timeout: " + query.zone);
+        } catch (CancellationException ex) {
+          // запрос не поместился в очередь
+        } catch (ExecutionException ex) {
+          logger.info("DNSBL lookup failed: " + ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+
+      return null;
+    }
+
+    public void checkBlock() throws AccessViolationException {
+      String zone = getListedZone();
+
+      if (zone!=null) {
+        throw new AccessViolationException("Постинг заблокирован: " + zone);
+      }
+    }
+  }
+}
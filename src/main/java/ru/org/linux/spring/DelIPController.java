@@ -36,6 +36,7 @@ import org.springframework.web.servlet.ModelAndView;
 @Controller
 public class DelIPController {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
 
   @Autowired
   @Required
@@ -43,6 +44,12 @@ public class DelIPController {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
   @RequestMapping(value="/delip.jsp", method= RequestMethod.POST)
   public ModelAndView delIp(HttpServletRequest request,
                             @RequestParam("reason") String reason,
@@ -152,7 +159,10 @@ public class DelIPController {
       
       db.commit();
 
+      ProcessedMessageCache.invalidate(deletedIds);
+
       searchQueueSender.updateComment(deletedIds);
+      trackerIndex.invalidateAll();
       
       return new ModelAndView("delip", params);
     } finally {
@@ -16,6 +16,7 @@
 package ru.org.linux.spring;
 
 import java.sql.Connection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -37,6 +38,8 @@ import org.springframework.web.servlet.ModelAndView;
 @Controller
 public class DeleteCommentController {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
+  private ReplyNotifier replyNotifier;
   private static final int DELETE_PERIOD = 60 * 60 * 1000; // milliseconds
 
   @Autowired
@@ -45,6 +48,18 @@ public class DeleteCommentController {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setReplyNotifier(ReplyNotifier replyNotifier) {
+    this.replyNotifier = replyNotifier;
+  }
+
   @RequestMapping(value = "/delete_comment.jsp", method = RequestMethod.GET)
   public ModelAndView showForm(
     HttpSession session,
@@ -176,7 +191,13 @@ public class DeleteCommentController {
 
       db.commit();
 
+      ProcessedMessageCache.invalidate(deleted);
+
       searchQueueSender.updateComment(deleted);
+      trackerIndex.topicChanged(db, comment.getTopic());
+
+      // авторы удаленных ответов получат счетчик при следующем обновлении ReplyNotifier
+      replyNotifier.usersChanged(db, Collections.singleton(comment.getUserid()));
 
       Map<String, Object> params = new HashMap<String, Object>();
       params.put("message", "Удалено успешно");
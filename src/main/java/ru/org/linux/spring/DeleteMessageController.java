@@ -18,6 +18,7 @@ package ru.org.linux.spring;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Collections;
 import java.util.HashMap;
 
 import javax.servlet.http.HttpServletRequest;
@@ -37,6 +38,9 @@ import org.springframework.web.servlet.ModelAndView;
 @Controller
 public class DeleteMessageController extends ApplicationObjectSupport {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
+  private GroupStore groupStore;
+  private ReplyNotifier replyNotifier;
 
   @Autowired
   @Required
@@ -44,6 +48,24 @@ public class DeleteMessageController extends ApplicationObjectSupport {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
+  @Autowired
+  @Required
+  public void setReplyNotifier(ReplyNotifier replyNotifier) {
+    this.replyNotifier = replyNotifier;
+  }
+
   @RequestMapping(value="/delete.jsp", method= RequestMethod.GET)
   public ModelAndView showForm(
     @RequestParam("msgid") int msgid,
@@ -168,13 +190,15 @@ public class DeleteMessageController extends ApplicationObjectSupport {
 
       st1.executeUpdate();
 
+      User changedAuthor = null;
+
       if (user.canModerate() && bonus!=0 && user.getId()!=message.getUid()) {
         if (bonus>20 || bonus<0) {
           throw new UserErrorException("Некорректное значение bonus");
         }
 
         User author = User.getUser(db, message.getUid());
-        author.changeScore(db, -bonus);
+        changedAuthor = author.changeScore(db, -bonus);
         reason+=" ("+bonus+ ')';
       }
 
@@ -187,8 +211,18 @@ public class DeleteMessageController extends ApplicationObjectSupport {
       st2.close();
       db.commit();
 
+      if (changedAuthor!=null) {
+        UserCache.update(changedAuthor);
+      }
+
+      ProcessedMessageCache.invalidate(msgid);
+
       // Delete msgs from search index 
       searchQueueSender.updateMessage(msgid, true);
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
+
+      replyNotifier.usersChanged(db, Collections.singleton(message.getUid()));
 
       return new ModelAndView("action-done", "message", "Сообщение удалено");
     } finally {
@@ -219,7 +253,7 @@ public class DeleteMessageController extends ApplicationObjectSupport {
 
       ModelAndView mv = new ModelAndView("undelete");
       mv.getModel().put("message", message);
-      mv.getModel().put("preparedMessage", new PreparedMessage(db, message, true));
+      mv.getModel().put("preparedMessage", new PreparedMessage(db, groupStore, message, true));
 
       return mv;
     } finally {
@@ -272,9 +306,14 @@ public class DeleteMessageController extends ApplicationObjectSupport {
       st2.close();
 
       db.commit();
+
+      ProcessedMessageCache.invalidate(msgid);
+
       // Undelete msgs from search index 
       
       searchQueueSender.updateMessage(msgid, true);
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
 
       return new ModelAndView("action-done", "message", "Сообщение восстановлено");
     } finally {
@@ -40,6 +40,8 @@ import org.springframework.web.servlet.view.RedirectView;
 @Controller
 public class EditController extends ApplicationObjectSupport {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
+  private GroupStore groupStore;
 
   @Autowired
   @Required
@@ -47,6 +49,18 @@ public class EditController extends ApplicationObjectSupport {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @Autowired(required=true)
   private FeedPinger feedPinger;
 
@@ -75,7 +89,7 @@ public class EditController extends ApplicationObjectSupport {
         throw new UserErrorException("Раздел не премодерируемый");
       }
 
-      PreparedMessage preparedMessage = new PreparedMessage(db, message, true);
+      PreparedMessage preparedMessage = new PreparedMessage(db, groupStore, message, true);
 
       ModelAndView mv = prepareModel(db, preparedMessage);
 
@@ -110,7 +124,7 @@ public class EditController extends ApplicationObjectSupport {
 
       User user = tmpl.getCurrentUser();
 
-      PreparedMessage preparedMessage = new PreparedMessage(db, message, true);
+      PreparedMessage preparedMessage = new PreparedMessage(db, groupStore, message, true);
 
       if (!preparedMessage.isEditable(user)) {
         throw new AccessViolationException("это сообщение нельзя править");
@@ -124,10 +138,10 @@ public class EditController extends ApplicationObjectSupport {
     }
   }
 
-  private static ModelAndView prepareModel(
+  private ModelAndView prepareModel(
     Connection db,
     PreparedMessage preparedMessage
-  ) throws SQLException, BadGroupException {
+  ) throws SQLException {
     Map<String, Object> params = new HashMap<String, Object>();
 
     Message message = preparedMessage.getMessage();
@@ -135,10 +149,10 @@ public class EditController extends ApplicationObjectSupport {
     params.put("message", message);
     params.put("preparedMessage", preparedMessage);
 
-    Group group = new Group(db, message.getGroupId());
+    Group group = preparedMessage.getGroup();
     params.put("group", group);
 
-    params.put("groups", Group.getGroups(db, message.getSection()));
+    params.put("groups", groupStore.getGroups(message.getSection()));
 
     params.put("newMsg", message);
     params.put("newPreparedMessage", preparedMessage);
@@ -181,18 +195,18 @@ public class EditController extends ApplicationObjectSupport {
       tmpl.updateCurrentUser(db);
 
       Message message = new Message(db, msgid);
-      PreparedMessage preparedMessage = new PreparedMessage(db, message, true);
+      PreparedMessage preparedMessage = new PreparedMessage(db, groupStore, message, true);
       params.put("message", message);
       params.put("preparedMessage", preparedMessage);
 
-      Group group = new Group(db, message.getGroupId());
+      Group group = preparedMessage.getGroup();
       params.put("group", group);
 
       if (group.isModerated()) {
         params.put("topTags", Tags.getTopTags(db));
       }      
 
-      params.put("groups", Group.getGroups(db, message.getSection()));
+      params.put("groups", groupStore.getGroups(message.getSection()));
 
       User user = tmpl.getCurrentUser();
 
@@ -235,7 +249,7 @@ public class EditController extends ApplicationObjectSupport {
 
       params.put("commit", !message.isCommited() && message.getSection().isPremoderated() && user.canModerate());
 
-      Message newMsg = new Message(db, message, request);
+      Message newMsg = new Message(db, group, message, request);
 
       boolean modified = false;
 
@@ -283,6 +297,8 @@ public class EditController extends ApplicationObjectSupport {
         newTags = Tags.parseTags(request.getParameter("tags"));
       }
 
+      User changedAuthor = null;
+
       if (!preview) {
         PreparedStatement pst = db.prepareStatement("UPDATE topics SET linktext=?, url=?, minor=? WHERE id=?");
 
@@ -305,7 +321,7 @@ public class EditController extends ApplicationObjectSupport {
           if (changeGroupId != null) {
             int oldgrp = message.getGroupId();
             if (oldgrp != changeGroupId) {
-              Group changeGroup = new Group(db, changeGroupId);
+              Group changeGroup = groupStore.getGroup(changeGroupId);
 
               int section = message.getSectionId();
 
@@ -317,7 +333,7 @@ public class EditController extends ApplicationObjectSupport {
             }
           }
 
-          message.commit(db, user, bonus);
+          changedAuthor = message.commit(db, user, bonus);
         }
 
         if (modified || commit) {
@@ -329,6 +345,14 @@ public class EditController extends ApplicationObjectSupport {
 
           db.commit();
 
+          if (changedAuthor!=null) {
+            UserCache.update(changedAuthor);
+          }
+
+          ProcessedMessageCache.invalidate(newMsg.getId());
+          trackerIndex.topicChanged(db, newMsg.getId());
+          NewsViewer.invalidatePreparedCache();
+
           if (commit) {
             feedPinger.pingFeedburner();
           }
@@ -340,7 +364,7 @@ public class EditController extends ApplicationObjectSupport {
       }
 
       params.put("newMsg", newMsg);
-      params.put("newPreparedMessage", new PreparedMessage(db, newMsg, newTags));
+      params.put("newPreparedMessage", new PreparedMessage(db, groupStore, newMsg, newTags));
 
       return new ModelAndView("edit", params);
     } finally {
@@ -23,6 +23,8 @@ import java.util.Map;
 import java.util.Random;
 
 import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.context.support.ApplicationObjectSupport;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.ServletRequestUtils;
@@ -37,6 +39,14 @@ import ru.org.linux.util.HTMLFormatter;
 
 @Controller
 public class EditVoteController extends ApplicationObjectSupport {
+  private TrackerIndex trackerIndex;
+
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
   @RequestMapping(value="/edit-vote.jsp", method= RequestMethod.GET)
   public ModelAndView showForm(
     HttpServletRequest request,
@@ -133,6 +143,9 @@ public class EditVoteController extends ApplicationObjectSupport {
 
       db.commit();
 
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
+
       Random random = new Random();
 
       return new ModelAndView(new RedirectView("view-message.jsp?msgid=" + msgid + "&nocache=" + random.nextInt()));
@@ -22,6 +22,8 @@ import java.sql.Statement;
 import java.util.*;
 
 import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -34,29 +36,30 @@ import ru.org.linux.util.ServletParameterBadValueException;
 
 @Controller
 public class GroupController {
+  /**
+   * Предел offset для старых ссылок: дальше листают курсором или по архиву
+   */
   public static final int MAX_OFFSET = 300;
 
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping("/group.jsp")
   public ModelAndView topics(
     @RequestParam("group") int groupId,
     @RequestParam(value = "offset", required = false) Integer offsetObject
   ) throws Exception {
-    Connection db = null;
-
-    try {
-      db = LorDataSource.getConnection();
-
-      Group group = new Group(db, groupId);
+    Group group = groupStore.getGroup(groupId);
 
-      if (offsetObject != null) {
-        return new ModelAndView(new RedirectView(group.getUrl() + "?offset=" + offsetObject.toString()));
-      } else {
-        return new ModelAndView(new RedirectView(group.getUrl()));
-      }
-    } finally {
-      if (db != null) {
-        db.close();
-      }
+    if (offsetObject != null) {
+      return new ModelAndView(new RedirectView(group.getUrl() + "?offset=" + offsetObject.toString()));
+    } else {
+      return new ModelAndView(new RedirectView(group.getUrl()));
     }
   }
 
@@ -65,48 +68,49 @@ public class GroupController {
     @RequestParam("group") int groupId,
     @RequestParam(value = "offset", required = false) Integer offsetObject
   ) throws Exception {
-    Connection db = null;
-
-    try {
-      db = LorDataSource.getConnection();
-
-      Group group = new Group(db, groupId);
+    Group group = groupStore.getGroup(groupId);
 
-      if (offsetObject != null) {
-        return new ModelAndView(new RedirectView(group.getUrl() + "?offset=" + offsetObject.toString() + "&lastmod=true"));
-      } else {
-        return new ModelAndView(new RedirectView(group.getUrl() + "?lastmod=true"));
-      }
-    } finally {
-      if (db != null) {
-        db.close();
-      }
+    if (offsetObject != null) {
+      return new ModelAndView(new RedirectView(group.getUrl() + "?offset=" + offsetObject.toString() + "&lastmod=true"));
+    } else {
+      return new ModelAndView(new RedirectView(group.getUrl() + "?lastmod=true"));
     }
   }
   @RequestMapping(value = {"/forum/{group}/{year}/{month}"})
   public ModelAndView forumArchive(
     @PathVariable("group") String groupName,
     @RequestParam(defaultValue = "0", value="offset") int offset,
+    @RequestParam(value="after", required=false) Integer after,
+    @RequestParam(value="before", required=false) Integer before,
     @PathVariable int year,
     @PathVariable int month,
     HttpServletRequest request
   ) throws Exception {
-    return forum(groupName, offset, false, request, year, month);
+    return forum(groupName, offset, after, before, false, request, year, month);
   }
 
   @RequestMapping(value = "/forum/{group}")
   public ModelAndView forum(
     @PathVariable("group") String groupName,
     @RequestParam(defaultValue = "0", value="offset") int offset,
+    @RequestParam(value="after", required=false) Integer after,
+    @RequestParam(value="before", required=false) Integer before,
     @RequestParam(defaultValue = "false") boolean lastmod,
     HttpServletRequest request
   ) throws Exception {
-    return forum(groupName, offset, lastmod, request, null, null);
+    return forum(groupName, offset, after, before, lastmod, request, null, null);
   }
 
-  private static ModelAndView forum(
+  /**
+   * Страницы после первой выбираются по курсору: after - темы старше указанной,
+   * before - новее указанной (в порядке сортировки страницы). Так любая страница
+   * стоит столько же, сколько первая. Параметр offset оставлен для старых ссылок.
+   */
+  private ModelAndView forum(
     @PathVariable("group") String groupName,
     @RequestParam(defaultValue = "0", value="offset") int offset,
+    Integer after,
+    Integer before,
     @RequestParam(defaultValue = "false") boolean lastmod,
     HttpServletRequest request,
     Integer year,
@@ -126,9 +130,9 @@ public class GroupController {
       tmpl.updateCurrentUser(db);
 
       Section section = new Section(db, Section.SECTION_FORUM);
-      Group group = section.getGroup(db, groupName);
+      Group group = groupStore.getGroup(section.getId(), groupName);
 
-      params.put("groupList", Group.getGroups(db, section));
+      params.put("groupList", groupStore.getGroups(section));
 
       if (showDeleted && !"POST".equals(request.getMethod())) {
         return new ModelAndView(new RedirectView(group.getUrl()));
@@ -140,24 +144,26 @@ public class GroupController {
         throw new AccessViolationException("Вы не авторизованы");
       }
 
-      boolean firstPage;
+      if (offset < 0) {
+        throw new ServletParameterBadValueException("offset", "offset не может быть отрицательным");
+      }
 
-      if (offset != 0) {
-        firstPage = false;
+      if (year == null && offset > MAX_OFFSET) {
+        return new ModelAndView(new RedirectView(group.getUrl() + "archive"));
+      }
 
-        if (offset < 0) {
-          throw new ServletParameterBadValueException("offset", "offset не может быть отрицательным");
-        }
+      boolean cursorPage = after!=null || before!=null;
 
-        if (year == null && offset>MAX_OFFSET) {
-          return new ModelAndView(new RedirectView(group.getUrl()+"archive"));
-        }
-      } else {
-        firstPage = true;
+      if (cursorPage) {
+        offset = 0;
       }
 
+      boolean firstPage = !cursorPage && offset==0;
+
       params.put("firstPage", firstPage);
       params.put("offset", offset);
+      params.put("after", after);
+      params.put("before", before);
       params.put("lastmod", lastmod);
 
       boolean showIgnored = false;
@@ -182,8 +188,9 @@ public class GroupController {
 
       String ignq = "";
 
+      // игнорируемые отбрасываются в запросе на всех страницах, чтобы страницы не были короче
       if (!showIgnored && tmpl.isSessionAuthorized()) {
-        if (firstPage && !ignoreList.isEmpty()) {
+        if (!ignoreList.isEmpty()) {
           ignq = " AND topics.userid NOT IN (SELECT ignored FROM ignore_list, users WHERE userid=users.id and nick='" + tmpl.getNick() + "')";
         }
       }
@@ -194,7 +201,7 @@ public class GroupController {
       String delq = showDeleted ? "" : " AND NOT deleted ";
       int topics = tmpl.getProf().getTopics();
 
-      String q = "SELECT topics.title as subj, lastmod, userid, topics.id as msgid, deleted, topics.stat1, topics.stat3, topics.stat4, topics.sticky, topics.resolved FROM topics,groups, sections WHERE sections.id=groups.section AND (topics.moderate OR NOT sections.moderate) AND topics.groupid=groups.id AND groups.id=" + groupId + delq;
+      String q = " FROM topics,groups, sections WHERE sections.id=groups.section AND (topics.moderate OR NOT sections.moderate) AND topics.groupid=groups.id AND groups.id=" + groupId + delq;
 
       if (year!=null) {
         if (year<1990 || year > 3000) {
@@ -213,50 +220,106 @@ public class GroupController {
         params.put("url", group.getUrl());
       }
 
+      String fields = "SELECT topics.title as subj, lastmod, userid, topics.id as msgid, deleted, topics.stat1, topics.stat3, topics.stat4, topics.sticky, topics.resolved";
+
+      // прикрепленные темы показываются только в начале первой страницы, в архиве они идут вместе с остальными
+      boolean skipSticky = year==null;
+
       ResultSet rs;
 
-      if (!lastmod) {
+      if (cursorPage) {
+        boolean older = after!=null;
+        String cursorq = fields + q + (skipSticky ? " AND NOT sticky" : "") + ignq + getCursorCondition(lastmod, older, older ? after : before);
+
+        // на одну тему больше, чтобы узнать, есть ли следующая страница
+        rs = st.executeQuery(cursorq + getCursorOrder(lastmod, older) + " LIMIT " + (topics + 1));
+      } else if (!lastmod) {
         if (year==null) {
           if (offset==0) {
-            q += " AND (sticky or postdate>CURRENT_TIMESTAMP-'3 month'::interval) ";
+            rs = st.executeQuery(fields + q + " AND (sticky or postdate>CURRENT_TIMESTAMP-'3 month'::interval) " + ignq + " ORDER BY sticky DESC, msgid DESC LIMIT " + topics);
+          } else {
+            rs = st.executeQuery(fields + q + ignq + " ORDER BY sticky DESC, msgid DESC LIMIT " + topics + " OFFSET " + offset);
           }
-
-          rs = st.executeQuery(q + ignq + " ORDER BY sticky DESC, msgid DESC LIMIT " + topics + " OFFSET " + offset);
         } else {
-          rs = st.executeQuery(q + " ORDER BY msgid DESC LIMIT " + topics + " OFFSET " + offset);
+          rs = st.executeQuery(fields + q + ignq + " ORDER BY msgid DESC LIMIT " + topics + " OFFSET " + offset);
         }
       } else {
         if (firstPage) {
-          rs = st.executeQuery(q + ignq + " ORDER BY sticky DESC,lastmod DESC LIMIT " + topics + " OFFSET " + offset);
+          rs = st.executeQuery(fields + q + ignq + " ORDER BY sticky DESC,lastmod DESC LIMIT " + topics + " OFFSET " + offset);
         } else {
-          rs = st.executeQuery(q + " ORDER BY lastmod DESC LIMIT " + topics + " OFFSET " + offset);
+          rs = st.executeQuery(fields + q + ignq + " ORDER BY lastmod DESC LIMIT " + topics + " OFFSET " + offset);
         }
       }
 
-      List<TopicsListItem> topicsList = new ArrayList<TopicsListItem>();
+      List<TopicsListItem> fetched = new ArrayList<TopicsListItem>();
       int messages = tmpl.getProf().getMessages();
 
       while (rs.next()) {
-        TopicsListItem topic = new TopicsListItem(db, rs, messages);
+        fetched.add(new TopicsListItem(rs, messages));
+      }
+
+      rs.close();
 
-        // TODO: надо проверять просто ID в списке игнорирования
-        User author = topic.getAuthor();
+      boolean hasMore = fetched.size() > topics;
 
-        if (!firstPage && !ignoreList.isEmpty() && ignoreList.containsValue(author.getNick())) {
-          continue;
+      if (hasMore) {
+        fetched = new ArrayList<TopicsListItem>(fetched.subList(0, topics));
+      }
+
+      if (before!=null) {
+        if (!hasMore) {
+          // новее только темы первой страницы
+          return new ModelAndView(new RedirectView((String) params.get("url") + (lastmod ? "?lastmod=true" : "")));
         }
 
-        topicsList.add(topic);
+        Collections.reverse(fetched);
       }
 
-      params.put("topicsList", topicsList);
+      int count;
 
       if (year==null) {
-        params.put("count", group.calcTopicsCount(db, showDeleted));
+        count = group.calcTopicsCount(db, showDeleted);
       } else {
-        params.put("count", getArchiveCount(db, groupId, year, month));
+        count = getArchiveCount(db, groupId, year, month);
       }
 
+      params.put("count", count);
+
+      Integer prevBefore = null;
+      Integer nextAfter = null;
+
+      for (TopicsListItem topic : fetched) {
+        if (!skipSticky || !topic.isSticky()) {
+          if (prevBefore==null) {
+            prevBefore = topic.getMsgid();
+          }
+
+          nextAfter = topic.getMsgid();
+        }
+      }
+
+      boolean hasNext;
+
+      if (after!=null) {
+        hasNext = hasMore;
+      } else if (before!=null) {
+        hasNext = true;
+      } else {
+        hasNext = offset + topics < count;
+      }
+
+      if (hasNext && nextAfter==null && !lastmod) {
+        // на первой странице только прикрепленные темы: следующая начинается с самой новой
+        nextAfter = getNewestTopic(st, q) + 1;
+      }
+
+      params.put("prevBefore", firstPage ? null : prevBefore);
+      params.put("nextAfter", hasNext ? nextAfter : null);
+
+      TopicsListItem.resolveAuthors(db, fetched);
+
+      params.put("topicsList", fetched);
+
       return new ModelAndView("group", params);
     } finally {
       if (db != null) {
@@ -265,6 +328,41 @@ public class GroupController {
     }
   }
 
+  /**
+   * Условие выборки тем после (older) или перед курсором в порядке сортировки страницы.
+   * Для сортировки по lastmod ключ курсора читается из самой темы, id разрешает совпадения.
+   */
+  private static String getCursorCondition(boolean lastmod, boolean older, int cursor) {
+    String op = older ? "<" : ">";
+
+    if (lastmod) {
+      return " AND (topics.lastmod, topics.id) " + op + " (SELECT lastmod, id FROM topics WHERE id=" + cursor + ')';
+    } else {
+      return " AND topics.id " + op + ' ' + cursor;
+    }
+  }
+
+  private static String getCursorOrder(boolean lastmod, boolean older) {
+    String dir = older ? " DESC" : " ASC";
+
+    if (lastmod) {
+      return " ORDER BY lastmod" + dir + ", msgid" + dir;
+    } else {
+      return " ORDER BY msgid" + dir;
+    }
+  }
+
+  private static int getNewestTopic(Statement st, String q) throws SQLException {
+    ResultSet rs = st.executeQuery("SELECT max(topics.id)" + q + " AND NOT sticky");
+
+    try {
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      rs.close();
+    }
+  }
+
   private static int getArchiveCount(Connection db, int groupid, int year, int month) throws SQLException {
     Statement st = db.createStatement();
     ResultSet rs = st.executeQuery("SELECT c FROM monthly_stats WHERE groupid="+groupid+" AND year="+year+" AND month="+month);
@@ -23,6 +23,7 @@ import java.util.Map;
 import javax.servlet.ServletRequest;
 import javax.sql.DataSource;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -37,6 +38,8 @@ import ru.org.linux.site.Template;
 @Controller
 public class GroupModificationController {
   private DataSource dataSource;
+  private GroupStore groupStore;
+  private TrackerIndex trackerIndex;
 
   @RequestMapping(value="/groupmod.jsp", method = RequestMethod.GET)
   public ModelAndView showForm(@RequestParam("group") int id, ServletRequest request) throws Exception {
@@ -50,7 +53,7 @@ public class GroupModificationController {
     try {
       db = dataSource.getConnection();
 
-      Group group = new Group(db, id);
+      Group group = groupStore.getGroup(id);
       ModelAndView mv = new ModelAndView("groupmod", "group", group);
       mv.getModel().put("groupInfo", new PreparedGroupInfo(db, group));
 
@@ -84,15 +87,11 @@ public class GroupModificationController {
     try {
       db = dataSource.getConnection();
 
-      Group group = new Group(db, id);
+      Group group = groupStore.getGroup(id);
 
       if (preview!=null) {
-        group.setTitle(title);
-        group.setInfo(info);
-        group.setLongInfo(longInfo);
-
         Map<String, Object> params = new HashMap<String, Object>();
-        params.put("group", group);
+        params.put("group", group.withInfo(title, info, longInfo));
         params.put("preview", true);
 
         return new ModelAndView("groupmod", params);
@@ -120,6 +119,11 @@ public class GroupModificationController {
 
       pst.executeUpdate();
 
+      groupStore.reload();
+
+      // в индексе трекера хранятся название и адрес группы
+      trackerIndex.invalidateAll();
+
       return new ModelAndView("action-done", "message", "Параметры изменены");
     } finally {
       if (db!=null) {
@@ -132,4 +136,16 @@ public class GroupModificationController {
   public void setDataSource(DataSource dataSource) {
     this.dataSource = dataSource;
   }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import ru.org.linux.site.BadGroupException;
+import ru.org.linux.site.Group;
+import ru.org.linux.site.LorDataSource;
+import ru.org.linux.site.Section;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Все группы в памяти: загружаются при старте, после изменения группы
+ * ({@link #reload()}) и раз в RELOAD_INTERVAL, чтобы подхватить изменения с других узлов.
+ *
+ * Счетчики сообщений групп меняются постоянно, поэтому они не входят в {@link Group}
+ * и перечитываются отдельно раз в STATS_INTERVAL.
+ */
+public class GroupStore {
+  private static final Log logger = LogFactory.getLog(GroupStore.class);
+
+  private static final int RELOAD_INTERVAL = 10*60*1000;
+  private static final int STATS_INTERVAL = 5*60*1000;
+
+  private volatile Groups groups;
+  private volatile ImmutableMap<Integer, Stats> stats;
+
+  public GroupStore() throws SQLException {
+    reload();
+    reloadStats();
+  }
+
+  public Group getGroup(int id) throws BadGroupException {
+    Group group = groups.getGroup(id);
+
+    if (group==null) {
+      throw new BadGroupException("Группа " + id + " не существует");
+    }
+
+    return group;
+  }
+
+  public Group getGroup(int section, String urlname) throws BadGroupException {
+    Group group = groups.getGroup(section, urlname);
+
+    if (group==null) {
+      throw new BadGroupException("Группа " + urlname + " не существует");
+    }
+
+    return group;
+  }
+
+  /**
+   * @return группы раздела по возрастанию id
+   */
+  public ImmutableList<Group> getGroups(Section section) {
+    return groups.getGroups(section.getId());
+  }
+
+  /**
+   * @return id группы -> счетчики сообщений
+   */
+  public ImmutableMap<Integer, Stats> getStats() {
+    return stats;
+  }
+
+  @Scheduled(fixedDelay=RELOAD_INTERVAL)
+  public void reload() throws SQLException {
+    Connection db = LorDataSource.getConnection();
+
+    try {
+      Statement st = db.createStatement();
+
+      ResultSet rs = st.executeQuery(
+        "SELECT sections.moderate, imagepost, vote, section, havelink, linktext, sections.name as sname, " +
+          "title, urlname, image, restrict_topics, restrict_comments, groups.id, groups.info, groups.longinfo, groups.resolvable " +
+          "FROM groups, sections WHERE groups.section=sections.id ORDER BY groups.id"
+      );
+
+      ImmutableList.Builder<Group> list = ImmutableList.builder();
+
+      while (rs.next()) {
+        list.add(new Group(rs));
+      }
+
+      rs.close();
+      st.close();
+
+      groups = new Groups(list.build());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Scheduled(fixedDelay=STATS_INTERVAL)
+  public void reloadStats() throws SQLException {
+    Connection db = LorDataSource.getConnection();
+
+    try {
+      Statement st = db.createStatement();
+
+      ResultSet rs = st.executeQuery("SELECT id, stat1, stat2, stat3 FROM groups");
+
+      ImmutableMap.Builder<Integer, Stats> builder = ImmutableMap.builder();
+
+      while (rs.next()) {
+        builder.put(rs.getInt("id"), new Stats(rs.getInt("stat1"), rs.getInt("stat2"), rs.getInt("stat3")));
+      }
+
+      rs.close();
+      st.close();
+
+      stats = builder.build();
+    } finally {
+      db.close();
+    }
+
+    logger.debug("Group stats reloaded");
+  }
+
+  private static String getUrlKey(int section, String urlname) {
+    return section + "/" + urlname;
+  }
+
+  /**
+   * Неизменяемый набор групп с индексами по id, по (раздел, urlname) и по разделу
+   */
+  static class Groups {
+    private final ImmutableMap<Integer, Group> byId;
+    private final ImmutableMap<String, Group> byUrl;
+    private final ImmutableListMultimap<Integer, Group> bySection;
+
+    Groups(ImmutableList<Group> list) {
+      ImmutableMap.Builder<Integer, Group> byId = ImmutableMap.builder();
+      Map<String, Group> byUrl = new HashMap<String, Group>();
+      ImmutableListMultimap.Builder<Integer, Group> bySection = ImmutableListMultimap.builder();
+
+      for (Group group : list) {
+        byId.put(group.getId(), group);
+        bySection.put(group.getSectionId(), group);
+
+        String urlKey = getUrlKey(group.getSectionId(), group.getUrlName());
+
+        // при совпадении urlname в разделе берется группа с меньшим id
+        if (group.getUrlName()!=null && !byUrl.containsKey(urlKey)) {
+          byUrl.put(urlKey, group);
+        }
+      }
+
+      this.byId = byId.build();
+      this.byUrl = ImmutableMap.copyOf(byUrl);
+      this.bySection = bySection.build();
+    }
+
+    Group getGroup(int id) {
+      return byId.get(id);
+    }
+
+    Group getGroup(int section, String urlname) {
+      return byUrl.get(getUrlKey(section, urlname));
+    }
+
+    ImmutableList<Group> getGroups(int section) {
+      return bySection.get(section);
+    }
+  }
+
+  /**
+   * Счетчики сообщений группы
+   */
+  public static class Stats {
+    private final int stat1;
+    private final int stat2;
+    private final int stat3;
+
+    public Stats(int stat1, int stat2, int stat3) {
+      this.stat1 = stat1;
+      this.stat2 = stat2;
+      this.stat3 = stat3;
+    }
+
+    public int getStat1() {
+      return stat1;
+    }
+
+    public int getStat2() {
+      return stat2;
+    }
+
+    public int getStat3() {
+      return stat3;
+    }
+  }
+}
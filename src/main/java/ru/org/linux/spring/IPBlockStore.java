@@ -0,0 +1,132 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import ru.org.linux.site.AccessViolationException;
+import ru.org.linux.site.IPBlockInfo;
+import ru.org.linux.site.LorDataSource;
+import ru.org.linux.util.IPPrefixTrie;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Все блокировки из b_ips в памяти, в префиксном дереве по сетям: проверка при
+ * постинге не ходит в базу. Перечитываются после бана ({@link #reload()}) и раз
+ * в RELOAD_INTERVAL, чтобы подхватить баны с других узлов.
+ */
+public class IPBlockStore {
+  private static final Log logger = LogFactory.getLog(IPBlockStore.class);
+
+  private static final int RELOAD_INTERVAL = 60*1000;
+
+  private volatile IPPrefixTrie<IPBlockInfo> blocks;
+
+  public IPBlockStore() throws SQLException {
+    reload();
+  }
+
+  /**
+   * @return блокировка адреса: действующая с самой длинной маской, если такая есть,
+   * иначе истекшая с самой длинной маской; null, если адрес ни во что не входит
+   */
+  public IPBlockInfo getBlockInfo(String addr) {
+    InetAddress address = parse(addr);
+
+    if (address==null) {
+      return null;
+    }
+
+    return getBlockInfo(blocks.match(address));
+  }
+
+  static IPBlockInfo getBlockInfo(List<IPBlockInfo> matches) {
+    IPBlockInfo result = null;
+
+    for (IPBlockInfo info : matches) {
+      if (info.isBlocked() || result==null || !result.isBlocked()) {
+        result = info;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Проверка только по b_ips; списки DNSBL проверяет {@link DNSBLService}
+   */
+  public void checkBlockIP(String addr) throws AccessViolationException {
+    IPBlockInfo block = getBlockInfo(addr);
+
+    if (block != null) {
+      block.checkBlock();
+    }
+  }
+
+  @Scheduled(fixedDelay=RELOAD_INTERVAL)
+  public void reload() throws SQLException {
+    Connection db = LorDataSource.getConnection();
+
+    try {
+      Statement st = db.createStatement();
+
+      ResultSet rs = st.executeQuery("SELECT " + IPBlockInfo.COLUMNS + " FROM b_ips");
+
+      IPPrefixTrie<IPBlockInfo> trie = new IPPrefixTrie<IPBlockInfo>();
+
+      while (rs.next()) {
+        IPBlockInfo info = new IPBlockInfo(rs);
+        InetAddress address = parse(info.getHost());
+
+        if (address==null) {
+          logger.warn("Bad address in b_ips: " + info.getHost());
+        } else {
+          trie.put(address, info.getMasklen(), info);
+        }
+      }
+
+      rs.close();
+      st.close();
+
+      blocks = trie;
+    } finally {
+      db.close();
+    }
+
+    logger.debug("IP blocks reloaded: " + blocks.size());
+  }
+
+  /**
+   * Разбор адреса без обращения к DNS
+   */
+  static InetAddress parse(String addr) {
+    try {
+      return InetAddresses.forString(addr);
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+}
@@ -73,7 +73,7 @@ public class LoginController {
         return new ModelAndView(ajax ? "login-xml" : "login-form", Collections.singletonMap("error", "Некорректный nick"));
       }
 
-      User user = User.getUser(db, nick);
+      User user = User.getUserCached(db, nick);
 
       user.checkAnonymous();
 
@@ -109,6 +109,10 @@ public class LoginController {
 
       db.commit();
 
+      if (!user.isActivated()) {
+        UserCache.invalidate(user.getId());
+      }
+
       if (ajax) {
         return new ModelAndView("login-xml", Collections.singletonMap("ok", "welcome"));
       } else {
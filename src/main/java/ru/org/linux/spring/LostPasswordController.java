@@ -144,6 +144,8 @@ public class
 
       db.commit();
 
+      UserCache.invalidate(user.getId());
+
       return new ModelAndView("action-done", "message", "Ваш новый пароль: "+password);
     } finally {
       if (db != null) {
@@ -30,10 +30,12 @@ import ru.org.linux.site.*;
 @Controller
 public class MainPageController {
   private final SectionStore sectionStore;
+  private final GroupStore groupStore;
 
   @Autowired
-  public MainPageController(SectionStore sectionStore) {
+  public MainPageController(SectionStore sectionStore, GroupStore groupStore) {
     this.sectionStore = sectionStore;
+    this.groupStore = groupStore;
   }
 
   @RequestMapping({"/", "/index.jsp"})
@@ -45,7 +47,7 @@ public class MainPageController {
     try {
       db = LorDataSource.getConnection();
 
-      NewsViewer nv = NewsViewer.getMainpage(sectionStore);
+      NewsViewer nv = NewsViewer.getMainpage(sectionStore, groupStore);
 
       if (tmpl.getProf().isShowGalleryOnMain()) {
         nv.addSection(3);
@@ -53,7 +55,7 @@ public class MainPageController {
 
       ModelAndView mv = new ModelAndView("index");
 
-      mv.getModel().put("news", nv.getPreparedMessages(db));
+      mv.getModel().put("news", nv.getPreparedMessagesCached(db));
 
       if (tmpl.isModeratorSession() || tmpl.isCorrectorSession()) {
         Statement st = db.createStatement();
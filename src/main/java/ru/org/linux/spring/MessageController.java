@@ -17,6 +17,7 @@ package ru.org.linux.spring;
 
 import java.net.URLEncoder;
 import java.sql.Connection;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,12 +42,18 @@ import ru.org.linux.site.*;
 @Controller
 public class MessageController {
   private SectionStore sectionStore;
+  private GroupStore groupStore;
 
   @Autowired
   public void setSectionStore(SectionStore sectionStore) {
     this.sectionStore = sectionStore;
   }
 
+  @Autowired
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping("/forum/{group}/{id}")
   public ModelAndView getMessageNewForum(
     WebRequest webRequest,
@@ -171,7 +178,7 @@ public class MessageController {
       db = LorDataSource.getConnection();
 
       Message message = new Message(db, msgid);
-      PreparedMessage preparedMessage = new PreparedMessage(db, message, true);
+      PreparedMessage preparedMessage = new PreparedMessage(db, groupStore, message, true);
       Group group = preparedMessage.getGroup();
 
       if (!group.getUrlName().equals(groupName) || group.getSectionId() != section) {
@@ -357,7 +364,7 @@ public class MessageController {
       params.put("prevMessage", message.getPreviousMessage(db, sectionStore));
       params.put("nextMessage", message.getNextMessage(db, sectionStore));
 
-      Set<Integer> hideSet = CommentList.makeHideSet(db, comments, filterMode, ignoreList);
+      BitSet hideSet = CommentList.makeHideSet(comments, filterMode, ignoreList);
 
       CommentFilter cv = new CommentFilter(comments);
 
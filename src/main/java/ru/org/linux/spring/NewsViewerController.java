@@ -42,10 +42,12 @@ import ru.org.linux.util.ServletParameterMissingException;
 @Controller
 public class NewsViewerController {
   private final SectionStore sectionStore;
+  private final GroupStore groupStore;
 
   @Autowired
-  public NewsViewerController(SectionStore sectionStore) {
+  public NewsViewerController(SectionStore sectionStore, GroupStore groupStore) {
     this.sectionStore = sectionStore;
+    this.groupStore = groupStore;
   }
 
   @RequestMapping(value = "/view-news.jsp", method = {RequestMethod.GET, RequestMethod.HEAD})
@@ -129,7 +131,7 @@ public class NewsViewerController {
       Group group = null;
 
       if (groupid != null) {
-        group = new Group(db, groupid);
+        group = groupStore.getGroup(groupid);
 
         if (group.getSectionId() != sectionid) {
           throw new ScriptErrorException("группа #" + groupid + " не принадлежит разделу #" + sectionid);
@@ -191,7 +193,7 @@ public class NewsViewerController {
       params.put("ptitle", ptitle);
       params.put("navtitle", navtitle);
 
-      NewsViewer newsViewer = new NewsViewer(sectionStore);
+      NewsViewer newsViewer = new NewsViewer(sectionStore, groupStore);
 
       if (section!=null) {
         newsViewer.addSection(sectionid);
@@ -278,7 +280,7 @@ public class NewsViewerController {
 
       db = LorDataSource.getConnection();
 
-      User user = User.getUser(db, nick);
+      User user = User.getUserCached(db, nick);
       UserInfo userInfo = new UserInfo(db, user.getId());
       params.put("meLink", userInfo.getUrl());
 
@@ -287,7 +289,7 @@ public class NewsViewerController {
 
       params.put("user", user);
 
-      NewsViewer newsViewer = new NewsViewer(sectionStore);
+      NewsViewer newsViewer = new NewsViewer(sectionStore, groupStore);
 
       offset = fixOffset(offset);
 
@@ -340,7 +342,7 @@ public class NewsViewerController {
 
       db = LorDataSource.getConnection();
 
-      User user = User.getUser(db, nick);
+      User user = User.getUserCached(db, nick);
       UserInfo userInfo = new UserInfo(db, user.getId());
       params.put("meLink", userInfo.getUrl());
 
@@ -349,7 +351,7 @@ public class NewsViewerController {
 
       params.put("user", user);
 
-      NewsViewer newsViewer = new NewsViewer(sectionStore);
+      NewsViewer newsViewer = new NewsViewer(sectionStore, groupStore);
 
       offset = fixOffset(offset);
 
@@ -417,7 +419,7 @@ public class NewsViewerController {
         modelAndView.getModel().put("section", section);
       }
 
-      NewsViewer newsViewer = new NewsViewer(sectionStore);
+      NewsViewer newsViewer = new NewsViewer(sectionStore, groupStore);
       newsViewer.setCommitMode(NewsViewer.CommitMode.UNCOMMITED_ONLY);
       newsViewer.setDatelimit("postdate>(CURRENT_TIMESTAMP-'1 month'::interval)");
       if (section != null) {
@@ -598,19 +600,7 @@ public class NewsViewerController {
     String groupName,
     HttpServletResponse response
   ) throws Exception {
-    Connection db = null;
-    Group group;
-
-    try {
-      db = LorDataSource.getConnection();
-
-      Section section = new Section(db, sectionId);
-      group = section.getGroup(db, groupName);
-    } finally {
-      if (db!=null) {
-        db.close();
-      }
-    }
+    Group group = groupStore.getGroup(sectionId, groupName);
 
     ModelAndView mv = showNews(null, null, group.getSectionId(), group.getId(), null, offset, response);
 
@@ -637,19 +627,9 @@ public class NewsViewerController {
     }
 
     if (groupId!=null) {
-      Connection db = null;
-
-      try {
-        db=LorDataSource.getConnection();
+      Group group = groupStore.getGroup(groupId);
 
-        Group group = new Group(db, groupId);
-
-        return new RedirectView(Section.getNewsViewerLink(section)+group.getUrlName()+ '/');
-      } finally {
-        if (db!=null) {
-          db.close();
-        }
-      }
+      return new RedirectView(Section.getNewsViewerLink(section)+group.getUrlName()+ '/');
     }
 
     return new RedirectView(Section.getNewsViewerLink(section));
@@ -0,0 +1,502 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import ru.org.linux.util.StringUtil;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Long-poll уведомлений о новых ответах на отдельном порту.
+ *
+ * Servlet API 2.4 не умеет асинхронную обработку, поэтому ожидающие соединения держит
+ * один поток на NIO selector, а не потоки Tomcat. Запрос: GET /notify?token=...&count=N,
+ * где count - счетчик, который уже показан пользователю. Ответ {"unread":M} приходит,
+ * как только счетчик станет отличаться от N, или через TIMEOUT с прежним значением.
+ * Пользователь определяется по токену, подписанному Secret ({@link #getToken(String, int)}),
+ * поэтому сессия Tomcat не нужна; токен действует TOKEN_TTL. /notify проксируется на этот
+ * порт frontend'ом, поэтому по умолчанию сервер слушает только loopback.
+ *
+ * Число одновременных соединений ограничено maxConnections, лишние сразу получают 503.
+ * Буфер запроса выделяется при первом чтении и освобождается, как только клиент начал ждать.
+ */
+public class NotificationServer implements ReplyNotifier.Listener {
+  private static final Log logger = LogFactory.getLog(NotificationServer.class);
+
+  private static final int REQUEST_TIMEOUT = 10*1000;
+  private static final int MAX_REQUEST = 4096;
+  private static final long TOKEN_TTL = 24*60*60*1000L;
+
+  private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+  private String address = "127.0.0.1";
+  private int port;
+  private int timeout = 60*1000;
+  private int maxConnections = 10000;
+  private String secret;
+  private ReplyNotifier replyNotifier;
+
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread thread;
+  private volatile boolean running;
+
+  /**
+   * Открытые соединения; меняется только потоком selector'а
+   */
+  private int connections = 0;
+
+  private final Queue<Integer> changed = new ConcurrentLinkedQueue<Integer>();
+
+  /**
+   * Ожидающие соединения по id пользователя; списки меняются только потоком selector'а
+   */
+  private final ConcurrentMap<Integer, List<Poll>> waiting = new ConcurrentHashMap<Integer, List<Poll>>();
+
+  /**
+   * @param address адрес, на котором слушать; по умолчанию только loopback
+   */
+  public void setAddress(String address) {
+    this.address = address;
+  }
+
+  @Required
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  /**
+   * @param timeout сколько мс клиент ждет изменения счетчика
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  @Required
+  public void setSecret(String secret) {
+    this.secret = secret;
+  }
+
+  @Required
+  public void setReplyNotifier(ReplyNotifier replyNotifier) {
+    this.replyNotifier = replyNotifier;
+  }
+
+  /**
+   * @return токен пользователя, действующий TOKEN_TTL
+   */
+  public static String getToken(String secret, int userid) {
+    return getToken(secret, userid, System.currentTimeMillis() + TOKEN_TTL);
+  }
+
+  static String getToken(String secret, int userid, long expires) {
+    return userid + ":" + expires + ':' + StringUtil.md5hash(secret + ':' + userid + ':' + expires + ":notify");
+  }
+
+  /**
+   * @return id пользователя или 0, если токен неверен или истек
+   */
+  static int checkToken(String secret, String token, long now) {
+    if (token==null) {
+      return 0;
+    }
+
+    String[] parts = token.split(":");
+
+    if (parts.length!=3) {
+      return 0;
+    }
+
+    try {
+      int userid = Integer.parseInt(parts[0]);
+      long expires = Long.parseLong(parts[1]);
+
+      if (expires < now) {
+        return 0;
+      }
+
+      byte[] expected = getToken(secret, userid, expires).getBytes(CHARSET);
+
+      // сравнение за постоянное время
+      return MessageDigest.isEqual(expected, token.getBytes(CHARSET)) ? userid : 0;
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  public void start() throws IOException {
+    selector = Selector.open();
+
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(address), port), 1024);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    replyNotifier.setListener(this);
+
+    running = true;
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "NotificationServer");
+
+    thread.setDaemon(true);
+    thread.start();
+
+    logger.info("Notification server started on " + address + ':' + getLocalPort());
+  }
+
+  int getLocalPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  public void stop() throws IOException, InterruptedException {
+    replyNotifier.setListener(null);
+
+    running = false;
+    selector.wakeup();
+    thread.join(5000);
+
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+
+    selector.close();
+  }
+
+  @Override
+  public void unreadChanged(int userid, int unread) {
+    // без проверки waiting: клиент мог прочитать старый счетчик и еще не начать ждать
+    changed.add(userid);
+    selector.wakeup();
+  }
+
+  @Override
+  public Set<Integer> getWaitingUsers() {
+    return ImmutableSet.copyOf(waiting.keySet());
+  }
+
+  private void loop() {
+    long lastCheck = System.currentTimeMillis();
+
+    while (running) {
+      try {
+        selector.select(1000);
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+
+            if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              read(key);
+            } else if (key.isWritable()) {
+              write(key);
+            }
+          } catch (IOException ex) {
+            close(key);
+          }
+        }
+
+        Integer userid;
+
+        while ((userid = changed.poll())!=null) {
+          Integer unread = replyNotifier.getUnread(userid);
+          List<Poll> polls = unread!=null ? waiting.remove(userid) : null;
+
+          if (polls!=null) {
+            for (Poll poll : polls) {
+              respond(poll.key, unread);
+            }
+          }
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastCheck >= 1000) {
+          closeExpired(now);
+          lastCheck = now;
+        }
+      } catch (Exception ex) {
+        logger.error("Notification server error", ex);
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+
+    if (channel==null) {
+      return;
+    }
+
+    channel.configureBlocking(false);
+
+    connections++;
+
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, new Poll(System.currentTimeMillis() + REQUEST_TIMEOUT));
+
+    if (connections > maxConnections) {
+      respond(key, 503, "Service Unavailable");
+    }
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    Poll poll = (Poll) key.attachment();
+    SocketChannel channel = (SocketChannel) key.channel();
+
+    if (poll.userid!=0) {
+      // ожидающий клиент ничего не присылает, кроме закрытия соединения
+      if (channel.read(ByteBuffer.allocate(256))<0) {
+        close(key);
+      }
+
+      return;
+    }
+
+    if (poll.in==null) {
+      poll.in = ByteBuffer.allocate(MAX_REQUEST);
+    }
+
+    if (channel.read(poll.in)<0) {
+      close(key);
+      return;
+    }
+
+    String request = new String(poll.in.array(), 0, poll.in.position(), CHARSET);
+
+    if (!request.contains("\r\n\r\n")) {
+      if (!poll.in.hasRemaining()) {
+        respond(key, 400, "Bad Request");
+      }
+
+      return;
+    }
+
+    handle(key, poll, request.substring(0, request.indexOf("\r\n")));
+  }
+
+  private void handle(SelectionKey key, Poll poll, String requestLine) throws IOException {
+    String[] parts = requestLine.split(" ");
+
+    if (parts.length<2 || !"GET".equals(parts[0])) {
+      respond(key, 400, "Bad Request");
+      return;
+    }
+
+    Map<String, String> params = parseQuery(parts[1]);
+
+    int userid = checkToken(secret, params.get("token"), System.currentTimeMillis());
+
+    if (userid==0) {
+      respond(key, 403, "Forbidden");
+      return;
+    }
+
+    int known;
+
+    try {
+      known = Integer.parseInt(params.get("count"));
+    } catch (NumberFormatException ex) {
+      respond(key, 400, "Bad Request");
+      return;
+    }
+
+    poll.in = null;
+    poll.userid = userid;
+    poll.known = known;
+    poll.deadline = System.currentTimeMillis() + timeout;
+    poll.key = key;
+
+    // до subscribe: refresh удаляет счетчики пользователей, которых нет в waiting
+    List<Poll> polls = waiting.get(userid);
+
+    if (polls==null) {
+      polls = new ArrayList<Poll>(1);
+      waiting.put(userid, polls);
+    }
+
+    polls.add(poll);
+
+    int unread = replyNotifier.subscribe(userid, known);
+
+    if (unread!=known) {
+      remove(poll);
+      respond(key, unread);
+    }
+  }
+
+  static Map<String, String> parseQuery(String uri) {
+    Map<String, String> params = new HashMap<String, String>();
+
+    int pos = uri.indexOf('?');
+
+    if (pos<0) {
+      return params;
+    }
+
+    for (String pair : uri.substring(pos + 1).split("&")) {
+      int eq = pair.indexOf('=');
+
+      if (eq>0) {
+        try {
+          params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        } catch (IllegalArgumentException ex) {
+          // некорректный параметр пропускается
+        } catch (IOException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }
+
+    return params;
+  }
+
+  private void closeExpired(long now) {
+    for (SelectionKey key : selector.keys()) {
+      Object attachment = key.attachment();
+
+      if (attachment instanceof Poll && key.isValid()) {
+        Poll poll = (Poll) attachment;
+
+        if (poll.deadline < now) {
+          if (poll.userid!=0) {
+            remove(poll);
+            respond(key, poll.known);
+          } else {
+            close(key);
+          }
+        }
+      }
+    }
+  }
+
+  private void respond(SelectionKey key, int unread) {
+    respond(key, 200, "{\"unread\":" + unread + '}');
+  }
+
+  private void respond(SelectionKey key, int status, String body) {
+    String response =
+      "HTTP/1.1 " + status + (status==200 ? " OK" : " Error") + "\r\n" +
+      "Content-Type: application/json\r\n" +
+      "Cache-Control: no-cache\r\n" +
+      "Connection: close\r\n" +
+      "Content-Length: " + body.length() + "\r\n\r\n" +
+      body;
+
+    // ответ отправлен, соединение больше не ожидает
+    key.attach(ByteBuffer.wrap(response.getBytes(CHARSET)));
+
+    try {
+      write(key);
+    } catch (IOException ex) {
+      close(key);
+    }
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    ByteBuffer out = (ByteBuffer) key.attachment();
+
+    ((SocketChannel) key.channel()).write(out);
+
+    if (out.hasRemaining()) {
+      key.interestOps(SelectionKey.OP_WRITE);
+    } else {
+      close(key);
+    }
+  }
+
+  private void close(SelectionKey key) {
+    if (key.attachment() instanceof Poll) {
+      remove((Poll) key.attachment());
+    }
+
+    if (key.isValid()) {
+      connections--;
+    }
+
+    key.cancel();
+
+    try {
+      key.channel().close();
+    } catch (IOException ex) {
+      logger.debug("Can't close notification connection", ex);
+    }
+  }
+
+  private void remove(Poll poll) {
+    if (poll.userid==0) {
+      return;
+    }
+
+    List<Poll> polls = waiting.get(poll.userid);
+
+    if (polls!=null) {
+      polls.remove(poll);
+
+      if (polls.isEmpty()) {
+        waiting.remove(poll.userid);
+      }
+    }
+  }
+
+  /**
+   * Соединение до отправки ответа: сначала читается запрос, затем клиент ждет
+   */
+  private static class Poll {
+    private ByteBuffer in;
+    private long deadline;
+    private int userid;
+    private int known;
+    private SelectionKey key;
+
+    private Poll(long deadline) {
+      this.deadline = deadline;
+    }
+  }
+}
@@ -30,6 +30,8 @@ import javax.servlet.http.HttpSession;
 
 import org.jasypt.util.password.BasicPasswordEncryptor;
 import org.jasypt.util.password.PasswordEncryptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.context.support.ApplicationObjectSupport;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Controller;
@@ -45,6 +47,21 @@ import ru.org.linux.util.*;
 @SuppressWarnings({"ProhibitedExceptionDeclared"})
 @Controller
 public class RegisterController extends ApplicationObjectSupport {
+  private IPBlockStore ipBlockStore;
+  private DNSBLService dnsblService;
+
+  @Autowired
+  @Required
+  public void setIpBlockStore(IPBlockStore ipBlockStore) {
+    this.ipBlockStore = ipBlockStore;
+  }
+
+  @Autowired
+  @Required
+  public void setDnsblService(DNSBLService dnsblService) {
+    this.dnsblService = dnsblService;
+  }
+
   @RequestMapping(value = "/register.jsp", method = RequestMethod.GET)
   public ModelAndView register(
     HttpServletRequest request
@@ -93,6 +110,8 @@ public class RegisterController extends ApplicationObjectSupport {
     @RequestParam(required=false) String password,
     @RequestParam(required=false) String password2    
   ) throws Exception {
+    DNSBLService.Check dnsbl = dnsblService.check(request.getRemoteAddr());
+
     HttpSession session = request.getSession();
     Template tmpl = Template.getTemplate(request);
 
@@ -184,7 +203,8 @@ public class RegisterController extends ApplicationObjectSupport {
       db = LorDataSource.getConnection();
       db.setAutoCommit(false);
 
-      IPBlockInfo.checkBlockIP(db, request.getRemoteAddr());
+      ipBlockStore.checkBlockIP(request.getRemoteAddr());
+      dnsbl.checkBlock();
 
       int userid;
 
@@ -298,7 +318,14 @@ public class RegisterController extends ApplicationObjectSupport {
 
       db.commit();
 
+      if (!changeMode) {
+        // упоминания ника перестают выводиться как несуществующий пользователь
+        ProcessedMessageCache.usersChanged();
+      }
+
       if (changeMode) {
+        UserCache.invalidate(userid);
+
         if (emailChanged) {
           String msg = "Обновление регистрации прошло успешно. Ожидайте письма с кодом активации смены email.";
 
@@ -430,6 +457,8 @@ public class RegisterController extends ApplicationObjectSupport {
 
       db.commit();
 
+      UserCache.invalidate(user.getId());
+
       return new ModelAndView(new RedirectView("/people/"+user.getNick()+"/profile"));
     } finally {
       if (db != null) {
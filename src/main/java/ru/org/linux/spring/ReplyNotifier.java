@@ -0,0 +1,331 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import ru.org.linux.site.LorDataSource;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Счетчики непрочитанных уведомлений пользователей, ожидающих их в {@link NotificationServer}.
+ *
+ * users.unread_events ведут триггеры user_events, поэтому счетчики здесь только читаются
+ * из базы: сразу после добавления или удаления комментария для затронутых пользователей
+ * и раз в REFRESH_INTERVAL одним запросом для всех ожидающих - так доходят и события,
+ * о которых контроллеры не сообщают. Изменения рассылаются другим узлам через topic ActiveMQ.
+ * Счетчику, присланному новым подписчиком, не доверяем: настоящий загружается в фоне.
+ */
+public class ReplyNotifier {
+  private static final Log logger = LogFactory.getLog(ReplyNotifier.class);
+
+  private static final int REFRESH_INTERVAL = 30*1000;
+  private static final int REFRESH_BATCH = 500;
+
+  public interface Listener {
+    void unreadChanged(int userid, int unread);
+
+    /**
+     * Соединение должно попасть в ожидающие до вызова {@link ReplyNotifier#subscribe(int, int)},
+     * иначе refresh может удалить только что созданный счетчик.
+     *
+     * @return пользователи, ожидающие уведомлений
+     */
+    Set<Integer> getWaitingUsers();
+  }
+
+  private final String nodeId = UUID.randomUUID().toString();
+
+  private final ConcurrentMap<Integer, Integer> unread = new ConcurrentHashMap<Integer, Integer>();
+
+  /**
+   * Подписка и удаление счетчиков неожидающих пользователей не должны пересекаться
+   */
+  private final Object lock = new Object();
+
+  /**
+   * Новые подписчики, чьи счетчики еще не загружены из базы
+   */
+  private final Queue<Integer> subscribed = new ConcurrentLinkedQueue<Integer>();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private volatile Listener listener;
+
+  private JmsTemplate jmsTemplate;
+  private Topic topic;
+
+  @Required
+  public void setJmsTemplate(JmsTemplate jmsTemplate) {
+    this.jmsTemplate = jmsTemplate;
+  }
+
+  @Required
+  public void setTopic(Topic topic) {
+    this.topic = topic;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  public void destroy() {
+    listener = null;
+    executor.shutdownNow();
+  }
+
+  /**
+   * Начать отслеживать пользователя, если он еще не отслеживается.
+   * Для нового пользователя счетчик клиента используется, пока не загружен настоящий;
+   * если они отличаются, слушатель получит {@link Listener#unreadChanged(int, int)}.
+   *
+   * @param known счетчик, известный клиенту
+   * @return текущий счетчик
+   */
+  public int subscribe(int userid, int known) {
+    Integer current;
+
+    synchronized (lock) {
+      current = unread.putIfAbsent(userid, known);
+    }
+
+    if (current!=null) {
+      return current;
+    }
+
+    subscribed.add(userid);
+    scheduleLoad();
+
+    return known;
+  }
+
+  void scheduleLoad() {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          loadSubscribed();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      // остановка; счетчик обновится при следующем refresh
+      logger.debug("Can't schedule loading of unread events", ex);
+    }
+  }
+
+  /**
+   * Загрузить счетчики новых подписчиков; накопившиеся загружаются вместе
+   */
+  void loadSubscribed() {
+    Set<Integer> userids = new HashSet<Integer>();
+
+    for (Integer userid = subscribed.poll(); userid!=null; userid = subscribed.poll()) {
+      userids.add(userid);
+    }
+
+    if (userids.isEmpty()) {
+      return;
+    }
+
+    try {
+      Connection db = getConnection();
+
+      try {
+        refresh(db, userids);
+      } finally {
+        db.close();
+      }
+    } catch (SQLException ex) {
+      logger.warn("Can't load unread events for " + userids, ex);
+    }
+  }
+
+  Connection getConnection() throws SQLException {
+    return LorDataSource.getConnection();
+  }
+
+  /**
+   * @return счетчик или null, если пользователь не отслеживается
+   */
+  public Integer getUnread(int userid) {
+    return unread.get(userid);
+  }
+
+  /**
+   * Перечитать счетчики пользователей после изменения их уведомлений.
+   * Вызывается после commit, иначе часть узлов прочитает старые значения.
+   */
+  public void usersChanged(Connection db, Collection<Integer> userids) {
+    if (userids.isEmpty()) {
+      return;
+    }
+
+    try {
+      publish(loadUnread(db, userids));
+    } catch (SQLException ex) {
+      // счетчик обновится при следующем refresh
+      logger.warn("Can't load unread events for " + userids, ex);
+    }
+  }
+
+  public void reset(int userid) {
+    publish(ImmutableMap.of(userid, 0));
+  }
+
+  @Scheduled(fixedDelay=REFRESH_INTERVAL)
+  public void refresh() throws SQLException {
+    Set<Integer> waiting = getWaitingUsers();
+
+    if (waiting.isEmpty()) {
+      return;
+    }
+
+    Connection db = getConnection();
+
+    try {
+      refresh(db, waiting);
+    } finally {
+      db.close();
+    }
+  }
+
+  /**
+   * @return ожидающие пользователи; счетчики остальных больше не хранятся
+   */
+  Set<Integer> getWaitingUsers() {
+    Listener listener = this.listener;
+
+    synchronized (lock) {
+      Set<Integer> waiting = listener!=null ? listener.getWaitingUsers() : Collections.<Integer>emptySet();
+
+      unread.keySet().retainAll(waiting);
+
+      return waiting;
+    }
+  }
+
+  void refresh(Connection db, Set<Integer> waiting) throws SQLException {
+    for (List<Integer> batch : Iterables.partition(waiting, REFRESH_BATCH)) {
+      update(loadUnread(db, batch));
+    }
+  }
+
+  private static Map<Integer, Integer> loadUnread(Connection db, Collection<Integer> userids) throws SQLException {
+    Map<Integer, Integer> counters = new HashMap<Integer, Integer>();
+
+    Statement st = db.createStatement();
+
+    try {
+      ResultSet rs = st.executeQuery("SELECT id, unread_events FROM users WHERE id IN (" + Joiner.on(',').join(userids) + ')');
+
+      while (rs.next()) {
+        counters.put(rs.getInt("id"), rs.getInt("unread_events"));
+      }
+    } finally {
+      st.close();
+    }
+
+    return counters;
+  }
+
+  private void publish(Map<Integer, Integer> counters) {
+    update(counters);
+
+    final UnreadChanged message = new UnreadChanged(nodeId, new HashMap<Integer, Integer>(counters));
+
+    try {
+      jmsTemplate.send(topic, new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          return session.createObjectMessage(message);
+        }
+      });
+    } catch (Exception ex) {
+      // остальные узлы получат счетчики при следующем refresh
+      logger.warn("Can't send unread events for " + counters.keySet(), ex);
+    }
+  }
+
+  public void handleMessage(UnreadChanged message) {
+    if (!nodeId.equals(message.getNodeId())) {
+      update(message.getCounters());
+    }
+  }
+
+  void update(Map<Integer, Integer> counters) {
+    Listener listener = this.listener;
+
+    for (Map.Entry<Integer, Integer> entry : counters.entrySet()) {
+      int userid = entry.getKey();
+      Integer value = entry.getValue();
+
+      // счетчики хранятся только для ожидающих пользователей
+      Integer old = unread.get(userid);
+
+      if (old!=null && !old.equals(value) && unread.replace(userid, old, value) && listener!=null) {
+        listener.unreadChanged(userid, value);
+      }
+    }
+  }
+
+  public static class UnreadChanged implements Serializable {
+    private final String nodeId;
+    private final HashMap<Integer, Integer> counters;
+
+    private static final long serialVersionUID = 4176315128871390582L;
+
+    public UnreadChanged(String nodeId, HashMap<Integer, Integer> counters) {
+      this.nodeId = nodeId;
+      this.counters = counters;
+    }
+
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    /**
+     * @return id пользователя -> число непрочитанных уведомлений
+     */
+    public Map<Integer, Integer> getCounters() {
+      return counters;
+    }
+  }
+}
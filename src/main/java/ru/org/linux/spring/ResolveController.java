@@ -18,6 +18,8 @@ package ru.org.linux.spring;
 import java.sql.Connection;
 
 import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -28,6 +30,21 @@ import ru.org.linux.site.*;
 
 @Controller
 public class ResolveController  {
+  private TrackerIndex trackerIndex;
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping("/resolve.jsp")
   public ModelAndView resolve(
     HttpServletRequest request,
@@ -40,7 +57,7 @@ public class ResolveController  {
     try {
       db = LorDataSource.getConnection();
       Message message = new Message(db, msgid);
-      Group group = new Group(db, message.getGroupId());
+      Group group = groupStore.getGroup(message.getGroupId());
       User currentUser = tmpl.getCurrentUser();
       if (!group.isResolvable()) {
         throw new AccessViolationException("В данной группе нельзя помечать темы как решенные");
@@ -49,6 +66,7 @@ public class ResolveController  {
         throw new AccessViolationException("У Вас нет прав на решение данной темы");
       }
       message.resolveMessage(db, (resolved != null) && "yes".equals(resolved));
+      trackerIndex.topicChanged(db, msgid);
       return new ModelAndView(new RedirectView(message.getLinkLastmod()));
     } finally {
       if (db != null) {
@@ -25,6 +25,8 @@ import ru.org.linux.util.ServletParameterParser;
 import ru.org.linux.util.StringUtil;
 
 import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -33,6 +35,21 @@ import org.springframework.web.servlet.ModelAndView;
 
 @Controller
 public class SameIPController {
+  private IPBlockStore ipBlockStore;
+  private DNSBLService dnsblService;
+
+  @Autowired
+  @Required
+  public void setIpBlockStore(IPBlockStore ipBlockStore) {
+    this.ipBlockStore = ipBlockStore;
+  }
+
+  @Autowired
+  @Required
+  public void setDnsblService(DNSBLService dnsblService) {
+    this.dnsblService = dnsblService;
+  }
+
   @RequestMapping("/sameip.jsp")
   public ModelAndView sameIP(
     HttpServletRequest request,
@@ -82,7 +99,15 @@ public class SameIPController {
       mv.getModel().put("ip", ip);
       mv.getModel().put("uaId", userAgentId);
 
-      mv.getModel().put("blockInfo", IPBlockInfo.getBlockInfo(db, ip));
+      mv.getModel().put("dnsblZone", dnsblService.check(ip).getListedZone());
+
+      IPBlockInfo blockInfo = ipBlockStore.getBlockInfo(ip);
+
+      mv.getModel().put("blockInfo", blockInfo);
+
+      if (blockInfo != null) {
+        mv.getModel().put("blockModerator", User.getUserCached(db, blockInfo.getModeratorId()));
+      }
 
       mv.getModel().put("topics", getTopics(db, ip));
       mv.getModel().put("comments", getComments(db, ip));
@@ -15,6 +15,9 @@
 
 package ru.org.linux.spring;
 
+import ru.org.linux.site.ProcessedMessageCache;
+import ru.org.linux.site.UserCache;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +25,8 @@ import org.springframework.beans.factory.annotation.Required;
 import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class ScoreUpdater {
   private static final Log logger = LogFactory.getLog(ScoreUpdater.class);
@@ -47,16 +52,37 @@ public class ScoreUpdater {
             "not comments.deleted and not topics.deleted)");
 
     jdbcTemplate.update("update users set max_score=score where score>max_score");
+
+    // другие узлы должны перечитывать пользователей уже после commit
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          UserCache.invalidateAll();
+        }
+      });
+    } else {
+      UserCache.invalidateAll();
+    }
   }
 
   @Scheduled(cron="0 1 * * * *")
   public void block() throws Exception {
-    jdbcTemplate.update("update users set blocked='t' where id in (select id from users where score<-50 and nick!='anonymous' and max_score<150 and not blocked)");
-    jdbcTemplate.update("update users set blocked='t' where id in (select id from users where score<-50 and nick!='anonymous' and max_score<150 and blocked is null)");
+    int blocked = jdbcTemplate.update("update users set blocked='t' where id in (select id from users where score<-50 and nick!='anonymous' and max_score<150 and not blocked)");
+    blocked += jdbcTemplate.update("update users set blocked='t' where id in (select id from users where score<-50 and nick!='anonymous' and max_score<150 and blocked is null)");
+
+    if (blocked>0) {
+      UserCache.invalidateAll();
+      ProcessedMessageCache.usersChanged();
+    }
   }
 
   @Scheduled(cron="0 1 2 * * *")
   public void deleteInactivated() throws Exception {
-    jdbcTemplate.update("delete from users where not activated and not blocked and regdate<CURRENT_TIMESTAMP-'1 week'::interval");
+    int deleted = jdbcTemplate.update("delete from users where not activated and not blocked and regdate<CURRENT_TIMESTAMP-'1 week'::interval");
+
+    if (deleted>0) {
+      ProcessedMessageCache.usersChanged();
+    }
   }
 }
@@ -38,6 +38,7 @@ import org.springframework.web.servlet.ModelAndView;
 @Controller
 public class SearchControlController {
   private SearchQueueSender searchQueueSender;
+  private SearchReindexer searchReindexer;
 
   @Autowired
   @Required
@@ -45,6 +46,12 @@ public class SearchControlController {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setSearchReindexer(SearchReindexer searchReindexer) {
+    this.searchReindexer = searchReindexer;
+  }
+
   @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=all")
   public ModelAndView reindexAll(ServletRequest request) throws Exception {
     Template tmpl = Template.getTemplate(request);
@@ -116,8 +123,40 @@ public class SearchControlController {
     }
   }
 
+  @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=rebuild")
+  public ModelAndView rebuild(ServletRequest request) throws Exception {
+    Template tmpl = Template.getTemplate(request);
+
+    if (!tmpl.isSessionAuthorized()) {
+      throw new AccessViolationException("Not authorized");
+    }
+
+    tmpl.getCurrentUser().checkDelete();
+
+    if (!searchReindexer.start()) {
+      return new ModelAndView("action-done", "message", "Rebuild already running: "+searchReindexer.getStatus());
+    }
+
+    return new ModelAndView("action-done", "message", "Started index rebuild");
+  }
+
+  @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=stop")
+  public ModelAndView stopRebuild(ServletRequest request) throws Exception {
+    Template tmpl = Template.getTemplate(request);
+
+    if (!tmpl.isSessionAuthorized()) {
+      throw new AccessViolationException("Not authorized");
+    }
+
+    tmpl.getCurrentUser().checkDelete();
+
+    searchReindexer.stop();
+
+    return new ModelAndView("action-done", "message", "Stopping index rebuild");
+  }
+
   @RequestMapping(value="/admin/search-reindex", method=RequestMethod.GET)
   public ModelAndView reindexAll()  {
-    return new ModelAndView("search-reindex");
+    return new ModelAndView("search-reindex", "rebuildStatus", searchReindexer.getStatus());
   }
 }
@@ -18,8 +18,6 @@ package ru.org.linux.spring;
 import java.beans.PropertyEditorSupport;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Map;
 
 import ru.org.linux.site.*;
@@ -29,8 +27,6 @@ import com.google.common.collect.ImmutableSortedMap;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.springframework.beans.PropertyAccessException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
@@ -46,6 +42,7 @@ import org.springframework.web.bind.annotation.*;
 public class SearchController {
   private SolrServer solrServer;
   private SectionStore sectionStore;
+  private GroupStore groupStore;
 
   @Autowired
   @Required
@@ -58,6 +55,12 @@ public class SearchController {
     this.sectionStore = sectionStore;
   }
 
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @ModelAttribute("sorts")
   public static Map<SearchViewer.SearchOrder, String> getSorts() {
     ImmutableMap.Builder<SearchViewer.SearchOrder, String> builder = ImmutableSortedMap.naturalOrder();
@@ -118,7 +121,7 @@ public class SearchController {
         db = LorDataSource.getConnection();
 
         if (query.getGroup()!=0) {
-          Group group = new Group(db, query.getGroup());
+          Group group = groupStore.getGroup(query.getGroup());
 
           if (group.getSectionId()!=query.getSection()) {
             query.setGroup(0);
@@ -127,11 +130,7 @@ public class SearchController {
 
         QueryResponse response = sv.performSearch(solrServer);
 
-        SolrDocumentList list = response.getResults();
-        Collection<SearchItem> res = new ArrayList<SearchItem>(list.size());
-        for (SolrDocument doc : list) {
-          res.add(new SearchItem(db, doc));
-        }
+        SearchResult result = new SearchResult(db, response);
 
         FacetField sectionFacet = response.getFacetField("section_id");
 
@@ -146,14 +145,15 @@ public class SearchController {
         FacetField groupFacet = response.getFacetField("group_id");
 
         if (groupFacet!=null && groupFacet.getValueCount()>1) {
-          params.put("groupFacet", buildGroupFacet(db, query.getSection(), groupFacet));
+          params.put("groupFacet", buildGroupFacet(query.getSection(), groupFacet));
         }
 
         long time = System.currentTimeMillis() - current;
 
-        params.put("result", res);
-        params.put("searchTime", response.getElapsedTime());
-        params.put("numFound", list.getNumFound());
+        params.put("result", result.getItems());
+        params.put("searchTime", result.getSearchTime());
+        params.put("assemblyTime", result.getAssemblyTime());
+        params.put("numFound", result.getNumFound());
 
         params.put("time", time);
       } finally {
@@ -184,7 +184,7 @@ public class SearchController {
     return builder.build();
   }
 
-  private static Map<Integer, String> buildGroupFacet(Connection db, int sectionId, FacetField groupFacet) throws  BadGroupException, SQLException {
+  private Map<Integer, String> buildGroupFacet(int sectionId, FacetField groupFacet) throws BadGroupException {
     ImmutableMap.Builder<Integer, String> builder = ImmutableSortedMap.naturalOrder();
 
     int totalCount = 0;
@@ -192,7 +192,7 @@ public class SearchController {
     for (FacetField.Count count : groupFacet.getValues()) {
       int groupId = Integer.parseInt(count.getName());
 
-      Group group = new Group(db, groupId);
+      Group group = groupStore.getGroup(groupId);
 
       if (group.getSectionId()!=sectionId) {
         continue;
@@ -257,7 +257,7 @@ public class SearchController {
 
         try {
           db = LorDataSource.getConnection();
-          setValue(User.getUser(db, s));
+          setValue(User.getUserCached(db, s));
         } catch (SQLException e) {
           throw new RuntimeException(e);
         } catch (UserNotFoundException e) {
@@ -0,0 +1,293 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Буфер изменений поискового индекса.
+ *
+ * Документы и удаления накапливаются в памяти (повторные изменения одного msgid
+ * схлопываются), отправляются в solr пачками по {@link #BATCH_SIZE}, а commit
+ * делается не чаще чем раз в {@link #COMMIT_INTERVAL} мс или после {@link #COMMIT_DOCS}
+ * изменений.
+ *
+ * Обращения к solr идут вне монитора буфера: очередь забирается под блокировкой,
+ * а отправка сериализуется отдельной блокировкой sendLock, поэтому добавление
+ * изменений не ждет solr. Когда {@link #flush()} или {@link #commit()} возвращаются,
+ * все изменения, добавленные до вызова, уже в solr; если отправка не удалась,
+ * изменения возвращаются в очередь.
+ */
+public class SearchIndexBuffer {
+  private static final Log logger = LogFactory.getLog(SearchIndexBuffer.class);
+
+  public static final int BATCH_SIZE = 500;
+  public static final int COMMIT_DOCS = 10000;
+  public static final int COMMIT_INTERVAL = 10*1000;
+
+  private SolrServer solrServer;
+
+  private Map<String, SolrInputDocument> pendingAdd = new LinkedHashMap<String, SolrInputDocument>();
+  private Set<String> pendingDelete = new LinkedHashSet<String>();
+
+  private final Object sendLock = new Object();
+
+  private int uncommited = 0;
+
+  private long duplicateCount = 0;
+  private long batchCount = 0;
+  private long batchDocs = 0;
+  private int lastBatchSize = 0;
+  private int maxBatchSize = 0;
+  private long commitCount = 0;
+  private long commitTime = 0;
+  private long lastCommitTime = 0;
+
+  @Autowired
+  @Required
+  public void setSolrServer(SolrServer solrServer) {
+    this.solrServer = solrServer;
+  }
+
+  public void add(SolrInputDocument doc) throws IOException, SolrServerException {
+    synchronized (this) {
+      addPending(doc);
+    }
+
+    checkSize();
+  }
+
+  public void add(Collection<SolrInputDocument> docs) throws IOException, SolrServerException {
+    synchronized (this) {
+      for (SolrInputDocument doc : docs) {
+        addPending(doc);
+      }
+    }
+
+    checkSize();
+  }
+
+  public void deleteById(String id) throws IOException, SolrServerException {
+    synchronized (this) {
+      deletePending(id);
+    }
+
+    checkSize();
+  }
+
+  public void deleteById(Collection<String> ids) throws IOException, SolrServerException {
+    synchronized (this) {
+      for (String id : ids) {
+        deletePending(id);
+      }
+    }
+
+    checkSize();
+  }
+
+  private void addPending(SolrInputDocument doc) {
+    String id = doc.getFieldValue("id").toString();
+
+    pendingDelete.remove(id);
+
+    if (pendingAdd.put(id, doc)!=null) {
+      duplicateCount++;
+    }
+  }
+
+  private void deletePending(String id) {
+    pendingAdd.remove(id);
+
+    if (!pendingDelete.add(id)) {
+      duplicateCount++;
+    }
+  }
+
+  private void checkSize() throws IOException, SolrServerException {
+    if (getQueueDepth() >= BATCH_SIZE) {
+      flush();
+    }
+
+    if (getUncommited() >= COMMIT_DOCS) {
+      commit();
+    }
+  }
+
+  /**
+   * Отправить накопленные изменения в solr без commit
+   */
+  public void flush() throws IOException, SolrServerException {
+    synchronized (sendLock) {
+      Map<String, SolrInputDocument> add;
+      Set<String> delete;
+
+      synchronized (this) {
+        if (getQueueDepth()==0) {
+          return;
+        }
+
+        add = pendingAdd;
+        delete = pendingDelete;
+
+        pendingAdd = new LinkedHashMap<String, SolrInputDocument>();
+        pendingDelete = new LinkedHashSet<String>();
+      }
+
+      try {
+        if (!add.isEmpty()) {
+          solrServer.add(new ArrayList<SolrInputDocument>(add.values()));
+        }
+
+        if (!delete.isEmpty()) {
+          solrServer.deleteById(new ArrayList<String>(delete));
+        }
+      } catch (IOException ex) {
+        restore(add, delete);
+        throw ex;
+      } catch (SolrServerException ex) {
+        restore(add, delete);
+        throw ex;
+      } catch (RuntimeException ex) {
+        restore(add, delete);
+        throw ex;
+      }
+
+      int size = add.size() + delete.size();
+
+      synchronized (this) {
+        uncommited += size;
+
+        batchCount++;
+        batchDocs += size;
+        lastBatchSize = size;
+        maxBatchSize = Math.max(maxBatchSize, size);
+      }
+    }
+  }
+
+  /**
+   * Вернуть неотправленные изменения в очередь; более новые изменения тех же id,
+   * добавленные во время отправки, важнее
+   */
+  private synchronized void restore(Map<String, SolrInputDocument> add, Set<String> delete) {
+    for (Map.Entry<String, SolrInputDocument> entry : add.entrySet()) {
+      if (!pendingAdd.containsKey(entry.getKey()) && !pendingDelete.contains(entry.getKey())) {
+        pendingAdd.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    for (String id : delete) {
+      if (!pendingAdd.containsKey(id)) {
+        pendingDelete.add(id);
+      }
+    }
+  }
+
+  /**
+   * Отправить накопленные изменения и сделать commit. После возврата все изменения,
+   * добавленные до вызова, сохранены в индексе.
+   */
+  public void commit() throws IOException, SolrServerException {
+    synchronized (sendLock) {
+      flush();
+
+      int docs = getUncommited();
+
+      if (docs==0) {
+        return;
+      }
+
+      long startTime = System.nanoTime();
+
+      solrServer.commit();
+
+      long time = (System.nanoTime() - startTime) / 1000000;
+
+      synchronized (this) {
+        commitCount++;
+        commitTime += time;
+        lastCommitTime = time;
+
+        uncommited -= docs;
+      }
+
+      logger.info("Solr commit: " + docs + " docs, " + time + " millis");
+    }
+  }
+
+  @Scheduled(fixedDelay=COMMIT_INTERVAL)
+  public void scheduledCommit() {
+    try {
+      commit();
+    } catch (Exception ex) {
+      logger.warn("Solr commit failed, " + getQueueDepth() + " changes pending", ex);
+    }
+  }
+
+  public void destroy() {
+    scheduledCommit();
+  }
+
+  public synchronized int getQueueDepth() {
+    return pendingAdd.size() + pendingDelete.size();
+  }
+
+  public synchronized int getUncommited() {
+    return uncommited;
+  }
+
+  public synchronized long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  public synchronized long getBatchCount() {
+    return batchCount;
+  }
+
+  public synchronized int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  public synchronized int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public synchronized int getAverageBatchSize() {
+    return batchCount==0?0:(int) (batchDocs / batchCount);
+  }
+
+  public synchronized long getCommitCount() {
+    return commitCount;
+  }
+
+  public synchronized long getLastCommitTime() {
+    return lastCommitTime;
+  }
+
+  public synchronized long getAverageCommitTime() {
+    return commitCount==0?0:commitTime / commitCount;
+  }
+}
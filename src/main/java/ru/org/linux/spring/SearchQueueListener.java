@@ -20,15 +20,17 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ru.org.linux.site.*;
+import ru.org.linux.util.HTMLFormatter;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,13 +41,22 @@ import org.springframework.stereotype.Component;
 @Component
 public class SearchQueueListener {
   private static final Log logger = LogFactory.getLog(SearchQueueListener.class);
-  
-  private SolrServer solrServer;
+
+  private static final int TOPICS_FETCH_SIZE = 100;
+
+  private SearchIndexBuffer indexBuffer;
+  private SectionStore sectionStore;
+
+  @Autowired
+  @Required
+  public void setIndexBuffer(SearchIndexBuffer indexBuffer) {
+    this.indexBuffer = indexBuffer;
+  }
 
   @Autowired
   @Required
-  public void setSolrServer(SolrServer solrServer) {
-    this.solrServer = solrServer;
+  public void setSectionStore(SectionStore sectionStore) {
+    this.sectionStore = sectionStore;
   }
 
   public void handleMessage(SearchQueueSender.UpdateMessage msgUpdate) throws SQLException, MessageNotFoundException, IOException, SolrServerException {
@@ -54,29 +65,28 @@ public class SearchQueueListener {
     Connection db = LorDataSource.getConnection();
 
     try {
-      reindexMessage(db, msgUpdate.getMsgid(), msgUpdate.isWithComments());
-      solrServer.commit();
+      reindexMessage(db, new Message(db, sectionStore, msgUpdate.getMsgid()), msgUpdate.isWithComments());
     } finally {
       JdbcUtils.closeConnection(db);
     }
   }
 
-  private void reindexMessage(Connection db, int msgid, boolean withComments) throws IOException, SolrServerException, SQLException, MessageNotFoundException {
-    Message msg = new Message(db, msgid);
+  private int reindexMessage(Connection db, Message msg, boolean withComments) throws IOException, SolrServerException, SQLException {
+    int count = 1;
 
     if (!msg.isDeleted()) {
       updateMessage(msg);
     } else {
       //logger.info("Deleting message "+msgid+" from solr");      
-      solrServer.deleteById((Integer.toString(msg.getId())));
+      indexBuffer.deleteById((Integer.toString(msg.getId())));
     }
 
     if (withComments) {
-      CommentList commentList = CommentList.getCommentList(db, msg, true);
-
       if (!msg.isDeleted()) {
-        reindexComments(db, msg, commentList);
+        count += reindexComments(db, msg);
       } else {
+        CommentList commentList = CommentList.getCommentList(db, msg, true);
+
         List<String> msgids = Lists.transform(commentList.getList(), new Function<Comment, String>() {
           @Override
           public String apply(Comment comment) {
@@ -85,55 +95,62 @@ public class SearchQueueListener {
         });
 
         if (!msgids.isEmpty()) {
-          solrServer.deleteById(msgids);
+          indexBuffer.deleteById(msgids);
         }
+
+        count += msgids.size();
       }
     }
+
+    return count;
   }
 
   public void handleMessage(SearchQueueSender.UpdateComments msgUpdate) throws SQLException, MessageNotFoundException, IOException, SolrServerException {
     logger.info("Indexing "+msgUpdate.getMsgids());
 
     Connection db = LorDataSource.getConnection();
-    PreparedStatement pst = null;
 
     try {
-      pst = db.prepareStatement("SELECT message FROM msgbase WHERE id=?");
+      Map<Integer, Comment> comments = Comment.getComments(db, msgUpdate.getMsgids());
+      Map<Integer, MessageText> texts = MessageText.getMessageText(db, msgUpdate.getMsgids());
+
+      // комментарии могут быть из разного топика в функция массового удаления,
+      // но чаще все комментарии пачки из одного топика
+      Map<Integer, Message> topics = new HashMap<Integer, Message>();
 
       for (Integer msgid : msgUpdate.getMsgids()) {
-        Comment comment = new Comment(db, msgid);
+        Comment comment = comments.get(msgid);
+
+        if (comment==null) {
+          throw new MessageNotFoundException(msgid);
+        }
 
         if (comment.isDeleted()) {
           logger.info("Deleting comment "+comment.getId()+" from solr");
-          solrServer.deleteById(Integer.toString(comment.getId()));
+          indexBuffer.deleteById(Integer.toString(comment.getId()));
         } else {
-          // комментарии могут быть из разного топика в функция массового удаления
-          // возможно для скорости нужен какой-то кеш топиков, т.к. чаще бывает что все
-          // комментарии из одного топика
-          Message topic = new Message(db, comment.getTopic());
-
-          pst.setInt(1, comment.getId());
-          ResultSet rs = pst.executeQuery();
-          if (!rs.next()) {
-            throw new RuntimeException("Can't load message text for " + comment.getId());
+          Message topic = topics.get(comment.getTopic());
+
+          if (topic==null) {
+            topic = new Message(db, sectionStore, comment.getTopic());
+            topics.put(topic.getId(), topic);
           }
 
-          String message = rs.getString(1);
+          MessageText text = texts.get(comment.getId());
 
-          rs.close();
+          if (text==null) {
+            throw new RuntimeException("Can't load message text for " + comment.getId());
+          }
 
-          solrServer.add(processComment(topic, comment, message));
+          indexBuffer.add(processComment(topic, comment, getIndexText(text.getText(), text.isLorcode())));
         }
       }
-
-      solrServer.commit();
     } finally {
-      JdbcUtils.closeStatement(pst);
       JdbcUtils.closeConnection(db);
     }
   }
 
-  public void handleMessage(SearchQueueSender.UpdateMonth msgUpdate) throws SQLException, MessageNotFoundException, IOException, SolrServerException {
+  public void handleMessage(SearchQueueSender.UpdateMonth msgUpdate) throws SQLException, IOException, SolrServerException {
     int month = msgUpdate.getMonth();
     int year = msgUpdate.getYear();
 
@@ -144,21 +161,64 @@ public class SearchQueueListener {
     try {
       long startTime = System.nanoTime();
 
-      Statement st = db.createStatement();
+      int count = reindexTopics(db, "postdate>='" + year + '-' + month + "-01'::timestamp AND (postdate<'" + year + '-' + month + "-01'::timestamp+'1 month'::interval)");
+
+      indexBuffer.commit();
+
+      long endTime = System.nanoTime();
+
+      logger.info("Reindex month "+year+'/'+month+" done, "+count+" docs, "+(endTime-startTime)/1000000+" millis");
+    } finally {
+      JdbcUtils.closeConnection(db);
+    }
+  }
+
+  /**
+   * Переиндексировать темы (вместе с комментариями), удовлетворяющие условию.
+   * Темы читаются курсором порциями по TOPICS_FETCH_SIZE вместе с текстом,
+   * комментарии - одним запросом на тему
+   *
+   * @param db подключение к БД
+   * @param where условие WHERE для выборки из topics
+   * @return количество обработанных документов
+   */
+  int reindexTopics(Connection db, String where) throws SQLException, IOException, SolrServerException {
+    boolean autoCommit = db.getAutoCommit();
+
+    // postgresql использует курсор для setFetchSize только внутри транзакции
+    db.setAutoCommit(false);
 
-      ResultSet rs = st.executeQuery("SELECT id FROM topics WHERE postdate>='" + year + '-' + month + "-01'::timestamp AND (postdate<'" + year + '-' + month + "-01'::timestamp+'1 month'::interval)");
+    Statement st = db.createStatement();
+    st.setFetchSize(TOPICS_FETCH_SIZE);
+
+    try {
+      ResultSet rs = st.executeQuery(
+        "SELECT " +
+          "postdate, topics.id as msgid, topics.userid, topics.title, " +
+          "topics.groupid as guid, topics.url, topics.linktext, ua_id, " +
+          "groups.title as gtitle, urlname, vote, havelink, section, topics.sticky, topics.postip, " +
+          "postdate<(CURRENT_TIMESTAMP-sections.expire) as expired, deleted, lastmod, commitby, " +
+          "commitdate, topics.stat1, postscore, topics.moderate, message, notop,bbcode, " +
+          "topics.resolved, restrict_comments, minor " +
+          "FROM topics " +
+          "INNER JOIN groups ON (groups.id=topics.groupid) " +
+          "INNER JOIN sections ON (sections.id=groups.section) " +
+          "INNER JOIN msgbase ON (msgbase.id=topics.id) " +
+          "WHERE " + where
+      );
+
+      int count = 0;
 
       while (rs.next()) {
-        reindexMessage(db, rs.getInt(1), true);
+        count += reindexMessage(db, new Message(sectionStore, rs), true);
       }
 
-      solrServer.commit();
-
-      long endTime = System.nanoTime();
+      rs.close();
 
-      logger.info("Reindex month "+year+'/'+month+" done, "+(endTime-startTime)/1000000+" millis");
+      return count;
     } finally {
-      JdbcUtils.closeConnection(db);
+      JdbcUtils.closeStatement(st);
+      db.setAutoCommit(autoCommit);
     }
   }
 
@@ -175,50 +235,63 @@ public class SearchQueueListener {
 
     doc.addField("title", topic.getTitle());
     doc.addField("topic_title", topic.getTitle());
-    doc.addField("message", topic.getMessage());
+    doc.addField("message", getIndexText(topic.getMessage(), topic.isLorcode()));
     Date postdate = topic.getPostdate();
     doc.addField("postdate", new Timestamp(postdate.getTime()));
 
     doc.addField("is_comment", false);
 
-    solrServer.add(doc);
+    indexBuffer.add(doc);
   }
 
-  private void reindexComments(Connection db, Message topic, CommentList comments) throws IOException, SolrServerException, SQLException {
+  private int reindexComments(Connection db, Message topic) throws IOException, SolrServerException, SQLException {
     Collection<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
     List<String> delete = new ArrayList<String>();
 
-    PreparedStatement pst = db.prepareStatement("SELECT message FROM msgbase WHERE id=?");
+    PreparedStatement pst = db.prepareStatement(
+      "SELECT " +
+        "comments.title, topic, postdate, userid, comments.id as msgid, " +
+        "replyto, deleted, NULL AS useragent, comments.postip, message, bbcode " +
+        "FROM comments " +
+        "INNER JOIN msgbase ON (msgbase.id=comments.id) " +
+        "WHERE topic=?"
+    );
 
     try {
-      for (Comment comment : comments.getList()) {
-        if (comment.isDeleted()) {
-          delete.add(Integer.toString(comment.getId()));
-        }
-
-        pst.setInt(1, comment.getId());
-        ResultSet rs = pst.executeQuery();
-        if (!rs.next()) {
-          throw new RuntimeException("Can't load message text for "+comment.getId());
-        }
+      pst.setInt(1, topic.getId());
 
-        String message = rs.getString(1);
+      ResultSet rs = pst.executeQuery();
 
-        rs.close();
-
-        docs.add(processComment(topic, comment, message));
+      while (rs.next()) {
+        if (rs.getBoolean("deleted")) {
+          delete.add(Integer.toString(rs.getInt("msgid")));
+        } else {
+          docs.add(processComment(topic, new Comment(db, rs), getIndexText(rs.getString("message"), rs.getBoolean("bbcode"))));
+        }
       }
+
+      rs.close();
     } finally {
       JdbcUtils.closeStatement(pst);
     }
 
     if (!docs.isEmpty()) {
-      solrServer.add(docs);
+      indexBuffer.add(docs);
     }
     if (!delete.isEmpty()) {
       //logger.info("Deleting comments: "+delete);
-      solrServer.deleteById(delete);
+      indexBuffer.deleteById(delete);
     }
+
+    return docs.size() + delete.size();
+  }
+
+  /**
+   * Старые сообщения без BBCode хранятся в HTML: в индекс идет текст без разметки,
+   * иначе подсветка (hl.encoder=html) покажет экранированные теги
+   */
+  private static String getIndexText(String message, boolean lorcode) {
+    return lorcode ? message : HTMLFormatter.stripTags(message);
   }
 
   private static SolrInputDocument processComment(Message topic, Comment comment, String message) {
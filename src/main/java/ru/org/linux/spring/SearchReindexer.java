@@ -0,0 +1,316 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.*;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.org.linux.site.LorDataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Полная перестройка поискового индекса.
+ *
+ * Пространство id тем делится на диапазоны по RANGE_SIZE, которые разбирают
+ * несколько потоков (у каждого свое подключение к БД). Номера диапазонов, сохраненных
+ * в индексе commit'ом solr, дописываются в checkpoint-файл, так что прерванная перестройка продолжается
+ * с того места, где остановилась.
+ */
+public class SearchReindexer {
+  private static final Log logger = LogFactory.getLog(SearchReindexer.class);
+
+  private static final int RANGE_SIZE = 20000;
+  private static final int REPORT_INTERVAL = 60*1000;
+
+  private SearchQueueListener searchQueueListener;
+  private SearchIndexBuffer indexBuffer;
+  private int threads = 4;
+  private File checkpointFile;
+
+  private final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<Integer>();
+  private final Set<Integer> failed = new HashSet<Integer>();
+  private final AtomicInteger activeWorkers = new AtomicInteger();
+  private final AtomicInteger rangesDone = new AtomicInteger();
+  private final AtomicLong docsDone = new AtomicLong();
+
+  private volatile boolean running = false;
+  private volatile boolean stopped = false;
+  private int rangesTotal;
+  private long startTime;
+
+  @Required
+  public void setSearchQueueListener(SearchQueueListener searchQueueListener) {
+    this.searchQueueListener = searchQueueListener;
+  }
+
+  @Required
+  public void setIndexBuffer(SearchIndexBuffer indexBuffer) {
+    this.indexBuffer = indexBuffer;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  @Required
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  /**
+   * Запустить перестройку индекса в фоне; если есть checkpoint
+   * от прерванной перестройки - продолжить ее
+   *
+   * @return false, если перестройка уже идет
+   */
+  public synchronized boolean start() throws SQLException, IOException {
+    if (running) {
+      return false;
+    }
+
+    int maxId = getMaxTopicId();
+    Set<Integer> done = readCheckpoint();
+
+    pending.clear();
+    failed.clear();
+
+    for (int range = 0; range <= maxId / RANGE_SIZE; range++) {
+      if (!done.contains(range)) {
+        pending.add(range);
+      }
+    }
+
+    rangesTotal = pending.size();
+    rangesDone.set(0);
+    docsDone.set(0);
+    startTime = System.currentTimeMillis();
+    stopped = false;
+    running = true;
+
+    logger.info("Starting search reindex: " + rangesTotal + " ranges, " + done.size() + " already done, " + threads + " threads");
+
+    activeWorkers.set(threads);
+
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(new Worker(), "search-reindex-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    return true;
+  }
+
+  /**
+   * Остановить перестройку после обработки текущих диапазонов. Checkpoint сохраняется.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  public void destroy() {
+    stop();
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public synchronized String getStatus() {
+    if (!running) {
+      if (checkpointFile.exists()) {
+        return "stopped, checkpoint exists";
+      } else {
+        return "not running";
+      }
+    }
+
+    int done = rangesDone.get();
+    long docs = docsDone.get();
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    StringBuilder status = new StringBuilder();
+
+    status.append(done).append('/').append(rangesTotal).append(" ranges, ");
+    status.append(docs).append(" docs, ");
+    status.append(elapsed>0?docs*1000/elapsed:0).append(" docs/sec");
+
+    if (done>0) {
+      long eta = elapsed * (rangesTotal - done) / done / 1000;
+
+      status.append(", ETA ").append(eta / 3600).append("h ").append(eta % 3600 / 60).append('m');
+    }
+
+    if (stopped) {
+      status.append(", stopping");
+    }
+
+    return status.toString();
+  }
+
+  @Scheduled(fixedDelay=REPORT_INTERVAL)
+  public void reportProgress() {
+    if (running) {
+      logger.info("Search reindex: " + getStatus());
+    }
+  }
+
+  private static int getMaxTopicId() throws SQLException {
+    Connection db = LorDataSource.getConnection();
+
+    try {
+      Statement st = db.createStatement();
+      ResultSet rs = st.executeQuery("SELECT max(id) FROM topics");
+
+      rs.next();
+
+      int maxId = rs.getInt(1);
+
+      rs.close();
+      st.close();
+
+      return maxId;
+    } finally {
+      JdbcUtils.closeConnection(db);
+    }
+  }
+
+  private Set<Integer> readCheckpoint() throws IOException {
+    Set<Integer> done = new HashSet<Integer>();
+
+    if (!checkpointFile.exists()) {
+      return done;
+    }
+
+    BufferedReader in = new BufferedReader(new FileReader(checkpointFile));
+
+    try {
+      String header = in.readLine();
+
+      if (header==null || Integer.parseInt(header)!=RANGE_SIZE) {
+        logger.info("Ignoring checkpoint with different range size: "+header);
+        return done;
+      }
+
+      String line;
+
+      while ((line = in.readLine())!=null) {
+        if (!line.isEmpty()) {
+          done.add(Integer.parseInt(line));
+        }
+      }
+    } finally {
+      in.close();
+    }
+
+    return done;
+  }
+
+  private synchronized void writeCheckpoint(int range) throws IOException {
+    boolean create = !checkpointFile.exists();
+
+    Writer out = new FileWriter(checkpointFile, true);
+
+    try {
+      if (create) {
+        out.write(RANGE_SIZE + "\n");
+      }
+
+      out.write(range + "\n");
+    } finally {
+      out.close();
+    }
+  }
+
+  private synchronized void rangeFailed(int range) {
+    failed.add(range);
+  }
+
+  private synchronized void finish() {
+    try {
+      indexBuffer.commit();
+    } catch (Exception ex) {
+      logger.error("Search reindex: final commit failed", ex);
+      failed.add(-1);
+    }
+
+    if (!stopped && failed.isEmpty()) {
+      if (!checkpointFile.delete()) {
+        logger.warn("Can't delete checkpoint " + checkpointFile);
+      }
+
+      logger.info("Search reindex done: " + getStatus());
+    } else {
+      logger.info("Search reindex stopped: " + getStatus() + ", failed ranges: " + failed);
+    }
+
+    running = false;
+  }
+
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      Connection db = null;
+
+      try {
+        db = LorDataSource.getConnection();
+
+        Integer range;
+
+        while (!stopped && (range = pending.poll())!=null) {
+          int start = range * RANGE_SIZE;
+
+          try {
+            docsDone.addAndGet(
+              searchQueueListener.reindexTopics(db, "topics.id>=" + start + " AND topics.id<" + (start + RANGE_SIZE))
+            );
+
+            // документы должны быть сохранены в индексе до записи checkpoint:
+            // без commit после падения solr диапазон считался бы готовым
+            indexBuffer.commit();
+
+            writeCheckpoint(range);
+            rangesDone.incrementAndGet();
+          } catch (Exception ex) {
+            logger.error("Search reindex: range " + start + " failed", ex);
+            rangeFailed(range);
+          }
+        }
+      } catch (SQLException ex) {
+        logger.error("Search reindex: can't get connection", ex);
+        stopped = true;
+      } finally {
+        JdbcUtils.closeConnection(db);
+
+        if (activeWorkers.decrementAndGet()==0) {
+          finish();
+        }
+      }
+    }
+  }
+}
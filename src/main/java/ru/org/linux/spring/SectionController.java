@@ -19,6 +19,8 @@ import java.sql.Connection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -26,12 +28,19 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.View;
 import org.springframework.web.servlet.view.RedirectView;
 
-import ru.org.linux.site.Group;
 import ru.org.linux.site.LorDataSource;
 import ru.org.linux.site.Section;
 
 @Controller
 public class SectionController {
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping("/view-section.jsp")
   public ModelAndView handleRequestInternal(@RequestParam("section") int sectionid) throws Exception {
     Connection db = null;
@@ -42,7 +51,8 @@ public class SectionController {
 
       Map<String, Object> params = new HashMap<String, Object>();
       params.put("section", section);
-      params.put("groups", Group.getGroups(db, section));
+      params.put("groups", groupStore.getGroups(section));
+      params.put("groupStats", groupStore.getStats());
 
       return new ModelAndView("section", params);
     } finally {
@@ -39,10 +39,12 @@ public class SectionRSSController {
   private static final Set<String> filterValuesSet = new HashSet<String>(Arrays.asList(filterValues));
 
   private final SectionStore sectionStore;
+  private final GroupStore groupStore;
 
   @Autowired
-  public SectionRSSController(SectionStore sectionStore) {
+  public SectionRSSController(SectionStore sectionStore, GroupStore groupStore) {
     this.sectionStore = sectionStore;
+    this.groupStore = groupStore;
   }
 
   @RequestMapping("/section-rss.jsp")
@@ -77,7 +79,7 @@ public class SectionRSSController {
       return new ModelAndView(new RedirectView("http://feeds.feedburner.com/org/LOR"));
     }
 
-    NewsViewer nv = new NewsViewer(sectionStore);
+    NewsViewer nv = new NewsViewer(sectionStore, groupStore);
     nv.addSection(sectionId);
     nv.setDatelimit(" postdate>(CURRENT_TIMESTAMP-'3 month'::interval) ");
 
@@ -105,7 +107,7 @@ public class SectionRSSController {
 
       Group group = null;
       if (groupId!=0) {
-        group = new Group(db, groupId);
+        group = groupStore.getGroup(groupId);
 
         if (group.getSectionId()!=sectionId) {
           throw new BadGroupException("группа #"+groupId+" не принадлежит разделу #"+sectionId);
@@ -17,6 +17,7 @@ package ru.org.linux.spring;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -27,6 +28,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.view.RedirectView;
 
 import ru.org.linux.site.*;
 import ru.org.linux.util.ServletParameterException;
@@ -34,10 +36,16 @@ import ru.org.linux.util.StringUtil;
 
 @Controller
 public class ShowCommentsController {
+  /**
+   * Страницы выбираются по курсору: after - комментарии старше указанного,
+   * before - новее указанного. offset оставлен для старых ссылок.
+   */
   @RequestMapping("/show-comments.jsp")
   public ModelAndView showComments(
     @RequestParam String nick,
     @RequestParam(defaultValue="0") int offset,
+    @RequestParam(required=false) Integer after,
+    @RequestParam(required=false) Integer before,
     HttpServletRequest request,
     HttpServletResponse response
   ) throws Exception {
@@ -52,9 +60,13 @@ public class ShowCommentsController {
       throw new ServletParameterException("offset<0!?");
     }
 
-    mv.getModel().put("offset", offset);
+    boolean cursorPage = after!=null || before!=null;
 
-    boolean firstPage = offset==0;
+    if (cursorPage) {
+      offset = 0;
+    }
+
+    boolean firstPage = !cursorPage && offset==0;
 
     if (firstPage) {
       response.setDateHeader("Expires", System.currentTimeMillis() + 90 * 1000);
@@ -69,7 +81,7 @@ public class ShowCommentsController {
     try {
       db = LorDataSource.getConnection();
 
-      User user = User.getUser(db, nick);
+      User user = User.getUserCached(db, nick);
 
       mv.getModel().put("user", user);
 
@@ -81,14 +93,29 @@ public class ShowCommentsController {
 
       PreparedStatement pst=null;
 
+      String order;
+      String cursorq;
+
+      if (before!=null) {
+        cursorq = " AND (comments.postdate, comments.id) > (SELECT postdate, id FROM comments WHERE id=" + before + ')';
+        order = " ORDER BY comments.postdate, comments.id";
+      } else if (after!=null) {
+        cursorq = " AND (comments.postdate, comments.id) < (SELECT postdate, id FROM comments WHERE id=" + after + ')';
+        order = " ORDER BY comments.postdate DESC, comments.id DESC";
+      } else {
+        cursorq = "";
+        order = " ORDER BY comments.postdate DESC, comments.id DESC";
+      }
+
       try {
+        // на один комментарий больше, чтобы узнать, есть ли следующая страница
         pst = db.prepareStatement(
           "SELECT sections.name as ptitle, groups.title as gtitle, topics.title, " +
             "topics.id as topicid, comments.id as msgid, comments.postdate " +
             "FROM sections, groups, topics, comments " +
             "WHERE sections.id=groups.section AND groups.id=topics.groupid " +
             "AND comments.topic=topics.id " +
-            "AND comments.userid=? AND NOT comments.deleted ORDER BY postdate DESC LIMIT " + topics + " OFFSET " + offset
+            "AND comments.userid=? AND NOT comments.deleted" + cursorq + order + " LIMIT " + (topics + 1) + " OFFSET " + offset
         );
 
         pst.setInt(1, user.getId());
@@ -114,6 +141,29 @@ public class ShowCommentsController {
         }
       }
 
+      boolean hasMore = out.size() > topics;
+
+      if (hasMore) {
+        out.remove(topics);
+      }
+
+      if (before!=null) {
+        if (!hasMore) {
+          // новее только комментарии первой страницы
+          return new ModelAndView(new RedirectView("show-comments.jsp?nick=" + user.getNick()));
+        }
+
+        Collections.reverse(out);
+      }
+
+      if (!firstPage && !out.isEmpty()) {
+        mv.getModel().put("prevBefore", out.get(0).getCommentId());
+      }
+
+      if ((hasMore || before!=null) && !out.isEmpty()) {
+        mv.getModel().put("nextAfter", out.get(out.size()-1).getCommentId());
+      }
+
       mv.getModel().put("list", out);
 
       if (tmpl.isModeratorSession()) {
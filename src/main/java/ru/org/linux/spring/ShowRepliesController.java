@@ -17,10 +17,7 @@ package ru.org.linux.spring;
 
 import java.io.Serializable;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -35,18 +32,28 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.view.RedirectView;
 
 @Controller
 public class ShowRepliesController {
   @Autowired
   private ReplyFeedView feedView;
 
+  @Autowired
+  private ReplyNotifier replyNotifier;
+
+  /**
+   * Страницы выбираются по курсору - времени события в микросекундах: after - события
+   * старше указанного времени, before - новее. offset оставлен для старых ссылок.
+   */
   @RequestMapping("/show-replies.jsp")
   public ModelAndView showReplies(
     HttpServletRequest request,
     HttpServletResponse response,
     @RequestParam(value = "nick", required=false) String nick,
     @RequestParam(value = "offset", defaultValue = "0") int offset,
+    @RequestParam(value = "after", required=false) Long after,
+    @RequestParam(value = "before", required=false) Long before,
     @RequestParam(value = "forceReset", defaultValue = "false") boolean forceReset
   ) throws Exception {
     Template tmpl = Template.getTemplate(request);
@@ -67,11 +74,13 @@ public class ShowRepliesController {
 
     boolean feedRequested = request.getParameterMap().containsKey("output");
 
-    if (offset < 0) {
+    boolean cursorPage = after!=null || before!=null;
+
+    if (offset < 0 || cursorPage) {
       offset = 0;
     }
 
-    boolean firstPage = offset == 0;
+    boolean firstPage = !cursorPage && offset == 0;
     int topics = tmpl.getProf().getTopics();
     if (feedRequested) {
       topics = 50;
@@ -83,7 +92,6 @@ public class ShowRepliesController {
 
     params.put("firstPage", firstPage);
     params.put("topics", topics);
-    params.put("offset", offset);
 
     /* define timestamps for caching */
     long time = System.currentTimeMillis();
@@ -112,6 +120,21 @@ public class ShowRepliesController {
         response.addHeader("Cache-Control", "no-cache");
       }
 
+      String cursorq;
+      String order;
+
+      if (before!=null) {
+        cursorq = " AND event_date > ?";
+        order = " ORDER BY event_date";
+      } else if (after!=null) {
+        cursorq = " AND event_date < ?";
+        order = " ORDER BY event_date DESC";
+      } else {
+        cursorq = "";
+        order = " ORDER BY event_date DESC";
+      }
+
+      // на одно событие больше, чтобы узнать, есть ли следующая страница
       pst = db.prepareStatement(
         "SELECT event_date, " +
           " topics.title as subj, sections.name, groups.title as gtitle, " +
@@ -130,28 +153,62 @@ public class ShowRepliesController {
           " WHERE user_events.userid = ? " +
           (showPrivate ? "" : " AND NOT private ") +
           " AND (comments.id is null or NOT comments.topic_deleted)" +
-          " ORDER BY event_date DESC LIMIT " + topics +
+          cursorq + order + " LIMIT " + (topics + 1) +
           " OFFSET " + offset
       );
 
       pst.setInt(1, user.getId());
+
+      if (cursorPage) {
+        pst.setTimestamp(2, toTimestamp(before!=null ? before : after));
+      }
+
       ResultSet rs = pst.executeQuery();
 
       while (rs.next()) {
-        list.add(new MyTopicsListItem(db, rs, feedRequested));
+        list.add(new MyTopicsListItem(rs, feedRequested));
       }
 
       rs.close();
 
+      List<Timestamp> dates = new ArrayList<Timestamp>(list.size());
+
+      for (MyTopicsListItem item : list) {
+        dates.add(item.getEventDate());
+      }
+
+      boolean hasMore = list.size() > topics;
+
+      list = new ArrayList<MyTopicsListItem>(list.subList(0, getPageSize(dates, topics)));
+
+      if (before!=null) {
+        if (!hasMore) {
+          // новее только события первой страницы
+          return new ModelAndView(new RedirectView("show-replies.jsp?nick=" + nick));
+        }
+
+        Collections.reverse(list);
+      }
+
+      if (!firstPage && !list.isEmpty()) {
+        params.put("prevBefore", toMicros(list.get(0).getEventDate()));
+      }
+
+      if ((hasMore || before!=null) && !list.isEmpty()) {
+        params.put("nextAfter", toMicros(list.get(list.size()-1).getEventDate()));
+      }
+
+      MyTopicsListItem.prepare(db, list);
+
       if ("POST".equalsIgnoreCase(request.getMethod())) {
         currentUser.resetUnreadEvents(db);
+        replyNotifier.reset(currentUser.getId());
         tmpl.updateCurrentUser(db);
       } else {
         params.put("enableReset", true);
       }
 
       params.put("topicsList", list);
-      params.put("hasMore", list.size()==topics);
     } finally {
       JdbcUtils.closeStatement(pst);
       JdbcUtils.closeConnection(db);
@@ -169,15 +226,58 @@ public class ShowRepliesController {
     return result;
   }
 
+  /**
+   * Размер страницы из выборки на topics+1 событий (в порядке запроса): граница
+   * страницы не должна разделять события с одинаковым временем, иначе курсор
+   * по времени пропустит оставшиеся. Если одинаковое время у всей страницы,
+   * граница остается на topics.
+   */
+  static int getPageSize(List<Timestamp> dates, int topics) {
+    if (dates.size() <= topics) {
+      return dates.size();
+    }
+
+    Timestamp last = dates.get(topics - 1);
+
+    if (!last.equals(dates.get(topics))) {
+      return topics;
+    }
+
+    int size = topics - 1;
+
+    while (size > 0 && last.equals(dates.get(size - 1))) {
+      size--;
+    }
+
+    return size > 0 ? size : topics;
+  }
+
+  /**
+   * Время события с точностью PostgreSQL (микросекунды) для курсора в URL
+   */
+  static long toMicros(Timestamp timestamp) {
+    return timestamp.getTime() / 1000 * 1000000 + timestamp.getNanos() / 1000;
+  }
+
+  static Timestamp toTimestamp(long micros) {
+    Timestamp timestamp = new Timestamp(micros / 1000000 * 1000);
+    timestamp.setNanos((int) (micros % 1000000) * 1000);
+
+    return timestamp;
+  }
+
   public enum EventType {
     REPLY, DEL, WATCH, OTHER
   }
 
   public static class MyTopicsListItem implements Serializable {
     private final int cid;
-    private final User cAuthor;
+    private final int cAuthorId;
+    private User cAuthor;
     private final Timestamp cDate;
-    private final String messageText;
+    private final String rawMessage;
+    private final boolean bbcode;
+    private String messageText;
     private final String groupTitle;
     private final String groupUrlName;
     private final String sectionTitle;
@@ -190,7 +290,10 @@ public class ShowRepliesController {
     private final String eventMessage;
     private final Timestamp eventDate;
 
-    public MyTopicsListItem(Connection db, ResultSet rs, boolean readMessage) throws SQLException {
+    /**
+     * Автор и текст комментария заполняются в {@link #prepare(Connection, List)}
+     */
+    public MyTopicsListItem(ResultSet rs, boolean readMessage) throws SQLException {
       subj = StringUtil.makeTitle(rs.getString("subj"));
 
       Timestamp lastmod = rs.getTimestamp("lastmod");
@@ -204,16 +307,11 @@ public class ShowRepliesController {
 
       cid = rs.getInt("cid");
       if (!rs.wasNull()) {
-        try {
-          cAuthor = User.getUserCached(db, rs.getInt("cAuthor"));
-        } catch (UserNotFoundException e) {
-          throw new RuntimeException(e);
-        }
-
+        cAuthorId = rs.getInt("cAuthor");
         cDate = rs.getTimestamp("cDate");
       } else {
         cDate = null;
-        cAuthor = null;
+        cAuthorId = 0;
       }
 
       groupTitle = rs.getString("gtitle");
@@ -225,14 +323,54 @@ public class ShowRepliesController {
       eventMessage = rs.getString("ev_msg");
 
       if (readMessage) {
-        String text = rs.getString("cMessage");
-        if (rs.getBoolean("bbcode")) {
-          messageText = new BBCodeProcessor().preparePostText(db, text);
-        } else {
-          messageText = text;
-        }
+        rawMessage = rs.getString("cMessage");
+        bbcode = rs.getBoolean("bbcode");
       } else {
-        messageText = null;
+        rawMessage = null;
+        bbcode = false;
+      }
+    }
+
+    /**
+     * Загрузить авторов комментариев одним запросом и обработать тексты
+     * (пользователи из [user] всех текстов тоже загружаются одним запросом)
+     */
+    public static void prepare(Connection db, List<MyTopicsListItem> items) throws SQLException {
+      Set<Integer> userids = new HashSet<Integer>();
+      List<MyTopicsListItem> bbcodeItems = new ArrayList<MyTopicsListItem>();
+      List<String> bbcodeTexts = new ArrayList<String>();
+
+      for (MyTopicsListItem item : items) {
+        if (item.cAuthorId!=0) {
+          userids.add(item.cAuthorId);
+        }
+
+        if (item.rawMessage!=null) {
+          if (item.bbcode) {
+            bbcodeItems.add(item);
+            bbcodeTexts.add(item.rawMessage);
+          } else {
+            item.messageText = item.rawMessage;
+          }
+        }
+      }
+
+      Map<Integer, User> users = User.getUsersCached(db, userids);
+
+      for (MyTopicsListItem item : items) {
+        if (item.cAuthorId!=0) {
+          item.cAuthor = users.get(item.cAuthorId);
+
+          if (item.cAuthor==null) {
+            throw new RuntimeException(new UserNotFoundException(item.cAuthorId));
+          }
+        }
+      }
+
+      List<String> texts = new BBCodeProcessor().preparePostTexts(db, bbcodeTexts);
+
+      for (int i=0; i<bbcodeItems.size(); i++) {
+        bbcodeItems.get(i).messageText = texts.get(i);
       }
     }
 
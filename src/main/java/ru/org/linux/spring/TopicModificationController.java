@@ -22,6 +22,8 @@ import java.sql.Statement;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.context.support.ApplicationObjectSupport;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -34,6 +36,21 @@ import ru.org.linux.site.*;
 
 @Controller
 public class TopicModificationController extends ApplicationObjectSupport {
+  private TrackerIndex trackerIndex;
+  private GroupStore groupStore;
+
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
+  @Autowired
+  @Required
+  public void setGroupStore(GroupStore groupStore) {
+    this.groupStore = groupStore;
+  }
+
   @RequestMapping(value="/setpostscore.jsp", method= RequestMethod.GET)
   public ModelAndView showForm(
     ServletRequest request,
@@ -126,6 +143,9 @@ public class TopicModificationController extends ApplicationObjectSupport {
       pst.close();
       db.commit();
 
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
+
       ModelAndView mv = new ModelAndView("action-done");
       mv.getModel().put("message", "Данные изменены");
       mv.getModel().put("bigMessage", out.toString());
@@ -161,7 +181,7 @@ public class TopicModificationController extends ApplicationObjectSupport {
 
       mv.getModel().put("message", message);
 
-      mv.getModel().put("groups", Group.getGroups(db, message.getSection()));
+      mv.getModel().put("groups", groupStore.getGroups(message.getSection()));
 
       return mv;
     } finally {
@@ -197,7 +217,7 @@ public class TopicModificationController extends ApplicationObjectSupport {
 
       Statement st1 = db.createStatement();
 
-      Group newGrp = new Group(db, newgr);
+      Group newGrp = groupStore.getGroup(newgr);
       String url = msg.getUrl();
 
       PreparedStatement movePst = db.prepareStatement("UPDATE topics SET groupid=?,lastmod=CURRENT_TIMESTAMP WHERE id=?");
@@ -238,6 +258,10 @@ public class TopicModificationController extends ApplicationObjectSupport {
               " by " + tmpl.getNick() + " from news/forum " + msg.getGroupTitle() + " to forum " + newGrp.getTitle());
       db.commit();
 
+      ProcessedMessageCache.invalidate(msgid);
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
+
       return new ModelAndView(new RedirectView(msg.getLinkLastmod()));
     } finally {
       if (db!=null) {
@@ -268,7 +292,7 @@ public class TopicModificationController extends ApplicationObjectSupport {
 
       mv.getModel().put("message", message);
 
-      mv.getModel().put("groups", Group.getGroups(db, new Section(db, 2)));
+      mv.getModel().put("groups", groupStore.getGroups(new Section(db, Section.SECTION_FORUM)));
 
       return mv;
     } finally {
@@ -299,7 +323,7 @@ public class TopicModificationController extends ApplicationObjectSupport {
 
       ModelAndView mv = new ModelAndView("uncommit");
       mv.getModel().put("message", message);
-      mv.getModel().put("preparedMessage", new PreparedMessage(db, message, true));
+      mv.getModel().put("preparedMessage", new PreparedMessage(db, groupStore, message, true));
 
       return mv;
     } finally {
@@ -341,6 +365,9 @@ public class TopicModificationController extends ApplicationObjectSupport {
 
       db.commit();
 
+      trackerIndex.topicChanged(db, msgid);
+      NewsViewer.invalidatePreparedCache();
+
       return new ModelAndView("action-done", "message", "Подтверждение отменено");
     } finally {
       if (db != null) {
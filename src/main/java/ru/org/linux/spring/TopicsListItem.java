@@ -20,6 +20,10 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ru.org.linux.site.Message;
 import ru.org.linux.site.User;
@@ -36,13 +40,17 @@ public class TopicsListItem implements Serializable {
   private final int stat4;
   private final boolean sticky;
   private final int pages;
-  private final User author;
+  private final int authorId;
+  private User author;
   private final boolean resolved;
   
   private static final long serialVersionUID = 5344250574674257995L;
 
   // SELECT topics.title as subj, sections.name, lastmod, topics.id as msgid, topics.deleted, topics.stat1, topics.stat3, topics.stat4, topics.sticky, userid
-  public TopicsListItem(Connection db, ResultSet rs, int messagesInPage) throws SQLException {
+  /**
+   * Автор заполняется отдельно, через {@link #resolveAuthors(Connection, List)}
+   */
+  public TopicsListItem(ResultSet rs, int messagesInPage) throws SQLException {
     subj = StringUtil.makeTitle(rs.getString("subj"));
 
     Timestamp lastmod = rs.getTimestamp("lastmod");
@@ -52,11 +60,7 @@ public class TopicsListItem implements Serializable {
       this.lastmod = lastmod;
     }
 
-    try {
-      author = User.getUserCached(db, rs.getInt("userid"));
-    } catch (UserNotFoundException e) {
-      throw new RuntimeException(e);
-    }
+    authorId = rs.getInt("userid");
 
     msgid = rs.getInt("msgid");
     deleted = rs.getBoolean("deleted");
@@ -69,6 +73,27 @@ public class TopicsListItem implements Serializable {
     pages = Message.getPageCount(stat1, messagesInPage);
   }
 
+  /**
+   * Загрузить авторов списка тем одним запросом
+   */
+  public static void resolveAuthors(Connection db, List<TopicsListItem> items) throws SQLException {
+    Set<Integer> ids = new HashSet<Integer>();
+
+    for (TopicsListItem item : items) {
+      ids.add(item.authorId);
+    }
+
+    Map<Integer, User> users = User.getUsersCached(db, ids);
+
+    for (TopicsListItem item : items) {
+      item.author = users.get(item.authorId);
+
+      if (item.author==null) {
+        throw new RuntimeException(new UserNotFoundException(item.authorId));
+      }
+    }
+  }
+
   public String getSubj() {
     return subj;
   }
@@ -77,6 +102,10 @@ public class TopicsListItem implements Serializable {
     return lastmod;
   }
 
+  public int getAuthorId() {
+    return authorId;
+  }
+
   public User getAuthor() {
     return author;
   }
@@ -22,6 +22,9 @@ import javax.servlet.http.HttpServletRequest;
 
 import ru.org.linux.site.*;
 
+import com.google.common.base.Predicate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -32,6 +35,18 @@ public class TrackerController {
   private static final String[] filterValues = { "all", "notalks", "tech", "mine" };
   private static final Set<String> filterValuesSet = new HashSet<String>(Arrays.asList(filterValues));
 
+  private static final int GROUP_TALKS = 8404;
+  private static final int GROUP_GENERAL = 4068;
+  private static final int SECTION_FORUM = 2;
+
+  private TrackerIndex trackerIndex;
+
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
   @RequestMapping("/tracker.jsp")
   public ModelAndView tracker(
     @RequestParam(value="filter", required = false) String filter,
@@ -61,8 +76,6 @@ public class TrackerController {
 
     params.put("filter", filter);
 
-    String dateLimit = mine?"6 month":"24 hours";
-
     Template tmpl = Template.getTemplate(request);
     int messages = tmpl.getProf().getMessages();
     int topics = tmpl.getProf().getTopics();
@@ -88,35 +101,29 @@ public class TrackerController {
         }
       }
 
-      String sSql = "SELECT " +
-        "t.userid as author, t.id, lastmod, t.stat1 AS stat1, t.stat3 AS stat3, t.stat4 AS stat4, g.id AS gid, g.title AS gtitle, t.title AS title, comments.id as cid, comments.userid AS last_comment_by, t.resolved as resolved,section,urlname,comments.postdate, sections.moderate as smod, t.moderate " +
-        "FROM topics AS t, groups AS g, comments, sections " +
-        "WHERE g.section=sections.id AND not t.deleted AND t.id=comments.topic AND t.groupid=g.id " +
-        "AND comments.id=(SELECT id FROM comments WHERE NOT deleted AND comments.topic=t.id ORDER BY postdate DESC LIMIT 1) " +
-        "AND t.lastmod > CURRENT_TIMESTAMP - interval '" + dateLimit + "' " +
-        (user!=null?"AND t.userid NOT IN (select ignored from ignore_list where userid="+user.getId()+") ":"")
-        + (noTalks ? " AND not t.groupid=8404" : "")
-        + (tech ? " AND not t.groupid=8404 AND not t.groupid=4068 AND section=2" : "")
-        + (mine ? " AND t.userid=" + user.getId() : "") +
-        "UNION ALL SELECT t.userid as author, t.id, lastmod,  t.stat1 AS stat1, t.stat3 AS stat3, t.stat4 AS stat4, g.id AS gid, g.title AS gtitle, t.title AS title, 0, 0, t.resolved as resolved,section,urlname,postdate, sections.moderate as smod, t.moderate " +
-        "FROM topics AS t, groups AS g, sections " +
-        "WHERE sections.id=g.section AND not t.deleted AND t.postdate > CURRENT_TIMESTAMP - interval '" + dateLimit + "' " +
-        "AND t.stat1=0 AND g.id=t.groupid " +
-        (user!=null?"AND t.userid NOT IN (select ignored from ignore_list where userid="+user.getId()+") ":"")
-        + (noTalks ? " AND not t.groupid=8404" : "")
-        + (tech ? " AND not t.groupid=8404 AND not t.groupid=4068 AND section=2" : "")
-        + (mine ? " AND t.userid=" + user.getId() : "") +
-        "ORDER BY lastmod DESC LIMIT "+ topics +" OFFSET "+offset;
-
-      Statement st = db.createStatement();
-      ResultSet rs = st.executeQuery(sSql);
+      Predicate<TrackerIndex.Entry> topicFilter = getFilter(
+        user!=null ? IgnoreList.getIgnoreList(db, user.getId()).keySet() : Collections.<Integer>emptySet(),
+        noTalks,
+        tech,
+        mine ? user.getId() : 0
+      );
+
+      Calendar since = Calendar.getInstance();
+
+      if (mine) {
+        since.add(Calendar.MONTH, -6);
+      } else {
+        since.add(Calendar.HOUR_OF_DAY, -24);
+      }
 
       List<Item> msgs = new ArrayList<Item>();
 
-      while (rs.next()) {
-        msgs.add(new Item(db, rs, messages));
+      for (TrackerIndex.Entry entry : trackerIndex.getTopics(new Timestamp(since.getTimeInMillis()), offset, topics, topicFilter)) {
+        msgs.add(new Item(entry, messages));
       }
 
+      Item.resolveUsers(db, msgs);
+
       params.put("msgs", msgs);
 
       if (tmpl.isModeratorSession() && !mine) {
@@ -131,6 +138,27 @@ public class TrackerController {
     }
   }
 
+  private static Predicate<TrackerIndex.Entry> getFilter(final Set<Integer> ignored, final boolean noTalks, final boolean tech, final int author) {
+    return new Predicate<TrackerIndex.Entry>() {
+      @Override
+      public boolean apply(TrackerIndex.Entry entry) {
+        if (ignored.contains(entry.getAuthorId())) {
+          return false;
+        }
+
+        if ((noTalks || tech) && entry.getGroupId()==GROUP_TALKS) {
+          return false;
+        }
+
+        if (tech && (entry.getGroupId()==GROUP_GENERAL || entry.getSection()!=SECTION_FORUM)) {
+          return false;
+        }
+
+        return author==0 || entry.getAuthorId()==author;
+      }
+    };
+  }
+
   public List<User> getNewUsers(Connection db) throws SQLException, UserNotFoundException {
     Statement st = db.createStatement();
 
@@ -149,58 +177,40 @@ public class TrackerController {
   }
 
   public static class Item {
-    private final User author;
-    private final int msgid;
-    private final Timestamp lastmod;
-    private final int stat1;
-    private final int stat3;
-    private final int stat4;
-    private final int groupId;
-    private final String groupTitle;
-    private final String title;
+    private final TrackerIndex.Entry entry;
+    private User author;
+    private User lastCommentBy;
     private final int pages;
-    private final int cid;
-    private final User lastCommentBy;
-    private final boolean resolved;
-    private final int section;
-    private final String groupUrlName;
-    private final Timestamp postdate;
-    private final boolean uncommited;
-
-    public Item(Connection db, ResultSet rs, int messagesInPage) throws SQLException {
-      try {
-        author = User.getUserCached(db, rs.getInt("author"));
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
-      }
 
-      msgid = rs.getInt("id");
-      lastmod = rs.getTimestamp("lastmod");
-      stat1 = rs.getInt("stat1");
-      stat3 = rs.getInt("stat3");
-      stat4 = rs.getInt("stat4");
-      groupId = rs.getInt("gid");
-      groupTitle = rs.getString("gtitle");
-      title = rs.getString("title");
-      cid = rs.getInt("cid");
-      try {
-        int id = rs.getInt("last_comment_by");
-
-        if (id!=0) {
-          lastCommentBy = User.getUserCached(db, id);
-        } else {
-          lastCommentBy = null;
+    public Item(TrackerIndex.Entry entry, int messagesInPage) {
+      this.entry = entry;
+
+      pages = Message.getPageCount(entry.getStat1(), messagesInPage);
+    }
+
+    /**
+     * Загрузить авторов тем и последних комментариев одним запросом
+     */
+    private static void resolveUsers(Connection db, List<Item> items) throws SQLException, UserNotFoundException {
+      Set<Integer> ids = new HashSet<Integer>();
+
+      for (Item item : items) {
+        ids.add(item.entry.getAuthorId());
+
+        if (item.entry.getLastCommentById()!=0) {
+          ids.add(item.entry.getLastCommentById());
         }
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
       }
-      resolved = rs.getBoolean("resolved");
-      section = rs.getInt("section");
-      groupUrlName = rs.getString("urlname");
-      postdate = rs.getTimestamp("postdate");
-      uncommited = rs.getBoolean("smod") && ! rs.getBoolean("moderate");
 
-      pages = Message.getPageCount(stat1, messagesInPage);
+      Map<Integer, User> users = User.getUsersCached(db, ids);
+
+      for (Item item : items) {
+        item.author = User.getUser(users, item.entry.getAuthorId());
+
+        if (item.entry.getLastCommentById()!=0) {
+          item.lastCommentBy = User.getUser(users, item.entry.getLastCommentById());
+        }
+      }
     }
 
     public User getAuthor() {
@@ -208,35 +218,35 @@ public class TrackerController {
     }
 
     public int getMsgid() {
-      return msgid;
+      return entry.getMsgid();
     }
 
     public int getStat1() {
-      return stat1;
+      return entry.getStat1();
     }
 
     public int getStat3() {
-      return stat3;
+      return entry.getStat3();
     }
 
     public int getStat4() {
-      return stat4;
+      return entry.getStat4();
     }
 
     public int getGroupId() {
-      return groupId;
+      return entry.getGroupId();
     }
 
     public String getGroupTitle() {
-      return groupTitle;
+      return entry.getGroupTitle();
     }
 
     public String getTitle() {
-      return title;
+      return entry.getTitle();
     }
 
     public Timestamp getLastmod() {
-      return lastmod;
+      return entry.getLastmod();
     }
 
     public int getPages() {
@@ -244,7 +254,7 @@ public class TrackerController {
     }
 
     public int getCommentId() {
-      return cid;
+      return entry.getCommentId();
     }
 
     public User getLastCommentBy() {
@@ -252,31 +262,31 @@ public class TrackerController {
     }
 
     public boolean isResolved(){
-      return resolved;
+      return entry.isResolved();
     }
 
     public String getUrl() {
       if (pages>1) {
-        return getGroupUrl()+msgid+"/page"+Integer.toString(pages-1)+"?lastmod="+lastmod.getTime();
+        return getGroupUrl()+getMsgid()+"/page"+Integer.toString(pages-1)+"?lastmod="+getLastmod().getTime();
       } else {
-        return getGroupUrl()+msgid+"?lastmod="+lastmod.getTime();
+        return getGroupUrl()+getMsgid()+"?lastmod="+getLastmod().getTime();
       }
     }
 
     public String getUrlReverse() {
-      return getGroupUrl()+ '/' +msgid+"?lastmod="+lastmod.getTime();
+      return getGroupUrl()+ '/' +getMsgid()+"?lastmod="+getLastmod().getTime();
     }
 
     public Timestamp getPostdate() {
-      return postdate;
+      return entry.getPostdate();
     }
 
     public boolean isUncommited() {
-      return uncommited;
+      return entry.isUncommited();
     }
 
     public String getGroupUrl() {
-      return Section.getSectionLink(section)+groupUrlName+ '/';
+      return Section.getSectionLink(entry.getSection())+entry.getGroupUrlName()+ '/';
     }
   }
 }
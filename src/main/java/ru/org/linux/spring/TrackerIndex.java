@@ -0,0 +1,545 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.Serializable;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import ru.org.linux.site.LorDataSource;
+
+import com.google.common.base.Predicate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Темы трекера в памяти, упорядоченные по lastmod: все темы, измененные за последние
+ * полгода (столько охватывает фильтр "mine"). Фильтры трекера применяются при выборке.
+ *
+ * Индекс загружается из БД при старте (или при первом обращении) и полностью
+ * перечитывается раз в RELOAD_INTERVAL: так исправляются изменения, о которых индекс
+ * не узнал (пересчет статистики, массовые правки в БД), и выбрасываются старые темы.
+ *
+ * Об изменении темы или ее комментариев контроллеры сообщают после commit через
+ * {@link #topicChanged(Connection, int)}: строка темы перечитывается из БД по id,
+ * остальным узлам уходит сообщение через topic ActiveMQ.
+ */
+public class TrackerIndex {
+  private static final Log logger = LogFactory.getLog(TrackerIndex.class);
+
+  private static final int RELOAD_INTERVAL = 30*60*1000;
+
+  private static final String MAX_AGE = "6 month";
+
+  private static final String TOPICS_QUERY =
+    "SELECT " +
+      "t.userid as author, t.id, lastmod, t.stat1 AS stat1, t.stat3 AS stat3, t.stat4 AS stat4, g.id AS gid, g.title AS gtitle, t.title AS title, comments.id as cid, comments.userid AS last_comment_by, t.resolved as resolved,section,urlname,comments.postdate, sections.moderate as smod, t.moderate " +
+      "FROM topics AS t, groups AS g, comments, sections " +
+      "WHERE g.section=sections.id AND not t.deleted AND t.id=comments.topic AND t.groupid=g.id " +
+      "AND comments.id=(SELECT id FROM comments WHERE NOT deleted AND comments.topic=t.id ORDER BY postdate DESC LIMIT 1) " +
+      "AND %1$s " +
+    "UNION ALL SELECT t.userid as author, t.id, lastmod,  t.stat1 AS stat1, t.stat3 AS stat3, t.stat4 AS stat4, g.id AS gid, g.title AS gtitle, t.title AS title, 0, 0, t.resolved as resolved,section,urlname,postdate, sections.moderate as smod, t.moderate " +
+      "FROM topics AS t, groups AS g, sections " +
+      "WHERE sections.id=g.section AND not t.deleted " +
+      "AND t.stat1=0 AND g.id=t.groupid " +
+      "AND %2$s";
+
+  private final String nodeId = UUID.randomUUID().toString();
+
+  private JmsTemplate jmsTemplate;
+  private Topic topic;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private final Object reloadLock = new Object();
+  private final Object lock = new Object();
+
+  // null - индекс еще не загружен
+  private volatile Topics topics = null;
+
+  // темы, изменившиеся во время полной перезагрузки; guarded by lock
+  private Set<Integer> changedDuringReload = null;
+
+  @Required
+  public void setJmsTemplate(JmsTemplate jmsTemplate) {
+    this.jmsTemplate = jmsTemplate;
+  }
+
+  @Required
+  public void setTopic(Topic topic) {
+    this.topic = topic;
+  }
+
+  public void init() {
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reload();
+        } catch (Exception ex) {
+          // загрузим при первом обращении
+          logger.warn("Can't load tracker index", ex);
+        }
+      }
+    });
+  }
+
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Темы трекера в порядке убывания lastmod
+   *
+   * @param since темы, обновленные (темы без комментариев - созданные) позже этого момента
+   * @param filter дополнительный фильтр, может быть null
+   */
+  public List<Entry> getTopics(Timestamp since, int offset, int limit, Predicate<Entry> filter) throws SQLException {
+    Topics current = topics;
+
+    if (current==null) {
+      synchronized (reloadLock) {
+        if (topics==null) {
+          reload();
+        }
+
+        current = topics;
+      }
+    }
+
+    return current.select(since.getTime(), offset, limit, filter);
+  }
+
+  /**
+   * Тема или ее комментарии изменились; вызывается после commit
+   */
+  public void topicChanged(Connection db, int msgid) {
+    try {
+      update(db, msgid);
+    } catch (SQLException ex) {
+      logger.warn("Can't update tracker index for #"+msgid, ex);
+    }
+
+    broadcast(msgid);
+  }
+
+  /**
+   * Изменилось много тем (массовое удаление комментариев): перечитать индекс в фоне
+   * на всех узлах
+   */
+  public void invalidateAll() {
+    scheduleReload();
+
+    broadcast(0);
+  }
+
+  @Scheduled(fixedDelay=RELOAD_INTERVAL)
+  public void reloadTopics() throws SQLException {
+    if (topics!=null) {
+      reload();
+    }
+  }
+
+  public void handleMessage(TopicChanged message) {
+    if (nodeId.equals(message.getNodeId())) {
+      return;
+    }
+
+    if (message.getMsgid()==0) {
+      scheduleReload();
+      return;
+    }
+
+    Connection db = null;
+
+    try {
+      db = LorDataSource.getConnection();
+
+      update(db, message.getMsgid());
+    } catch (SQLException ex) {
+      logger.warn("Can't update tracker index for #"+message.getMsgid(), ex);
+    } finally {
+      JdbcUtils.closeConnection(db);
+    }
+  }
+
+  private void scheduleReload() {
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reload();
+        } catch (Exception ex) {
+          logger.warn("Can't reload tracker index", ex);
+        }
+      }
+    });
+  }
+
+  private void reload() throws SQLException {
+    synchronized (reloadLock) {
+      synchronized (lock) {
+        changedDuringReload = new HashSet<Integer>();
+      }
+
+      Connection db = null;
+
+      try {
+        db = LorDataSource.getConnection();
+
+        long start = System.currentTimeMillis();
+
+        Topics loaded = new Topics();
+
+        for (Entry entry : load(db, "t.lastmod > CURRENT_TIMESTAMP - interval '" + MAX_AGE + '\'', "t.postdate > CURRENT_TIMESTAMP - interval '" + MAX_AGE + '\'')) {
+          loaded.put(entry);
+        }
+
+        synchronized (lock) {
+          // эти темы могли прочитаться до изменения
+          for (int msgid : changedDuringReload) {
+            loaded.replace(msgid, loadTopic(db, msgid));
+          }
+
+          topics = loaded;
+        }
+
+        logger.debug("Tracker index loaded: " + loaded.size() + " topics in " + (System.currentTimeMillis() - start) + " ms");
+      } finally {
+        synchronized (lock) {
+          changedDuringReload = null;
+        }
+
+        JdbcUtils.closeConnection(db);
+      }
+    }
+  }
+
+  private void update(Connection db, int msgid) throws SQLException {
+    // отмечаем до загрузки: идущая перезагрузка могла прочитать тему раньше изменения
+    synchronized (lock) {
+      if (changedDuringReload!=null) {
+        changedDuringReload.add(msgid);
+      }
+
+      if (topics==null) {
+        return;
+      }
+    }
+
+    Entry entry = loadTopic(db, msgid);
+
+    synchronized (lock) {
+      topics.replace(msgid, entry);
+    }
+  }
+
+  private static Entry loadTopic(Connection db, int msgid) throws SQLException {
+    Entry found = null;
+
+    for (Entry entry : load(db, "t.id=" + msgid, "t.id=" + msgid)) {
+      if (found==null || entry.isCommented()) {
+        found = entry;
+      }
+    }
+
+    return found;
+  }
+
+  private static List<Entry> load(Connection db, String commentedCondition, String uncommentedCondition) throws SQLException {
+    Statement st = db.createStatement();
+
+    try {
+      ResultSet rs = st.executeQuery(String.format(TOPICS_QUERY, commentedCondition, uncommentedCondition));
+
+      List<Entry> entries = new ArrayList<Entry>();
+
+      while (rs.next()) {
+        entries.add(new Entry(rs));
+      }
+
+      rs.close();
+
+      return entries;
+    } finally {
+      st.close();
+    }
+  }
+
+  private void broadcast(final int msgid) {
+    try {
+      jmsTemplate.send(topic, new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          return session.createObjectMessage(new TopicChanged(nodeId, msgid));
+        }
+      });
+    } catch (Exception ex) {
+      // остальные узлы увидят изменение после полной перезагрузки
+      logger.warn("Can't send tracker update for #"+msgid, ex);
+    }
+  }
+
+  /**
+   * Темы по id и в порядке убывания lastmod. Читается без блокировок;
+   * изменения выполняются под блокировкой индекса.
+   */
+  static class Topics {
+    private static final Comparator<Entry> LASTMOD_ORDER = new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        long x = a.getLastmod().getTime();
+        long y = b.getLastmod().getTime();
+
+        if (x!=y) {
+          return x>y ? -1 : 1;
+        }
+
+        return a.getMsgid()>b.getMsgid() ? -1 : (a.getMsgid()==b.getMsgid() ? 0 : 1);
+      }
+    };
+
+    private final Map<Integer, Entry> byId = new ConcurrentHashMap<Integer, Entry>();
+    private final NavigableSet<Entry> byLastmod = new ConcurrentSkipListSet<Entry>(LASTMOD_ORDER);
+
+    /**
+     * Добавить тему; если тема уже есть (строка и с комментарием, и без), побеждает
+     * строка с последним комментарием
+     */
+    void put(Entry entry) {
+      Entry old = byId.get(entry.getMsgid());
+
+      if (old!=null && old.isCommented() && !entry.isCommented()) {
+        return;
+      }
+
+      replace(entry.getMsgid(), entry);
+    }
+
+    /**
+     * @param entry новое состояние темы; null - тема удалена или не попадает в трекер
+     */
+    void replace(int msgid, Entry entry) {
+      // сначала удаляем: читатель может на мгновение не увидеть тему, но не увидит ее дважды
+      Entry old = entry!=null ? byId.put(msgid, entry) : byId.remove(msgid);
+
+      if (old!=null) {
+        byLastmod.remove(old);
+      }
+
+      if (entry!=null) {
+        byLastmod.add(entry);
+      }
+    }
+
+    int size() {
+      return byId.size();
+    }
+
+    List<Entry> select(long since, int offset, int limit, Predicate<Entry> filter) {
+      List<Entry> out = new ArrayList<Entry>(limit);
+      int skipped = 0;
+
+      for (Entry entry : byLastmod) {
+        // дата создания темы не позже lastmod, дальше подходящих тем нет
+        if (entry.getLastmod().getTime()<=since) {
+          break;
+        }
+
+        if (entry.getWindowDate()<=since) {
+          continue;
+        }
+
+        if (filter!=null && !filter.apply(entry)) {
+          continue;
+        }
+
+        if (skipped<offset) {
+          skipped++;
+          continue;
+        }
+
+        out.add(entry);
+
+        if (out.size()==limit) {
+          break;
+        }
+      }
+
+      return out;
+    }
+  }
+
+  /**
+   * Строка трекера: тема и ее последний комментарий
+   */
+  public static class Entry {
+    private final int authorId;
+    private final int msgid;
+    private final Timestamp lastmod;
+    private final int stat1;
+    private final int stat3;
+    private final int stat4;
+    private final int groupId;
+    private final String groupTitle;
+    private final String title;
+    private final int cid;
+    private final int lastCommentById;
+    private final boolean resolved;
+    private final int section;
+    private final String groupUrlName;
+    private final Timestamp postdate;
+    private final boolean uncommited;
+
+    Entry(ResultSet rs) throws SQLException {
+      authorId = rs.getInt("author");
+      msgid = rs.getInt("id");
+      lastmod = rs.getTimestamp("lastmod");
+      stat1 = rs.getInt("stat1");
+      stat3 = rs.getInt("stat3");
+      stat4 = rs.getInt("stat4");
+      groupId = rs.getInt("gid");
+      groupTitle = rs.getString("gtitle");
+      title = rs.getString("title");
+      cid = rs.getInt("cid");
+      lastCommentById = rs.getInt("last_comment_by");
+      resolved = rs.getBoolean("resolved");
+      section = rs.getInt("section");
+      groupUrlName = rs.getString("urlname");
+      postdate = rs.getTimestamp("postdate");
+      uncommited = rs.getBoolean("smod") && !rs.getBoolean("moderate");
+    }
+
+    public int getAuthorId() {
+      return authorId;
+    }
+
+    public int getMsgid() {
+      return msgid;
+    }
+
+    public Timestamp getLastmod() {
+      return lastmod;
+    }
+
+    public int getStat1() {
+      return stat1;
+    }
+
+    public int getStat3() {
+      return stat3;
+    }
+
+    public int getStat4() {
+      return stat4;
+    }
+
+    public int getGroupId() {
+      return groupId;
+    }
+
+    public String getGroupTitle() {
+      return groupTitle;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    /**
+     * @return id последнего комментария; 0 - у темы нет комментариев
+     */
+    public int getCommentId() {
+      return cid;
+    }
+
+    public int getLastCommentById() {
+      return lastCommentById;
+    }
+
+    public boolean isResolved() {
+      return resolved;
+    }
+
+    public int getSection() {
+      return section;
+    }
+
+    public String getGroupUrlName() {
+      return groupUrlName;
+    }
+
+    /**
+     * @return дата последнего комментария или, если комментариев нет, дата темы
+     */
+    public Timestamp getPostdate() {
+      return postdate;
+    }
+
+    public boolean isUncommited() {
+      return uncommited;
+    }
+
+    boolean isCommented() {
+      return cid!=0;
+    }
+
+    /**
+     * Дата, по которой тема попадает в трекер: lastmod для тем с комментариями,
+     * дата создания для тем без комментариев
+     */
+    long getWindowDate() {
+      return isCommented() ? lastmod.getTime() : postdate.getTime();
+    }
+  }
+
+  public static class TopicChanged implements Serializable {
+    private final String nodeId;
+    private final int msgid;
+
+    private static final long serialVersionUID = 2958174160472635188L;
+
+    public TopicChanged(String nodeId, int msgid) {
+      this.nodeId = nodeId;
+      this.msgid = msgid;
+    }
+
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    /**
+     * @return id темы; 0 - все темы
+     */
+    public int getMsgid() {
+      return msgid;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import ru.org.linux.site.UserCache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+
+/**
+ * Рассылка изменений пользователей между узлами через topic ActiveMQ.
+ *
+ * Изменения рассылаются после commit транзакции, поэтому получатель просто
+ * сбрасывает запись: перечитанная строка уже содержит новые данные.
+ */
+public class UserCacheSync implements UserCache.Listener {
+  private static final Log logger = LogFactory.getLog(UserCacheSync.class);
+
+  private final String nodeId = UUID.randomUUID().toString();
+
+  private JmsTemplate jmsTemplate;
+  private Topic topic;
+
+  @Required
+  public void setJmsTemplate(JmsTemplate jmsTemplate) {
+    this.jmsTemplate = jmsTemplate;
+  }
+
+  @Required
+  public void setTopic(Topic topic) {
+    this.topic = topic;
+  }
+
+  public void init() {
+    UserCache.setListener(this);
+  }
+
+  public void destroy() {
+    UserCache.setListener(null);
+  }
+
+  @Override
+  public void userChanged(int id) {
+    final UserChanged message = new UserChanged(nodeId, id);
+
+    try {
+      jmsTemplate.send(topic, new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          return session.createObjectMessage(message);
+        }
+      });
+    } catch (Exception ex) {
+      // кеш остальных узлов устареет не больше чем на время жизни записи
+      logger.warn("Can't send user cache invalidation for #"+id, ex);
+    }
+  }
+
+  public void handleMessage(UserChanged message) {
+    if (nodeId.equals(message.getNodeId())) {
+      return;
+    }
+
+    UserCache.invalidateLocal(message.getUserid());
+  }
+
+  public static class UserChanged implements Serializable {
+    private final String nodeId;
+    private final int userid;
+
+    private static final long serialVersionUID = -3408562410538223710L;
+
+    public UserChanged(String nodeId, int userid) {
+      this.nodeId = nodeId;
+      this.userid = userid;
+    }
+
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    /**
+     * @return id пользователя; 0 - все пользователи
+     */
+    public int getUserid() {
+      return userid;
+    }
+  }
+}
@@ -43,6 +43,7 @@ import org.springframework.web.servlet.view.RedirectView;
 @Controller
 public class UserModificationController extends ApplicationObjectSupport {
   private SearchQueueSender searchQueueSender;
+  private TrackerIndex trackerIndex;
 
   @Autowired
   @Required
@@ -50,6 +51,12 @@ public class UserModificationController extends ApplicationObjectSupport {
     this.searchQueueSender = searchQueueSender;
   }
 
+  @Autowired
+  @Required
+  public void setTrackerIndex(TrackerIndex trackerIndex) {
+    this.trackerIndex = trackerIndex;
+  }
+
   @RequestMapping(value="/usermod.jsp", method= RequestMethod.POST)
   public ModelAndView modifyUser(
     HttpServletRequest request,
@@ -91,8 +98,12 @@ public class UserModificationController extends ApplicationObjectSupport {
           List<Integer> deleted = user.deleteAllComments(db, moderator);
           params.put("bigMessage", deleted);
           db.commit();
-          
+
+          UserCache.invalidate(user.getId());
+          ProcessedMessageCache.usersChanged();
+
           searchQueueSender.updateComment(deleted);
+          trackerIndex.invalidateAll();
           return new ModelAndView("action-done", params);
         }
       } else if ("toggle_corrector".equals(action)) {
@@ -127,6 +138,12 @@ public class UserModificationController extends ApplicationObjectSupport {
 
       db.commit();
 
+      UserCache.invalidate(user.getId());
+
+      if ("block".equals(action) || "unblock".equals(action)) {
+        ProcessedMessageCache.usersChanged();
+      }
+
       Random random = new Random();
 
       return new ModelAndView(new RedirectView("/people/" + URLEncoder.encode(user.getNick()) + "/profile?nocache=" + random.nextInt()));
@@ -182,6 +199,8 @@ public class UserModificationController extends ApplicationObjectSupport {
 
       db.commit();
 
+      UserCache.invalidate(user.getId());
+
       Random random = new Random();
 
       return new ModelAndView(new RedirectView("/people/" + URLEncoder.encode(user.getNick()) + "/profile?nocache=" + random.nextInt()));
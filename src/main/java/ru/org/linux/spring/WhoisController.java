@@ -39,7 +39,7 @@ public class WhoisController {
       db = LorDataSource.getConnection();
       Template tmpl = Template.getTemplate(request);
 
-      User user = User.getUser(db, nick);
+      User user = User.getUserCached(db, nick);
 
       if (user.isBlocked() && !tmpl.isSessionAuthorized()) {
         throw new UserNotFoundException(nick);
@@ -22,6 +22,7 @@ import org.springframework.web.servlet.mvc.AbstractController;
 
 import ru.org.linux.spring.CacheableController;
 import ru.org.linux.spring.commons.CacheProvider;
+import ru.org.linux.spring.commons.CoalescingCache;
 
 public abstract class SpringBoxlet extends AbstractController implements CacheableController{
 
@@ -47,15 +48,18 @@ public abstract class SpringBoxlet extends AbstractController implements Cacheab
     return getFromCache(cacheProvider, getCacheKey(), callback);
   }
 
-  protected <T> T getFromCache(CacheProvider cacheProvider, String key, GetCommand<T> callback) throws Exception {
-    @SuppressWarnings("unchecked")
-    T result = (T) cacheProvider.getFromCache(key);
-    if (result == null){
-       result = callback.get();
-       cacheProvider.storeToCache(key, result, getExpiryTime());
-    }
-    
-    return result;
+  /**
+   * Значение из кеша; при промахе его загружает один поток, а после истечения срока
+   * остальные получают старое значение, пока оно перезагружается
+   * (см. {@link CoalescingCache})
+   */
+  protected <T> T getFromCache(CacheProvider cacheProvider, String key, final GetCommand<T> callback) throws Exception {
+    return CoalescingCache.get(cacheProvider, key, getExpiryTime(), new CoalescingCache.Loader<T>() {
+      @Override
+      public T load() throws Exception {
+        return callback.get();
+      }
+    });
   }
 
   public interface GetCommand<T>{
@@ -0,0 +1,215 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Загрузка значений в кеш без "стада": при промахе значение для ключа загружает
+ * один поток, остальные запросы на этом узле ждут его результата.
+ *
+ * Значение хранится в кеше вместе со сроком свежести и живет еще STALE_PERIOD после
+ * него. Когда срок свежести прошел, один поток перезагружает значение, а остальные
+ * тем временем получают предыдущее (stale-while-revalidate). Если перезагрузка
+ * не удалась, возвращается предыдущее значение.
+ */
+public final class CoalescingCache {
+  private static final Log logger = LogFactory.getLog(CoalescingCache.class);
+
+  private static final int STALE_PERIOD = 5*60*1000;
+
+  private static final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+  private static final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+  public interface Loader<T> {
+    T load() throws Exception;
+  }
+
+  private CoalescingCache() {
+  }
+
+  /**
+   * @param expire срок свежести значения, мс (больше 0)
+   */
+  public static <T> T get(final CacheProvider cache, final String key, final int expire, final Loader<T> loader) throws Exception {
+    Object cachedObject = cache.getFromCache(key);
+
+    // значение, записанное в кеш в обход этого класса, считаем промахом
+    final CachedValue cached = cachedObject instanceof CachedValue ? (CachedValue) cachedObject : null;
+
+    if (cached!=null && cached.isFresh()) {
+      return CoalescingCache.<T>getValue(cached);
+    }
+
+    Stats keyStats = getStats(key);
+
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return loader.load();
+      }
+    });
+
+    FutureTask<Object> running = inFlight.putIfAbsent(key, task);
+
+    if (running==null) {
+      keyStats.loads.incrementAndGet();
+
+      try {
+        task.run();
+
+        @SuppressWarnings("unchecked")
+        T value = (T) getResult(task);
+
+        // значение попадает в кеш до снятия загрузки, иначе запрос между ними
+        // не найдет ни загрузки, ни значения и загрузит его еще раз
+        cache.storeToCache(key, new CachedValue(value, System.currentTimeMillis() + expire), expire + STALE_PERIOD);
+
+        return value;
+      } catch (Exception ex) {
+        if (cached==null) {
+          throw ex;
+        }
+
+        logger.warn("Can't refresh " + key + ", using stale value", ex);
+
+        return CoalescingCache.<T>getValue(cached);
+      } finally {
+        inFlight.remove(key, task);
+      }
+    }
+
+    // значение уже загружает другой поток
+    if (cached!=null) {
+      keyStats.staleHits.incrementAndGet();
+
+      return CoalescingCache.<T>getValue(cached);
+    }
+
+    keyStats.waits.incrementAndGet();
+
+    @SuppressWarnings("unchecked")
+    T value = (T) getResult(running);
+
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T getValue(CachedValue cached) {
+    return (T) cached.value;
+  }
+
+  private static Object getResult(FutureTask<Object> task) throws Exception {
+    try {
+      return task.get();
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw ex;
+      }
+    }
+  }
+
+  private static Stats getStats(String key) {
+    String prefix = NearCacheProvider.getPrefix(key);
+
+    Stats prefixStats = stats.get(prefix);
+
+    if (prefixStats==null) {
+      Stats created = new Stats();
+      prefixStats = stats.putIfAbsent(prefix, created);
+
+      if (prefixStats==null) {
+        prefixStats = created;
+      }
+    }
+
+    return prefixStats;
+  }
+
+  /**
+   * @return префикс ключа -> статистика загрузок, по алфавиту
+   */
+  public static Map<String, Stats> getStats() {
+    return Collections.unmodifiableMap(new TreeMap<String, Stats>(stats));
+  }
+
+  public static class Stats {
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    public long getLoads() {
+      return loads.get();
+    }
+
+    /**
+     * @return запросы, дождавшиеся загрузки в другом потоке
+     */
+    public long getWaits() {
+      return waits.get();
+    }
+
+    /**
+     * @return запросы, получившие предыдущее значение во время перезагрузки
+     */
+    public long getStaleHits() {
+      return staleHits.get();
+    }
+
+    /**
+     * @return сколько повторных загрузок не понадобилось
+     */
+    public long getSuppressed() {
+      return waits.get() + staleHits.get();
+    }
+
+    @Override
+    public String toString() {
+      return "loads=" + getLoads() + ", suppressed=" + getSuppressed() + " (waits=" + getWaits() + ", stale=" + getStaleHits() + ')';
+    }
+  }
+
+  private static class CachedValue implements Serializable {
+    private static final long serialVersionUID = -3817609543871260954L;
+
+    private final Object value;
+    private final long freshUntil;
+
+    private CachedValue(Object value, long freshUntil) {
+      this.value = value;
+      this.freshUntil = freshUntil;
+    }
+
+    private boolean isFresh() {
+      return System.currentTimeMillis() < freshUntil;
+    }
+  }
+}
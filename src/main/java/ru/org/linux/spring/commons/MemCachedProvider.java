@@ -28,10 +28,6 @@ public class MemCachedProvider implements CacheProvider {
   public Object getFromCache(String key) {
     String s = MemCachedSettings.getId(key);
     try {
-      if (MemCachedSettings.getMemCachedClient().getAvailableServers().isEmpty()) {
-        return null;
-      }
-
       return MemCachedSettings.getMemCachedClient().get(s);
     } catch (IllegalStateException ex) {
       logger.info("Memcached GET failed", ex);
@@ -46,10 +42,6 @@ public class MemCachedProvider implements CacheProvider {
   public <T> void storeToCache(String key, T value, int expire) {
     String s = MemCachedSettings.getId(key);
     try {
-      if (MemCachedSettings.getMemCachedClient().getAvailableServers().isEmpty()) {
-        return;
-      }
-
       MemCachedSettings.getMemCachedClient().set(s, expire/1000, value);
     } catch (IllegalArgumentException ex) {
       logger.info("Memcached SET failed", ex);
@@ -65,6 +57,18 @@ public class MemCachedProvider implements CacheProvider {
     storeToCache(key, value, 0);
   }
 
+  @Override
+  public void removeFromCache(String key) {
+    String s = MemCachedSettings.getId(key);
+    try {
+      MemCachedSettings.getMemCachedClient().delete(s);
+    } catch (IllegalStateException ex) {
+      logger.info("Memcached DELETE failed", ex);
+    } catch (OperationTimeoutException ex) {
+      logger.info("Memcached DELETE failed", ex);
+    }
+  }
+
   public void destroy() {
     logger.debug("Shutting down memcached");
     MemCachedSettings.getMemCachedClient().shutdown();
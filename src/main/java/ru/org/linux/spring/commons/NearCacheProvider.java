@@ -0,0 +1,249 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ru.org.linux.cache.CacheObject;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Двухуровневый кеш: локальный кеш ehcache "NearCache" (LRU, запись живет не дольше
+ * LOCAL_TTL секунд) перед memcached. Частые ключи отдаются из памяти процесса
+ * без обращения к сети и десериализации, поэтому значения из кеша нельзя изменять.
+ *
+ * Локальная запись хранится как {@link CacheObject} с версией ключа. Запись и удаление
+ * через этот провайдер увеличивают версию: локальные записи старой версии игнорируются,
+ * а значение, прочитанное из memcached до изменения, не попадет в локальный кеш.
+ * Изменения, сделанные на других узлах, видны не позже чем через LOCAL_TTL.
+ *
+ * Для каждого префикса ключа (до '?' и без номера в конце) считаются попадания
+ * в локальный кеш и в memcached, промахи и время обращений к memcached.
+ */
+public class NearCacheProvider implements CacheProvider {
+  private static final Log logger = LogFactory.getLog(NearCacheProvider.class);
+
+  private static final int LOCAL_TTL = 60;
+  private static final int STRIPES = 1024;
+  private static final int MAX_PREFIXES = 100;
+  private static final int REPORT_INTERVAL = 60*60*1000;
+
+  private static final String OTHER_PREFIX = "other";
+
+  private final CacheProvider remote;
+  private final Ehcache local;
+
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+  private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+  public NearCacheProvider(CacheProvider remote) {
+    this(remote, CacheManager.create().getCache("NearCache"));
+  }
+
+  NearCacheProvider(CacheProvider remote, Ehcache local) {
+    this.remote = remote;
+    this.local = local;
+  }
+
+  @Override
+  public Object getFromCache(String key) {
+    Stats keyStats = getStats(key);
+    long version = getVersion(key);
+
+    Element element = local.get(key);
+
+    if (element!=null) {
+      CacheObject cached = (CacheObject) element.getObjectValue();
+
+      if (cached.getVersion()==version) {
+        keyStats.localHits.incrementAndGet();
+        return cached.getObject();
+      }
+    }
+
+    long start = System.nanoTime();
+
+    Object value = remote.getFromCache(key);
+
+    keyStats.remoteTime.addAndGet(System.nanoTime() - start);
+
+    if (value==null) {
+      keyStats.misses.incrementAndGet();
+      return null;
+    }
+
+    keyStats.remoteHits.incrementAndGet();
+
+    // ключ изменился, пока мы читали memcached
+    if (getVersion(key)==version) {
+      putLocal(key, value, version, LOCAL_TTL);
+    }
+
+    return value;
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value, int expire) {
+    long version = versions.incrementAndGet(getStripe(key));
+
+    int ttl = LOCAL_TTL;
+
+    if (expire>0) {
+      ttl = Math.max(1, Math.min(LOCAL_TTL, expire/1000));
+    }
+
+    putLocal(key, value, version, ttl);
+
+    getStats(key).stores.incrementAndGet();
+
+    remote.storeToCache(key, value, expire);
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value) {
+    storeToCache(key, value, 0);
+  }
+
+  @Override
+  public void removeFromCache(String key) {
+    versions.incrementAndGet(getStripe(key));
+
+    local.remove(key);
+    remote.removeFromCache(key);
+  }
+
+  private void putLocal(String key, Object value, long version, int ttl) {
+    Element element = new Element(key, new CacheObject(value, version));
+    element.setTimeToLive(ttl);
+
+    local.put(element);
+  }
+
+  private static int getStripe(String key) {
+    return key.hashCode() & (STRIPES-1);
+  }
+
+  private long getVersion(String key) {
+    return versions.get(getStripe(key));
+  }
+
+  /**
+   * Префикс ключа для статистики: часть до '?' без номера в конце
+   */
+  static String getPrefix(String key) {
+    int end = key.indexOf('?');
+
+    if (end==-1) {
+      end = key.length();
+    }
+
+    while (end>0 && Character.isDigit(key.charAt(end-1))) {
+      end--;
+    }
+
+    return key.substring(0, end);
+  }
+
+  private Stats getStats(String key) {
+    String prefix = getPrefix(key);
+
+    Stats prefixStats = stats.get(prefix);
+
+    if (prefixStats==null) {
+      if (stats.size()>=MAX_PREFIXES) {
+        prefix = OTHER_PREFIX;
+      }
+
+      Stats created = new Stats();
+      prefixStats = stats.putIfAbsent(prefix, created);
+
+      if (prefixStats==null) {
+        prefixStats = created;
+      }
+    }
+
+    return prefixStats;
+  }
+
+  /**
+   * @return префикс ключа -> статистика, по алфавиту
+   */
+  public Map<String, Stats> getStats() {
+    return Collections.unmodifiableMap(new TreeMap<String, Stats>(stats));
+  }
+
+  @Scheduled(fixedDelay=REPORT_INTERVAL)
+  public void logStats() {
+    for (Map.Entry<String, Stats> entry : getStats().entrySet()) {
+      logger.info("Cache " + entry.getKey() + ": " + entry.getValue());
+    }
+
+    for (Map.Entry<String, CoalescingCache.Stats> entry : CoalescingCache.getStats().entrySet()) {
+      logger.info("Cache loads " + entry.getKey() + ": " + entry.getValue());
+    }
+  }
+
+  public static class Stats {
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong remoteHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong remoteTime = new AtomicLong();
+
+    public long getLocalHits() {
+      return localHits.get();
+    }
+
+    public long getRemoteHits() {
+      return remoteHits.get();
+    }
+
+    public long getMisses() {
+      return misses.get();
+    }
+
+    public long getStores() {
+      return stores.get();
+    }
+
+    /**
+     * @return среднее время обращения к memcached, мкс
+     */
+    public long getRemoteAverage() {
+      long remoteCalls = remoteHits.get() + misses.get();
+
+      return remoteCalls>0 ? remoteTime.get() / remoteCalls / 1000 : 0;
+    }
+
+    @Override
+    public String toString() {
+      return "local hits=" + getLocalHits() + ", memcached hits=" + getRemoteHits() + ", misses=" + getMisses() +
+        ", stores=" + getStores() + ", memcached avg=" + getRemoteAverage() + " us";
+    }
+  }
+}
@@ -15,37 +15,48 @@
 
 package ru.org.linux.util;
 
-import java.net.UnknownHostException;
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xbill.DNS.*;
 
+/**
+ * Синхронная проверка адреса IPv4 в одной зоне DNSBL. Кэширование и ограничение
+ * времени ожидания - в {@link ru.org.linux.spring.DNSBLService}.
+ */
 public class DNSBLClient {
-  public static final int DNSBL_TIMEOUT_SEC = 10;
-
   private static final Log logger = LogFactory.getLog(DNSBLClient.class);
 
   private final Resolver resolver;
   private final String zone;
 
-  public DNSBLClient(String zone) throws UnknownHostException {
-    resolver = new ExtendedResolver();
-    resolver.setTimeout(DNSBL_TIMEOUT_SEC);
+  public DNSBLClient(String zone, Resolver resolver) {
+    this.resolver = resolver;
     this.zone = zone;
   }
 
-  public boolean checkIP(String addr) throws TextParseException {
+  /**
+   * @throws IOException если DNS не ответил: это не то же самое, что адреса нет в списке
+   */
+  public boolean checkIP(String addr) throws IOException {
     String query = invertIPAddress(addr)+ '.' +zone;
 
     logger.debug("Looking for "+query);
 
-    Lookup lookup = new Lookup(query, Type.A);
+    // абсолютное имя: без перебора search path при NXDOMAIN
+    Lookup lookup = new Lookup(Name.fromString(query, Name.root), Type.A);
     lookup.setResolver(resolver);
+    // время жизни ответов определяет вызывающий, общий кэш dnsjava не нужен
+    lookup.setCache(null);
 
     Record[] r = lookup.run();
 
+    if (lookup.getResult()==Lookup.TRY_AGAIN || lookup.getResult()==Lookup.UNRECOVERABLE) {
+      throw new IOException("DNSBL lookup failed for "+query+": "+lookup.getErrorString());
+    }
+
     if (r==null || r.length==0) {
       return false;
     }
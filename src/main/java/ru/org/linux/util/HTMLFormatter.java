@@ -349,7 +349,8 @@ public class HTMLFormatter {
   private static final Pattern uniRE = Pattern.compile("^&((#[1-9]\\d{1,4})|(\\w{1,8}));");
 
   public static String htmlSpecialChars(String str) {
-    StringBuilder res = new StringBuilder();
+    StringBuilder res = new StringBuilder(str.length() + str.length() / 8);
+    Matcher m = null;
 
     for (int i = 0; i < str.length(); i++) {
       switch (str.charAt(i)) {
@@ -363,8 +364,14 @@ public class HTMLFormatter {
           res.append("&quot;");
           break;
         case '&':
-          Matcher m = uniRE.matcher(str.substring(i));
-          if (m.find()) {
+          // без копирования хвоста строки на каждый '&'
+          if (m==null) {
+            m = uniRE.matcher(str);
+          }
+
+          m.region(i, str.length());
+
+          if (m.lookingAt()) {
               String s = m.group();
               res.append(s);
               i+=s.length()-1;
@@ -383,6 +390,42 @@ public class HTMLFormatter {
     return res.toString();
   }
 
+  private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+  private static final Pattern HTML_ENTITY = Pattern.compile("&(lt|gt|quot|amp|nbsp);");
+
+  /**
+   * Текст HTML без тегов: теги заменяются пробелом, основные сущности - символами
+   */
+  public static String stripTags(String html) {
+    String text = HTML_TAG.matcher(html).replaceAll(" ");
+
+    Matcher m = HTML_ENTITY.matcher(text);
+    StringBuffer res = new StringBuffer(text.length());
+
+    while (m.find()) {
+      String entity = m.group(1);
+      String replacement;
+
+      if ("lt".equals(entity)) {
+        replacement = "<";
+      } else if ("gt".equals(entity)) {
+        replacement = ">";
+      } else if ("quot".equals(entity)) {
+        replacement = "\"";
+      } else if ("amp".equals(entity)) {
+        replacement = "&";
+      } else {
+        replacement = " ";
+      }
+
+      m.appendReplacement(res, Matcher.quoteReplacement(replacement));
+    }
+
+    m.appendTail(res);
+
+    return res.toString();
+  }
+
   /** Разбивает слишком длинный фрагмент в строке на части
    *
    * @param line строка
@@ -0,0 +1,110 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Двоичное префиксное дерево сетей IPv4 и IPv6: поиск всех сетей, в которые входит адрес,
+ * за число шагов, равное длине адреса в битах.
+ *
+ * Дерево заполняется в одном потоке и после этого только читается; публиковать
+ * его другим потокам нужно через volatile.
+ */
+public class IPPrefixTrie<T> {
+  private final Node<T> root4 = new Node<T>();
+  private final Node<T> root6 = new Node<T>();
+
+  private int size = 0;
+
+  /**
+   * @param prefix длина маски; больше длины адреса - весь адрес
+   */
+  public void put(InetAddress network, int prefix, T value) {
+    byte[] address = network.getAddress();
+    int bits = Math.min(prefix, address.length * 8);
+
+    Node<T> node = getRoot(address);
+
+    for (int i=0; i<bits; i++) {
+      if (getBit(address, i)) {
+        if (node.one==null) {
+          node.one = new Node<T>();
+        }
+
+        node = node.one;
+      } else {
+        if (node.zero==null) {
+          node.zero = new Node<T>();
+        }
+
+        node = node.zero;
+      }
+    }
+
+    if (node.values==null) {
+      node.values = new ArrayList<T>(1);
+    }
+
+    node.values.add(value);
+    size++;
+  }
+
+  /**
+   * @return значения всех сетей, содержащих адрес, от коротких масок к длинным
+   */
+  public List<T> match(InetAddress addr) {
+    byte[] address = addr.getAddress();
+
+    List<T> result = new ArrayList<T>(0);
+
+    Node<T> node = getRoot(address);
+
+    for (int i=0; node!=null; i++) {
+      if (node.values!=null) {
+        result.addAll(node.values);
+      }
+
+      if (i==address.length*8) {
+        break;
+      }
+
+      node = getBit(address, i) ? node.one : node.zero;
+    }
+
+    return result;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private Node<T> getRoot(byte[] address) {
+    return address.length==4 ? root4 : root6;
+  }
+
+  private static boolean getBit(byte[] address, int bit) {
+    return (address[bit / 8] & (0x80 >> (bit % 8))) != 0;
+  }
+
+  private static class Node<T> {
+    private Node<T> zero;
+    private Node<T> one;
+    private List<T> values;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.javabb.bbcode;
+
+import java.sql.SQLException;
+
+/**
+ * Сравнение BBCodeProcessor с прежней реализацией на регулярных выражениях.
+ * Запускается вручную, в unit-тесты не входит.
+ */
+public final class BBCodeBenchmark {
+  static final String[] SAMPLES = {
+    "Привет всем!\n\nСобрал ядро 2.6.38, теперь при загрузке пишет:\n[code]\nKernel panic - not syncing: VFS: Unable to mount root fs on unknown-block(0,0)\n[/code]\n\n" +
+      "Что я делаю [b]не так[/b]? Конфиг лежит [url=http://pastebin.com/abc123]здесь[/url].",
+    "[quote=\"maxcom\"]\nНадо обновить [i]grub[/i] и пересобрать initrd.\n[/quote]\nСпасибо, помогло.\n\n[quote]а [b]зачем[/b]?[/quote]\nПотому что.",
+    "Варианты:\n[list]\n[*]Debian\n[*]Gentoo[list=\"1\"][*]stable[*]~amd64[/list]\n[*][u]Slackware[/u]\n[/list]\nИ ещё [s]Ubuntu[/s].",
+    "[code=java]public static void main(String[] args) {\n\tSystem.out.println(\"[b]hello[/b]\");\n}[/code]\n[code=bash]ls -la | grep '[a-z]'[/code]",
+    "Ссылки:\n[url]http://www.linux.org.ru/forum/general/[/url]\n[url=www.kernel.org]ядро[/url]\n[url]javascript:alert(1)[/url]\n[url=ftp://ftp.example.com/pub/]ftp[/url]",
+    "[user]m!ax[/user] и [em]курсив[/em], [strong]жирный[/strong][br]новая строка\r\n\r\nабзац\r\rещё\n\r\n\rи ещё",
+    "[b]раз[b]два[/b]три[/b] [i]без конца [u]под[/u]",
+    "[quote][quote=\"a\"]вложенная[/quote]внешняя[cut]скрыто[/cut][/quote][cut]cut[/cut]",
+    "[list]мусор[*]один[b]жир[*]два[/b][/list] [*]вне списка [/list] [/quote]",
+    "a\n\n[quote]\n\nb\n\n[/quote]\n\nc\n[list]\n[*]\nd\n[/list]\n\ne",
+    "[url=http://example.com/?a=1&b=2]параметры[/url] [url='http://example.com/']кавычки[/url]",
+    "текст & ещё &amp; &#1234; &nbsp; <script>alert(1)</script> \"кавычки\"",
+    "[code]без конца [b]x[/b]",
+    "[quote=\"[b]\"]x[/quote][/b]",
+    "[list=\"a\"][*]1[*]2[/list][list][*][/list]"
+  };
+
+  private static final int ROUNDS = 500;
+
+  private BBCodeBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    StringBuilder post = new StringBuilder();
+
+    while (post.length()<4000) {
+      for (String sample : SAMPLES) {
+        post.append(sample).append("\n\n");
+      }
+    }
+
+    run("real-sized post (" + post.length() + " chars)", post.toString(), ROUNDS);
+
+    run("many unclosed [b]", repeat("[b]x ", 4000), 3);
+    run("many unclosed [url=", repeat("[url=x ", 4000), 3);
+    run("deeply nested quotes", repeat("[quote]", 5000) + 'x' + repeat("[/quote]", 5000), 3);
+    run("long list", "[list]" + repeat("[*]item\n", 20000) + "[/list]", 3);
+    run("many entities", repeat("&amp;& ", 20000), 3);
+    run("many paragraphs", repeat("line\n\n", 50000), 3);
+  }
+
+  private static String repeat(String s, int count) {
+    StringBuilder sb = new StringBuilder(s.length() * count);
+
+    for (int i=0; i<count; i++) {
+      sb.append(s);
+    }
+
+    return sb.toString();
+  }
+
+  private static void run(String name, String text, int rounds) throws SQLException {
+    BBCodeProcessor proc = new BBCodeProcessor();
+    RegexBBCodeProcessor legacy = new RegexBBCodeProcessor();
+
+    // прогрев
+    for (int i=0; i<rounds; i++) {
+      proc.preparePostText(null, text);
+      legacy.preparePostText(null, text);
+    }
+
+    long start = System.nanoTime();
+
+    for (int i=0; i<rounds; i++) {
+      legacy.preparePostText(null, text);
+    }
+
+    long legacyTime = (System.nanoTime() - start) / rounds / 1000;
+
+    start = System.nanoTime();
+
+    for (int i=0; i<rounds; i++) {
+      proc.preparePostText(null, text);
+    }
+
+    long time = (System.nanoTime() - start) / rounds / 1000;
+
+    System.out.println(name + ": regex " + legacyTime + " us, single-pass " + time + " us");
+  }
+}
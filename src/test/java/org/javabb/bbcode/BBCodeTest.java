@@ -16,6 +16,10 @@
 package org.javabb.bbcode;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+
+import ru.org.linux.site.User;
 
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
@@ -168,4 +172,41 @@ public class BBCodeTest {
 
     assertEquals("<p><a href=\"http://www.wolframalpha.com/input/?i=32177!\">http://www.wolframalpha.com/input/?i=32177!</a>", result);
   }
+
+  @Test
+  public void testQuote() throws SQLException {
+    BBCodeProcessor proc = new BBCodeProcessor();
+    String result = proc.preparePostText(null, "[quote=\"anonymous\"]\ntest\n[/quote]\ntest");
+
+    assertEquals("<p><div class=\"quote\"><h3>anonymous</h3><p>test</div><p>test", result);
+  }
+
+  @Test
+  public void testUnclosedTags() throws SQLException {
+    BBCodeProcessor proc = new BBCodeProcessor();
+    String result = proc.preparePostText(null, "[b]test[i]test[/b] [url=http://www.linux.org.ru]test");
+
+    assertEquals("<p><b>test[i]test</b> [url=http://www.linux.org.ru]test", result);
+  }
+
+  @Test
+  public void testLegacyCompatibility() throws SQLException {
+    BBCodeProcessor proc = new BBCodeProcessor();
+    RegexBBCodeProcessor legacy = new RegexBBCodeProcessor();
+
+    for (String text : BBCodeBenchmark.SAMPLES) {
+      assertEquals(text, legacy.preparePostText(null, text), proc.preparePostText(null, text));
+    }
+  }
+
+  @Test
+  public void testUserNicks() {
+    String text = "[user]maxcom[/user] [user]bad nick[/user] [user][b]x[/b][/user] [code][user]code[/user][/code] [user]maxcom[/user]";
+
+    assertEquals(new HashSet<String>(Collections.singletonList("maxcom")), BBCodeProcessor.getUserNicks(text));
+
+    String result = new BBCodeProcessor().preparePostText("[user]maxcom[/user]", Collections.<String, User>emptyMap());
+
+    assertEquals("<p><s>maxcom</s>", result);
+  }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.*;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Сравнение CommentList с прежним устройством на больших синтетических темах:
+ * построение, размер и время сериализации, поиск страницы для каждого комментария.
+ * Запускается вручную, в unit-тесты не входит.
+ */
+public final class CommentListBenchmark {
+  private static final int[] SIZES = { 500, 5000, 20000 };
+  private static final int ROUNDS = 20;
+
+  private static final String[] USER_AGENTS = {
+    "Mozilla/5.0 (X11; U; Linux x86_64; en-US; rv:1.9.2.13) Gecko/20101206 Ubuntu/10.10 (maverick) Firefox/3.6.13",
+    "Mozilla/5.0 (X11; Linux i686) AppleWebKit/534.24 (KHTML, like Gecko) Chrome/11.0.696.68 Safari/534.24",
+    "Opera/9.80 (X11; Linux x86_64; U; ru) Presto/2.8.131 Version/11.11",
+    "Mozilla/5.0 (compatible; Konqueror/4.6; Linux) KHTML/4.6.3 (like Gecko)",
+    "Lynx/2.8.8dev.2 libwww-FM/2.14 SSL-MM/1.4.1"
+  };
+
+  private CommentListBenchmark() {
+  }
+
+  /**
+   * Синтетическая тема: треть комментариев - ответы на тему, остальные - на один
+   * из предыдущих (чаще недавних); часть ответов ссылается на отсутствующие
+   * (удаленные) комментарии
+   */
+  static List<Comment> createThread(int size, long seed) {
+    Random random = new Random(seed);
+    List<Comment> comments = new ArrayList<Comment>(size);
+
+    int topic = 5000000;
+    int msgid = topic + 1;
+    long postdate = 1300000000000L;
+
+    for (int i=0; i<size; i++) {
+      msgid += 1 + random.nextInt(5);
+      postdate += random.nextInt(60000);
+
+      int replyto = 0;
+
+      if (i>0 && random.nextInt(3)!=0) {
+        int back = Math.min(i, 1 + (int) Math.abs(random.nextGaussian() * 20));
+
+        replyto = comments.get(i - back).getMessageId();
+
+        if (random.nextInt(50)==0) {
+          replyto -= 1;
+        }
+      }
+
+      boolean deleted = random.nextInt(40)==0;
+      DeleteInfo deleteInfo = deleted ? new DeleteInfo("moderator", 1, "4.1 Offtopic", new Timestamp(postdate + 3600000)) : null;
+
+      comments.add(new Comment(
+        msgid,
+        random.nextInt(5)==0 ? "Re: заголовок " + i : null,
+        1 + random.nextInt(size / 4 + 1),
+        replyto,
+        topic,
+        deleted,
+        new Timestamp(postdate),
+        deleteInfo,
+        USER_AGENTS[random.nextInt(USER_AGENTS.length)],
+        "10." + random.nextInt(256) + '.' + random.nextInt(256) + '.' + random.nextInt(256)
+      ));
+    }
+
+    return comments;
+  }
+
+  static byte[] serialize(Object object) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(os);
+    out.writeObject(object);
+    out.close();
+
+    return os.toByteArray();
+  }
+
+  static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+    return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (int size : SIZES) {
+      List<Comment> thread = createThread(size, size);
+
+      // прогрев
+      for (int i=0; i<ROUNDS; i++) {
+        run(thread, false);
+      }
+
+      System.out.println(size + " comments:");
+      run(thread, true);
+    }
+  }
+
+  private static void run(List<Comment> thread, boolean report) throws Exception {
+    long start = System.nanoTime();
+    CommentList list = null;
+    for (int i=0; i<ROUNDS; i++) {
+      list = new CommentList(thread, 0);
+    }
+    long build = (System.nanoTime() - start) / ROUNDS;
+
+    start = System.nanoTime();
+    LegacyCommentList legacy = null;
+    for (int i=0; i<ROUNDS; i++) {
+      legacy = new LegacyCommentList(thread, 0);
+    }
+    long legacyBuild = (System.nanoTime() - start) / ROUNDS;
+
+    byte[] data = serialize(list);
+    byte[] legacyData = serialize(legacy);
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      serialize(list);
+    }
+    long write = (System.nanoTime() - start) / ROUNDS;
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      serialize(legacy);
+    }
+    long legacyWrite = (System.nanoTime() - start) / ROUNDS;
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      deserialize(data);
+    }
+    long read = (System.nanoTime() - start) / ROUNDS;
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      deserialize(legacyData);
+    }
+    long legacyRead = (System.nanoTime() - start) / ROUNDS;
+
+    // поиск страницы для каждого комментария (ссылки "Ответ на" на странице темы)
+    int pages = 0;
+
+    start = System.nanoTime();
+    for (Comment comment : thread) {
+      pages += list.getCommentPage(comment, 50, false);
+    }
+    long lookup = (System.nanoTime() - start) / thread.size();
+
+    start = System.nanoTime();
+    for (Comment comment : thread) {
+      pages -= legacy.getCommentPage(comment, 50, false);
+    }
+    long legacyLookup = (System.nanoTime() - start) / thread.size();
+
+    if (pages!=0) {
+      throw new IllegalStateException("page mismatch");
+    }
+
+    // страница темы с фильтром игнорируемых: скрываемые комментарии и последняя страница
+    Map<Integer, String> ignoreList = new HashMap<Integer, String>();
+
+    for (int userid = 1; userid<=20; userid++) {
+      ignoreList.put(userid * 13, "user");
+    }
+
+    int offset = thread.size() / 50 * 50;
+    CommentFilter filter = new CommentFilter(list);
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      BitSet hideSet = CommentList.makeHideSet(list, CommentFilter.FILTER_IGNORED, ignoreList);
+      pages += filter.getComments(false, offset, 50, hideSet).size();
+    }
+    long page = (System.nanoTime() - start) / ROUNDS;
+
+    start = System.nanoTime();
+    for (int i=0; i<ROUNDS; i++) {
+      Set<Integer> hideSet = new HashSet<Integer>();
+      legacy.getRoot().hideIgnored(hideSet, ignoreList);
+      pages -= legacy.getComments(false, offset, 50, hideSet).size();
+    }
+    long legacyPage = (System.nanoTime() - start) / ROUNDS;
+
+    if (pages!=0) {
+      throw new IllegalStateException("filtered page mismatch");
+    }
+
+    if (report) {
+      System.out.println("  build:       " + legacyBuild / 1000 + " us -> " + build / 1000 + " us");
+      System.out.println("  serialized:  " + legacyData.length / 1024 + " KB -> " + data.length / 1024 + " KB");
+      System.out.println("  serialize:   " + legacyWrite / 1000 + " us -> " + write / 1000 + " us");
+      System.out.println("  deserialize: " + legacyRead / 1000 + " us -> " + read / 1000 + " us");
+      System.out.println("  page lookup: " + legacyLookup + " ns -> " + lookup + " ns");
+      System.out.println("  last page:   " + legacyPage / 1000 + " us -> " + page / 1000 + " us");
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommentListTest {
+  private static final int[] SIZES = { 0, 1, 50, 2000 };
+
+  @Test
+  public void testTree() {
+    for (int size : SIZES) {
+      List<Comment> thread = CommentListBenchmark.createThread(size, size);
+
+      CommentList list = new CommentList(thread, 0);
+      LegacyCommentList legacy = new LegacyCommentList(thread, 0);
+
+      assertTree(legacy, list);
+
+      for (Comment comment : thread) {
+        for (boolean reverse : new boolean[] { false, true }) {
+          assertEquals(legacy.getCommentPage(comment, 50, reverse), list.getCommentPage(comment, 50, reverse));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHideSet() throws Exception {
+    List<Comment> thread = CommentListBenchmark.createThread(2000, 1);
+
+    Map<Integer, String> ignoreList = new HashMap<Integer, String>();
+
+    for (int userid = 1; userid<500; userid += 7) {
+      ignoreList.put(userid, "user"+userid);
+    }
+
+    Map<Integer, String> anonymousList = new HashMap<Integer, String>();
+
+    for (int userid = 3; userid<500; userid += 11) {
+      anonymousList.put(userid, "anonymous"+userid);
+    }
+
+    CommentList list = new CommentList(thread, 0, anonymousList.keySet());
+    LegacyCommentList legacy = new LegacyCommentList(thread, 0);
+
+    // фильтр анонимных скрывает поддеревья так же, как фильтр игнорируемых
+    Set<Integer> expectedAnonymous = new HashSet<Integer>();
+    legacy.getRoot().hideIgnored(expectedAnonymous, anonymousList);
+
+    Set<Integer> expectedIgnored = new HashSet<Integer>();
+    legacy.getRoot().hideIgnored(expectedIgnored, ignoreList);
+
+    Set<Integer> expectedBoth = new HashSet<Integer>(expectedAnonymous);
+    legacy.getRoot().hideIgnored(expectedBoth, ignoreList);
+
+    assertFalse(expectedAnonymous.isEmpty());
+    assertFalse(expectedIgnored.isEmpty());
+
+    assertHidden(list, legacy, expectedAnonymous, CommentList.makeHideSet(list, CommentFilter.FILTER_ANONYMOUS, ignoreList));
+    assertHidden(list, legacy, expectedIgnored, CommentList.makeHideSet(list, CommentFilter.FILTER_IGNORED, ignoreList));
+    assertHidden(list, legacy, expectedBoth, CommentList.makeHideSet(list, CommentFilter.FILTER_ANONYMOUS + CommentFilter.FILTER_IGNORED, ignoreList));
+
+    assertNull(CommentList.makeHideSet(list, CommentFilter.FILTER_NONE, ignoreList));
+
+    // признак анонимности переживает сериализацию
+    CommentList copy = (CommentList) CommentListBenchmark.deserialize(CommentListBenchmark.serialize(list));
+
+    assertHidden(copy, legacy, expectedAnonymous, CommentList.makeHideSet(copy, CommentFilter.FILTER_ANONYMOUS, null));
+  }
+
+  @Test
+  public void testPages() {
+    for (int size : SIZES) {
+      List<Comment> thread = CommentListBenchmark.createThread(size, size);
+
+      CommentList list = new CommentList(thread, 0);
+      LegacyCommentList legacy = new LegacyCommentList(thread, 0);
+
+      assertPages(list, legacy, null, null);
+    }
+  }
+
+  private static void assertHidden(CommentList list, LegacyCommentList legacy, Set<Integer> expected, BitSet hideSet) {
+    assertPages(list, legacy, expected, hideSet);
+
+    Set<Integer> visible = new HashSet<Integer>(ids(new CommentFilter(list).getComments(false, 0, 0, hideSet)));
+
+    for (Comment comment : list.getList()) {
+      assertEquals(expected.contains(comment.getMessageId()), !visible.contains(comment.getMessageId()));
+    }
+  }
+
+  private static void assertPages(CommentList list, LegacyCommentList legacy, Set<Integer> expected, BitSet hideSet) {
+    CommentFilter filter = new CommentFilter(list);
+    int size = list.getList().size();
+
+    for (boolean reverse : new boolean[] { false, true }) {
+      for (int messages : new int[] { 25, 50, 200 }) {
+        for (int page = 0; page * messages <= size + messages; page++) {
+          assertEquals(
+            ids(legacy.getComments(reverse, page * messages, messages, expected)),
+            ids(filter.getComments(reverse, page * messages, messages, hideSet))
+          );
+        }
+      }
+
+      assertEquals(ids(legacy.getComments(reverse, 0, 0, expected)), ids(filter.getComments(reverse, 0, 0, hideSet)));
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    List<Comment> thread = CommentListBenchmark.createThread(2000, 2);
+
+    CommentList list = new CommentList(thread, 1300000000000L);
+
+    CommentList copy = (CommentList) CommentListBenchmark.deserialize(CommentListBenchmark.serialize(list));
+
+    assertEquals(list.getLastModified(), copy.getLastModified());
+    assertEquals(thread.size(), copy.getList().size());
+
+    for (int i=0; i<thread.size(); i++) {
+      Comment expected = thread.get(i);
+      Comment actual = copy.getList().get(i);
+
+      assertEquals(expected.getMessageId(), actual.getMessageId());
+      assertEquals(expected.getTitle(), actual.getTitle());
+      assertEquals(expected.getUserid(), actual.getUserid());
+      assertEquals(expected.getReplyTo(), actual.getReplyTo());
+      assertEquals(expected.getTopic(), actual.getTopic());
+      assertEquals(expected.isDeleted(), actual.isDeleted());
+      assertEquals(expected.getPostdate(), actual.getPostdate());
+      assertEquals(expected.getUserAgent(), actual.getUserAgent());
+      assertEquals(expected.getPostIP(), actual.getPostIP());
+
+      if (expected.getDeleteInfo()==null) {
+        assertNull(actual.getDeleteInfo());
+      } else {
+        assertEquals(expected.getDeleteInfo().getNick(), actual.getDeleteInfo().getNick());
+        assertEquals(expected.getDeleteInfo().getUserid(), actual.getDeleteInfo().getUserid());
+        assertEquals(expected.getDeleteInfo().getReason(), actual.getDeleteInfo().getReason());
+        assertEquals(expected.getDeleteInfo().getDelDate(), actual.getDeleteInfo().getDelDate());
+      }
+    }
+
+    assertTree(new LegacyCommentList(thread, 0), copy);
+  }
+
+  private static void assertTree(LegacyCommentList legacy, CommentList list) {
+    List<Comment> expected = new ArrayList<Comment>();
+    legacy.getRoot().buildList(expected);
+
+    List<Comment> actual = new ArrayList<Comment>();
+    list.getRoot().buildList(actual);
+
+    assertEquals(ids(expected), ids(actual));
+
+    for (Comment comment : list.getList()) {
+      List<Integer> expectedChilds = new ArrayList<Integer>();
+
+      for (LegacyCommentList.Node child : legacy.getNode(comment.getMessageId()).getChilds()) {
+        expectedChilds.add(child.getComment().getMessageId());
+      }
+
+      List<Integer> actualChilds = new ArrayList<Integer>();
+
+      for (CommentNode child : list.getNode(comment.getMessageId()).getChilds()) {
+        actualChilds.add(child.getMessageId());
+      }
+
+      assertEquals(expectedChilds, actualChilds);
+    }
+  }
+
+  private static List<Integer> ids(List<Comment> comments) {
+    List<Integer> ids = new ArrayList<Integer>(comments.size());
+
+    for (Comment comment : comments) {
+      ids.add(comment.getMessageId());
+    }
+
+    return ids;
+  }
+}
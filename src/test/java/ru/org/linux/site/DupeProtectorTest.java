@@ -0,0 +1,68 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DupeProtectorTest {
+  @Test
+  public void testWindows() {
+    DupeProtector.LocalBackend backend = new DupeProtector.LocalBackend(30000, 1000);
+
+    assertTrue(backend.tryAcquire("127.0.0.1", 100000, 30000));
+    assertFalse(backend.tryAcquire("127.0.0.1", 110000, 30000));
+    assertTrue(backend.tryAcquire("127.0.0.2", 110000, 30000));
+
+    // доверенному пользователю хватает короткого окна
+    assertTrue(backend.tryAcquire("127.0.0.1", 110000, 3000));
+    assertFalse(backend.tryAcquire("127.0.0.1", 112000, 3000));
+    assertFalse(backend.tryAcquire("127.0.0.1", 130000, 30000));
+    assertTrue(backend.tryAcquire("127.0.0.1", 140001, 30000));
+  }
+
+  @Test
+  public void testExpire() {
+    DupeProtector.LocalBackend backend = new DupeProtector.LocalBackend(30000, 1000);
+
+    for (int i=0; i<100; i++) {
+      assertTrue(backend.tryAcquire("10.0.0." + i, 100000 + i*10, 30000));
+    }
+
+    assertEquals(100, backend.size());
+
+    // через полный оборот кольца корзина очищается при следующей записи в нее
+    assertTrue(backend.tryAcquire("10.0.1.1", 132000, 30000));
+
+    assertEquals(1, backend.size());
+  }
+
+  @Test
+  public void testMaxEntries() {
+    DupeProtector.LocalBackend backend = new DupeProtector.LocalBackend(30000, 10);
+
+    for (int i=0; i<100; i++) {
+      assertTrue(backend.tryAcquire("10.0.0." + i, 100000 + i*100, 30000));
+      assertTrue(backend.size() <= 10);
+    }
+
+    assertTrue(backend.getEvicted() > 0);
+
+    // самые новые записи остаются
+    assertFalse(backend.tryAcquire("10.0.0.99", 110000, 30000));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Прежнее устройство CommentList (узлы с LinkedList детей, HashMap msgid -> узел,
+ * стандартная сериализация); используется для сравнения в тестах и бенчмарке.
+ */
+class LegacyCommentList implements Serializable {
+  private static final long serialVersionUID = 4184730912347291563L;
+
+  private final List<Comment> comments = new ArrayList<Comment>();
+  private final Node root = new Node(null);
+  private final Map<Integer, Node> treeHash = new HashMap<Integer, Node>();
+  private final long lastmod;
+
+  LegacyCommentList(List<Comment> list, long lastmod) {
+    this.lastmod = lastmod;
+
+    comments.addAll(list);
+
+    for (Comment comment : comments) {
+      Node node = new Node(comment);
+
+      treeHash.put(comment.getMessageId(), node);
+
+      Node parentNode = comment.getReplyTo()!=0 ? treeHash.get(comment.getReplyTo()) : null;
+
+      if (parentNode!=null) {
+        parentNode.childs.add(node);
+      } else {
+        root.childs.add(node);
+      }
+    }
+  }
+
+  Node getRoot() {
+    return root;
+  }
+
+  Node getNode(int msgid) {
+    return treeHash.get(msgid);
+  }
+
+  int getCommentPage(Comment comment, int messages, boolean reverse) {
+    int index = comments.indexOf(comment);
+
+    if (reverse) {
+      return (comments.size()-index)/messages;
+    } else {
+      return index/messages;
+    }
+  }
+
+  /**
+   * Прежний CommentFilter.getComments: перебор всех комментариев темы
+   */
+  List<Comment> getComments(boolean reverse, int offset, int limit, Set<Integer> hideSet) {
+    List<Comment> out = new ArrayList<Comment>();
+
+    for (ListIterator<Comment> i = comments.listIterator(reverse?comments.size():0); reverse?i.hasPrevious():i.hasNext();) {
+      int index = reverse?(comments.size()-i.previousIndex()):i.nextIndex();
+
+      Comment comment = reverse?i.previous():i.next();
+
+      if (index<offset || (limit!=0 && index>=offset+limit)) {
+        continue;
+      }
+
+      if (hideSet==null || !hideSet.contains(comment.getMessageId())) {
+        out.add(comment);
+      }
+    }
+
+    return out;
+  }
+
+  static class Node implements Serializable {
+    private static final long serialVersionUID = -6528913348715280614L;
+
+    private final LinkedList<Node> childs = new LinkedList<Node>();
+    private final Comment comment;
+
+    Node(Comment comment) {
+      this.comment = comment;
+    }
+
+    List<Node> getChilds() {
+      return childs;
+    }
+
+    Comment getComment() {
+      return comment;
+    }
+
+    void buildList(List<Comment> list) {
+      if (comment!=null) {
+        list.add(comment);
+      }
+
+      for (Node child : childs) {
+        child.buildList(list);
+      }
+    }
+
+    void hideIgnored(Set<Integer> hideSet, Map<Integer, String> ignoreList) {
+      if (comment != null && comment.isIgnored(ignoreList)) {
+        hideNode(hideSet);
+      }
+
+      if (comment==null || !hideSet.contains(comment.getMessageId())) {
+        for (Node child : childs) {
+          child.hideIgnored(hideSet, ignoreList);
+        }
+      }
+    }
+
+    void hideNode(Set<Integer> hideSet) {
+      if (comment!=null) {
+        hideSet.add(comment.getMessageId());
+      }
+
+      for (Node child : childs) {
+        child.hideNode(hideSet);
+      }
+    }
+  }
+}
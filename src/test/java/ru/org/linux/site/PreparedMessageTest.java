@@ -0,0 +1,51 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class PreparedMessageTest {
+  /**
+   * Подготовленные списки новостей хранятся в memcached, поэтому все классы сайта,
+   * до которых можно дойти от PreparedMessage, должны сериализоваться
+   */
+  @Test
+  public void testSerializable() {
+    checkSerializable(PreparedMessage.class, new HashSet<Class<?>>());
+  }
+
+  private static void checkSerializable(Class<?> clazz, Set<Class<?>> checked) {
+    if (!checked.add(clazz) || clazz.isPrimitive() || clazz.isEnum() || !clazz.getName().startsWith("ru.org.linux.")) {
+      return;
+    }
+
+    assertTrue(clazz.getName() + " is not serializable", Serializable.class.isAssignableFrom(clazz));
+
+    for (Field field : clazz.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+        checkSerializable(field.getType(), checked);
+      }
+    }
+  }
+}
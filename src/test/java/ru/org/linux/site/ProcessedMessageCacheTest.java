@@ -0,0 +1,90 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProcessedMessageCacheTest {
+  private static final int MSGID = 1000001;
+
+  private static class StubStamp extends ProcessedMessageCache.UsersStamp {
+    private final long stamp;
+    private int loads = 0;
+
+    private StubStamp(long stamp) {
+      this.stamp = stamp;
+    }
+
+    @Override
+    protected long load() {
+      loads++;
+      return stamp;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    ProcessedMessageCache.invalidate(MSGID);
+  }
+
+  @Test
+  public void testNoUsers() {
+    ProcessedMessageCache.put(MSGID, false, 10, ProcessedMessageCache.NO_USERS, "html");
+
+    StubStamp stamp = new StubStamp(5);
+
+    assertEquals("html", ProcessedMessageCache.get(MSGID, false, 10, stamp));
+
+    // текст без [user] не требует метки из memcached
+    assertEquals(0, stamp.loads);
+  }
+
+  @Test
+  public void testVersion() {
+    ProcessedMessageCache.put(MSGID, false, 10, ProcessedMessageCache.NO_USERS, "html");
+
+    assertNull(ProcessedMessageCache.get(MSGID, false, 11, new StubStamp(5)));
+    assertNull(ProcessedMessageCache.get(MSGID, true, 10, new StubStamp(5)));
+  }
+
+  @Test
+  public void testUsersStamp() {
+    ProcessedMessageCache.put(MSGID, false, 10, 5, "html");
+
+    StubStamp stamp = new StubStamp(5);
+
+    assertEquals("html", ProcessedMessageCache.get(MSGID, false, 10, stamp));
+    assertEquals("html", ProcessedMessageCache.get(MSGID, false, 10, stamp));
+    assertEquals(1, stamp.loads);
+
+    // пользователи изменились
+    assertNull(ProcessedMessageCache.get(MSGID, false, 10, new StubStamp(6)));
+  }
+
+  @Test
+  public void testInvalidate() {
+    ProcessedMessageCache.put(MSGID, false, 10, ProcessedMessageCache.NO_USERS, "html");
+    ProcessedMessageCache.put(MSGID, true, 10, ProcessedMessageCache.NO_USERS, "cut");
+
+    ProcessedMessageCache.invalidate(MSGID);
+
+    assertNull(ProcessedMessageCache.get(MSGID, false, 10, new StubStamp(5)));
+    assertNull(ProcessedMessageCache.get(MSGID, true, 10, new StubStamp(5)));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.*;
+
+/**
+ * Сравнение форматов профиля: размер файла и время разбора.
+ * Запускается вручную, в unit-тесты не входит.
+ */
+public final class ProfileCodecBenchmark {
+  private static final int PROFILES = 1000;
+  private static final int ROUNDS = 50;
+
+  private ProfileCodecBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<Map<String, Object>> profiles = createProfiles();
+
+    List<byte[]> legacy = new ArrayList<byte[]>(PROFILES);
+    List<byte[]> keyValue = new ArrayList<byte[]>(PROFILES);
+    List<byte[]> schema = new ArrayList<byte[]>(PROFILES);
+
+    for (Map<String, Object> settings : profiles) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(os);
+      oos.writeObject(new HashMap<String, Object>(settings));
+      oos.close();
+      legacy.add(os.toByteArray());
+
+      os = new ByteArrayOutputStream();
+      ProfileCodec.writeKeyValue(settings, os);
+      keyValue.add(os.toByteArray());
+
+      os = new ByteArrayOutputStream();
+      ProfileCodec.write(settings, os);
+      schema.add(os.toByteArray());
+    }
+
+    report("serialized HashMap", legacy);
+    report("key/value (v1)", keyValue);
+    report("schema (v2)", schema);
+  }
+
+  private static List<Map<String, Object>> createProfiles() {
+    Random random = new Random(1);
+    List<Map<String, Object>> profiles = new ArrayList<Map<String, Object>>(PROFILES);
+
+    for (int i=0; i<PROFILES; i++) {
+      Map<String, Object> settings = new HashMap<String, Object>(DefaultProfile.getDefaultProfile());
+
+      settings.put(ProfileProperties.MESSAGES_PROPERTY, 25+random.nextInt(200));
+      settings.put(ProfileProperties.TOPICS_PROPERTY, 10+random.nextInt(100));
+      settings.put(ProfileProperties.HOVER_PROPERTY, random.nextBoolean());
+      settings.put(ProfileProperties.TIMESTAMP_PROPERTY, System.currentTimeMillis()-random.nextInt());
+
+      profiles.add(settings);
+    }
+
+    return profiles;
+  }
+
+  private static void report(String name, List<byte[]> data) throws IOException, ClassNotFoundException {
+    long bytes = 0;
+
+    for (byte[] profile : data) {
+      bytes += profile.length;
+    }
+
+    // прогрев
+    decode(data);
+
+    long start = System.nanoTime();
+
+    for (int i=0; i<ROUNDS; i++) {
+      decode(data);
+    }
+
+    long nanos = (System.nanoTime() - start) / ((long) ROUNDS * data.size());
+
+    System.out.println(name+": "+bytes/data.size()+" bytes/profile, "+nanos+" ns/decode");
+  }
+
+  private static void decode(List<byte[]> data) throws IOException, ClassNotFoundException {
+    for (byte[] profile : data) {
+      if (ProfileCodec.read(new ByteArrayInputStream(profile)).isEmpty()) {
+        throw new IllegalStateException();
+      }
+    }
+  }
+}
@@ -17,6 +17,10 @@ package ru.org.linux.site;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -59,4 +63,65 @@ public class ProfileTest {
     assertEquals(125, profile1.getProperties().getMessages());
   }
 
+  @Test
+  public void testLegacyProfile() throws Exception {
+    Map<String, Object> settings = new HashMap<String, Object>();
+    settings.put(ProfileProperties.MESSAGES_PROPERTY, 125);
+    settings.put(ProfileProperties.STYLE_PROPERTY, "black");
+    settings.put(ProfileProperties.BOXES_MAIN2_PROPERTY, Arrays.asList("poll", "top10"));
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(os);
+    oos.writeObject(settings);
+    oos.close();
+
+    Profile profile = new Profile(new ByteArrayInputStream(os.toByteArray()));
+
+    assertEquals(125, profile.getProperties().getMessages());
+    assertEquals("black", profile.getProperties().getStyle());
+    assertEquals(Arrays.asList("poll", "top10"), profile.getProperties().getList(ProfileProperties.BOXES_MAIN2_PROPERTY));
+  }
+
+  @Test
+  public void testSettingsCopy() throws Exception {
+    Profile profile = new Profile();
+    profile.getProperties().setMessages(125);
+    profile.getProperties().setList(ProfileProperties.BOXES_MAIN2_PROPERTY, Arrays.asList("poll"));
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    profile.write(os);
+
+    Profile stored = new Profile(new ByteArrayInputStream(os.toByteArray()));
+
+    Profile copy1 = new Profile(stored.getSettings());
+    copy1.getProperties().setMessages(200);
+
+    Profile copy2 = new Profile(stored.getSettings());
+
+    assertEquals(125, copy2.getProperties().getMessages());
+    assertEquals(Arrays.asList("poll"), copy2.getProperties().getList(ProfileProperties.BOXES_MAIN2_PROPERTY));
+  }
+
+  @Test
+  public void testCodecFormats() throws Exception {
+    Map<String, Object> settings = new HashMap<String, Object>(DefaultProfile.getDefaultProfile());
+    settings.put(ProfileProperties.MESSAGES_PROPERTY, 125);
+    settings.put(ProfileProperties.STYLE_PROPERTY, null);
+    settings.put("unknown", "value");
+    settings.put(ProfileProperties.TOPICS_PROPERTY, 30L);
+
+    Map<String, Object> expected = new HashMap<String, Object>(settings);
+    expected.remove(ProfileProperties.STYLE_PROPERTY);
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ProfileCodec.write(settings, os);
+
+    assertEquals(ProfileCodec.VERSION, ProfileCodec.getVersion(new ByteArrayInputStream(os.toByteArray())));
+    assertEquals(expected, ProfileCodec.read(new ByteArrayInputStream(os.toByteArray())));
+
+    os = new ByteArrayOutputStream();
+    ProfileCodec.writeKeyValue(settings, os);
+
+    assertEquals(expected, ProfileCodec.read(new ByteArrayInputStream(os.toByteArray())));
+  }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.ehcache.CacheManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryCounterTest {
+  private static final Pattern IN_LIST = Pattern.compile("id IN \\(([\\d,]+)\\)");
+
+  @Before
+  public void setUp() {
+    CacheManager.create().getCache("Users").removeAll();
+    CacheManager.create().getCache("ProcessedMessages").removeAll();
+    QueryCounter.reset();
+  }
+
+  @Test
+  public void testCount() throws Exception {
+    Connection db = QueryCounter.wrap(createUsersDatabase());
+
+    Statement st = db.createStatement();
+    st.executeQuery("SELECT id FROM users WHERE id IN (1)").close();
+    st.executeQuery("SELECT id FROM users WHERE id IN (2)").close();
+    st.close();
+
+    assertEquals(2, QueryCounter.getCount());
+
+    QueryCounter.reset();
+
+    assertEquals(0, QueryCounter.getCount());
+  }
+
+  @Test
+  public void testUsersCachedPage() throws Exception {
+    Connection db = QueryCounter.wrap(createUsersDatabase());
+
+    List<Integer> ids = new ArrayList<Integer>();
+
+    for (int i=1; i<=80; i++) {
+      ids.add(i);
+      ids.add(i);
+    }
+
+    Map<Integer, User> users = User.getUsersCached(db, ids);
+
+    assertEquals(80, users.size());
+    assertEquals("user42", users.get(42).getNick());
+    assertEquals(1, QueryCounter.getCount());
+
+    QueryCounter.reset();
+
+    users = User.getUsersCached(db, ids);
+
+    assertEquals(80, users.size());
+    assertEquals(0, QueryCounter.getCount());
+  }
+
+  @Test
+  public void testNickIndex() throws Exception {
+    Connection db = QueryCounter.wrap(createUsersDatabase());
+
+    User.getUsersCached(db, Arrays.asList(1, 2, 3));
+
+    QueryCounter.reset();
+
+    Map<String, User> users = User.getUsers(db, Arrays.asList("user1", "user3"));
+
+    assertEquals(2, users.size());
+    assertEquals(3, users.get("user3").getId());
+    assertEquals(0, QueryCounter.getCount());
+
+    UserCache.invalidateLocal(3);
+
+    assertEquals(1, User.getUsers(db, Arrays.asList("user1")).size());
+    assertEquals(0, QueryCounter.getCount());
+  }
+
+  @Test
+  public void testCommentPage() throws Exception {
+    Connection db = QueryCounter.wrap(createUsersDatabase());
+
+    List<Comment> list = new ArrayList<Comment>();
+    Timestamp postdate = new Timestamp(System.currentTimeMillis());
+
+    for (int i=1; i<=50; i++) {
+      list.add(new Comment(1000+i, "title", i % 20 + 1, i>1 ? 1000+i-1 : 0, 1000, false, postdate, null, null, null));
+    }
+
+    CommentList comments = new CommentList(list, postdate.getTime());
+
+    List<PreparedComment> prepared = PreparedComment.prepare(db, comments, list);
+
+    assertEquals(50, prepared.size());
+    assertEquals("user2", prepared.get(0).getAuthor().getNick());
+    assertEquals("user2", prepared.get(1).getReplyAuthor().getNick());
+    assertEquals("<p>comment 1001", prepared.get(0).getProcessedMessage());
+
+    // тексты комментариев и пользователи
+    assertEquals(2, QueryCounter.getCount());
+
+    QueryCounter.reset();
+
+    PreparedComment.prepare(db, comments, list);
+
+    assertEquals(0, QueryCounter.getCount());
+  }
+
+  /**
+   * Подключение, отвечающее на SELECT ... FROM users WHERE id IN (...)
+   * и SELECT ... FROM msgbase WHERE id IN (...)
+   */
+  private static Connection createUsersDatabase() {
+    return proxy(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("createStatement".equals(method.getName())) {
+          return createStatement();
+        }
+
+        return null;
+      }
+    });
+  }
+
+  private static Statement createStatement() {
+    return proxy(Statement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("executeQuery".equals(method.getName())) {
+          Matcher m = IN_LIST.matcher((String) args[0]);
+
+          List<Integer> ids = new ArrayList<Integer>();
+
+          if (m.find()) {
+            for (String id : m.group(1).split(",")) {
+              ids.add(Integer.parseInt(id));
+            }
+          }
+
+          return createUsers(ids);
+        }
+
+        return null;
+      }
+    });
+  }
+
+  private static ResultSet createUsers(final List<Integer> ids) {
+    return proxy(ResultSet.class, new InvocationHandler() {
+      private int row = -1;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+
+        if ("next".equals(name)) {
+          row++;
+          return row < ids.size();
+        } else if ("getInt".equals(name)) {
+          return "id".equals(args[0]) ? ids.get(row) : 0;
+        } else if ("getString".equals(name)) {
+          if ("nick".equals(args[0])) {
+            return "user"+ids.get(row);
+          }
+
+          return "message".equals(args[0]) ? "comment "+ids.get(row) : null;
+        } else if ("getBoolean".equals(name)) {
+          return "bbcode".equals(args[0]);
+        }
+
+        return null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(QueryCounterTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+  }
+}
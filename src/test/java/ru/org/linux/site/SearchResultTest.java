@@ -0,0 +1,51 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.site;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchResultTest {
+  @Test
+  public void testSnippet() {
+    assertNull(SearchResult.getSnippet(null));
+    assertNull(SearchResult.getSnippet(Collections.<String>emptyList()));
+
+    assertEquals(
+      "ставим <em>linux</em> на ноутбук ... &lt;b&gt; <em>linux</em>",
+      SearchResult.getSnippet(Arrays.asList("ставим [b]<em>linux</em>[/b] на ноутбук", "&lt;b&gt; [url=http://linux.org.ru/]<em>linux</em>[/url]"))
+    );
+
+    assertEquals(
+      "цитата вложенный текст",
+      SearchResult.getSnippet(Arrays.asList("[quote=&quot;user&quot;]цитата[/quote] [b][i]вложенный[/i][/b] [u]текст[/u]"))
+    );
+  }
+
+  @Test
+  public void testSnippetKeepsText() {
+    // не теги BBCode и одиночные однобуквенные теги остаются
+    assertEquals(
+      "a[i] = [x]; [ok] [b",
+      SearchResult.getSnippet(Arrays.asList("a[i] = [x]; [ok] [b"))
+    );
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import javax.jms.*;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BrokerNetworkTest {
+  private BrokerService brokerA;
+  private BrokerService brokerB;
+
+  @Before
+  public void setUp() throws Exception {
+    brokerA = createBroker("a");
+    brokerB = createBroker("b");
+
+    BrokerNetwork networkA = new BrokerNetwork();
+    networkA.setBroker(brokerA);
+    networkA.setListen("tcp://127.0.0.1:0");
+    networkA.start();
+
+    BrokerNetwork networkB = new BrokerNetwork();
+    networkB.setBroker(brokerB);
+    networkB.setPeers(brokerA.getTransportConnectors().get(0).getConnectUri().toString());
+    networkB.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    brokerB.stop();
+    brokerA.stop();
+  }
+
+  @Test
+  public void testStandalone() throws Exception {
+    BrokerService broker = createBroker("c");
+
+    try {
+      BrokerNetwork network = new BrokerNetwork();
+      network.setBroker(broker);
+      network.setListen("");
+      network.setPeers("");
+      network.start();
+
+      assertTrue(broker.isStarted());
+      assertEquals(1, broker.getTransportConnectors().size());
+      assertTrue(broker.getNetworkConnectors().isEmpty());
+    } finally {
+      broker.stop();
+    }
+  }
+
+  @Test(timeout=30000)
+  public void testTopicForwarded() throws Exception {
+    Connection connectionA = new ActiveMQConnectionFactory("vm://a?create=false").createConnection();
+    Connection connectionB = new ActiveMQConnectionFactory("vm://b?create=false").createConnection();
+
+    try {
+      connectionA.start();
+      connectionB.start();
+
+      Session sessionA = connectionA.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      Session sessionB = connectionB.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+      MessageConsumer consumer = sessionA.createConsumer(sessionA.createTopic("lor.userCache"));
+      MessageProducer producer = sessionB.createProducer(sessionB.createTopic("lor.userCache"));
+
+      // мост подписывается на topic после появления подписчика на другом узле
+      Message received = null;
+
+      while (received==null) {
+        producer.send(sessionB.createTextMessage("42"));
+        received = consumer.receive(200);
+      }
+
+      assertEquals("42", ((TextMessage) received).getText());
+    } finally {
+      connectionB.close();
+      connectionA.close();
+    }
+  }
+
+  private static BrokerService createBroker(String name) throws Exception {
+    BrokerService broker = new BrokerService();
+    broker.setBrokerName(name);
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.addConnector("vm://" + name);
+
+    return broker;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.*;
+
+import static org.junit.Assert.*;
+
+public class DNSBLServiceTest {
+  private StubResolver resolver;
+  private DNSBLService service;
+
+  @Before
+  public void setUp() throws Exception {
+    resolver = new StubResolver();
+    resolver.listed.add("2.0.0.127.tor.example.");
+    resolver.listed.add("3.0.0.127.spam.example.");
+
+    service = new DNSBLService();
+    service.setZones(new String[] { "tor.example", "spam.example" });
+    service.setResolver(resolver);
+    service.setBudget(500);
+    service.start();
+  }
+
+  @After
+  public void tearDown() {
+    service.stop();
+  }
+
+  @Test
+  public void testListed() {
+    assertEquals("tor.example", service.check("127.0.0.2").getListedZone());
+    assertEquals("spam.example", service.check("127.0.0.3").getListedZone());
+    assertNull(service.check("127.0.0.4").getListedZone());
+  }
+
+  @Test
+  public void testCache() {
+    assertNull(service.check("127.0.0.4").getListedZone());
+    assertEquals("tor.example", service.check("127.0.0.2").getListedZone());
+
+    int queries = resolver.queries.get();
+
+    assertNull(service.check("127.0.0.4").getListedZone());
+    assertEquals("tor.example", service.check("127.0.0.2").getListedZone());
+    assertEquals(queries, resolver.queries.get());
+
+    service.cleanup();
+    assertEquals(4, service.getCacheSize());
+  }
+
+  @Test
+  public void testNegativeTtl() throws Exception {
+    service.setNegativeTtl(0);
+
+    assertNull(service.check("127.0.0.4").getListedZone());
+
+    int queries = resolver.queries.get();
+
+    Thread.sleep(5);
+
+    assertNull(service.check("127.0.0.4").getListedZone());
+    assertEquals(queries + 2, resolver.queries.get());
+  }
+
+  @Test
+  public void testParallelZones() {
+    // запрос в каждую зону ждет запроса в другую: при последовательных запросах
+    // второй начнется только после таймаута первого
+    resolver.parallel = new CountDownLatch(2);
+    service.setBudget(10000);
+
+    assertNull(service.check("127.0.0.4").getListedZone());
+    assertEquals(2, resolver.maxInFlight.get());
+  }
+
+  @Test(timeout=10000)
+  public void testBudget() throws Exception {
+    // DNS не отвечает, пока его не отпустят: проверка должна закончиться по budget
+    resolver.release = new CountDownLatch(1);
+
+    assertNull(service.check("127.0.0.2").getListedZone());
+
+    resolver.release.countDown();
+
+    // поздний ответ не теряется и не запрашивается повторно
+    String zone;
+
+    while ((zone = service.check("127.0.0.2").getListedZone())==null) {
+      Thread.sleep(10);
+    }
+
+    assertEquals("tor.example", zone);
+    assertEquals(2, resolver.queries.get());
+  }
+
+  @Test
+  public void testFailure() {
+    resolver.fail = true;
+
+    assertNull(service.check("127.0.0.2").getListedZone());
+
+    resolver.fail = false;
+
+    // ошибка не кэшируется
+    assertEquals("tor.example", service.check("127.0.0.2").getListedZone());
+  }
+
+  @Test
+  public void testIPv6() {
+    assertNull(service.check("::1").getListedZone());
+    assertNull(service.check("bad").getListedZone());
+    assertEquals(0, resolver.queries.get());
+  }
+
+  /**
+   * Отвечает 127.0.0.2 на имена из listed и NXDOMAIN на остальные
+   */
+  private static class StubResolver extends SimpleResolver {
+    private final Set<String> listed = new HashSet<String>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch parallel = null;
+    private volatile CountDownLatch release = null;
+    private volatile boolean fail = false;
+
+    private StubResolver() throws IOException {
+      super("127.0.0.1");
+    }
+
+    @Override
+    public Message send(Message query) throws IOException {
+      queries.incrementAndGet();
+
+      int running = inFlight.incrementAndGet();
+
+      try {
+        for (int max = maxInFlight.get(); running > max && !maxInFlight.compareAndSet(max, running); ) {
+          max = maxInFlight.get();
+        }
+
+        if (parallel!=null) {
+          parallel.countDown();
+          parallel.await(5, TimeUnit.SECONDS);
+        }
+
+        if (release!=null) {
+          release.await();
+        }
+      } catch (InterruptedException ex) {
+        throw new IOException("interrupted");
+      } finally {
+        inFlight.decrementAndGet();
+      }
+
+      if (fail) {
+        throw new IOException("stub failure");
+      }
+
+      Record question = query.getQuestion();
+
+      Message response = new Message(query.getHeader().getID());
+      response.getHeader().setFlag(Flags.QR);
+      response.addRecord(question, Section.QUESTION);
+
+      if (listed.contains(question.getName().toString())) {
+        response.addRecord(
+          new ARecord(question.getName(), DClass.IN, 60, InetAddress.getByAddress(new byte[] { 127, 0, 0, 2 })),
+          Section.ANSWER
+        );
+      } else {
+        response.getHeader().setRcode(Rcode.NXDOMAIN);
+      }
+
+      return response;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.org.linux.site.Group;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GroupStoreTest {
+  @Test
+  public void testLookup() throws Exception {
+    GroupStore.Groups groups = new GroupStore.Groups(ImmutableList.of(
+      group(2, 1, "hardware"),
+      group(3, 2, "general"),
+      group(4, 1, "software"),
+      group(5, 2, "general"),
+      group(6, 2, null)
+    ));
+
+    assertEquals("software", groups.getGroup(4).getUrlName());
+    assertNull(groups.getGroup(7));
+
+    assertEquals(2, groups.getGroup(1, "hardware").getId());
+    assertNull(groups.getGroup(2, "hardware"));
+
+    // при одинаковом urlname берется группа с меньшим id
+    assertEquals(3, groups.getGroup(2, "general").getId());
+
+    assertEquals(2, groups.getGroups(1).size());
+    assertEquals(4, groups.getGroups(1).get(1).getId());
+    assertEquals(3, groups.getGroups(2).size());
+    assertTrue(groups.getGroups(3).isEmpty());
+  }
+
+  @Test
+  public void testWithInfo() throws Exception {
+    Group group = group(2, 1, "hardware");
+
+    Group changed = group.withInfo("Железо", "info", null);
+
+    assertEquals("Железо", changed.getTitle());
+    assertEquals("info", changed.getInfo());
+    assertEquals("hardware", changed.getUrlName());
+    assertEquals("hardware", group.getTitle());
+  }
+
+  private static Group group(int id, int section, String urlname) throws Exception {
+    final Map<String, Object> row = new HashMap<String, Object>();
+
+    row.put("id", id);
+    row.put("section", section);
+    row.put("urlname", urlname);
+    row.put("title", urlname);
+
+    ResultSet rs = (ResultSet) Proxy.newProxyInstance(GroupStoreTest.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        Object value = row.get(args[0]);
+
+        if ("getInt".equals(method.getName())) {
+          return value!=null ? value : 0;
+        } else if ("getBoolean".equals(method.getName())) {
+          return false;
+        }
+
+        return value;
+      }
+    });
+
+    return new Group(rs);
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationServerTest {
+  private static final String SECRET = "secret";
+
+  private ReplyNotifier replyNotifier;
+  private NotificationServer server;
+
+  /**
+   * users.unread_events; пользователей, которых здесь нет, база не возвращает
+   */
+  private final Map<Integer, Integer> database = new ConcurrentHashMap<Integer, Integer>();
+
+  @Before
+  public void setUp() throws Exception {
+    replyNotifier = new ReplyNotifier() {
+      @Override
+      Connection getConnection() {
+        return createDatabase();
+      }
+    };
+
+    server = new NotificationServer();
+    server.setPort(0);
+    server.setSecret(SECRET);
+    server.setReplyNotifier(replyNotifier);
+    server.setTimeout(500);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+    replyNotifier.destroy();
+  }
+
+  @Test
+  public void testToken() {
+    long now = System.currentTimeMillis();
+    String token = NotificationServer.getToken(SECRET, 42);
+
+    assertEquals(42, NotificationServer.checkToken(SECRET, token, now));
+    assertEquals(0, NotificationServer.checkToken("other", token, now));
+    assertEquals(0, NotificationServer.checkToken(SECRET, "43" + token.substring(2), now));
+    assertEquals(0, NotificationServer.checkToken(SECRET, "42", now));
+    assertEquals(0, NotificationServer.checkToken(SECRET, "x:y:z", now));
+    assertEquals(0, NotificationServer.checkToken(SECRET, null, now));
+  }
+
+  @Test
+  public void testTokenExpires() {
+    long now = System.currentTimeMillis();
+    String token = NotificationServer.getToken(SECRET, 42, now + 1000);
+
+    assertEquals(42, NotificationServer.checkToken(SECRET, token, now));
+    assertEquals(0, NotificationServer.checkToken(SECRET, token, now + 1001));
+
+    // срок действия подписан вместе с id
+    String extended = token.replace(":" + (now + 1000) + ':', ":" + (now + 100000) + ':');
+    assertEquals(0, NotificationServer.checkToken(SECRET, extended, now + 1001));
+  }
+
+  @Test
+  public void testParseQuery() {
+    Map<String, String> params = NotificationServer.parseQuery("/notify?token=42%3Aabc&count=3&_=1289");
+
+    assertEquals("42:abc", params.get("token"));
+    assertEquals("3", params.get("count"));
+    assertEquals(0, NotificationServer.parseQuery("/notify").size());
+  }
+
+  @Test
+  public void testPushWakesPoll() throws Exception {
+    Socket socket = request(NotificationServer.getToken(SECRET, 42), 0);
+
+    try {
+      waitForPoll(42);
+
+      Map<Integer, Integer> counters = new HashMap<Integer, Integer>();
+      counters.put(42, 3);
+      replyNotifier.handleMessage(new ReplyNotifier.UnreadChanged("other-node", new HashMap<Integer, Integer>(counters)));
+
+      String response = readResponse(socket);
+
+      assertTrue(response, response.startsWith("HTTP/1.1 200"));
+      assertTrue(response, response.endsWith("{\"unread\":3}"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testStaleCount() throws Exception {
+    database.put(42, 4);
+
+    Socket socket = request(NotificationServer.getToken(SECRET, 42), 0);
+
+    try {
+      // клиент показывает устаревший счетчик: ответ приходит сразу после загрузки настоящего
+      String response = readResponse(socket);
+
+      assertTrue(response, response.startsWith("HTTP/1.1 200"));
+      assertTrue(response, response.endsWith("{\"unread\":4}"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    Socket socket = request(NotificationServer.getToken(SECRET, 42), 5);
+
+    try {
+      String response = readResponse(socket);
+
+      assertTrue(response, response.startsWith("HTTP/1.1 200"));
+      assertTrue(response, response.endsWith("{\"unread\":5}"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testBadToken() throws Exception {
+    Socket socket = request("42:1:bad", 0);
+
+    try {
+      assertTrue(readResponse(socket).startsWith("HTTP/1.1 403"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testMaxConnections() throws Exception {
+    server.stop();
+
+    server = new NotificationServer();
+    server.setPort(0);
+    server.setSecret(SECRET);
+    server.setReplyNotifier(replyNotifier);
+    server.setMaxConnections(1);
+    server.start();
+
+    Socket first = request(NotificationServer.getToken(SECRET, 42), 0);
+
+    try {
+      waitForPoll(42);
+
+      Socket second = request(NotificationServer.getToken(SECRET, 43), 0);
+
+      try {
+        assertTrue(readResponse(second).startsWith("HTTP/1.1 503"));
+      } finally {
+        second.close();
+      }
+    } finally {
+      first.close();
+    }
+  }
+
+  private Socket request(String token, int count) throws IOException {
+    Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+    socket.setSoTimeout(10000);
+
+    OutputStream out = socket.getOutputStream();
+    out.write(("GET /notify?token=" + token + "&count=" + count + " HTTP/1.0\r\n\r\n").getBytes("US-ASCII"));
+    out.flush();
+
+    return socket;
+  }
+
+  private void waitForPoll(int userid) throws InterruptedException {
+    for (int i=0; i<1000 && !server.getWaitingUsers().contains(userid); i++) {
+      Thread.sleep(10);
+    }
+
+    assertTrue("poll is not waiting", server.getWaitingUsers().contains(userid));
+  }
+
+  /**
+   * Подключение, отвечающее на любой запрос строками database
+   */
+  private Connection createDatabase() {
+    final Statement statement = proxy(Statement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (!"executeQuery".equals(method.getName())) {
+          return null;
+        }
+
+        final Iterator<Map.Entry<Integer, Integer>> rows = new HashMap<Integer, Integer>(database).entrySet().iterator();
+
+        return proxy(ResultSet.class, new InvocationHandler() {
+          private Map.Entry<Integer, Integer> row;
+
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("next".equals(method.getName())) {
+              row = rows.hasNext() ? rows.next() : null;
+              return row!=null;
+            } else if ("getInt".equals(method.getName())) {
+              return "id".equals(args[0]) ? row.getKey() : row.getValue();
+            }
+
+            return null;
+          }
+        });
+      }
+    });
+
+    return proxy(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "createStatement".equals(method.getName()) ? statement : null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(NotificationServerTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+  }
+
+  private static String readResponse(Socket socket) throws IOException {
+    InputStream in = socket.getInputStream();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    byte[] buf = new byte[1024];
+    int n;
+
+    while ((n = in.read(buf))>=0) {
+      out.write(buf, 0, n);
+    }
+
+    return out.toString("US-ASCII");
+  }
+}
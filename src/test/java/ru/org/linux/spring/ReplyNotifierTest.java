@@ -0,0 +1,240 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReplyNotifierTest {
+  private static final Pattern IN_LIST = Pattern.compile("id IN \\(([\\d,]+)\\)");
+
+  private ReplyNotifier notifier;
+  private StubListener listener;
+  private int queries;
+  private int scheduled;
+
+  @Before
+  public void setUp() {
+    // счетчики новых подписчиков загружаются только по вызову loadSubscribed()
+    notifier = new ReplyNotifier() {
+      @Override
+      Connection getConnection() {
+        return createDatabase();
+      }
+
+      @Override
+      void scheduleLoad() {
+        scheduled++;
+      }
+    };
+
+    listener = new StubListener();
+    notifier.setListener(listener);
+    queries = 0;
+    scheduled = 0;
+  }
+
+  @Test
+  public void testSubscribe() {
+    assertEquals(3, notifier.subscribe(1, 3));
+    assertEquals(3, notifier.subscribe(1, 5));
+    assertEquals(Integer.valueOf(3), notifier.getUnread(1));
+    assertNull(notifier.getUnread(2));
+    assertEquals(1, scheduled);
+  }
+
+  @Test
+  public void testLoadSubscribed() {
+    notifier.subscribe(1, 3);
+    notifier.subscribe(2, 20);
+
+    notifier.loadSubscribed();
+
+    // счетчик клиента устарел
+    assertEquals(1, queries);
+    assertEquals(ImmutableMap.of(1, 10), listener.changed);
+    assertEquals(Integer.valueOf(10), notifier.getUnread(1));
+
+    // очередь уже разобрана
+    notifier.loadSubscribed();
+
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void testSubscribeAfterRefresh() {
+    notifier.subscribe(1, 0);
+
+    notifier.getWaitingUsers();
+
+    assertNull(notifier.getUnread(1));
+
+    // пользователь снова ждет: счетчик создается заново и загружается из базы
+    listener.waiting = ImmutableSet.of(1);
+
+    assertEquals(0, notifier.subscribe(1, 0));
+    assertEquals(2, scheduled);
+    assertEquals(ImmutableSet.of(1), notifier.getWaitingUsers());
+    assertEquals(Integer.valueOf(0), notifier.getUnread(1));
+  }
+
+  @Test
+  public void testUpdate() {
+    notifier.subscribe(1, 0);
+    notifier.subscribe(2, 4);
+
+    notifier.update(ImmutableMap.of(1, 2, 2, 4, 3, 7));
+
+    // только изменившиеся счетчики отслеживаемых пользователей
+    assertEquals(ImmutableMap.of(1, 2), listener.changed);
+    assertEquals(Integer.valueOf(2), notifier.getUnread(1));
+    assertNull(notifier.getUnread(3));
+  }
+
+  @Test
+  public void testHandleMessage() {
+    notifier.subscribe(1, 0);
+
+    notifier.handleMessage(new ReplyNotifier.UnreadChanged("other-node", new HashMap<Integer, Integer>(ImmutableMap.of(1, 5))));
+
+    assertEquals(ImmutableMap.of(1, 5), listener.changed);
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    notifier.subscribe(1, 0);
+    notifier.subscribe(2, 20);
+    notifier.subscribe(3, 0);
+
+    listener.waiting = ImmutableSet.of(1, 2);
+
+    Set<Integer> waiting = notifier.getWaitingUsers();
+
+    assertEquals(ImmutableSet.of(1, 2), waiting);
+    assertNull(notifier.getUnread(3));
+
+    notifier.refresh(createDatabase(), waiting);
+
+    assertEquals(1, queries);
+    assertEquals(ImmutableMap.of(1, 10), listener.changed);
+    assertEquals(Integer.valueOf(10), notifier.getUnread(1));
+  }
+
+  @Test
+  public void testRefreshBatches() throws Exception {
+    Set<Integer> waiting = new HashSet<Integer>();
+
+    for (int i=1; i<=1200; i++) {
+      notifier.subscribe(i, 0);
+      waiting.add(i);
+    }
+
+    notifier.refresh(createDatabase(), waiting);
+
+    assertEquals(3, queries);
+    assertEquals(1200, listener.changed.size());
+  }
+
+  private static class StubListener implements ReplyNotifier.Listener {
+    private final Map<Integer, Integer> changed = new HashMap<Integer, Integer>();
+    private Set<Integer> waiting = Collections.emptySet();
+
+    @Override
+    public void unreadChanged(int userid, int unread) {
+      changed.put(userid, unread);
+    }
+
+    @Override
+    public Set<Integer> getWaitingUsers() {
+      return waiting;
+    }
+  }
+
+  /**
+   * Подключение, отвечающее на SELECT id, unread_events FROM users WHERE id IN (...)
+   * счетчиком id*10
+   */
+  private Connection createDatabase() {
+    return proxy(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("createStatement".equals(method.getName())) {
+          return createStatement();
+        }
+
+        return null;
+      }
+    });
+  }
+
+  private Statement createStatement() {
+    return proxy(Statement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("executeQuery".equals(method.getName())) {
+          queries++;
+
+          Matcher m = IN_LIST.matcher((String) args[0]);
+
+          final List<Integer> ids = new ArrayList<Integer>();
+
+          if (m.find()) {
+            for (String id : m.group(1).split(",")) {
+              ids.add(Integer.parseInt(id));
+            }
+          }
+
+          return proxy(ResultSet.class, new InvocationHandler() {
+            private int row = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if ("next".equals(method.getName())) {
+                row++;
+                return row < ids.size();
+              } else if ("getInt".equals(method.getName())) {
+                return "id".equals(args[0]) ? ids.get(row) : ids.get(row) * 10;
+              }
+
+              return null;
+            }
+          });
+        }
+
+        return null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(ReplyNotifierTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+  }
+}
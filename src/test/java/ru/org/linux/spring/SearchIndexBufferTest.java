@@ -0,0 +1,137 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexBufferTest {
+  private StubSolrServer solr;
+  private SearchIndexBuffer buffer;
+
+  @Before
+  public void setUp() {
+    solr = new StubSolrServer();
+    buffer = new SearchIndexBuffer();
+    buffer.setSolrServer(solr);
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    buffer.add(doc(1));
+    buffer.add(doc(1));
+    buffer.deleteById("2");
+    buffer.add(doc(2));
+
+    assertEquals(2, buffer.getQueueDepth());
+    assertEquals(1, buffer.getDuplicateCount());
+
+    buffer.commit();
+
+    assertEquals(0, buffer.getQueueDepth());
+    assertEquals(0, buffer.getUncommited());
+    assertEquals(2, solr.added);
+    assertEquals(1, solr.commits);
+  }
+
+  @Test
+  public void testFailureRestoresQueue() throws Exception {
+    buffer.add(doc(1));
+    buffer.deleteById("2");
+
+    solr.fail = true;
+
+    try {
+      buffer.commit();
+      fail("commit must fail");
+    } catch (IOException ex) {
+      // ожидаемо
+    }
+
+    assertEquals(2, buffer.getQueueDepth());
+    assertEquals(0, solr.commits);
+
+    solr.fail = false;
+
+    buffer.commit();
+
+    assertEquals(0, buffer.getQueueDepth());
+    assertEquals(1, solr.added);
+    assertEquals(1, solr.deleted);
+    assertEquals(1, solr.commits);
+  }
+
+  @Test
+  public void testEmptyCommit() throws Exception {
+    buffer.commit();
+
+    assertEquals(0, solr.requests.size());
+  }
+
+  private static SolrInputDocument doc(int id) {
+    SolrInputDocument doc = new SolrInputDocument();
+    doc.addField("id", id);
+    return doc;
+  }
+
+  private static class StubSolrServer extends SolrServer {
+    private static final long serialVersionUID = 7620539212784452081L;
+
+    private final List<SolrRequest> requests = new ArrayList<SolrRequest>();
+    private boolean fail = false;
+    private int added = 0;
+    private int deleted = 0;
+    private int commits = 0;
+
+    @Override
+    public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+      if (fail) {
+        throw new IOException("stub failure");
+      }
+
+      requests.add(request);
+
+      UpdateRequest update = (UpdateRequest) request;
+
+      if (update.getDocuments()!=null) {
+        added += update.getDocuments().size();
+      }
+
+      if (update.getDeleteById()!=null) {
+        deleted += update.getDeleteById().size();
+      }
+
+      if (update.getAction()==AbstractUpdateRequest.ACTION.COMMIT) {
+        commits++;
+      }
+
+      return new NamedList<Object>();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShowRepliesControllerTest {
+  @Test
+  public void testPageSize() {
+    assertEquals(2, ShowRepliesController.getPageSize(dates(5, 4), 3));
+    assertEquals(3, ShowRepliesController.getPageSize(dates(5, 4, 3, 2), 3));
+
+    // граница не разделяет события с одинаковым временем
+    assertEquals(2, ShowRepliesController.getPageSize(dates(5, 4, 3, 3), 3));
+    assertEquals(1, ShowRepliesController.getPageSize(dates(5, 3, 3, 3), 3));
+    assertEquals(3, ShowRepliesController.getPageSize(dates(3, 3, 3, 3), 3));
+  }
+
+  @Test
+  public void testMicros() {
+    Timestamp timestamp = Timestamp.valueOf("2010-11-05 12:34:56.123456");
+
+    long micros = ShowRepliesController.toMicros(timestamp);
+
+    assertEquals(123456, micros % 1000000);
+    assertEquals(timestamp, ShowRepliesController.toTimestamp(micros));
+  }
+
+  private static List<Timestamp> dates(long... values) {
+    List<Timestamp> list = new ArrayList<Timestamp>();
+
+    for (long value : values) {
+      list.add(new Timestamp(value * 1000));
+    }
+
+    return list;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Predicate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackerIndexTest {
+  private static final long HOUR = 60*60*1000L;
+  private static final long NOW = 1300000000000L;
+
+  @Test
+  public void testOrder() throws Exception {
+    TrackerIndex.Topics topics = new TrackerIndex.Topics();
+
+    topics.put(entry(1, 10, NOW - 3*HOUR, 100));
+    topics.put(entry(2, 11, NOW - HOUR, 101));
+    topics.put(entry(3, 12, NOW - 2*HOUR, 0));
+
+    assertEquals(ids(2, 3, 1), ids(topics.select(NOW - 24*HOUR, 0, 10, null)));
+    assertEquals(ids(3), ids(topics.select(NOW - 24*HOUR, 1, 1, null)));
+
+    // новый комментарий поднимает тему наверх
+    topics.replace(1, entry(1, 10, NOW, 102));
+
+    assertEquals(ids(1, 2, 3), ids(topics.select(NOW - 24*HOUR, 0, 10, null)));
+
+    // удаленная тема
+    topics.replace(2, null);
+
+    assertEquals(ids(1, 3), ids(topics.select(NOW - 24*HOUR, 0, 10, null)));
+    assertEquals(2, topics.size());
+  }
+
+  @Test
+  public void testWindow() throws Exception {
+    TrackerIndex.Topics topics = new TrackerIndex.Topics();
+
+    topics.put(entry(1, 10, NOW - 30*HOUR, 100));
+
+    // тема без комментариев попадает в трекер по дате создания
+    TrackerIndex.Entry uncommented = entry(2, 10, NOW - HOUR, 0, NOW - 30*HOUR);
+    topics.put(uncommented);
+
+    assertEquals(ids(), ids(topics.select(NOW - 24*HOUR, 0, 10, null)));
+    assertEquals(ids(2, 1), ids(topics.select(NOW - 48*HOUR, 0, 10, null)));
+
+    // строка с комментарием вытесняет строку без комментария, но не наоборот
+    topics.put(entry(2, 10, NOW - HOUR, 103));
+    topics.put(uncommented);
+
+    assertEquals(ids(2), ids(topics.select(NOW - 24*HOUR, 0, 10, null)));
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    TrackerIndex.Topics topics = new TrackerIndex.Topics();
+
+    for (int i=1; i<=20; i++) {
+      topics.put(entry(i, i % 3, NOW - i*HOUR, 0));
+    }
+
+    Predicate<TrackerIndex.Entry> notIgnored = new Predicate<TrackerIndex.Entry>() {
+      @Override
+      public boolean apply(TrackerIndex.Entry entry) {
+        return entry.getAuthorId()!=0;
+      }
+    };
+
+    assertEquals(ids(1, 2, 4, 5), ids(topics.select(NOW - 24*HOUR, 0, 4, notIgnored)));
+    assertEquals(ids(7, 8, 10, 11), ids(topics.select(NOW - 24*HOUR, 4, 4, notIgnored)));
+  }
+
+  private static TrackerIndex.Entry entry(int msgid, int author, long lastmod, int cid) throws Exception {
+    return entry(msgid, author, lastmod, cid, lastmod);
+  }
+
+  private static TrackerIndex.Entry entry(int msgid, int author, long lastmod, int cid, long postdate) throws Exception {
+    final Map<String, Object> row = new HashMap<String, Object>();
+
+    row.put("id", msgid);
+    row.put("author", author);
+    row.put("lastmod", new Timestamp(lastmod));
+    row.put("postdate", new Timestamp(postdate));
+    row.put("cid", cid);
+
+    ResultSet rs = (ResultSet) Proxy.newProxyInstance(TrackerIndexTest.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        Object value = row.get(args[0]);
+
+        if ("getInt".equals(method.getName())) {
+          return value!=null ? value : 0;
+        } else if ("getBoolean".equals(method.getName())) {
+          return false;
+        }
+
+        return value;
+      }
+    });
+
+    return new TrackerIndex.Entry(rs);
+  }
+
+  private static List<Integer> ids(int... ids) {
+    List<Integer> list = new ArrayList<Integer>();
+
+    for (int id : ids) {
+      list.add(id);
+    }
+
+    return list;
+  }
+
+  private static List<Integer> ids(List<TrackerIndex.Entry> entries) {
+    List<Integer> list = new ArrayList<Integer>();
+
+    for (TrackerIndex.Entry entry : entries) {
+      list.add(entry.getMsgid());
+    }
+
+    return list;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CoalescingCacheTest {
+  private static final int THREADS = 8;
+
+  @Test
+  public void testConcurrentMiss() throws Exception {
+    final CacheProvider cache = new MapCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CoalescingCache.Loader<String> loader = new CoalescingCache.Loader<String>() {
+      @Override
+      public String load() throws Exception {
+        loads.incrementAndGet();
+        release.await();
+        return "value";
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+
+      for (int i=0; i<THREADS; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return CoalescingCache.get(cache, "miss", 30000, loader);
+          }
+        }));
+      }
+
+      // ждем, пока все потоки встанут в очередь за загрузкой
+      CoalescingCache.Stats stats = null;
+
+      for (int i=0; i<1000 && (stats==null || stats.getWaits()<THREADS-1); i++) {
+        Thread.sleep(5);
+        stats = CoalescingCache.getStats().get("miss");
+      }
+
+      release.countDown();
+
+      for (Future<String> result : results) {
+        assertEquals("value", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(1, loads.get());
+
+    CoalescingCache.Stats stats = CoalescingCache.getStats().get("miss");
+
+    assertEquals(1, stats.getLoads());
+    assertEquals(THREADS-1, stats.getSuppressed());
+
+    // свежее значение берется из кеша без загрузки
+    assertEquals("value", CoalescingCache.get(cache, "miss", 30000, loader));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testStaleWhileRefresh() throws Exception {
+    final CacheProvider cache = new MapCache();
+
+    CoalescingCache.get(cache, "stale", 1, constant("old"));
+    Thread.sleep(10);
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      Future<String> refresh = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return CoalescingCache.get(cache, "stale", 30000, new CoalescingCache.Loader<String>() {
+            @Override
+            public String load() throws Exception {
+              started.countDown();
+              release.await();
+              return "new";
+            }
+          });
+        }
+      });
+
+      started.await();
+
+      // пока идет перезагрузка, отдается предыдущее значение
+      assertEquals("old", CoalescingCache.get(cache, "stale", 30000, constant("unexpected")));
+
+      release.countDown();
+
+      assertEquals("new", refresh.get());
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals("new", CoalescingCache.get(cache, "stale", 30000, constant("unexpected")));
+
+    CoalescingCache.Stats stats = CoalescingCache.getStats().get("stale");
+
+    assertEquals(2, stats.getLoads());
+    assertEquals(1, stats.getStaleHits());
+  }
+
+  @Test
+  public void testFailedRefresh() throws Exception {
+    CacheProvider cache = new MapCache();
+
+    CoalescingCache.Loader<String> failing = new CoalescingCache.Loader<String>() {
+      @Override
+      public String load() throws Exception {
+        throw new IllegalStateException("db is down");
+      }
+    };
+
+    try {
+      CoalescingCache.get(cache, "failed", 30000, failing);
+      fail();
+    } catch (IllegalStateException ex) {
+      // без предыдущего значения ошибка доходит до вызывающего
+    }
+
+    CoalescingCache.get(cache, "failed", 1, constant("old"));
+    Thread.sleep(10);
+
+    assertEquals("old", CoalescingCache.get(cache, "failed", 30000, failing));
+  }
+
+  private static CoalescingCache.Loader<String> constant(final String value) {
+    return new CoalescingCache.Loader<String>() {
+      @Override
+      public String load() {
+        return value;
+      }
+    };
+  }
+
+  private static class MapCache implements CacheProvider {
+    private final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+    @Override
+    public Object getFromCache(String key) {
+      return values.get(key);
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value, int expire) {
+      values.put(key, value);
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value) {
+      values.put(key, value);
+    }
+
+    @Override
+    public void removeFromCache(String key) {
+      values.remove(key);
+    }
+  }
+}
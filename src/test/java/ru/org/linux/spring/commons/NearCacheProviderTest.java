@@ -0,0 +1,136 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NearCacheProviderTest {
+  private RemoteCache remote;
+  private NearCacheProvider cache;
+
+  @Before
+  public void setUp() {
+    Ehcache local = CacheManager.create().getCache("NearCache");
+    local.removeAll();
+
+    remote = new RemoteCache();
+    cache = new NearCacheProvider(remote, local);
+  }
+
+  @Test
+  public void testHotKey() {
+    remote.values.put("commentList?msgid=1", "list");
+
+    for (int i=0; i<100; i++) {
+      assertEquals("list", cache.getFromCache("commentList?msgid=1"));
+    }
+
+    assertEquals(1, remote.gets);
+
+    NearCacheProvider.Stats stats = cache.getStats().get("commentList");
+
+    assertEquals(99, stats.getLocalHits());
+    assertEquals(1, stats.getRemoteHits());
+    assertEquals(0, stats.getMisses());
+  }
+
+  @Test
+  public void testStoreAndRemove() {
+    cache.storeToCache("poll", "first", 30000);
+
+    assertEquals("first", cache.getFromCache("poll"));
+    assertEquals(0, remote.gets);
+    assertEquals("first", remote.values.get("poll"));
+
+    cache.storeToCache("poll", "second");
+
+    assertEquals("second", cache.getFromCache("poll"));
+    assertEquals(0, remote.gets);
+
+    cache.removeFromCache("poll");
+
+    assertNull(cache.getFromCache("poll"));
+    assertEquals(1, remote.gets);
+    assertEquals(1, cache.getStats().get("poll").getMisses());
+  }
+
+  @Test
+  public void testRemoveDuringRemoteGet() {
+    remote.values.put("topic1", "old");
+
+    // значение, прочитанное из memcached до удаления, не должно остаться в локальном кеше
+    remote.onGet = new Runnable() {
+      @Override
+      public void run() {
+        remote.onGet = null;
+        cache.removeFromCache("topic1");
+      }
+    };
+
+    assertEquals("old", cache.getFromCache("topic1"));
+    assertNull(cache.getFromCache("topic1"));
+    assertEquals(2, remote.gets);
+  }
+
+  @Test
+  public void testPrefix() {
+    assertEquals("commentList", NearCacheProvider.getPrefix("commentList?msgid=123&showDeleted=false"));
+    assertEquals("ru.org.linux.spring.boxlets.PollBoxletImplvotes", NearCacheProvider.getPrefix("ru.org.linux.spring.boxlets.PollBoxletImplvotes42"));
+    assertEquals("view-news", NearCacheProvider.getPrefix("view-news?&tg=null&cm=0"));
+  }
+
+  private static class RemoteCache implements CacheProvider {
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private int gets = 0;
+    private Runnable onGet = null;
+
+    @Override
+    public Object getFromCache(String key) {
+      gets++;
+
+      Object value = values.get(key);
+
+      if (onGet!=null) {
+        onGet.run();
+      }
+
+      return value;
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value, int expire) {
+      values.put(key, value);
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value) {
+      values.put(key, value);
+    }
+
+    @Override
+    public void removeFromCache(String key) {
+      values.remove(key);
+    }
+  }
+}
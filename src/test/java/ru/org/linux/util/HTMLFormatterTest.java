@@ -485,4 +485,10 @@ TODO
   public void testEscapeEntity2() {
     assertEquals("&#41;&#41;&#41;", HTMLFormatter.htmlSpecialChars("&#41;&#41;&#41;"));
   }
+
+  @Test
+  public void testStripTags() {
+    assertEquals(" ставим  linux  &lt;b&gt; & co", HTMLFormatter.stripTags("<p>ставим <b>linux</b> &amp;lt;b&amp;gt; &amp; co"));
+    assertEquals("a < b", HTMLFormatter.stripTags("a&nbsp;&lt;&nbsp;b"));
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 1998-2010 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+public class IPPrefixTrieTest {
+  private IPPrefixTrie<String> trie;
+
+  @Before
+  public void setUp() {
+    trie = new IPPrefixTrie<String>();
+
+    trie.put(InetAddresses.forString("10.0.0.0"), 8, "10/8");
+    trie.put(InetAddresses.forString("10.1.0.0"), 16, "10.1/16");
+    trie.put(InetAddresses.forString("10.1.2.3"), 32, "10.1.2.3");
+    trie.put(InetAddresses.forString("2001:db8::"), 32, "2001:db8::/32");
+    trie.put(InetAddresses.forString("2001:db8::1"), 128, "2001:db8::1");
+  }
+
+  @Test
+  public void testHost() {
+    assertEquals(Arrays.asList("10/8", "10.1/16", "10.1.2.3"), trie.match(InetAddresses.forString("10.1.2.3")));
+  }
+
+  @Test
+  public void testNetwork() {
+    assertEquals(Arrays.asList("10/8", "10.1/16"), trie.match(InetAddresses.forString("10.1.200.1")));
+    assertEquals(Arrays.asList("10/8"), trie.match(InetAddresses.forString("10.2.0.1")));
+  }
+
+  @Test
+  public void testNoMatch() {
+    assertTrue(trie.match(InetAddresses.forString("192.168.0.1")).isEmpty());
+    assertTrue(trie.match(InetAddresses.forString("2001:db9::1")).isEmpty());
+  }
+
+  @Test
+  public void testIPv6() {
+    assertEquals(Arrays.asList("2001:db8::/32", "2001:db8::1"), trie.match(InetAddresses.forString("2001:db8::1")));
+    assertEquals(Arrays.asList("2001:db8::/32"), trie.match(InetAddresses.forString("2001:db8:ffff::2")));
+  }
+
+  @Test
+  public void testSeparateFamilies() {
+    // ::a01:203 имеет те же младшие биты, что и 10.1.2.3, но это другое семейство адресов
+    assertTrue(trie.match(InetAddresses.forString("::ffff:0:a01:203")).isEmpty());
+  }
+
+  @Test
+  public void testDefaultRoute() {
+    trie.put(InetAddresses.forString("0.0.0.0"), 0, "any");
+
+    assertEquals(Arrays.asList("any"), trie.match(InetAddresses.forString("192.168.0.1")));
+    assertEquals(5+1, trie.size());
+  }
+}
@@ -1,5 +1,5 @@
 <%@ page contentType="text/html; charset=utf-8"%>
-<%@ page import="ru.org.linux.site.Group,ru.org.linux.site.Template,ru.org.linux.site.User,ru.org.linux.spring.GroupController,ru.org.linux.util.BadImageException"   buffer="200kb"%>
+<%@ page import="ru.org.linux.site.Group,ru.org.linux.site.Template,ru.org.linux.site.User,ru.org.linux.util.BadImageException"   buffer="200kb"%>
 <%@ page import="ru.org.linux.util.DateUtil" %>
 <%@ page import="ru.org.linux.util.ImageInfo" %>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
@@ -27,6 +27,10 @@
 <%--@elvariable id="lastmod" type="java.lang.Boolean"--%>
 <%--@elvariable id="count" type="java.lang.Integer"--%>
 <%--@elvariable id="offset" type="java.lang.Integer"--%>
+<%--@elvariable id="after" type="java.lang.Integer"--%>
+<%--@elvariable id="before" type="java.lang.Integer"--%>
+<%--@elvariable id="prevBefore" type="java.lang.Integer"--%>
+<%--@elvariable id="nextAfter" type="java.lang.Integer"--%>
 <%--@elvariable id="showDeleted" type="java.lang.Boolean"--%>
 <%--@elvariable id="template" type="ru.org.linux.site.Template"--%>
 <%--@elvariable id="year" type="java.lang.Integer"--%>
@@ -48,20 +52,11 @@
     boolean showIgnored = (Boolean) request.getAttribute("showIgnored");
 
     boolean firstPage = (Boolean) request.getAttribute("firstPage");
-    int offset = (Integer) request.getAttribute("offset");
 
     Group group = (Group) request.getAttribute("group");
 
-    int count = (Integer) request.getAttribute("count");
-    int topics = tmpl.getProf().getTopics();
-    Integer year = (Integer) request.getAttribute("year");
     String url = (String) request.getAttribute("url");
 
-    int pages = count / topics;
-    if (count % topics != 0) {
-      count = (pages + 1) * topics;
-    }
-
     response.setDateHeader("Expires", System.currentTimeMillis() + 90 * 1000);
 %>
 <title>${group.sectionName} - ${group.title}
@@ -151,9 +146,15 @@
       <c:if test="${lastmod}">
         <input type=hidden name=lastmod value=true>
       </c:if>
-      <% if (!firstPage) { %>
+      <c:if test="${after!=null}">
+        <input type=hidden name=after value="${after}">
+      </c:if>
+      <c:if test="${before!=null}">
+        <input type=hidden name=before value="${before}">
+      </c:if>
+      <c:if test="${offset!=0}">
         <input type=hidden name=offset value="${offset}">
-      <% } %>
+      </c:if>
         <select name="showignored" onchange="submit();">
           <option value="t" <%= (showIgnored?"selected":"") %>>все темы</option>
           <option value="f" <%= (showIgnored?"":"selected") %>>без игнорируемых</option>
@@ -235,19 +236,20 @@
     urlAdd+="&amp;lastmod=true";
   }
 
-  if (offset - topics > 0) {
-    out.print("<a rel=prev rev=next href=\"" + url + "?offset=" + (offset - topics) + urlAdd + "\">← назад</a>");
-  } else if (offset - topics == 0) {
+  Integer prevBefore = (Integer) request.getAttribute("prevBefore");
+  Integer nextAfter = (Integer) request.getAttribute("nextAfter");
+
+  if (prevBefore != null) {
+    out.print("<a rel=prev rev=next href=\"" + url + "?before=" + prevBefore + urlAdd + "\">← назад</a>");
+  } else if (!firstPage) {
     out.print("<a rel=prev rev=next href=\"" + url + (urlAdd.length() > 0 ? ('?' + urlAdd.substring(5)) : "") + "\">← назад</a>");
   }
 %>
 </div>
 <div style="float: right">
   <%
-    if (offset + topics < count) {
-      if (year!=null || (offset+topics) < GroupController.MAX_OFFSET) {
-        out.print("<a rel=next rev=prev href=\"" + url + "?offset=" + (offset + topics) + urlAdd + "\">вперед →</a>");
-      }
+    if (nextAfter != null) {
+      out.print("<a rel=next rev=prev href=\"" + url + "?after=" + nextAfter + urlAdd + "\">вперед →</a>");
     }
   %>
 </div>
@@ -1,6 +1,5 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <%@ page contentType="text/html; charset=utf-8"%>
-<%@ page import="ru.org.linux.site.IPBlockInfo" %>
 <%@ taglib tagdir="/WEB-INF/tags" prefix="lor" %>
 <%--
   ~ Copyright 1998-2010 Linux.org.ru
@@ -17,10 +16,12 @@
   ~    limitations under the License.
   --%>
 <%--@elvariable id="blockInfo" type="ru.org.linux.site.IPBlockInfo"--%>
+<%--@elvariable id="blockModerator" type="ru.org.linux.site.User"--%>
 <%--@elvariable id="topics" type="java.util.List<ru.org.linux.spring.SameIPController.TopicItem>"--%>
 <%--@elvariable id="comments" type="java.util.List<ru.org.linux.spring.SameIPController.TopicItem>"--%>
 <%--@elvariable id="users" type="java.util.List<ru.org.linux.spring.SameIPController.UserItem>"--%>
 <%--@elvariable id="ip" type="java.lang.String"--%>
+<%--@elvariable id="dnsblZone" type="java.lang.String"--%>
 <jsp:include page="/WEB-INF/jsp/head.jsp"/>
 
 <title>Поиск писем с IP-адреса</title>
@@ -52,11 +53,9 @@
 
 <strong>Текущий статус: </strong>
 
-<%
-  if (IPBlockInfo.getTor(ip)) {
-    out.print("адрес заблокирован: tor.ahbl.org; база: ");
-  }
-%>
+<c:if test="${dnsblZone != null}">
+  адрес заблокирован: ${dnsblZone}; база:
+</c:if>
 
 <c:if test="${blockInfo == null}">
   адрес не заблокирован
@@ -75,15 +74,17 @@
   </c:if>
 
   <br>
+  <strong>Блокировка: </strong>${blockInfo.network}<br>
   <strong>Причина блокировки: </strong><c:out value="${blockInfo.reason}" escapeXml="true"/><br>
   <strong>Дата блокировки: </strong><lor:date date="${blockInfo.originalDate}"/><br>
-  <strong>Адрес блокирован: </strong>${blockInfo.moderator.nick}
+  <strong>Адрес блокирован: </strong>${blockModerator.nick}
 </c:if>
 
 <p>
 
 <form method="post" action="banip.jsp">
 <input type="hidden" name="ip" value="<%= ip %>">
+маска сети (пусто - только этот адрес): <input type="text" name="mask" size="3" value=""><br>
 забанить/разбанить IP по причине: <br>
 <input type="text" name="reason" maxlength="254" size="40" value=""><br>
 <select name="time" onchange="checkCustomBan(this.selectedIndex);">
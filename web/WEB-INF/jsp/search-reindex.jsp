@@ -23,8 +23,12 @@
   <select name="action">
     <option value="all">all</option>
     <option value="current">current</option>
+    <option value="rebuild">rebuild</option>
+    <option value="stop">stop rebuild</option>
   </select>
   <input type="submit"> 
 </form>
 
+<p>Rebuild: <c:out value="${rebuildStatus}"/></p>
+
 <jsp:include page="/WEB-INF/jsp/footer.jsp"/>
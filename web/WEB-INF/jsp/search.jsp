@@ -21,7 +21,8 @@
 <%--@elvariable id="query" type="ru.org.linux.spring.SearchRequest"--%>
 <%--@elvariable id="template" type="ru.org.linux.site.Template"--%>
 <%--@elvariable id="time" type="java.lang.Long"--%>
-<%--@elvariable id="searchTime" type="java.lang.Long"--%>
+<%--@elvariable id="searchTime" type="java.lang.Integer"--%>
+<%--@elvariable id="assemblyTime" type="java.lang.Long"--%>
 <%--@elvariable id="numFound" type="java.lang.Long"--%>
 <%--@elvariable id="sorts" type="java.util.Map<SearchViewer.SearchOrder, String>"--%>
 <%--@elvariable id="intervals" type="java.util.Map<SearchViewer.SearchInterval, String>"--%>
@@ -123,7 +124,7 @@
 
   <p>
     <i>
-      Общее время запроса ${time} ms (время поиска: ${searchTime} ms)
+      Общее время запроса ${time} ms (время поиска: ${searchTime} ms, сборка результатов: ${assemblyTime} ms)
     </i>
   </p>
 </c:if>
@@ -63,7 +63,8 @@
     <li>
       <a class="navLink" href="${group.url}">${group.title}</a>
 
-      (${group.stat1}/${group.stat2}/${group.stat3})
+      <c:set var="stats" value="${groupStats[group.id]}"/>
+      (${stats.stat1}/${stats.stat2}/${stats.stat3})
 
       <c:if test="${group.info != null}">
         - <em><c:out value="${group.info}" escapeXml="false"/></em>
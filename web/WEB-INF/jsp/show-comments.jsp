@@ -20,16 +20,13 @@
 <%--@elvariable id="firstPage" type="Boolean"--%>
 <%--@elvariable id="user" type="ru.org.linux.site.User"--%>
 <%--@elvariable id="topics" type="Integer"--%>
-<%--@elvariable id="offset" type="Integer"--%>
+<%--@elvariable id="prevBefore" type="Integer"--%>
+<%--@elvariable id="nextAfter" type="Integer"--%>
 <%--@elvariable id="list" type="java.util.List<ru.org.linux.spring.ShowCommentsController.CommentsListItem>"--%>
 <%--@elvariable id="deletedList" type="java.util.List<ru.org.linux.spring.ShowCommentsController.DeletedListItem>"--%>
 
 <jsp:include page="/WEB-INF/jsp/head.jsp"/>
 
-<%
-  int offset = (Integer) request.getAttribute("offset");
-  int topics = (Integer) request.getAttribute("topics");
-%>
 <title>Комментарии пользователя ${user.nick}</title>
 <jsp:include page="/WEB-INF/jsp/header.jsp"/>
 <h1>Комментарии пользователя ${user.nick}</h1>
@@ -40,12 +37,17 @@
 <tr><th colspan=5>
 <div style="float: left">
 <c:if test="${not firstPage}">
-  <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}&amp;offset=<%= offset - topics %>">← назад</a>
-</c:if>  
+  <c:if test="${prevBefore!=null}">
+    <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}&amp;before=${prevBefore}">← назад</a>
+  </c:if>
+  <c:if test="${prevBefore==null}">
+    <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}">← назад</a>
+  </c:if>
+</c:if>
 </div>
 <div style="float: right">
-<c:if test="${fn:length(list)==topics}">
-  <a rel=next rev=prev href="show-comments.jsp?nick=${user.nick}&amp;offset=<%= offset + topics %>">вперед →</a>
+<c:if test="${nextAfter!=null}">
+  <a rel=next rev=prev href="show-comments.jsp?nick=${user.nick}&amp;after=${nextAfter}">вперед →</a>
 </c:if>
 </div>
 </th></tr>
@@ -65,12 +67,17 @@
   <tr><td colspan=5><p>
 <div style="float: left">
 <c:if test="${not firstPage}">
-  <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}&amp;offset=<%= offset - topics %>">← назад</a>
-</c:if>  
+  <c:if test="${prevBefore!=null}">
+    <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}&amp;before=${prevBefore}">← назад</a>
+  </c:if>
+  <c:if test="${prevBefore==null}">
+    <a rel=prev rev=next href="show-comments.jsp?nick=${user.nick}">← назад</a>
+  </c:if>
+</c:if>
 </div>
 <div style="float: right">
-  <c:if test="${fn:length(list)==topics}">
-    <a rel=next rev=prev href="show-comments.jsp?nick=${user.nick}&amp;offset=<%= offset + topics %>">вперед →</a>
+  <c:if test="${nextAfter!=null}">
+    <a rel=next rev=prev href="show-comments.jsp?nick=${user.nick}&amp;after=${nextAfter}">вперед →</a>
   </c:if>
 </div>
   </td></tr>
@@ -19,7 +19,8 @@
 <%--@elvariable id="topicsList" type="java.util.List<ru.org.linux.spring.ShowRepliesController.MyTopicsListItem>"--%>
 <%--@elvariable id="firstPage" type="Boolean"--%>
 <%--@elvariable id="nick" type="String"--%>
-<%--@elvariable id="hasMore" type="String"--%>
+<%--@elvariable id="prevBefore" type="Long"--%>
+<%--@elvariable id="nextAfter" type="Long"--%>
 <%--@elvariable id="unreadCount" type="Integer"--%>
 <%--@elvariable id="enableReset" type="Boolean"--%>
 <%--@elvariable id="forceReset" type="Boolean"--%>
@@ -73,19 +74,20 @@
   </div>
 </c:if>
 
-<%
-  int offset = (Integer) request.getAttribute("offset");
-  int topics = (Integer) request.getAttribute("topics");
-%>
 <div style="float: left">
 <c:if test="${not firstPage}">
-  <a rel=prev rev=next href="show-replies.jsp?nick=${nick}&amp;offset=<%= offset - topics %>">← назад</a>
+  <c:if test="${prevBefore!=null}">
+    <a rel=prev rev=next href="show-replies.jsp?nick=${nick}&amp;before=${prevBefore}">← назад</a>
+  </c:if>
+  <c:if test="${prevBefore==null}">
+    <a rel=prev rev=next href="show-replies.jsp?nick=${nick}">← назад</a>
+  </c:if>
 </c:if>
 </div>
 
 <div style="float: right">
-<c:if test="${hasMore}">
-  <a rel=next rev=prev href="show-replies.jsp?nick=${nick}&amp;offset=<%= offset + topics %>">вперед →</a>
+<c:if test="${nextAfter!=null}">
+  <a rel=next rev=prev href="show-replies.jsp?nick=${nick}&amp;after=${nextAfter}">вперед →</a>
 </c:if>
 </div>
 
@@ -137,13 +139,18 @@
 <p></p>
 <div style="float: left">
 <c:if test="${not firstPage}">
-  <a rel=prev rev=next href="show-replies.jsp?nick=${nick}&amp;offset=<%= offset - topics %>">← назад</a>
+  <c:if test="${prevBefore!=null}">
+    <a rel=prev rev=next href="show-replies.jsp?nick=${nick}&amp;before=${prevBefore}">← назад</a>
+  </c:if>
+  <c:if test="${prevBefore==null}">
+    <a rel=prev rev=next href="show-replies.jsp?nick=${nick}">← назад</a>
+  </c:if>
 </c:if>
 </div>
 
 <div style="float: right">
-<c:if test="${hasMore}">
-  <a rel=next rev=prev href="show-replies.jsp?nick=${nick}&amp;offset=<%= offset + topics %>">вперед →</a>
+<c:if test="${nextAfter!=null}">
+  <a rel=next rev=prev href="show-replies.jsp?nick=${nick}&amp;after=${nextAfter}">вперед →</a>
 </c:if>
 </div>
 